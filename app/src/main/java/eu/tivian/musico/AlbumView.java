@@ -368,6 +368,8 @@ public class AlbumView extends AppCompatActivity {
         if (this.album != null)
             album.tracks = new ArrayList<>(this.album.tracks);
 
+        if (this.album != null)
+            album.purchase.id = this.album.purchase.id;
         album.purchase.store = store.getText().toString().trim();
         album.purchase.date = Utilities.parseDate(date.getText().toString(), DATE_FORMAT);
 
@@ -630,7 +632,7 @@ public class AlbumView extends AppCompatActivity {
                 setData(null, false);
                 return true;
             case R.id.button_album_parse:
-                Discogs.get().getAlbum(Discogs.Query.from(getAlbum()), this::setData);
+                Discogs.get().getAlbum(Discogs.Query.from(getAlbum()), this::setData).bindTo(this);
                 return true;
             case R.id.button_album_ok:
                 if (validate()) {
@@ -23,10 +23,18 @@ import com.google.android.material.tabs.TabLayoutMediator;
 import com.google.zxing.integration.android.IntentIntegrator;
 import com.google.zxing.integration.android.IntentResult;
 
+import java.io.File;
+import java.util.ArrayList;
+
 import eu.tivian.musico.data.Album;
 import eu.tivian.musico.database.DatabaseAdapter;
+import eu.tivian.musico.database.StorageMaintenance;
 import eu.tivian.musico.net.Discogs;
+import eu.tivian.musico.net.HttpCache;
+import eu.tivian.musico.ui.BatchReviewDialogFragment;
 import eu.tivian.musico.ui.CustomScannerActivity;
+import eu.tivian.musico.ui.DuplicatesDialogFragment;
+import eu.tivian.musico.ui.FilterDialogFragment;
 import eu.tivian.musico.ui.ScreenSlidePagerAdapter;
 import eu.tivian.musico.utility.Utilities;
 
@@ -39,6 +47,11 @@ public class MainActivity extends AppCompatActivity {
      */
     private static final int CONTEXT_MENU_TAG = 0x3141;
 
+    /**
+     * The name of the directory in the application's cache, in which the responses of the services are cached.
+     */
+    private static final String HTTP_CACHE_DIR = "http";
+
     /**
      * The database adapter.
      */
@@ -127,8 +140,10 @@ public class MainActivity extends AppCompatActivity {
         fabManual = findViewById(R.id.fab_manual);
         greyout = findViewById(R.id.view_grayout);
 
+        HttpCache.install(new File(getCacheDir(), HTTP_CACHE_DIR), HttpCache.DEFAULT_MAX_SIZE);
         databaseAdapter = DatabaseAdapter.init(getApplicationContext());
         databaseAdapter.updateRates();
+        StorageMaintenance.schedule(getApplicationContext());
 
         viewModel = new ViewModelProvider(this).get(SharedViewModel.class);
         viewModel.getFabAlpha().observe(this, alpha -> {
@@ -171,6 +186,12 @@ public class MainActivity extends AppCompatActivity {
                 .setBeepEnabled(false)
                 .initiateScan();
         });
+        fabCamera.setOnLongClickListener(v -> {
+            fab.callOnClick();
+            startActivityForResult(new Intent(this, CustomScannerActivity.class)
+                .putExtra(CustomScannerActivity.BATCH_KEY, true), CustomScannerActivity.REQUEST_CODE);
+            return true;
+        });
 
         fabManual.setOnClickListener(v -> {
             fab.callOnClick();
@@ -207,7 +228,8 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Sets the ordering of the album list according to the chosen option.
+     * Sets the ordering of the album list according to the chosen option
+     *  or opens the filter of the album list or the list of duplicates.
      *
      * @param item the context menu item that was selected. This value cannot be null.
      * @return return false to allow normal context menu processing to proceed, true to consume it here.
@@ -238,14 +260,20 @@ public class MainActivity extends AppCompatActivity {
                 viewModel.setCursor(databaseAdapter.getCursor(
                         DatabaseAdapter.Sort.PRICE, DatabaseAdapter.Sort.DATE));
                 return true;
+            case R.id.menu_filter:
+                new FilterDialogFragment().show(getSupportFragmentManager(), null);
+                return true;
+            case R.id.menu_duplicates:
+                new DuplicatesDialogFragment().show(getSupportFragmentManager(), null);
+                return true;
             default:
                 return super.onContextItemSelected(item);
         }
     }
 
     /**
-     * Based on the {@code requestCode} it either opens the album editor or
-     *  adds the new album into the database.
+     * Based on the {@code requestCode} it either opens the album editor, shows the albums found
+     *  by the batch scanning or adds the new album into the database.
      *
      * @param requestCode the integer request code originally supplied to
      *        {@link #startActivityForResult(Intent, int)} allowing to identify the caller.
@@ -254,6 +282,16 @@ public class MainActivity extends AppCompatActivity {
      */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == CustomScannerActivity.REQUEST_CODE) {
+            ArrayList<Album> albums = data == null ? null
+                : data.getParcelableArrayListExtra(CustomScannerActivity.ALBUMS_KEY);
+            if (resultCode == RESULT_OK && albums != null)
+                BatchReviewDialogFragment.newInstance(albums).show(getSupportFragmentManager(), null);
+            else
+                Toast.makeText(this, getText(R.string.scan_cancel), Toast.LENGTH_LONG).show();
+            return;
+        }
+
         IntentResult result = IntentIntegrator.parseActivityResult(requestCode, resultCode, data);
 
         if (result != null) {
@@ -266,13 +304,13 @@ public class MainActivity extends AppCompatActivity {
                                     .putExtra(AlbumView.ALBUM_KEY, album)
                                     .putExtra(AlbumView.MODE_KEY, AlbumView.MODE_ADD),
                                 AlbumView.REQUEST_CODE),
-                        ex -> Toast.makeText(this, getText(R.string.scan_error), Toast.LENGTH_LONG).show());
+                        ex -> Toast.makeText(this, getText(R.string.scan_error), Toast.LENGTH_LONG).show())
+                    .bindTo(this);
             }
         } else if (data != null && requestCode == AlbumView.REQUEST_CODE) {
             Album album = data.getParcelableExtra(AlbumView.ALBUM_KEY);
             if (album != null) { // adds the album
                 databaseAdapter.add(album);
-                viewModel.setCursor(databaseAdapter.getCursor(true));
                 Toast.makeText(this, R.string.msg_album_add, Toast.LENGTH_LONG).show();
             }
         } else {
@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import eu.tivian.musico.database.AlbumCursor;
+import eu.tivian.musico.database.AlbumQuery;
 import eu.tivian.musico.database.DatabaseAdapter;
 import eu.tivian.musico.utility.Utilities;
 
@@ -34,6 +35,11 @@ public class SharedViewModel extends ViewModel {
      */
     private MutableLiveData<AlbumCursor> cursor;
 
+    /**
+     * The filter of the album list.
+     */
+    private MutableLiveData<AlbumQuery> filter;
+
     /**
      * An alpha value of the {@link FloatingActionButton} on the album list screen.
      */
@@ -66,6 +72,30 @@ public class SharedViewModel extends ViewModel {
         return cursor;
     }
 
+    /**
+     * Sets the filter of the album list and reloads the list, keeping the current ordering.
+     *
+     * @param query the filter or {@code null} to list every album.
+     */
+    public void setFilter(AlbumQuery query) {
+        DatabaseAdapter adapter = DatabaseAdapter.get();
+        adapter.setFilter(query);
+        getFilter();
+        filter.setValue(adapter.getFilter());
+        setCursor(adapter.getCursor(true));
+    }
+
+    /**
+     * Gets the filter of the album list.
+     *
+     * @return the filter, the value is {@code null} if every album is listed.
+     */
+    public LiveData<AlbumQuery> getFilter() {
+        if (filter == null)
+            filter = new MutableLiveData<>(DatabaseAdapter.get().getFilter());
+        return filter;
+    }
+
     /**
      * Saves the Last.fm username into settings.
      *
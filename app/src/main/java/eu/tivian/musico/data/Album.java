@@ -70,6 +70,11 @@ public class Album implements Parcelable {
      * Class describing the purchase of the album.
      */
     public static class Purchase {
+        /**
+         * ID of the purchase in the database, or -1 if it isn't saved yet.
+         */
+        public long id;
+
         /**
          * A date of the purchase.
          */
@@ -93,7 +98,9 @@ public class Album implements Parcelable {
         /**
          * Private constructor, so only outer class can instantiate the {@link Purchase} object.
          */
-        private Purchase() {}
+        private Purchase() {
+            id = -1;
+        }
     }
 
     /**
@@ -151,6 +158,7 @@ public class Album implements Parcelable {
             cover = new byte[size];
             in.readByteArray(cover);
         }
+        purchase.id = in.readLong();
         purchase.date = (Date) in.readSerializable();
         purchase.store = in.readString();
         purchase.price = in.readDouble();
@@ -188,6 +196,7 @@ public class Album implements Parcelable {
         dest.writeInt(cover == null ? 0 : cover.length);
         if (cover != null)
             dest.writeByteArray(cover);
+        dest.writeLong(purchase.id);
         dest.writeSerializable(purchase.date);
         dest.writeString(purchase.store);
         dest.writeDouble(purchase.price);
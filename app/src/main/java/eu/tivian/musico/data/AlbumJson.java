@@ -0,0 +1,273 @@
+package eu.tivian.musico.data;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Converts the {@link Album} objects from and into the JSON format, using the streaming API.
+ * <br>
+ * The cover art isn't handled by this class, because its representation depends on the use case.
+ */
+public final class AlbumJson {
+    /**
+     * The name of the field for the artist.
+     */
+    public static final String ARTIST = "artist";
+
+    /**
+     * The name of the field for the title.
+     */
+    public static final String TITLE = "title";
+
+    /**
+     * The name of the field for the year of the release.
+     */
+    public static final String YEAR = "year";
+
+    /**
+     * The name of the field for the genre.
+     */
+    public static final String GENRE = "genre";
+
+    /**
+     * The name of the field for the URL of the cover art.
+     */
+    public static final String COVER_URL = "cover_url";
+
+    /**
+     * The name of the field for the track list.
+     */
+    public static final String TRACKS = "tracks";
+
+    /**
+     * The name of the field for the duration of the track.
+     */
+    public static final String DURATION = "duration";
+
+    /**
+     * The name of the field for the purchase.
+     */
+    public static final String PURCHASE = "purchase";
+
+    /**
+     * The name of the field for the date of the purchase, in milliseconds since the epoch.
+     */
+    public static final String DATE = "date";
+
+    /**
+     * The name of the field for the store.
+     */
+    public static final String STORE = "store";
+
+    /**
+     * The name of the field for the price.
+     */
+    public static final String PRICE = "price";
+
+    /**
+     * The name of the field for the currency.
+     */
+    public static final String CURRENCY = "currency";
+
+    /**
+     * Private constructor to prevent instantiating the utility class.
+     */
+    private AlbumJson() {}
+
+    /**
+     * Writes the fields of the album into the currently open JSON object.
+     *
+     * @param writer JSON writer.
+     * @param album the album to be written.
+     * @throws IOException if any I/O error occurred.
+     */
+    public static void writeFields(JsonWriter writer, Album album) throws IOException {
+        writer.name(ARTIST).value(album.artist);
+        writer.name(TITLE).value(album.title);
+        writer.name(YEAR).value(album.year);
+        writer.name(GENRE).value(album.genre);
+        if (album.coverUrl != null)
+            writer.name(COVER_URL).value(album.coverUrl);
+
+        writer.name(TRACKS).beginArray();
+        for (Song song : album.tracks) {
+            writer.beginObject();
+            writer.name(TITLE).value(song.title);
+            writer.name(DURATION).value(toString(song.duration));
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.name(PURCHASE).beginObject();
+        if (album.purchase.date != null)
+            writer.name(DATE).value(album.purchase.date.getTime());
+        writer.name(STORE).value(album.purchase.store);
+        writer.name(PRICE).value(album.purchase.price);
+        writer.name(CURRENCY).value(album.purchase.currency);
+        writer.endObject();
+    }
+
+    /**
+     * Reads the value of the album field, if the field is known.
+     *
+     * @param reader JSON reader positioned at the value of the field.
+     * @param name the name of the field.
+     * @param album the album into which the value is read.
+     * @return {@code true} if the field was read, {@code false} if the field is unknown
+     *         and its value is still waiting to be consumed.
+     * @throws IOException if any I/O error occurred.
+     */
+    public static boolean readField(JsonReader reader, String name, Album album) throws IOException {
+        switch (name) {
+            case ARTIST:
+                album.artist = nextString(reader);
+                return true;
+            case TITLE:
+                album.title = nextString(reader);
+                return true;
+            case YEAR:
+                album.year = reader.nextInt();
+                return true;
+            case GENRE:
+                album.genre = nextString(reader);
+                return true;
+            case COVER_URL:
+                album.coverUrl = nextString(reader);
+                return true;
+            case TRACKS:
+                reader.beginArray();
+                while (reader.hasNext())
+                    album.tracks.add(readSong(reader));
+                reader.endArray();
+                return true;
+            case PURCHASE:
+                readPurchase(reader, album.purchase);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads a whole album object, skipping the unknown fields.
+     *
+     * @param reader JSON reader positioned at the beginning of the object.
+     * @return the album.
+     * @throws IOException if any I/O error occurred.
+     */
+    public static Album read(JsonReader reader) throws IOException {
+        Album album = new Album();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!readField(reader, reader.nextName(), album))
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return album;
+    }
+
+    /**
+     * Writes a whole album object.
+     *
+     * @param writer JSON writer.
+     * @param album the album to be written.
+     * @throws IOException if any I/O error occurred.
+     */
+    public static void write(JsonWriter writer, Album album) throws IOException {
+        writer.beginObject();
+        writeFields(writer, album);
+        writer.endObject();
+    }
+
+    /**
+     * Reads the single song.
+     *
+     * @param reader JSON reader.
+     * @return the song.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static Song readSong(JsonReader reader) throws IOException {
+        Song song = new Song();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TITLE:
+                    song.title = nextString(reader);
+                    break;
+                case DURATION:
+                    String duration = nextString(reader);
+                    if (duration != null)
+                        song.duration = Duration.from(duration);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return song;
+    }
+
+    /**
+     * Reads the purchase.
+     *
+     * @param reader JSON reader.
+     * @param purchase the purchase into which the values are read.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static void readPurchase(JsonReader reader, Album.Purchase purchase) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case DATE:
+                    purchase.date = new Date(reader.nextLong());
+                    break;
+                case STORE:
+                    purchase.store = nextString(reader);
+                    break;
+                case PRICE:
+                    purchase.price = reader.nextDouble();
+                    break;
+                case CURRENCY:
+                    purchase.currency = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Converts the duration into its exported form, without the padding.
+     *
+     * @param duration the duration, may be {@code null}.
+     * @return the duration in a "m:ss" format or an empty string.
+     */
+    public static String toString(Duration duration) {
+        return duration == null ? "" : duration.toString().trim();
+    }
+
+    /**
+     * Reads the string value, which may be {@code null}.
+     *
+     * @param reader JSON reader.
+     * @return the string value or {@code null}.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        return reader.nextString();
+    }
+}
@@ -41,6 +41,27 @@ public class AlbumCursor extends CursorWrapper {
         this.tracks = tracks;
     }
 
+    /**
+     * Gets the {@link Album#id} of the album at the current position of the cursor.
+     *
+     * @return the ID of the album.
+     */
+    public long getAlbumId() {
+        return getWrappedCursor().getLong(0);
+    }
+
+    /**
+     * Gets the ID of the row at the current position of the cursor.
+     * <br>
+     * The album is listed once for each of its purchases, so unlike the {@link #getAlbumId()}
+     *  the ID is unique within the cursor.
+     *
+     * @return the ID of the purchase.
+     */
+    public long getRowId() {
+        return getWrappedCursor().getLong(10);
+    }
+
     /**
      * Gets the album at the current position of the cursor.
      *
@@ -58,6 +79,7 @@ public class AlbumCursor extends CursorWrapper {
         album.year = c.getInt(3);
         album.genre = c.getString(4);
         album.cover = c.getBlob(5);
+        album.purchase.id = c.getLong(10);
         album.purchase.date = new Date(c.getLong(6));
         album.purchase.store = c.getString(7);
         album.purchase.price = c.getDouble(8);
@@ -123,6 +145,6 @@ public class AlbumCursor extends CursorWrapper {
         if (out == null)
             out = getWrappedCursor().getString(column);
 
-        return trim ? "" + out.charAt(0) : out;
+        return trim ? "" + SortKeys.strip(out).charAt(0) : out;
     }
 }
@@ -0,0 +1,201 @@
+package eu.tivian.musico.database;
+
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import eu.tivian.musico.utility.Utilities;
+
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
+import static eu.tivian.musico.database.DatabaseContract.CurrencyEntry;
+import static eu.tivian.musico.database.DatabaseContract.GenreEntry;
+import static eu.tivian.musico.database.DatabaseContract.PurchaseEntry;
+import static eu.tivian.musico.database.DatabaseContract.StoreEntry;
+
+/**
+ * Describes the filter of the album list. Every field which isn't {@code null} narrows the list down.
+ * <br>
+ * The names are compared by their normalized search keys, ignoring the case and diacritics,
+ *  and resolved into IDs by the indexes of the dimension tables,
+ *  so every condition can be answered by the index of the filtered column.
+ */
+public class AlbumQuery {
+    /**
+     * Free text searched in the artist, title, genre and song titles, tolerating misspellings.
+     * The matching albums are listed from the most similar one.
+     *
+     * @see SearchIndex
+     */
+    public String text;
+
+    /**
+     * Name of the artist.
+     */
+    public String artist;
+
+    /**
+     * Musical genre.
+     */
+    public String genre;
+
+    /**
+     * Name of the store where the album was bought.
+     */
+    public String store;
+
+    /**
+     * ISO 4217 code of the currency used in the purchase.
+     */
+    public String currency;
+
+    /**
+     * The lowest year of the release, inclusive.
+     */
+    public Integer yearFrom;
+
+    /**
+     * The highest year of the release, inclusive.
+     */
+    public Integer yearTo;
+
+    /**
+     * The lowest price, inclusive.
+     */
+    public Double priceFrom;
+
+    /**
+     * The highest price, inclusive.
+     */
+    public Double priceTo;
+
+    /**
+     * The earliest date of the purchase, inclusive.
+     */
+    public Date dateFrom;
+
+    /**
+     * The latest date of the purchase, inclusive.
+     */
+    public Date dateTo;
+
+    /**
+     * Checks whether the query doesn't narrow the list at all.
+     *
+     * @return {@code true} if no condition is set.
+     */
+    public boolean isEmpty() {
+        return TextUtils.isEmpty(text)
+            && TextUtils.isEmpty(artist) && TextUtils.isEmpty(genre)
+            && TextUtils.isEmpty(store) && TextUtils.isEmpty(currency)
+            && yearFrom == null && yearTo == null
+            && priceFrom == null && priceTo == null
+            && dateFrom == null && dateTo == null;
+    }
+
+    /**
+     * Creates the copy of this query.
+     *
+     * @return the copy of this query.
+     */
+    public AlbumQuery copy() {
+        AlbumQuery query = new AlbumQuery();
+        query.text = text;
+        query.artist = artist;
+        query.genre = genre;
+        query.store = store;
+        query.currency = currency;
+        query.yearFrom = yearFrom;
+        query.yearTo = yearTo;
+        query.priceFrom = priceFrom;
+        query.priceTo = priceTo;
+        query.dateFrom = dateFrom;
+        query.dateTo = dateTo;
+        return query;
+    }
+
+    /**
+     * Appends the conditions of this query to the WHERE clause of the {@link DatabaseContract#SQL_LIST_ALL}.
+     *
+     * @param sql the SQL statement, every condition is prefixed by {@code AND}.
+     * @param args the list into which the parameters of the conditions are added.
+     */
+    void appendTo(StringBuilder sql, List<String> args) {
+        Set<String> trigrams = SearchIndex.trigrams(text);
+        if (!trigrams.isEmpty())
+            sql.append(" AND ").append(SearchIndex.getSelection(trigrams));
+
+        appendName(sql, args, AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_ARTIST_ID,
+                ArtistEntry.TABLE_NAME, ArtistEntry.COLUMN_KEY, Utilities.normalize(artist));
+        appendName(sql, args, AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_GENRE_ID,
+                GenreEntry.TABLE_NAME, GenreEntry.COLUMN_KEY, Utilities.normalize(genre));
+        appendName(sql, args, PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_STORE_ID,
+                StoreEntry.TABLE_NAME, StoreEntry.COLUMN_KEY, Utilities.normalize(store));
+        appendName(sql, args, PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_CURRENCY_ID,
+                CurrencyEntry.TABLE_NAME, CurrencyEntry.COLUMN_NAME, currency);
+
+        appendRange(sql, args, AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_YEAR, yearFrom, yearTo);
+        appendRange(sql, args, PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_PRICE, priceFrom, priceTo);
+        appendRange(sql, args, PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_DATE,
+                dateFrom == null ? null : dateFrom.getTime(),
+                dateTo == null ? null : dateTo.getTime());
+    }
+
+    /**
+     * Gets the ordering of the albums by their similarity to the {@link #text}.
+     *
+     * @return the ORDER BY term or {@code null} if the text isn't searched.
+     */
+    String getRank() {
+        Set<String> trigrams = SearchIndex.trigrams(text);
+        return trigrams.isEmpty() ? null : SearchIndex.getScore(trigrams) + " DESC";
+    }
+
+    /**
+     * Appends the condition matching the name from the dimension table.
+     *
+     * @param sql the SQL statement.
+     * @param args the parameters of the statement.
+     * @param column the column referencing the dimension table.
+     * @param table the dimension table.
+     * @param nameColumn the column of the {@code table} with the name or its normalized search key.
+     * @param value the name or {@code null} if the condition isn't set.
+     */
+    private static void appendName(StringBuilder sql, List<String> args, String column,
+                                   String table, String nameColumn, String value) {
+        if (TextUtils.isEmpty(value))
+            return;
+
+        // several names can share the same search key
+        sql.append(" AND ").append(column).append(" IN (SELECT ").append(BaseColumns._ID)
+           .append(" FROM ").append(table).append(" WHERE ").append(nameColumn).append(" = ?)");
+        args.add(value);
+    }
+
+    /**
+     * Appends the condition matching the range of the values.
+     *
+     * @param sql the SQL statement.
+     * @param args the parameters of the statement.
+     * @param column the filtered column.
+     * @param from the lowest value, inclusive, or {@code null} if unbounded.
+     * @param to the highest value, inclusive, or {@code null} if unbounded.
+     */
+    private static void appendRange(StringBuilder sql, List<String> args, String column,
+                                    Number from, Number to) {
+        if (from != null && to != null) {
+            sql.append(" AND ").append(column).append(" BETWEEN ? AND ?");
+            args.add(from.toString());
+            args.add(to.toString());
+        } else if (from != null) {
+            sql.append(" AND ").append(column).append(" >= ?");
+            args.add(from.toString());
+        } else if (to != null) {
+            sql.append(" AND ").append(column).append(" <= ?");
+            args.add(to.toString());
+        }
+    }
+}
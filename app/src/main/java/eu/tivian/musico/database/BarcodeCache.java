@@ -0,0 +1,105 @@
+package eu.tivian.musico.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.data.AlbumJson;
+import eu.tivian.musico.utility.Utilities;
+
+import static eu.tivian.musico.database.DatabaseContract.BarcodeEntry;
+
+/**
+ * Persistent cache of the albums found on the Discogs by their barcodes,
+ *  so the barcode scanned again is resolved instantly and without the network.
+ * <br>
+ * Every method is thread-safe. The albums are saved on the background executor of the database.
+ */
+public class BarcodeCache {
+    /**
+     * SQL statement selecting the album which didn't expire yet.
+     */
+    private static final String SQL_GET =
+        "SELECT " + BarcodeEntry.COLUMN_ALBUM + " " +
+        "FROM " + BarcodeEntry.TABLE_NAME + " " +
+        "WHERE " + BarcodeEntry.COLUMN_BARCODE + " = ? AND " + BarcodeEntry.COLUMN_EXPIRES + " > ?";
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * Creates the cache.
+     *
+     * @param adapter the database.
+     */
+    public BarcodeCache(DatabaseAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Gets the cached album.
+     *
+     * @param barcode EAN-13 or UPC-A barcode.
+     * @return the album or {@code null} if it isn't cached or it already expired.
+     */
+    public Album get(String barcode) {
+        String json;
+        try (Cursor c = adapter.query(SQL_GET, barcode, String.valueOf(Utilities.getTime()))) {
+            if (!c.moveToFirst())
+                return null;
+            json = c.getString(0);
+        }
+
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return AlbumJson.read(reader);
+        } catch (IOException | IllegalStateException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the album, replacing the previous one.
+     *
+     * @param barcode EAN-13 or UPC-A barcode.
+     * @param release the URL of the Discogs release.
+     * @param album the album found by the barcode.
+     * @param ttl time in milliseconds after which the album expires.
+     */
+    public void put(String barcode, String release, Album album, long ttl) {
+        StringWriter json = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(json)) {
+            AlbumJson.write(writer, album);
+        } catch (IOException ex) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(BarcodeEntry.COLUMN_BARCODE, barcode);
+        values.put(BarcodeEntry.COLUMN_RELEASE, release);
+        values.put(BarcodeEntry.COLUMN_ALBUM, json.toString());
+        values.put(BarcodeEntry.COLUMN_EXPIRES, Utilities.getTime() + ttl);
+
+        adapter.runInBackground(() -> adapter.getDb().insertWithOnConflict(
+                BarcodeEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE));
+    }
+
+    /**
+     * Removes the expired albums.
+     *
+     * @param db the database.
+     * @return the number of the removed albums.
+     */
+    static int purge(SQLiteDatabase db) {
+        return db.delete(BarcodeEntry.TABLE_NAME, BarcodeEntry.COLUMN_EXPIRES + " <= ?",
+                new String[] { String.valueOf(Utilities.getTime()) });
+    }
+}
@@ -0,0 +1,294 @@
+package eu.tivian.musico.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static eu.tivian.musico.database.DatabaseContract.ChangeConsumerEntry;
+import static eu.tivian.musico.database.DatabaseContract.ChangeLogEntry;
+
+/**
+ * Incremental access to the changes of the album collection.
+ * <br>
+ * Every insert, update and delete of the albums, purchases, tracks and songs is recorded
+ *  by the triggers in the {@link ChangeLogEntry} table, numbered by the increasing sequence.
+ *  Every consumer, e.g. the synchronization or the exporter, keeps its position in the log
+ *  and only processes the entries added after it, instead of scanning the whole collection.
+ * <br>
+ * The entry only says which row was changed, the consumer should read its current state from the database.
+ *  After the {@link #compact() compaction} only the latest entry of every row is kept,
+ *  so the operation of the entry is the last one applied to the row.
+ */
+public class ChangeLog {
+    /**
+     * The {@link ChangeLogEntry#COLUMN_ENTITY} of the {@link ChangeLogEntry#OP_RESET} entry.
+     */
+    public static final String ALL = "*";
+
+    /**
+     * One change of the collection.
+     */
+    public static class Entry {
+        /**
+         * The sequence number of the change.
+         */
+        public final long sequence;
+
+        /**
+         * The name of the changed table, or {@link #ALL} if the whole collection was replaced.
+         */
+        public final String entity;
+
+        /**
+         * The ID of the changed row. For the tracks it's the ID of the album.
+         */
+        public final long id;
+
+        /**
+         * The operation, one of {@link ChangeLogEntry#OP_INSERT}, {@link ChangeLogEntry#OP_UPDATE},
+         *  {@link ChangeLogEntry#OP_DELETE} or {@link ChangeLogEntry#OP_RESET}.
+         */
+        public final String operation;
+
+        /**
+         * Creates the entry.
+         *
+         * @param sequence the sequence number of the change.
+         * @param entity the name of the changed table.
+         * @param id the ID of the changed row.
+         * @param operation the operation.
+         */
+        Entry(long sequence, String entity, long id, String operation) {
+            this.sequence = sequence;
+            this.entity = entity;
+            this.id = id;
+            this.operation = operation;
+        }
+
+        /**
+         * Checks whether the whole collection was replaced, so everything derived from it has to be rebuilt.
+         *
+         * @return {@code true} if this is the {@link ChangeLogEntry#OP_RESET} entry.
+         */
+        public boolean isReset() {
+            return ChangeLogEntry.OP_RESET.equals(operation);
+        }
+    }
+
+    /**
+     * SQL statement selecting the entries after the position.
+     */
+    private static final String SQL_READ =
+        "SELECT " +
+            ChangeLogEntry._ID + ", " +
+            ChangeLogEntry.COLUMN_ENTITY + ", " +
+            ChangeLogEntry.COLUMN_ENTITY_ID + ", " +
+            ChangeLogEntry.COLUMN_OPERATION + " " +
+        "FROM " + ChangeLogEntry.TABLE_NAME + " " +
+        "WHERE " + ChangeLogEntry._ID + " > ? " +
+        "ORDER BY " + ChangeLogEntry._ID + " " +
+        "LIMIT ?";
+
+    /**
+     * SQL statements compacting the log, in the order of the execution:
+     * <ul>
+     *     <li>the entries already processed by every consumer are removed,</li>
+     *     <li>the entries before the latest reset are removed,</li>
+     *     <li>only the latest entry of every row is kept.</li>
+     * </ul>
+     * Without any consumer, the whole log is removed.
+     */
+    private static final String[] SQL_COMPACT = {
+        "DELETE FROM " + ChangeLogEntry.TABLE_NAME + " " +
+        "WHERE " + ChangeLogEntry._ID + " <= (" +
+            "SELECT IFNULL(MIN(" + ChangeConsumerEntry.COLUMN_POSITION + "), " +
+                "(SELECT MAX(" + ChangeLogEntry._ID + ") FROM " + ChangeLogEntry.TABLE_NAME + ")) " +
+            "FROM " + ChangeConsumerEntry.TABLE_NAME + ")",
+
+        "DELETE FROM " + ChangeLogEntry.TABLE_NAME + " " +
+        "WHERE " + ChangeLogEntry._ID + " < (" +
+            "SELECT MAX(" + ChangeLogEntry._ID + ") FROM " + ChangeLogEntry.TABLE_NAME + " " +
+            "WHERE " + ChangeLogEntry.COLUMN_OPERATION + " = '" + ChangeLogEntry.OP_RESET + "')",
+
+        // the lookup of the newer entry uses the index of the entity and its ID
+        "DELETE FROM " + ChangeLogEntry.TABLE_NAME + " " +
+        "WHERE " + ChangeLogEntry._ID + " < (" +
+            "SELECT MAX(l." + ChangeLogEntry._ID + ") FROM " + ChangeLogEntry.TABLE_NAME + " l " +
+            "WHERE l." + ChangeLogEntry.COLUMN_ENTITY + " = "
+                + ChangeLogEntry.TABLE_NAME + "." + ChangeLogEntry.COLUMN_ENTITY + " " +
+              "AND l." + ChangeLogEntry.COLUMN_ENTITY_ID + " = "
+                + ChangeLogEntry.TABLE_NAME + "." + ChangeLogEntry.COLUMN_ENTITY_ID + ")"
+    };
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * Creates the accessor of the log.
+     *
+     * @param adapter the database.
+     */
+    public ChangeLog(DatabaseAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Reads the changes not yet processed by the consumer.
+     * <br>
+     * The position of the consumer isn't moved, it has to be {@link #acknowledge(String, long) acknowledged}
+     *  after the entries are processed. The consumer seen for the first time gets the single
+     *  {@link ChangeLogEntry#OP_RESET} entry, because the older entries may be already compacted.
+     *
+     * @param consumer the unique name of the consumer.
+     * @param limit the maximal number of the entries.
+     * @return the entries in the order of the changes, empty if there aren't any.
+     */
+    @NonNull
+    public List<Entry> read(@NonNull String consumer, int limit) {
+        List<Entry> entries = new ArrayList<>();
+        long position = getPosition(consumer);
+        if (position < 0) {
+            entries.add(new Entry(getHead(), ALL, 0, ChangeLogEntry.OP_RESET));
+            return entries;
+        }
+
+        try (Cursor c = adapter.query(SQL_READ, String.valueOf(position), String.valueOf(limit))) {
+            while (c.moveToNext())
+                entries.add(new Entry(c.getLong(0), c.getString(1), c.getLong(2), c.getString(3)));
+        }
+        return entries;
+    }
+
+    /**
+     * Checks whether there are any changes not yet processed by the consumer.
+     *
+     * @param consumer the unique name of the consumer.
+     * @return {@code true} if the consumer should {@link #read(String, int)} the log.
+     */
+    public boolean hasChanges(@NonNull String consumer) {
+        // the unknown consumer has the position of -1, so it's always behind
+        return getPosition(consumer) < getHead();
+    }
+
+    /**
+     * Moves the position of the consumer, the entries up to it won't be read again.
+     * The position is never moved backwards.
+     *
+     * @param consumer the unique name of the consumer.
+     * @param sequence the sequence number of the last processed entry.
+     */
+    public void acknowledge(@NonNull String consumer, long sequence) {
+        SQLiteDatabase db = adapter.getDb();
+        db.beginTransaction();
+        try {
+            if (sequence > getPosition(consumer)) {
+                ContentValues values = new ContentValues();
+                values.put(ChangeConsumerEntry.COLUMN_NAME, consumer);
+                values.put(ChangeConsumerEntry.COLUMN_POSITION, sequence);
+                db.insertWithOnConflict(ChangeConsumerEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes the consumer, so its position no longer keeps the entries from the compaction.
+     *
+     * @param consumer the unique name of the consumer.
+     */
+    public void unregister(@NonNull String consumer) {
+        adapter.getDb().delete(ChangeConsumerEntry.TABLE_NAME,
+                ChangeConsumerEntry.COLUMN_NAME + " = ?", new String[] { consumer });
+    }
+
+    /**
+     * Gets the position of the consumer.
+     *
+     * @param consumer the unique name of the consumer.
+     * @return the sequence number of the last processed entry, or {@code -1} if the consumer is unknown.
+     */
+    public long getPosition(@NonNull String consumer) {
+        try (Cursor c = adapter.query("SELECT " + ChangeConsumerEntry.COLUMN_POSITION + " " +
+                "FROM " + ChangeConsumerEntry.TABLE_NAME + " " +
+                "WHERE " + ChangeConsumerEntry.COLUMN_NAME + " = ?", consumer)) {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        }
+    }
+
+    /**
+     * Gets the sequence number of the latest change.
+     * It's kept by the {@code AUTOINCREMENT}, so it's valid even if the log was compacted.
+     *
+     * @return the sequence number or {@code 0} if nothing was ever changed.
+     */
+    public long getHead() {
+        try (Cursor c = adapter.query("SELECT seq FROM sqlite_sequence WHERE name = ?",
+                ChangeLogEntry.TABLE_NAME)) {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Compacts the log, see {@link #compact(SQLiteDatabase)}.
+     *
+     * @return the number of the removed entries.
+     */
+    public int compact() {
+        SQLiteDatabase db = adapter.getDb();
+        db.beginTransaction();
+        try {
+            int count = compact(db);
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes the entries processed by every consumer and the entries superseded by the newer ones.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     * @return the number of the removed entries.
+     */
+    static int compact(SQLiteDatabase db) {
+        int count = 0;
+        for (String sql : SQL_COMPACT) {
+            try (SQLiteStatement statement = db.compileStatement(sql)) {
+                count += statement.executeUpdateDelete();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records that the whole collection was replaced, e.g. after the snapshot was restored.
+     * Every older entry is removed, the consumers have to rebuild everything.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     */
+    static void reset(SQLiteDatabase db) {
+        db.delete(ChangeLogEntry.TABLE_NAME, null, null);
+
+        ContentValues values = new ContentValues();
+        values.put(ChangeLogEntry.COLUMN_ENTITY, ALL);
+        values.put(ChangeLogEntry.COLUMN_ENTITY_ID, 0);
+        values.put(ChangeLogEntry.COLUMN_OPERATION, ChangeLogEntry.OP_RESET);
+        db.insert(ChangeLogEntry.TABLE_NAME, null, values);
+    }
+}
@@ -3,19 +3,36 @@ package eu.tivian.musico.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
 
+import androidx.arch.core.util.Function;
+
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import eu.tivian.musico.data.Album;
 import eu.tivian.musico.data.Song;
 import eu.tivian.musico.net.Exchange;
+import eu.tivian.musico.utility.Utilities;
 
 import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
 import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
@@ -46,35 +63,142 @@ public class DatabaseAdapter implements Closeable {
     private final SQLiteDatabase db;
 
     /**
-     * Stores last used ORDER BY clause for listing all of the albums.
+     * The last used ordering of the album list or {@code null} if none was chosen yet.
+     * <br>
+     * The list is sorted on the UI thread and reloaded on the other threads, so the ordering
+     *  is replaced as a whole instead of being modified.
+     */
+    private volatile Ordering ordering;
+
+    /**
+     * The filter applied to the album list or {@code null} if every album is listed.
+     */
+    private volatile AlbumQuery filter;
+
+    /**
+     * Delay in milliseconds after which the changed settings are saved into the database.
+     */
+    private static final long SETTINGS_WRITE_DELAY = 500;
+
+    /**
+     * Time in milliseconds for which the {@link #close()} waits for the running background task.
+     */
+    private static final long CLOSE_TIMEOUT = 2000;
+
+    /**
+     * Immutable snapshot of the settings table.
+     */
+    private volatile Map<String, String> settings;
+
+    /**
+     * Settings changed since the last write into the database.
+     */
+    private final Map<String, String> pendingSettings = new HashMap<>();
+
+    /**
+     * Executor used for the database work done in the background.
      */
-    private String lastOrderBy;
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor();
 
     /**
-     * Determines whether descending or ascending ordering will be used.
+     * Generator of the collation keys used to order the albums by artist and title.
+     *  Replaced on the background executor when the language changes, while it's read by the writers on any thread.
      * <br>
-     * {@code true} value means descending ordering, while {@code false} value means ascending ordering
+     * It's replaced and read only inside of the transactions. The writer which read the previous generator
+     *  commits before the keys are rewritten, so the rewrite covers its rows as well.
+     */
+    private volatile SortKeys sortKeys;
+
+    /**
+     * Cache of the artist IDs.
      */
-    private boolean ordering = false;
+    private final DimensionCache artists;
 
     /**
-     * Compiled SQL statement used to refresh the currency rates.
+     * Cache of the genre IDs.
      */
-    private SimpleStatement ratesUpdated;
+    private final DimensionCache genres;
+
+    /**
+     * Cache of the store IDs.
+     */
+    private final DimensionCache stores;
+
+    /**
+     * Cache of the currency IDs.
+     */
+    private final DimensionCache currencies;
+
+    /**
+     * Time in milliseconds for which the deleted albums can be still restored.
+     */
+    public static final long TOMBSTONE_TTL = 10_000;
+
+    /**
+     * Pending run of the {@link #collectGarbage()} or {@code null} if there's none.
+     */
+    private ScheduledFuture<?> collection;
+
+    /**
+     * Listeners notified about every modification of the album collection.
+     */
+    private final CopyOnWriteArrayList<DatabaseChange.Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Immutable ordering of the album list.
+     */
+    private static final class Ordering {
+        /**
+         * The ORDER BY clause without the direction of the ordering.
+         */
+        final String orderBy;
+
+        /**
+         * The ORDER BY clause, including the direction of the ordering.
+         */
+        final String clause;
+
+        /**
+         * The column by which the list is sorted first.
+         */
+        final String major;
+
+        /**
+         * Determines whether descending or ascending ordering will be used when the same columns are chosen again.
+         * <br>
+         * {@code true} value means descending ordering, while {@code false} value means ascending ordering
+         */
+        final boolean descending;
+
+        /**
+         * Creates the ordering.
+         *
+         * @param orderBy the ORDER BY clause without the direction of the ordering.
+         * @param clause the ORDER BY clause, including the direction of the ordering.
+         * @param major the column by which the list is sorted first.
+         * @param descending whether the next ordering by the same columns is descending.
+         */
+        Ordering(String orderBy, String clause, String major, boolean descending) {
+            this.orderBy = orderBy;
+            this.clause = clause;
+            this.major = major;
+            this.descending = descending;
+        }
+    }
 
     /**
      * Available sorting options for listing all albums.
      */
     public static final class Sort {
         /**
-         * Sorts by the artist name.
+         * Sorts by the artist name, using the collation of the chosen language.
          */
-        public static final String ARTIST = ArtistEntry.TABLE_NAME + "." + ArtistEntry.COLUMN_NAME;
+        public static final String ARTIST = ArtistEntry.TABLE_NAME + "." + ArtistEntry.COLUMN_SORT_KEY;
 
         /**
-         * Sorts by the title of the album.
+         * Sorts by the title of the album, using the collation of the chosen language.
          */
-        public static final String TITLE = AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_TITLE;
+        public static final String TITLE = AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_SORT_KEY;
 
         /**
          * Sorts by the year of the original release of the album.
@@ -110,11 +234,24 @@ public class DatabaseAdapter implements Closeable {
     /**
      * Private constructor used to initialize the singleton.
      *
-     * @param context to use for locating paths to the the database.
+     * @param helper the helper opening the database.
      * @see #instance
      */
-    private DatabaseAdapter(Context context) {
-        db = new DatabaseHelper(context).getWritableDatabase();
+    private DatabaseAdapter(DatabaseHelper helper) {
+        db = helper.getWritableDatabase();
+        settings = loadSettings();
+        artists = new DimensionCache(db, ArtistEntry.TABLE_NAME,
+                ArtistEntry.COLUMN_NAME, ArtistEntry.COLUMN_KEY, DimensionCache.DEFAULT_CAPACITY);
+        genres = new DimensionCache(db, GenreEntry.TABLE_NAME,
+                GenreEntry.COLUMN_NAME, GenreEntry.COLUMN_KEY, DimensionCache.DEFAULT_CAPACITY);
+        stores = new DimensionCache(db, StoreEntry.TABLE_NAME,
+                StoreEntry.COLUMN_NAME, StoreEntry.COLUMN_KEY, DimensionCache.DEFAULT_CAPACITY);
+        currencies = new DimensionCache(db, CurrencyEntry.TABLE_NAME,
+                CurrencyEntry.COLUMN_NAME, null, DimensionCache.DEFAULT_CAPACITY);
+
+        sortKeys = new SortKeys(getLocale());
+        runInBackground(this::refreshSortKeys);
+        scheduleCollection(0);
     }
 
     /**
@@ -125,11 +262,22 @@ public class DatabaseAdapter implements Closeable {
      */
     public synchronized static DatabaseAdapter init(Context context) {
         if (instance == null)
-            instance = new DatabaseAdapter(context);
+            instance = new DatabaseAdapter(new DatabaseHelper(context));
 
         return instance;
     }
 
+    /**
+     * Opens the separate database besides the singleton, e.g. standing in for the other device in the tests.
+     *
+     * @param context to use for locating paths to the the database.
+     * @param name the name of the database file, or {@code null} for the in-memory database.
+     * @return the new instance, which has to be {@link #close() closed} by the caller.
+     */
+    static DatabaseAdapter open(Context context, String name) {
+        return new DatabaseAdapter(new DatabaseHelper(context, name));
+    }
+
     /**
      * Gets the singleton instance.
      *
@@ -140,92 +288,226 @@ public class DatabaseAdapter implements Closeable {
     }
 
     /**
-     * Inserts the {@code value} into the {@code table} at the specified {@code column}
+     * Inserts the {@code value} into the dimension table described by the {@code cache}
      *  if it doesn't already exists in the database and returns the row {@link BaseColumns#_ID}.
      * If the {@code value} is already present then it only returns the
      *  appropriate {@link BaseColumns#_ID} value.
      *
-     * @param table target table.
-     * @param column target column.
+     * @param cache the cache of the target table.
      * @param value a value which we're looking for, or are inserting if it's not present in the database.
      * @return the {@link BaseColumns#_ID} value.
      */
-    private long getIdOrInsert(String table, String column, String value) {
-        if (TextUtils.isEmpty(table) || TextUtils.isEmpty(column) || TextUtils.isEmpty(value))
+    private long getIdOrInsert(DimensionCache cache, String value) {
+        return getIdOrInsert(cache, value, null);
+    }
+
+    /**
+     * Inserts the {@code value} into the dimension table described by the {@code cache}
+     *  if it doesn't already exists in the database and returns the row {@link BaseColumns#_ID}.
+     * If the {@code value} is already present then it only returns the
+     *  appropriate {@link BaseColumns#_ID} value.
+     * <br>
+     * Known values are resolved by the cache without touching the database.
+     *
+     * @param cache the cache of the target table.
+     * @param value a value which we're looking for, or are inserting if it's not present in the database.
+     * @param extra functor supplying additional values saved only when the new row is inserted, may be {@code null}.
+     * @return the {@link BaseColumns#_ID} value.
+     */
+    private long getIdOrInsert(DimensionCache cache, String value, Function<String, ContentValues> extra) {
+        if (TextUtils.isEmpty(value))
             return -1;
 
-        ContentValues values = new ContentValues();
-        values.put(column, value);
-        long _id = db.insert(table, null, values);
+        Long cached = cache.get(value);
+        if (cached != null)
+            return cached;
+
+        long _id = cache.isComplete() ? -1 : queryId(cache, value);
 
         if (_id == -1) {
-            String[] columns = { BaseColumns._ID };
-            String selection = column + " = ?";
-            String[] selectionArgs = { value };
-            Cursor cursor = db.query(table, columns, selection,
-                    selectionArgs, null, null, null);
-            if (cursor.moveToNext())
-                _id = cursor.getLong(0);
-            cursor.close();
+            ContentValues values = extra == null ? new ContentValues() : extra.apply(value);
+            values.put(cache.getColumn(), value);
+            if (cache.getKeyColumn() != null)
+                values.put(cache.getKeyColumn(), Utilities.normalize(value));
+            _id = db.insert(cache.getTable(), null, values);
         }
 
+        if (_id == -1)
+            _id = queryId(cache, value);
+
+        cache.put(value, _id);
         return _id;
     }
 
+    /**
+     * Looks up the {@link BaseColumns#_ID} of the {@code value} in the dimension table.
+     *
+     * @param cache the cache of the target table.
+     * @param value the value we're looking for.
+     * @return the {@link BaseColumns#_ID} value or -1 if the value isn't present.
+     */
+    private long queryId(DimensionCache cache, String value) {
+        String[] columns = { BaseColumns._ID };
+        String selection = cache.getColumn() + " = ?";
+        String[] selectionArgs = { value };
+
+        try (Cursor cursor = db.query(cache.getTable(), columns, selection,
+                selectionArgs, null, null, null)) {
+            return cursor.moveToNext() ? cursor.getLong(0) : -1;
+        }
+    }
+
+    /**
+     * Drops the content of every dimension cache.
+     * Called when the rows of the dimension tables could have been deleted by the triggers
+     *  or when the transaction adding them was rolled back.
+     */
+    void invalidateCaches() {
+        artists.invalidate();
+        genres.invalidate();
+        stores.invalidate();
+        currencies.invalidate();
+    }
+
     /**
      * Adds the album into the database.
      *
      * @param album album to be added into the database.
      */
     public void add(Album album) {
-        boolean new_album = true;
+        boolean created = false;
+        boolean success = false;
+
+        db.beginTransaction();
+        try {
+            created = insert(album, -1);
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success)
+                invalidateCaches();
+        }
 
-        long artist_id = getIdOrInsert(ArtistEntry.TABLE_NAME,
-            ArtistEntry.COLUMN_NAME, album.artist);
+        notifyChange(created ? DatabaseChange.Type.INSERT : DatabaseChange.Type.UPDATE, album.id);
+    }
 
-        long genre_id = getIdOrInsert(GenreEntry.TABLE_NAME,
-            GenreEntry.COLUMN_NAME, album.genre);
+    /**
+     * Adds the albums into the database in a single transaction.
+     * <br>
+     * The listeners are notified only once, after the whole batch was added.
+     *
+     * @param albums albums to be added into the database.
+     */
+    public void addAll(Collection<Album> albums) {
+        if (albums.isEmpty())
+            return;
 
-        long store_id = TextUtils.isEmpty(album.purchase.store) ? -1 :
-            getIdOrInsert(StoreEntry.TABLE_NAME, StoreEntry.COLUMN_NAME, album.purchase.store);
+        long[] ids = new long[albums.size()];
+        boolean success = false;
 
-        long currency_id = getIdOrInsert(CurrencyEntry.TABLE_NAME,
-            CurrencyEntry.COLUMN_NAME, album.purchase.currency);
+        db.beginTransaction();
+        try {
+            int i = 0;
+            for (Album album : albums) {
+                insert(album, -1);
+                ids[i++] = album.id;
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success)
+                invalidateCaches();
+        }
+
+        notifyChange(DatabaseChange.Type.INSERT, ids);
+    }
+
+    /**
+     * Inserts the album into the database. If the same album is already present,
+     *  then only the purchase is added to it.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param album album to be added into the database.
+     * @param id the {@link AlbumEntry#_ID} to be used for the new album,
+     *        or -1 if it should be generated by the database.
+     * @return {@code true} if the new album was created,
+     *         {@code false} if the purchase was added to the existing one.
+     */
+    private boolean insert(Album album, long id) {
+        boolean new_album = true;
 
         // add album
-        ContentValues values = new ContentValues();
-        values.put(AlbumEntry.COLUMN_ARTIST_ID, artist_id);
-        values.put(AlbumEntry.COLUMN_TITLE, album.title);
-        values.put(AlbumEntry.COLUMN_YEAR, album.year);
-        values.put(AlbumEntry.COLUMN_GENRE_ID, genre_id);
-        values.put(AlbumEntry.COLUMN_COVER, album.cover);
+        ContentValues values = getAlbumValues(album);
+        if (id != -1)
+            values.put(AlbumEntry._ID, id);
         long album_id = db.insert(AlbumEntry.TABLE_NAME, null, values);
 
         // get id, if album exists
         if (album_id == -1) {
-            new_album = false;
-
-            String[] columns = {AlbumEntry._ID};
-            String selection = AlbumEntry.COLUMN_ARTIST_ID + " = ? " +
-                    "AND " + AlbumEntry.COLUMN_TITLE + " = ? " +
-                    "AND " + AlbumEntry.COLUMN_YEAR + " = ?";
-            String[] selectionArgs = {
-                    String.valueOf(artist_id),
-                    album.title,
-                    String.valueOf(album.year)
-            };
-
-            Cursor cursor = db.query(AlbumEntry.TABLE_NAME, columns, selection, selectionArgs,
-                    null, null, null);
-            if (cursor.moveToFirst())
-                album_id = cursor.getLong(0);
-            cursor.close();
+            album_id = findAlbum(values, -1);
+            if (album_id != -1)
+                new_album = false;
+            else // the deleted album was removed, so it's replaced instead of being merged with the new one
+                album_id = db.insert(AlbumEntry.TABLE_NAME, null, values);
         }
 
         // add purchase
-        values = new ContentValues();
+        values = getPurchaseValues(album);
         values.put(PurchaseEntry.COLUMN_ALBUM_ID, album_id);
+        album.purchase.id = db.insert(PurchaseEntry.TABLE_NAME, null, values);
+
+        if (new_album) {
+            insertTracks(album_id, album.tracks);
+            SearchIndex.index(db, album_id, album);
+        }
+
+        album.id = album_id;
+        return new_album;
+    }
+
+    /**
+     * Creates the row of the {@link AlbumEntry} table, inserting the artist and the genre if they're new.
+     *
+     * @param album the album.
+     * @return the values of the row, without the {@link AlbumEntry#_ID}.
+     */
+    private ContentValues getAlbumValues(Album album) {
+        long artist_id = getIdOrInsert(artists, album.artist, name -> {
+            ContentValues values = new ContentValues();
+            values.put(ArtistEntry.COLUMN_SORT_KEY, sortKeys.get(name));
+            return values;
+        });
+
+        long genre_id = getIdOrInsert(genres, album.genre);
+
+        ContentValues values = new ContentValues();
+        values.put(AlbumEntry.COLUMN_ARTIST_ID, artist_id);
+        values.put(AlbumEntry.COLUMN_TITLE, album.title);
+        values.put(AlbumEntry.COLUMN_YEAR, album.year);
+        values.put(AlbumEntry.COLUMN_GENRE_ID, genre_id);
+        values.put(AlbumEntry.COLUMN_COVER, album.cover);
+        values.put(AlbumEntry.COLUMN_COVER_HASH, Utilities.hash(album.cover));
+        values.put(AlbumEntry.COLUMN_SORT_KEY, sortKeys.get(album.title));
+        values.put(AlbumEntry.COLUMN_KEY, Utilities.normalize(album.title));
+        return values;
+    }
 
+    /**
+     * Creates the row of the {@link PurchaseEntry} table, inserting the store and the currency if they're new.
+     *
+     * @param album the album.
+     * @return the values of the row, without the {@link PurchaseEntry#_ID} and the album ID.
+     */
+    private ContentValues getPurchaseValues(Album album) {
+        long store_id = TextUtils.isEmpty(album.purchase.store) ? -1 :
+            getIdOrInsert(stores, album.purchase.store);
+
+        long currency_id = getIdOrInsert(currencies, album.purchase.currency);
+
+        ContentValues values = new ContentValues();
         if (store_id == -1)
             values.putNull(PurchaseEntry.COLUMN_STORE_ID);
         else
@@ -238,46 +520,119 @@ public class DatabaseAdapter implements Closeable {
 
         values.put(PurchaseEntry.COLUMN_PRICE, album.purchase.price);
         values.put(PurchaseEntry.COLUMN_CURRENCY_ID, currency_id);
-        db.insert(PurchaseEntry.TABLE_NAME, null, values);
-
-        if (new_album) {
-            // add songs or get their ids
-            List<Long> song_ids = new ArrayList<>();
-            for (Song s : album.tracks) {
-                values = new ContentValues();
-                values.put(SongEntry.COLUMN_TITLE, s.title);
-                values.put(SongEntry.COLUMN_DURATION, s.duration.toString());
-                long song_id = db.insert(SongEntry.TABLE_NAME, null, values);
-
-                if (song_id == -1) {
-                    String[] columns = {SongEntry._ID};
-                    String selection = SongEntry.COLUMN_TITLE + " = ? " +
-                            "AND " + SongEntry.COLUMN_DURATION + " = ?";
-                    String[] selectionArgs = {s.title, s.duration.toString()};
-                    Cursor cursor = db.query(SongEntry.TABLE_NAME, columns, selection, selectionArgs,
-                            null, null, null);
-                    if (cursor.moveToFirst())
-                        song_id = cursor.getLong(0);
-                    cursor.close();
-                }
+        return values;
+    }
 
-                song_ids.add(song_id);
+    /**
+     * Finds the other album with the same artist, title and year.
+     *  The deleted album is removed, as it's replaced by the inserted or updated one.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param values the row of the album, as returned by the {@link #getAlbumValues(Album)}.
+     * @param except ID of the album which isn't matched, or -1.
+     * @return ID of the album or -1 if there's none.
+     */
+    private long findAlbum(ContentValues values, long except) {
+        String[] columns = {AlbumEntry._ID, AlbumEntry.COLUMN_DELETED};
+        String selection = AlbumEntry.COLUMN_ARTIST_ID + " = ? " +
+                "AND " + AlbumEntry.COLUMN_TITLE + " = ? " +
+                "AND " + AlbumEntry.COLUMN_YEAR + " = ? " +
+                "AND " + AlbumEntry._ID + " != ?";
+        String[] selectionArgs = {
+                values.getAsString(AlbumEntry.COLUMN_ARTIST_ID),
+                values.getAsString(AlbumEntry.COLUMN_TITLE),
+                values.getAsString(AlbumEntry.COLUMN_YEAR),
+                String.valueOf(except)
+        };
+
+        long album_id = -1;
+        boolean deleted = false;
+        try (Cursor cursor = db.query(AlbumEntry.TABLE_NAME, columns, selection, selectionArgs,
+                null, null, null)) {
+            if (cursor.moveToFirst()) {
+                album_id = cursor.getLong(0);
+                deleted = !cursor.isNull(1);
             }
+        }
 
-            // add songs to tracks table
-            for (long song_id : song_ids) {
-                values = new ContentValues();
-                values.put(TrackEntry.COLUMN_ALBUM_ID, album_id);
-                values.put(TrackEntry.COLUMN_SONG_ID, song_id);
-                db.insert(TrackEntry.TABLE_NAME, null, values);
+        if (deleted) {
+            purge(AlbumEntry._ID + " = " + album_id);
+            return -1;
+        }
+        return album_id;
+    }
+
+    /**
+     * Adds the songs to the track list of the album, inserting the songs which are new.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param album_id ID of the album.
+     * @param tracks the songs.
+     */
+    private void insertTracks(long album_id, List<Song> tracks) {
+        // add songs or get their ids
+        List<Long> song_ids = new ArrayList<>();
+        for (Song s : tracks) {
+            ContentValues values = new ContentValues();
+            values.put(SongEntry.COLUMN_TITLE, s.title);
+            values.put(SongEntry.COLUMN_DURATION, s.duration.toString());
+            values.put(SongEntry.COLUMN_KEY, Utilities.normalize(s.title));
+            long song_id = db.insert(SongEntry.TABLE_NAME, null, values);
+
+            if (song_id == -1) {
+                String[] columns = {SongEntry._ID};
+                String selection = SongEntry.COLUMN_TITLE + " = ? " +
+                        "AND " + SongEntry.COLUMN_DURATION + " = ?";
+                String[] selectionArgs = {s.title, s.duration.toString()};
+                Cursor cursor = db.query(SongEntry.TABLE_NAME, columns, selection, selectionArgs,
+                        null, null, null);
+                if (cursor.moveToFirst())
+                    song_id = cursor.getLong(0);
+                cursor.close();
             }
+
+            song_ids.add(song_id);
         }
 
-        album.id = album_id;
+        // add songs to tracks table
+        for (long song_id : song_ids) {
+            ContentValues values = new ContentValues();
+            values.put(TrackEntry.COLUMN_ALBUM_ID, album_id);
+            values.put(TrackEntry.COLUMN_SONG_ID, song_id);
+            db.insert(TrackEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    /**
+     * Checks whether the track list of the album saved in the database differs from the supplied one.
+     *
+     * @param album_id ID of the album.
+     * @param tracks the songs.
+     * @return {@code true} if the track lists differ.
+     */
+    private boolean tracksChanged(long album_id, List<Song> tracks) {
+        try (Cursor c = db.rawQuery(SQL_LIST_TRACKS, new String[] { String.valueOf(album_id) })) {
+            if (c.getCount() != tracks.size())
+                return true;
+
+            for (Song s : tracks) {
+                c.moveToNext();
+                if (!TextUtils.equals(c.getString(0), s.title)
+                        || !TextUtils.equals(c.getString(1), s.duration.toString()))
+                    return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Updates the database based on the {@link Album#id} value.
+     * <br>
+     * The rows of the album and of its purchase are updated in place, so both keep their IDs
+     *  and the views showing them can be refreshed in place. The other purchases of the album are kept.
+     *  If the album becomes the same as the other one, it's merged into it.
      *
      * @param album album to be updated.
      * @return {@code true} if the update was successful.
@@ -286,41 +641,614 @@ public class DatabaseAdapter implements Closeable {
         if (album.id == -1)
             return false;
 
-        // simple but effective way, at least for small databases
-        if (delete(album)) {
-            add(album);
-            return true;
+        long id = album.id;
+        Set<Long> updated = new HashSet<>();
+        Set<Long> removed = new HashSet<>();
+        boolean success = false;
+
+        db.beginTransaction();
+        try {
+            String[] args = { String.valueOf(id) };
+            if (DatabaseUtils.queryNumEntries(db, AlbumEntry.TABLE_NAME,
+                    AlbumEntry._ID + " = ? AND " + AlbumEntry.COLUMN_DELETED + " IS NULL", args) == 0)
+                return false;
+
+            ContentValues values = getAlbumValues(album);
+            long duplicate = findAlbum(values, id);
+            updatePurchase(album);
+
+            if (duplicate == -1) {
+                db.update(AlbumEntry.TABLE_NAME, values, AlbumEntry._ID + " = ?", args);
+                if (tracksChanged(id, album.tracks)) {
+                    db.delete(TrackEntry.TABLE_NAME, TrackEntry.COLUMN_ALBUM_ID + " = ?", args);
+                    insertTracks(id, album.tracks);
+                }
+                SearchIndex.reindex(db, id);
+                updated.add(id);
+            } else {
+                // the purchases are moved to the other album, like the duplicates merged by the user
+                mergeAlbums(duplicate, new long[] { id }, updated, removed);
+                album.id = duplicate;
+            }
+
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success)
+                invalidateCaches();
+        }
+
+        // the dimensions no longer referenced are removed by the collector
+        scheduleCollection(TOMBSTONE_TTL);
+        if (!removed.isEmpty())
+            notifyChange(DatabaseChange.Type.DELETE, toArray(removed));
+        notifyChange(DatabaseChange.Type.UPDATE, toArray(updated));
+        return true;
+    }
+
+    /**
+     * Updates the edited purchase of the album in place. The first purchase of the album is updated
+     *  if the edited one isn't known, and the new one is added if the album has none.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param album the edited album.
+     */
+    private void updatePurchase(Album album) {
+        long purchase_id = album.purchase.id;
+        if (purchase_id == -1) {
+            try (Cursor c = db.query(PurchaseEntry.TABLE_NAME, new String[] { PurchaseEntry._ID },
+                    PurchaseEntry.COLUMN_ALBUM_ID + " = ?", new String[] { String.valueOf(album.id) },
+                    null, null, PurchaseEntry._ID, "1")) {
+                if (c.moveToFirst())
+                    purchase_id = c.getLong(0);
+            }
+        }
+
+        ContentValues values = getPurchaseValues(album);
+        values.put(PurchaseEntry.COLUMN_ALBUM_ID, album.id);
+        if (purchase_id == -1) {
+            album.purchase.id = db.insert(PurchaseEntry.TABLE_NAME, null, values);
+            return;
+        }
+
+        String[] args = { String.valueOf(purchase_id), String.valueOf(album.id) };
+        String where = PurchaseEntry._ID + " = ? AND " + PurchaseEntry.COLUMN_ALBUM_ID + " = ?";
+        if (db.updateWithOnConflict(PurchaseEntry.TABLE_NAME, values, where, args,
+                SQLiteDatabase.CONFLICT_IGNORE) == 0) {
+            // the edited purchase is now the same as the other purchase of the album, which is kept
+            db.delete(PurchaseEntry.TABLE_NAME, where, args);
+            album.purchase.id = -1;
         } else {
-            return false;
+            album.purchase.id = purchase_id;
         }
     }
 
     /**
      * Deletes the album from the database based on the {@link Album#id} value.
+     * <br>
+     * The album is only marked as deleted and can be brought back by {@link #restore(long...)}
+     *  for the next {@link #TOMBSTONE_TTL} milliseconds.
      *
      * @param album album to be deleted.
      * @return {@code true} if the deletion was successful.
      */
     public boolean delete(Album album) {
-        String whereClause = PurchaseEntry.COLUMN_ALBUM_ID + " = ?";
-        String[] whereArgs = { String.valueOf(album.id) };
+        return delete(album.id) == 1;
+    }
+
+    /**
+     * Deletes the albums with given IDs from the database.
+     * <br>
+     * The albums are only marked as deleted and can be brought back by {@link #restore(long...)}
+     *  for the next {@link #TOMBSTONE_TTL} milliseconds.
+     *
+     * @param ids IDs of the albums to be deleted.
+     * @return number of deleted albums.
+     */
+    public int delete(long... ids) {
+        if (ids.length == 0)
+            return 0;
+
+        ContentValues values = new ContentValues();
+        values.put(AlbumEntry.COLUMN_DELETED, Utilities.getTime());
+        long[] deleted = updateAlbums(ids, AlbumEntry.COLUMN_DELETED + " IS NULL", values);
+
+        if (deleted.length > 0) {
+            scheduleCollection(TOMBSTONE_TTL);
+            notifyChange(DatabaseChange.Type.DELETE, deleted);
+        }
+
+        return deleted.length;
+    }
 
-        // rest of deletion logic is handled by triggers inside the database
-        return db.delete(PurchaseEntry.TABLE_NAME, whereClause, whereArgs) == 1;
+    /**
+     * Brings back the albums deleted in the last {@link #TOMBSTONE_TTL} milliseconds.
+     *
+     * @param ids IDs of the albums to be restored.
+     * @return number of restored albums.
+     */
+    public int restore(long... ids) {
+        if (ids.length == 0)
+            return 0;
+
+        ContentValues values = new ContentValues();
+        values.putNull(AlbumEntry.COLUMN_DELETED);
+        long[] restored = updateAlbums(ids, AlbumEntry.COLUMN_DELETED + " IS NOT NULL", values);
+
+        if (restored.length > 0)
+            notifyChange(DatabaseChange.Type.INSERT, restored);
+
+        return restored.length;
+    }
+
+    /**
+     * Updates the albums with given IDs which match the condition, in a single transaction.
+     *
+     * @param ids IDs of the albums.
+     * @param condition the condition on the {@link AlbumEntry} table.
+     * @param values the new values.
+     * @return IDs of the updated albums, the listeners should be notified only about them.
+     */
+    private long[] updateAlbums(long[] ids, String condition, ContentValues values) {
+        String where = AlbumEntry._ID + " IN (" + join(ids) + ") AND " + condition;
+        long[] updated;
+
+        db.beginTransaction();
+        try {
+            updated = getAlbumIds(where);
+            if (updated.length > 0)
+                db.update(AlbumEntry.TABLE_NAME, values, AlbumEntry._ID + " IN (" + join(updated) + ")", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return updated;
+    }
+
+    /**
+     * Sets the genre of every album with given IDs.
+     *
+     * @param genre the new genre, can't be empty.
+     * @param ids IDs of the albums.
+     * @return number of modified albums.
+     */
+    public int setGenre(String genre, long... ids) {
+        if (TextUtils.isEmpty(genre))
+            return 0;
+
+        return setDimension(genres, AlbumEntry.TABLE_NAME, AlbumEntry.COLUMN_GENRE_ID,
+                AlbumEntry._ID, genre, ids);
+    }
+
+    /**
+     * Sets the store of every purchase of the albums with given IDs.
+     *
+     * @param store the new store, empty value removes the store from the purchases.
+     * @param ids IDs of the albums.
+     * @return number of modified purchases.
+     */
+    public int setStore(String store, long... ids) {
+        return setDimension(stores, PurchaseEntry.TABLE_NAME, PurchaseEntry.COLUMN_STORE_ID,
+                PurchaseEntry.COLUMN_ALBUM_ID, store, ids);
+    }
+
+    /**
+     * Sets the currency of every purchase of the albums with given IDs.
+     *
+     * @param currency the new ISO 4217 currency code, can't be empty.
+     * @param ids IDs of the albums.
+     * @return number of modified purchases.
+     */
+    public int setCurrency(String currency, long... ids) {
+        if (TextUtils.isEmpty(currency))
+            return 0;
+
+        return setDimension(currencies, PurchaseEntry.TABLE_NAME, PurchaseEntry.COLUMN_CURRENCY_ID,
+                PurchaseEntry.COLUMN_ALBUM_ID, currency, ids);
+    }
+
+    /**
+     * Points the rows of the albums with given IDs to the other row of the dimension table,
+     *  using a single statement inside of the transaction.
+     * <br>
+     * The listeners are notified only once, the dimensions no longer referenced are removed by the collector.
+     *
+     * @param cache cache of the dimension table.
+     * @param table the modified table.
+     * @param column the column of the {@code table} referencing the dimension table.
+     * @param albumColumn the column of the {@code table} with the album ID.
+     * @param value the name of the dimension, empty value sets the reference to {@code NULL}.
+     * @param ids IDs of the albums.
+     * @return number of modified rows.
+     */
+    private int setDimension(DimensionCache cache, String table, String column, String albumColumn,
+                             String value, long[] ids) {
+        if (ids.length == 0)
+            return 0;
+
+        int count;
+        boolean success = false;
+
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            if (TextUtils.isEmpty(value))
+                values.putNull(column);
+            else
+                values.put(column, getIdOrInsert(cache, value));
+
+            count = db.updateWithOnConflict(table, values, albumColumn + " IN (" + join(ids) + ")",
+                    null, SQLiteDatabase.CONFLICT_IGNORE);
+
+            // the genre is searchable, other dimensions aren't
+            if (count > 0 && table.equals(AlbumEntry.TABLE_NAME))
+                SearchIndex.reindex(db, ids);
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success)
+                invalidateCaches();
+        }
+
+        if (count > 0) {
+            scheduleCollection(TOMBSTONE_TTL);
+            notifyChange(DatabaseChange.Type.UPDATE, ids);
+        }
+
+        return count;
+    }
+
+    /**
+     * Merges the groups of duplicates found by the {@link DuplicateFinder}, in a single transaction.
+     * <br>
+     * The albums of the merged artists are moved to the kept artist.
+     *  The purchases of the merged albums are moved to the kept album, while the track list
+     *  and the cover art are taken from the merged albums only if the kept album has none.
+     *  The groups which are no longer valid, e.g. because the kept album was deleted, are skipped.
+     *
+     * @param groups the groups of duplicates.
+     * @return number of merged groups.
+     */
+    public int merge(Collection<DuplicateFinder.Group> groups) {
+        Set<Long> updated = new HashSet<>();
+        Set<Long> removed = new HashSet<>();
+        int count = 0;
+        boolean success = false;
+
+        db.beginTransaction();
+        try {
+            for (DuplicateFinder.Group group : groups) {
+                boolean merged = group.kind == DuplicateFinder.Kind.ARTIST
+                    ? mergeArtists(group.getKept(), group.getMerged(), updated, removed)
+                    : mergeAlbums(group.getKept(), group.getMerged(), updated, removed);
+                if (merged)
+                    count++;
+            }
+
+            // the artist cache could point to the removed artists
+            invalidateCaches();
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success)
+                invalidateCaches();
+        }
+
+        updated.removeAll(removed);
+        if (!removed.isEmpty())
+            notifyChange(DatabaseChange.Type.DELETE, toArray(removed));
+        if (!updated.isEmpty())
+            notifyChange(DatabaseChange.Type.UPDATE, toArray(updated));
+        if (count > 0)
+            scheduleCollection(TOMBSTONE_TTL);
+
+        return count;
+    }
+
+    /**
+     * Merges the albums into the single one.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param keep ID of the kept album.
+     * @param others IDs of the albums merged into the kept one.
+     * @param updated set into which the IDs of the modified albums are added.
+     * @param removed set into which the IDs of the removed albums are added.
+     * @return {@code true} if the albums were merged.
+     */
+    private boolean mergeAlbums(long keep, long[] others, Set<Long> updated, Set<Long> removed) {
+        String in = AlbumEntry._ID + " IN (" + join(others) + ")";
+        if (others.length == 0 || DatabaseUtils.queryNumEntries(db, AlbumEntry.TABLE_NAME,
+                AlbumEntry._ID + " = " + keep + " AND " + AlbumEntry.COLUMN_DELETED + " IS NULL") == 0)
+            return false;
+
+        // the purchases already present in the kept album are removed together with the merged ones
+        db.execSQL("UPDATE OR IGNORE " + PurchaseEntry.TABLE_NAME + " " +
+            "SET " + PurchaseEntry.COLUMN_ALBUM_ID + " = " + keep + " " +
+            "WHERE " + PurchaseEntry.COLUMN_ALBUM_ID + " IN (" + join(others) + ")");
+
+        if (DatabaseUtils.queryNumEntries(db, TrackEntry.TABLE_NAME,
+                TrackEntry.COLUMN_ALBUM_ID + " = " + keep) == 0) {
+            db.execSQL("INSERT OR IGNORE INTO " + TrackEntry.TABLE_NAME + " (" +
+                    TrackEntry.COLUMN_SONG_ID + ", " + TrackEntry.COLUMN_ALBUM_ID + ") " +
+                "SELECT " + TrackEntry.COLUMN_SONG_ID + ", " + keep + " FROM " + TrackEntry.TABLE_NAME + " " +
+                "WHERE " + TrackEntry.COLUMN_ALBUM_ID + " = (" +
+                    "SELECT " + TrackEntry.COLUMN_ALBUM_ID + " FROM " + TrackEntry.TABLE_NAME + " " +
+                    "WHERE " + TrackEntry.COLUMN_ALBUM_ID + " IN (" + join(others) + ") " +
+                    "GROUP BY " + TrackEntry.COLUMN_ALBUM_ID + " ORDER BY COUNT(*) DESC LIMIT 1) " +
+                "ORDER BY rowid");
+        }
+
+        // the row values aren't supported by the SQLite of the older platforms, so every column has its own subquery
+        String cover = "FROM " + AlbumEntry.TABLE_NAME + " " +
+            "WHERE " + in + " AND " + AlbumEntry.COLUMN_COVER + " IS NOT NULL ORDER BY " + AlbumEntry._ID + " LIMIT 1";
+        db.execSQL("UPDATE " + AlbumEntry.TABLE_NAME + " " +
+            "SET " + AlbumEntry.COLUMN_COVER + " = (SELECT " + AlbumEntry.COLUMN_COVER + " " + cover + "), " +
+                AlbumEntry.COLUMN_COVER_HASH + " = (SELECT " + AlbumEntry.COLUMN_COVER_HASH + " " + cover + ") " +
+            "WHERE " + AlbumEntry._ID + " = " + keep + " AND " + AlbumEntry.COLUMN_COVER + " IS NULL");
+
+        purge(in);
+        SearchIndex.reindex(db, keep);
+
+        updated.add(keep);
+        for (long id : others)
+            removed.add(id);
+        return true;
+    }
+
+    /**
+     * Moves the albums of the artists to the kept artist and removes the merged artists.
+     *  If the kept artist already has the same album, both albums are merged.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param keep ID of the kept artist.
+     * @param others IDs of the artists merged into the kept one.
+     * @param updated set into which the IDs of the modified albums are added.
+     * @param removed set into which the IDs of the removed albums are added.
+     * @return {@code true} if the artists were merged.
+     */
+    private boolean mergeArtists(long keep, long[] others, Set<Long> updated, Set<Long> removed) {
+        if (others.length == 0 || DatabaseUtils.queryNumEntries(db, ArtistEntry.TABLE_NAME,
+                ArtistEntry._ID + " = " + keep) == 0)
+            return false;
+
+        String[] columns = { AlbumEntry._ID, AlbumEntry.COLUMN_TITLE, AlbumEntry.COLUMN_YEAR, AlbumEntry.COLUMN_DELETED };
+        try (Cursor c = db.query(AlbumEntry.TABLE_NAME, columns,
+                AlbumEntry.COLUMN_ARTIST_ID + " IN (" + join(others) + ")", null, null, null, null)) {
+            ContentValues values = new ContentValues();
+            values.put(AlbumEntry.COLUMN_ARTIST_ID, keep);
+
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                String where = AlbumEntry._ID + " = " + id;
+                if (db.updateWithOnConflict(AlbumEntry.TABLE_NAME, values, where, null,
+                        SQLiteDatabase.CONFLICT_IGNORE) == 1) {
+                    SearchIndex.reindex(db, id);
+                    updated.add(id);
+                    continue;
+                }
+
+                // the kept artist already has the album with the same title and year
+                long existing = -1;
+                boolean deleted = true;
+                try (Cursor e = db.query(AlbumEntry.TABLE_NAME, new String[] { AlbumEntry._ID, AlbumEntry.COLUMN_DELETED },
+                        AlbumEntry.COLUMN_ARTIST_ID + " = " + keep + " AND " + AlbumEntry.COLUMN_TITLE + " = ? " +
+                        "AND " + AlbumEntry.COLUMN_YEAR + " = " + c.getInt(2),
+                        new String[] { c.getString(1) }, null, null, null)) {
+                    if (e.moveToFirst()) {
+                        existing = e.getLong(0);
+                        deleted = !e.isNull(1);
+                    }
+                }
+
+                if (!c.isNull(3)) {
+                    // the moved album was deleted anyway
+                    purge(where);
+                    removed.add(id);
+                } else if (existing != -1 && !deleted) {
+                    mergeAlbums(existing, new long[] { id }, updated, removed);
+                } else if (existing != -1) {
+                    // the deleted album of the kept artist is replaced
+                    purge(AlbumEntry._ID + " = " + existing);
+                    db.update(AlbumEntry.TABLE_NAME, values, where, null);
+                    SearchIndex.reindex(db, id);
+                    updated.add(id);
+                }
+            }
+        }
+
+        db.delete(ArtistEntry.TABLE_NAME, ArtistEntry._ID + " IN (" + join(others) + ") " +
+            "AND " + ArtistEntry._ID + " NOT IN (SELECT " + AlbumEntry.COLUMN_ARTIST_ID + " FROM " + AlbumEntry.TABLE_NAME + ")",
+            null);
+        return true;
+    }
+
+    /**
+     * Converts the set of IDs into the array.
+     *
+     * @param ids the IDs.
+     * @return the array of IDs.
+     */
+    private static long[] toArray(Set<Long> ids) {
+        long[] array = new long[ids.size()];
+        int i = 0;
+        for (long id : ids)
+            array[i++] = id;
+        return array;
+    }
+
+    /**
+     * Removes the albums matching the condition from the database, together with their tracks and purchases.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param where condition on the {@link AlbumEntry} table.
+     * @return number of removed albums.
+     */
+    private int purge(String where) {
+        int count = 0;
+        for (String format : DatabaseContract.SQL_PURGE_FORMAT) {
+            try (SQLiteStatement statement = db.compileStatement(String.format(format, where))) {
+                count = statement.executeUpdateDelete();
+            }
+        }
+
+        // the last statement removes the albums
+        return count;
+    }
+
+    /**
+     * Schedules the {@link #collectGarbage()}, unless it's already pending.
+     *
+     * @param delay delay in milliseconds.
+     */
+    private synchronized void scheduleCollection(long delay) {
+        if (background.isShutdown() || (collection != null && !collection.isDone()))
+            return;
+
+        collection = background.schedule(this::collectGarbage, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the albums deleted more than {@link #TOMBSTONE_TTL} milliseconds ago,
+     *  and then every song, artist, genre, store and currency no longer referenced, in a single pass.
+     *  The {@link ChangeLog} is compacted as well.
+     * <br>
+     * If there are more deleted albums, the next collection is scheduled when they expire.
+     */
+    private void collectGarbage() {
+        synchronized (this) {
+            collection = null;
+        }
+
+        long threshold = Utilities.getTime() - TOMBSTONE_TTL;
+        long next = -1;
+
+        db.beginTransaction();
+        try {
+            purge(AlbumEntry.COLUMN_DELETED + " <= " + threshold);
+
+            // the caches in the order of the statements, the songs aren't cached
+            DimensionCache[] caches = { null, artists, genres, stores, currencies };
+            for (int i = 0; i < DatabaseContract.SQL_COLLECT_ORPHANS.length; i++) {
+                int removed;
+                try (SQLiteStatement statement = db.compileStatement(DatabaseContract.SQL_COLLECT_ORPHANS[i])) {
+                    removed = statement.executeUpdateDelete();
+                }
+
+                // only the cache which could point to the removed rows is dropped,
+                //  other threads can't use it until the transaction ends
+                if (removed > 0 && caches[i] != null)
+                    caches[i].invalidate();
+            }
+            ChangeLog.compact(db);
+
+            try (Cursor c = db.rawQuery("SELECT MIN(" + AlbumEntry.COLUMN_DELETED + ") " +
+                    "FROM " + AlbumEntry.TABLE_NAME, null)) {
+                if (c.moveToFirst() && !c.isNull(0))
+                    next = c.getLong(0) + TOMBSTONE_TTL;
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (next != -1)
+            scheduleCollection(Math.max(0, next - Utilities.getTime()));
+    }
+
+    /**
+     * Runs the task on the executor of the background database work, after the already pending work,
+     *  so it never competes with the {@link #collectGarbage()} for the database.
+     *
+     * @param task the task.
+     * @return {@code false} if the database is already closed and the task won't run.
+     */
+    public boolean runInBackground(Runnable task) {
+        try {
+            background.execute(task);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Joins the IDs into the comma separated list, used in the {@code IN} clause.
+     *
+     * @param ids the IDs.
+     * @return the list of IDs.
+     */
+    static String join(long[] ids) {
+        StringBuilder builder = new StringBuilder();
+        for (long id : ids) {
+            if (builder.length() > 0)
+                builder.append(',');
+            builder.append(id);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Registers the listener notified about every modification of the album collection.
+     *
+     * @param listener the listener.
+     */
+    public void addChangeListener(DatabaseChange.Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unregisters the listener previously registered by {@link #addChangeListener(DatabaseChange.Listener)}.
+     *
+     * @param listener the listener.
+     */
+    public void removeChangeListener(DatabaseChange.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Notifies every registered listener about the modification of the album collection.
+     *
+     * @param type the type of the modification.
+     * @param ids IDs of the affected albums.
+     */
+    private void notifyChange(DatabaseChange.Type type, long... ids) {
+        DatabaseChange change = new DatabaseChange(type, ids);
+        for (DatabaseChange.Listener listener : listeners)
+            listener.onChange(change);
     }
 
     /**
      * Sets the {@code value} into the settings table at the supplied {@code key}.
+     * <br>
+     * The change is visible immediately, while the database is updated asynchronously,
+     *  together with any other setting changed in the meantime.
      *
      * @param key settings key.
      * @param value value to be added or change (whether the key is present).
      */
     public void setSetting(String key, String value) {
-        ContentValues values = new ContentValues();
-        values.put(SettingsEntry.COLUMN_KEY, key);
-        values.put(SettingsEntry.COLUMN_VALUE, value);
+        synchronized (pendingSettings) {
+            Map<String, String> snapshot = new HashMap<>(settings);
+            snapshot.put(key, value);
+            settings = Collections.unmodifiableMap(snapshot);
+
+            if (pendingSettings.isEmpty())
+                scheduleFlush();
+            pendingSettings.put(key, value);
+        }
 
-        db.replace(SettingsEntry.TABLE_NAME, null, values);
+        // rewriting the keys of the whole collection is too slow for the UI thread
+        if (SettingsEntry.KEY_LANGUAGE.equals(key))
+            runInBackground(this::refreshSortKeys);
     }
 
     /**
@@ -330,22 +1258,81 @@ public class DatabaseAdapter implements Closeable {
      * @return value corresponding to the {@code key} in the settings table.
      */
     public String getSetting(String key) {
-        ContentValues values = new ContentValues();
-        values.put(SettingsEntry.COLUMN_KEY, key);
+        return settings.get(key);
+    }
 
-        String[] columns = { SettingsEntry.COLUMN_VALUE };
-        String selection = SettingsEntry.COLUMN_KEY + " = ?";
-        String[] selectionArgs = { key };
+    /**
+     * Loads the content of the settings table.
+     *
+     * @return immutable snapshot of the settings.
+     */
+    private Map<String, String> loadSettings() {
+        Map<String, String> snapshot = new HashMap<>();
+        String[] columns = { SettingsEntry.COLUMN_KEY, SettingsEntry.COLUMN_VALUE };
+
+        try (Cursor cursor = db.query(SettingsEntry.TABLE_NAME, columns,
+                null, null, null, null, null)) {
+            while (cursor.moveToNext())
+                snapshot.put(cursor.getString(0), cursor.getString(1));
+        }
 
-        Cursor cursor = db.query(SettingsEntry.TABLE_NAME, columns, selection,
-            selectionArgs, null, null, null);
+        return Collections.unmodifiableMap(snapshot);
+    }
 
-        String result = null;
-        if (cursor.moveToFirst())
-            result = cursor.getString(0);
-        cursor.close();
+    /**
+     * Schedules saving of the pending settings on the background executor.
+     *  After the database was closed the settings are changed only in the memory.
+     */
+    private void scheduleFlush() {
+        try {
+            background.schedule(this::flushSettings, SETTINGS_WRITE_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // the database is already closed and the pending settings were flushed by the close()
+        }
+    }
 
-        return result;
+    /**
+     * Saves every pending change of the settings into the database, using a single transaction.
+     * <br>
+     * The settings stay pending until the transaction is committed, so the failed write is retried later.
+     *  The setting changed again during the write stays pending as well, and it's saved by the next flush.
+     */
+    private void flushSettings() {
+        Map<String, String> batch;
+        synchronized (pendingSettings) {
+            if (pendingSettings.isEmpty())
+                return;
+
+            batch = new HashMap<>(pendingSettings);
+        }
+
+        boolean written = false;
+        try {
+            db.beginTransaction();
+            try {
+                for (Map.Entry<String, String> entry : batch.entrySet()) {
+                    ContentValues values = new ContentValues();
+                    values.put(SettingsEntry.COLUMN_KEY, entry.getKey());
+                    values.put(SettingsEntry.COLUMN_VALUE, entry.getValue());
+                    db.replace(SettingsEntry.TABLE_NAME, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            written = true;
+        } finally {
+            synchronized (pendingSettings) {
+                if (written) {
+                    for (Map.Entry<String, String> entry : batch.entrySet()) {
+                        if (TextUtils.equals(pendingSettings.get(entry.getKey()), entry.getValue()))
+                            pendingSettings.remove(entry.getKey());
+                    }
+                }
+                if (!pendingSettings.isEmpty())
+                    scheduleFlush();
+            }
+        }
     }
 
     /**
@@ -377,47 +1364,83 @@ public class DatabaseAdapter implements Closeable {
      * @return the cursor with list of the albums.
      */
     public AlbumCursor getCursor(boolean useLastOrdering, String... orderBy) {
-        StringBuilder sb = new StringBuilder(SQL_LIST_ALL).append(" ORDER BY ");
-        String majorOrder = null;
+        String order;
+        String majorOrder;
 
+        Ordering last = ordering;
         if (orderBy != null && orderBy.length > 0) {
-            String joined = TextUtils.join(", ", orderBy);
-            sb.append(joined);
-            majorOrder = orderBy[0];
-
-            if (lastOrderBy != null && lastOrderBy.equals(joined)) {
-                sb.insert(sb.indexOf(",", sb.lastIndexOf("ORDER BY")), ordering ? " DESC" : " ASC");
-                ordering = !ordering;
-            } else {
-                ordering = true;
-            }
-
-            lastOrderBy = joined;
-        } else if (useLastOrdering && !TextUtils.isEmpty(lastOrderBy)) {
-            sb.append(lastOrderBy);
-            majorOrder = lastOrderBy.split(", ")[0];
+            Ordering next = sort(orderBy);
+            order = next.clause;
+            majorOrder = next.major;
+        } else if (useLastOrdering && last != null) {
+            order = last.clause;
+            majorOrder = last.major;
         } else {
-            sb.append(Sort.TITLE);
+            order = Sort.TITLE;
             majorOrder = Sort.TITLE;
         }
 
-        return new AlbumCursor(db.rawQuery(sb.toString(), null),
-                majorOrder, this::getTracks);
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        AlbumQuery query = filter;
+        if (query != null)
+            query.appendTo(selection, args);
+
+        String rank = query == null ? null : query.getRank();
+        if (rank != null)
+            order = rank + ", " + order;
+
+        return new AlbumCursor(db.rawQuery(SQL_LIST_ALL + selection + " ORDER BY " + order,
+                args.toArray(new String[0])), majorOrder, this::getTracks);
+    }
+
+    /**
+     * Replaces the ordering of the album list. Choosing the same columns again flips the direction.
+     *
+     * @param orderBy the columns by which the list is sorted.
+     * @return the new ordering.
+     */
+    private synchronized Ordering sort(String[] orderBy) {
+        String joined = TextUtils.join(", ", orderBy);
+        StringBuilder sb = new StringBuilder(joined);
+        Ordering last = ordering;
+
+        boolean descending = true;
+        if (last != null && last.orderBy.equals(joined)) {
+            sb.insert(orderBy.length > 1 ? sb.indexOf(",") : sb.length(), last.descending ? " DESC" : " ASC");
+            descending = !last.descending;
+        }
+
+        Ordering next = new Ordering(joined, sb.toString(), orderBy[0], descending);
+        ordering = next;
+        return next;
+    }
+
+    /**
+     * Sets the filter applied to every album list created later by the {@link #getCursor(boolean, String...)}.
+     *
+     * @param query the filter or {@code null} to list every album. The query is copied.
+     */
+    public void setFilter(AlbumQuery query) {
+        filter = query == null || query.isEmpty() ? null : query.copy();
+    }
+
+    /**
+     * Gets the filter applied to the album list.
+     *
+     * @return the copy of the filter or {@code null} if every album is listed.
+     */
+    public AlbumQuery getFilter() {
+        AlbumQuery query = filter;
+        return query == null ? null : query.copy();
     }
 
     /**
      * Updates the currency rates. Can only be called once a day. Any other calls will be ignored.
      */
     public void updateRates() {
-        if (ratesUpdated == null) {
-            ratesUpdated = new SimpleStatement(
-                "SELECT " + SettingsEntry.COLUMN_VALUE + " " +
-                "FROM " + SettingsEntry.TABLE_NAME + " " +
-                "WHERE " + SettingsEntry.COLUMN_KEY + " = '" + SettingsEntry.KEY_RATE_UPDATE + "'");
-        }
-
         final String today = Exchange.DATE_FORMAT.format(new Date());
-        if (ratesUpdated.get().equals(today))
+        if (today.equals(getSetting(SettingsEntry.KEY_RATE_UPDATE)))
             return;
 
         Exchange.get().getRates(rates -> {
@@ -433,6 +1456,69 @@ public class DatabaseAdapter implements Closeable {
         });
     }
 
+    /**
+     * Regenerates the sort keys of every artist and album if the chosen language
+     *  differs from the one used to generate the currently saved keys.
+     * <br>
+     * Runs on the background executor. The listeners are notified about every album, as their order changed.
+     */
+    private void refreshSortKeys() {
+        Locale locale = getLocale();
+        String tag = locale.toString();
+        if (sortKeys.getLocale().equals(locale) && tag.equals(getSetting(SettingsEntry.KEY_SORT_LOCALE)))
+            return;
+
+        db.beginTransaction();
+        try {
+            SortKeys keys = sortKeys;
+            if (!keys.getLocale().equals(locale))
+                sortKeys = keys = new SortKeys(locale);
+
+            refreshSortKeys(keys, ArtistEntry.TABLE_NAME, ArtistEntry.COLUMN_NAME, ArtistEntry.COLUMN_SORT_KEY);
+            refreshSortKeys(keys, AlbumEntry.TABLE_NAME, AlbumEntry.COLUMN_TITLE, AlbumEntry.COLUMN_SORT_KEY);
+            setSetting(SettingsEntry.KEY_SORT_LOCALE, tag);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        notifyChange(DatabaseChange.Type.UPDATE, getAlbumIds());
+    }
+
+    /**
+     * Regenerates the sort keys of the given table.
+     *
+     * @param keys the generator of the keys.
+     * @param table target table.
+     * @param column the column from which the keys are generated.
+     * @param keyColumn the column into which the keys are saved.
+     */
+    private void refreshSortKeys(SortKeys keys, String table, String column, String keyColumn) {
+        try (SQLiteStatement statement = db.compileStatement(
+                "UPDATE " + table + " SET " + keyColumn + " = ? WHERE " + BaseColumns._ID + " = ?");
+             Cursor cursor = db.query(table, new String[] { BaseColumns._ID, column },
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                statement.bindBlob(1, keys.get(cursor.getString(1)));
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        }
+    }
+
+    /**
+     * Gets the locale of the language chosen in the settings.
+     *
+     * @return the locale of the chosen language.
+     */
+    private Locale getLocale() {
+        try {
+            return new Locale(Utilities.LANGUAGES[Integer.parseInt(getSetting(SettingsEntry.KEY_LANGUAGE))]);
+        } catch (RuntimeException ex) {
+            return Locale.getDefault();
+        }
+    }
+
     /**
      * Gets cursor from raw SQL query.
      *
@@ -455,6 +1541,108 @@ public class DatabaseAdapter implements Closeable {
         return db;
     }
 
+    /**
+     * Gets the generator of the collation keys for the currently chosen language.
+     * <br>
+     * Must be called inside of the transaction writing the keys, see the {@link #sortKeys}.
+     *
+     * @return the key generator.
+     */
+    SortKeys getSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * Called after the whole collection was replaced directly in the database, like by the
+     *  {@link LibrarySnapshot#restore(DatabaseAdapter, java.io.InputStream)}.
+     * Drops the cached IDs and notifies the listeners about every album in the collection.
+     */
+    void onReplaced() {
+        invalidateCaches();
+        notifyChange(DatabaseChange.Type.UPDATE, getAlbumIds());
+    }
+
+    /**
+     * Gets the IDs of every album in the collection.
+     *
+     * @return the IDs.
+     */
+    private long[] getAlbumIds() {
+        return getAlbumIds(null);
+    }
+
+    /**
+     * Gets the IDs of the albums matching the condition.
+     *
+     * @param where the condition on the {@link AlbumEntry} table or {@code null} to get every album.
+     * @return the IDs.
+     */
+    private long[] getAlbumIds(String where) {
+        try (Cursor c = db.query(AlbumEntry.TABLE_NAME, new String[] { AlbumEntry._ID },
+                where, null, null, null, null)) {
+            long[] ids = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++)
+                ids[i] = c.getLong(0);
+            return ids;
+        }
+    }
+
+    /**
+     * Writes the album received from the other device by the {@link LibrarySync}.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param purchases the same album with every of its purchases, the first one is written together
+     *        with the album. If its {@link Album#id} isn't -1, the existing album is replaced, keeping the ID.
+     * @return the ID of the written album.
+     */
+    long write(List<Album> purchases) {
+        Album album = purchases.get(0);
+        if (album.id != -1)
+            purge(AlbumEntry._ID + " = " + album.id);
+        insert(album, album.id);
+
+        // the album already exists, so only the purchases are added
+        for (int i = 1; i < purchases.size(); i++)
+            insert(purchases.get(i), -1);
+
+        return album.id;
+    }
+
+    /**
+     * Marks the album removed on the other device as deleted, see {@link #delete(long...)}.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param id the ID of the album.
+     */
+    void tombstone(long id) {
+        ContentValues values = new ContentValues();
+        values.put(AlbumEntry.COLUMN_DELETED, Utilities.getTime());
+        db.update(AlbumEntry.TABLE_NAME, values,
+                AlbumEntry._ID + " = " + id + " AND " + AlbumEntry.COLUMN_DELETED + " IS NULL", null);
+    }
+
+    /**
+     * Called after the changes received from the other device were saved.
+     * Notifies the listeners and schedules the removal of the replaced rows.
+     *
+     * @param inserted IDs of the added albums.
+     * @param updated IDs of the modified albums.
+     * @param deleted IDs of the deleted albums.
+     */
+    void onSynced(long[] inserted, long[] updated, long[] deleted) {
+        if (updated.length > 0 || deleted.length > 0)
+            scheduleCollection(TOMBSTONE_TTL);
+
+        if (inserted.length > 0)
+            notifyChange(DatabaseChange.Type.INSERT, inserted);
+        if (updated.length > 0)
+            notifyChange(DatabaseChange.Type.UPDATE, updated);
+        if (deleted.length > 0)
+            notifyChange(DatabaseChange.Type.DELETE, deleted);
+    }
+
     /**
      * Gets the list of tracks for chosen {@link Album#id}.
      *
@@ -467,9 +1655,22 @@ public class DatabaseAdapter implements Closeable {
 
     /**
      * Closes the database.
+     * <br>
+     * The pending background work is dropped, the deleted albums are collected on the next start.
+     *  The task already running is given up to {@link #CLOSE_TIMEOUT} milliseconds to finish,
+     *  so it doesn't use the database after it's closed.
      */
     @Override
     public void close() {
+        background.shutdownNow();
+        try {
+            // the closing isn't postponed any longer, even if the task is still running
+            background.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flushSettings();
+
         if (db != null)
             db.close();
     }
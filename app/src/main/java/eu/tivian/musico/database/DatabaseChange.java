@@ -0,0 +1,95 @@
+package eu.tivian.musico.database;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Describes a single modification of the album collection, emitted by the {@link DatabaseAdapter}.
+ */
+public class DatabaseChange {
+    /**
+     * Available types of the modification.
+     */
+    public enum Type {
+        /**
+         * New albums were added into the collection.
+         */
+        INSERT,
+
+        /**
+         * Existing albums were modified.
+         */
+        UPDATE,
+
+        /**
+         * Albums were removed from the collection.
+         */
+        DELETE
+    }
+
+    /**
+     * Callback invoked after the collection was modified.
+     * It's called on the thread which modified the database.
+     */
+    public interface Listener {
+        /**
+         * Called after the collection was modified.
+         *
+         * @param change description of the modification.
+         */
+        void onChange(@NonNull DatabaseChange change);
+    }
+
+    /**
+     * The type of the modification.
+     */
+    public final Type type;
+
+    /**
+     * Sorted {@link eu.tivian.musico.data.Album#id} values of the affected albums.
+     */
+    private final long[] ids;
+
+    /**
+     * Creates the description of the modification.
+     *
+     * @param type the type of the modification.
+     * @param ids IDs of the affected albums.
+     */
+    DatabaseChange(Type type, long... ids) {
+        this.type = type;
+        this.ids = ids.clone();
+        Arrays.sort(this.ids);
+    }
+
+    /**
+     * Gets the IDs of the affected albums.
+     *
+     * @return sorted array of album IDs.
+     */
+    public long[] getIds() {
+        return ids.clone();
+    }
+
+    /**
+     * Checks if the album with given ID was affected by this modification.
+     *
+     * @param id ID of the album.
+     * @return {@code true} if the album was affected.
+     */
+    public boolean contains(long id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * A string representation of this modification, used for debugging.
+     *
+     * @return a string representation of this modification.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        return type + Arrays.toString(ids);
+    }
+}
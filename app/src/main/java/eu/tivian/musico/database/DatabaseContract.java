@@ -2,6 +2,8 @@ package eu.tivian.musico.database;
 
 import android.provider.BaseColumns;
 
+import java.util.Locale;
+
 /**
  * Contract class which describes the schema of the database used for this app.
  */
@@ -13,21 +15,10 @@ public final class DatabaseContract {
     private DatabaseContract() { }
 
     /**
-     * SQL statement used to list all albums present in the database.
+     * The FROM clause shared by the statements listing the albums.
      */
-    public static String SQL_LIST_ALL =
-        "SELECT " +
-            AlbumEntry.TABLE_NAME    + "." + AlbumEntry._ID              + ", " +
-            ArtistEntry.TABLE_NAME   + "." + ArtistEntry.COLUMN_NAME     + ", " +
-            AlbumEntry.TABLE_NAME    + "." + AlbumEntry.COLUMN_TITLE     + ", " +
-            AlbumEntry.TABLE_NAME    + "." + AlbumEntry.COLUMN_YEAR      + ", " +
-            GenreEntry.TABLE_NAME    + "." + GenreEntry.COLUMN_NAME      + ", " +
-            AlbumEntry.TABLE_NAME    + "." + AlbumEntry.COLUMN_COVER     + ", " +
-            PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_DATE   + ", " +
-            StoreEntry.TABLE_NAME    + "." + StoreEntry.COLUMN_NAME      + ", " +
-            PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_PRICE  + ", " +
-            CurrencyEntry.TABLE_NAME + "." + CurrencyEntry.COLUMN_NAME   + " "  +
-        "FROM " + AlbumEntry.TABLE_NAME  + " " +
+    private static final String SQL_LIST_FROM =
+        " FROM " + AlbumEntry.TABLE_NAME  + " " +
         "JOIN " + ArtistEntry.TABLE_NAME + " " +
           "ON " + ArtistEntry.TABLE_NAME + "." + ArtistEntry._ID + " = "
                 + AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_ARTIST_ID + " " +
@@ -42,7 +33,26 @@ public final class DatabaseContract {
                 + PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_CURRENCY_ID + " " +
         "LEFT OUTER JOIN " + StoreEntry.TABLE_NAME + " " +
           "ON " + StoreEntry.TABLE_NAME    + "." + StoreEntry._ID + " = "
-                + PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_STORE_ID;
+                + PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_STORE_ID + " " +
+        "WHERE " + AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_DELETED + " IS NULL";
+
+    /**
+     * SQL statement used to list all albums present in the database.
+     */
+    public static String SQL_LIST_ALL =
+        "SELECT " +
+            AlbumEntry.TABLE_NAME    + "." + AlbumEntry._ID              + ", " +
+            ArtistEntry.TABLE_NAME   + "." + ArtistEntry.COLUMN_NAME     + ", " +
+            AlbumEntry.TABLE_NAME    + "." + AlbumEntry.COLUMN_TITLE     + ", " +
+            AlbumEntry.TABLE_NAME    + "." + AlbumEntry.COLUMN_YEAR      + ", " +
+            GenreEntry.TABLE_NAME    + "." + GenreEntry.COLUMN_NAME      + ", " +
+            AlbumEntry.TABLE_NAME    + "." + AlbumEntry.COLUMN_COVER     + ", " +
+            PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_DATE   + ", " +
+            StoreEntry.TABLE_NAME    + "." + StoreEntry.COLUMN_NAME      + ", " +
+            PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_PRICE  + ", " +
+            CurrencyEntry.TABLE_NAME + "." + CurrencyEntry.COLUMN_NAME   + ", " +
+            PurchaseEntry.TABLE_NAME + "." + PurchaseEntry._ID +
+        SQL_LIST_FROM;
 
     /**
      * SQL statement used to list all tracks for chosen album.
@@ -63,64 +73,171 @@ public final class DatabaseContract {
      * This field is used for things like database trigger creation, etc.
      */
     public static String[] SQL_STATEMENTS = {
-        "CREATE TRIGGER " + StoreEntry.TABLE_NAME + "_cascade " +
-            "AFTER DELETE ON " + PurchaseEntry.TABLE_NAME + " " +
-        "WHEN NOT EXISTS (SELECT * FROM " + PurchaseEntry.TABLE_NAME +
-                 " WHERE " + PurchaseEntry.COLUMN_STORE_ID + " = OLD." + PurchaseEntry.COLUMN_STORE_ID + ") " +
-        "BEGIN " +
-            "DELETE FROM " + StoreEntry.TABLE_NAME +
-                 " WHERE " + StoreEntry._ID + " = OLD." + PurchaseEntry.COLUMN_STORE_ID + "; " +
-        "END",
-
-        "CREATE TRIGGER " + CurrencyEntry.TABLE_NAME + "_cascade " +
-            "AFTER DELETE ON " + PurchaseEntry.TABLE_NAME + " " +
-        "WHEN NOT EXISTS (SELECT * FROM " + PurchaseEntry.TABLE_NAME +
-                 " WHERE " + PurchaseEntry.COLUMN_CURRENCY_ID + " = OLD." + PurchaseEntry.COLUMN_CURRENCY_ID + ") " +
-        "BEGIN " +
-            "DELETE FROM " + CurrencyEntry.TABLE_NAME +
-                 " WHERE " + CurrencyEntry._ID + " = OLD." + PurchaseEntry.COLUMN_CURRENCY_ID + "; " +
-        "END",
-
-        "CREATE TRIGGER " + AlbumEntry.TABLE_NAME + "_cascade " +
-            "AFTER DELETE ON " + PurchaseEntry.TABLE_NAME + " " +
-        "BEGIN " +
-            "DELETE FROM " + AlbumEntry.TABLE_NAME +
-                 " WHERE " + AlbumEntry._ID + " = OLD." + PurchaseEntry.COLUMN_ALBUM_ID + "; " +
-        "END",
-
-        "CREATE TRIGGER " + TrackEntry.TABLE_NAME + "_cascade " +
-            "AFTER DELETE ON " + AlbumEntry.TABLE_NAME + " " +
-        "BEGIN " +
-            "DELETE FROM " + TrackEntry.TABLE_NAME +
-                 " WHERE " + TrackEntry.COLUMN_ALBUM_ID + " = OLD." + AlbumEntry._ID + "; " +
-        "END",
-
-        "CREATE TRIGGER " + SongEntry.TABLE_NAME + "_cascade " +
-            "AFTER DELETE ON " + TrackEntry.TABLE_NAME + " " +
-        "WHEN NOT EXISTS (SELECT * FROM " + TrackEntry.TABLE_NAME +
-                 " WHERE " + TrackEntry.COLUMN_SONG_ID + " = OLD." + TrackEntry.COLUMN_SONG_ID + ") " +
-        "BEGIN " +
-            "DELETE FROM " + SongEntry.TABLE_NAME +
-                 " WHERE " + SongEntry._ID + " = OLD." + TrackEntry.COLUMN_SONG_ID + "; " +
-        "END",
-
-        "CREATE TRIGGER " + ArtistEntry.TABLE_NAME + "_cascade " +
-            "AFTER DELETE ON " + AlbumEntry.TABLE_NAME + " " +
-        "WHEN NOT EXISTS (SELECT * FROM " + AlbumEntry.TABLE_NAME +
-                 " WHERE " + AlbumEntry.COLUMN_ARTIST_ID + " = OLD." + AlbumEntry.COLUMN_ARTIST_ID + ") " +
-        "BEGIN " +
-            "DELETE FROM " + ArtistEntry.TABLE_NAME +
-                 " WHERE " + ArtistEntry._ID + " = OLD." + AlbumEntry.COLUMN_ARTIST_ID + "; " +
-        "END",
-
-        "CREATE TRIGGER " + GenreEntry.TABLE_NAME + "_cascade " +
-            "AFTER DELETE ON " + AlbumEntry.TABLE_NAME + " " +
-        "WHEN NOT EXISTS (SELECT * FROM " + AlbumEntry.TABLE_NAME +
-                 " WHERE " + AlbumEntry.COLUMN_GENRE_ID + " = OLD." + AlbumEntry.COLUMN_GENRE_ID + ") " +
-        "BEGIN " +
-            "DELETE FROM " + GenreEntry.TABLE_NAME +
-                 " WHERE " + GenreEntry._ID + " = OLD." + AlbumEntry.COLUMN_GENRE_ID + "; " +
-        "END"
+        ChangeLogEntry.trigger(AlbumEntry.TABLE_NAME, "INSERT", "NEW." + AlbumEntry._ID),
+        ChangeLogEntry.trigger(AlbumEntry.TABLE_NAME, "UPDATE OF " +
+            AlbumEntry.COLUMN_ARTIST_ID + ", " + AlbumEntry.COLUMN_TITLE + ", " + AlbumEntry.COLUMN_YEAR + ", " +
+            AlbumEntry.COLUMN_GENRE_ID + ", " + AlbumEntry.COLUMN_COVER + ", " + AlbumEntry.COLUMN_DELETED,
+            "NEW." + AlbumEntry._ID),
+        ChangeLogEntry.trigger(AlbumEntry.TABLE_NAME, "DELETE", "OLD." + AlbumEntry._ID),
+
+        ChangeLogEntry.trigger(PurchaseEntry.TABLE_NAME, "INSERT", "NEW." + PurchaseEntry._ID),
+        ChangeLogEntry.trigger(PurchaseEntry.TABLE_NAME, "UPDATE", "NEW." + PurchaseEntry._ID),
+        ChangeLogEntry.trigger(PurchaseEntry.TABLE_NAME, "DELETE", "OLD." + PurchaseEntry._ID),
+
+        // the track has no ID of its own, the album is the changed entity
+        ChangeLogEntry.trigger(TrackEntry.TABLE_NAME, "INSERT", "NEW." + TrackEntry.COLUMN_ALBUM_ID),
+        ChangeLogEntry.trigger(TrackEntry.TABLE_NAME, "UPDATE", "NEW." + TrackEntry.COLUMN_ALBUM_ID),
+        ChangeLogEntry.trigger(TrackEntry.TABLE_NAME, "DELETE", "OLD." + TrackEntry.COLUMN_ALBUM_ID),
+
+        ChangeLogEntry.trigger(SongEntry.TABLE_NAME, "INSERT", "NEW." + SongEntry._ID),
+        ChangeLogEntry.trigger(SongEntry.TABLE_NAME, "UPDATE OF " +
+            SongEntry.COLUMN_TITLE + ", " + SongEntry.COLUMN_DURATION, "NEW." + SongEntry._ID),
+        ChangeLogEntry.trigger(SongEntry.TABLE_NAME, "DELETE", "OLD." + SongEntry._ID)
+    };
+
+    /**
+     * Names of the cascade triggers used before the deletion was replaced by the tombstones.
+     */
+    static final String[] SQL_LEGACY_TRIGGERS = {
+        StoreEntry.TABLE_NAME + "_cascade",
+        CurrencyEntry.TABLE_NAME + "_cascade",
+        AlbumEntry.TABLE_NAME + "_cascade",
+        TrackEntry.TABLE_NAME + "_cascade",
+        SongEntry.TABLE_NAME + "_cascade",
+        ArtistEntry.TABLE_NAME + "_cascade",
+        GenreEntry.TABLE_NAME + "_cascade"
+    };
+
+    /**
+     * SQL statements removing the albums matching the condition, together with their tracks and purchases.
+     * <br>
+     * Every statement has to be formatted with the condition on the {@link AlbumEntry} table.
+     */
+    static final String[] SQL_PURGE_FORMAT = {
+        "DELETE FROM " + TrigramEntry.TABLE_NAME + " " +
+        "WHERE " + TrigramEntry.COLUMN_ALBUM_ID + " IN " +
+            "(SELECT " + AlbumEntry._ID + " FROM " + AlbumEntry.TABLE_NAME + " WHERE %1$s)",
+
+        "DELETE FROM " + TrackEntry.TABLE_NAME + " " +
+        "WHERE " + TrackEntry.COLUMN_ALBUM_ID + " IN " +
+            "(SELECT " + AlbumEntry._ID + " FROM " + AlbumEntry.TABLE_NAME + " WHERE %1$s)",
+
+        "DELETE FROM " + PurchaseEntry.TABLE_NAME + " " +
+        "WHERE " + PurchaseEntry.COLUMN_ALBUM_ID + " IN " +
+            "(SELECT " + AlbumEntry._ID + " FROM " + AlbumEntry.TABLE_NAME + " WHERE %1$s)",
+
+        "DELETE FROM " + AlbumEntry.TABLE_NAME + " WHERE %1$s"
+    };
+
+    /**
+     * SQL statements removing the songs, artists, genres, stores and currencies no longer referenced
+     *  by any album or purchase.
+     * <br>
+     * The order of the statements is relied on by the collector, which drops the cache of the table
+     *  only if its statement removed any row.
+     */
+    static final String[] SQL_COLLECT_ORPHANS = {
+        "DELETE FROM " + SongEntry.TABLE_NAME + " " +
+        "WHERE " + SongEntry._ID + " NOT IN " +
+            "(SELECT " + TrackEntry.COLUMN_SONG_ID + " FROM " + TrackEntry.TABLE_NAME + ")",
+
+        "DELETE FROM " + ArtistEntry.TABLE_NAME + " " +
+        "WHERE " + ArtistEntry._ID + " NOT IN " +
+            "(SELECT " + AlbumEntry.COLUMN_ARTIST_ID + " FROM " + AlbumEntry.TABLE_NAME + ")",
+
+        "DELETE FROM " + GenreEntry.TABLE_NAME + " " +
+        "WHERE " + GenreEntry._ID + " NOT IN " +
+            "(SELECT " + AlbumEntry.COLUMN_GENRE_ID + " FROM " + AlbumEntry.TABLE_NAME + " " +
+             "WHERE " + AlbumEntry.COLUMN_GENRE_ID + " IS NOT NULL)",
+
+        "DELETE FROM " + StoreEntry.TABLE_NAME + " " +
+        "WHERE " + StoreEntry._ID + " NOT IN " +
+            "(SELECT " + PurchaseEntry.COLUMN_STORE_ID + " FROM " + PurchaseEntry.TABLE_NAME + " " +
+             "WHERE " + PurchaseEntry.COLUMN_STORE_ID + " IS NOT NULL)",
+
+        "DELETE FROM " + CurrencyEntry.TABLE_NAME + " " +
+        "WHERE " + CurrencyEntry._ID + " NOT IN " +
+            "(SELECT " + PurchaseEntry.COLUMN_CURRENCY_ID + " FROM " + PurchaseEntry.TABLE_NAME + ")"
+    };
+
+    /**
+     * Array of SQL statements creating the indexes, executed when the database is created for the first time.
+     */
+    public static String[] SQL_INDEXES = {
+        "CREATE INDEX " + ArtistEntry.TABLE_NAME + "_" + ArtistEntry.COLUMN_SORT_KEY + " " +
+            "ON " + ArtistEntry.TABLE_NAME + " (" + ArtistEntry.COLUMN_SORT_KEY + ")",
+
+        "CREATE INDEX " + AlbumEntry.TABLE_NAME + "_" + AlbumEntry.COLUMN_SORT_KEY + " " +
+            "ON " + AlbumEntry.TABLE_NAME + " (" + AlbumEntry.COLUMN_SORT_KEY + ")",
+
+        "CREATE INDEX " + AlbumEntry.TABLE_NAME + "_" + AlbumEntry.COLUMN_DELETED + " " +
+            "ON " + AlbumEntry.TABLE_NAME + " (" + AlbumEntry.COLUMN_DELETED + ") " +
+            "WHERE " + AlbumEntry.COLUMN_DELETED + " IS NOT NULL",
+
+        "CREATE INDEX " + AlbumEntry.TABLE_NAME + "_" + AlbumEntry.COLUMN_GENRE_ID + " " +
+            "ON " + AlbumEntry.TABLE_NAME + " (" + AlbumEntry.COLUMN_GENRE_ID + ")",
+
+        "CREATE INDEX " + AlbumEntry.TABLE_NAME + "_" + AlbumEntry.COLUMN_YEAR + " " +
+            "ON " + AlbumEntry.TABLE_NAME + " (" + AlbumEntry.COLUMN_YEAR + ")",
+
+        "CREATE INDEX " + PurchaseEntry.TABLE_NAME + "_" + PurchaseEntry.COLUMN_STORE_ID + " " +
+            "ON " + PurchaseEntry.TABLE_NAME + " (" + PurchaseEntry.COLUMN_STORE_ID + ")",
+
+        "CREATE INDEX " + PurchaseEntry.TABLE_NAME + "_" + PurchaseEntry.COLUMN_CURRENCY_ID + " " +
+            "ON " + PurchaseEntry.TABLE_NAME + " (" + PurchaseEntry.COLUMN_CURRENCY_ID + ")",
+
+        "CREATE INDEX " + PurchaseEntry.TABLE_NAME + "_" + PurchaseEntry.COLUMN_PRICE + " " +
+            "ON " + PurchaseEntry.TABLE_NAME + " (" + PurchaseEntry.COLUMN_PRICE + ")",
+
+        "CREATE INDEX " + PurchaseEntry.TABLE_NAME + "_" + PurchaseEntry.COLUMN_DATE + " " +
+            "ON " + PurchaseEntry.TABLE_NAME + " (" + PurchaseEntry.COLUMN_DATE + ")",
+
+        "CREATE INDEX " + TrigramEntry.TABLE_NAME + "_" + TrigramEntry.COLUMN_ALBUM_ID + " " +
+            "ON " + TrigramEntry.TABLE_NAME + " (" + TrigramEntry.COLUMN_ALBUM_ID + ")",
+
+        "CREATE INDEX " + ArtistEntry.TABLE_NAME + "_" + ArtistEntry.COLUMN_KEY + " " +
+            "ON " + ArtistEntry.TABLE_NAME + " (" + ArtistEntry.COLUMN_KEY + ")",
+
+        "CREATE INDEX " + AlbumEntry.TABLE_NAME + "_" + AlbumEntry.COLUMN_KEY + " " +
+            "ON " + AlbumEntry.TABLE_NAME + " (" + AlbumEntry.COLUMN_KEY + ")",
+
+        "CREATE INDEX " + SongEntry.TABLE_NAME + "_" + SongEntry.COLUMN_KEY + " " +
+            "ON " + SongEntry.TABLE_NAME + " (" + SongEntry.COLUMN_KEY + ")",
+
+        "CREATE INDEX " + GenreEntry.TABLE_NAME + "_" + GenreEntry.COLUMN_KEY + " " +
+            "ON " + GenreEntry.TABLE_NAME + " (" + GenreEntry.COLUMN_KEY + ")",
+
+        "CREATE INDEX " + StoreEntry.TABLE_NAME + "_" + StoreEntry.COLUMN_KEY + " " +
+            "ON " + StoreEntry.TABLE_NAME + " (" + StoreEntry.COLUMN_KEY + ")",
+
+        "CREATE INDEX " + ChangeLogEntry.TABLE_NAME + "_" + ChangeLogEntry.COLUMN_ENTITY_ID + " " +
+            "ON " + ChangeLogEntry.TABLE_NAME + " (" +
+                ChangeLogEntry.COLUMN_ENTITY + ", " + ChangeLogEntry.COLUMN_ENTITY_ID + ")",
+
+        "CREATE INDEX " + AlbumEntry.TABLE_NAME + "_" + AlbumEntry.COLUMN_COVER_HASH + " " +
+            "ON " + AlbumEntry.TABLE_NAME + " (" + AlbumEntry.COLUMN_COVER_HASH + ") " +
+            "WHERE " + AlbumEntry.COLUMN_COVER_HASH + " IS NOT NULL",
+
+        "CREATE INDEX " + SyncBaseEntry.TABLE_NAME + "_" + SyncBaseEntry.COLUMN_ALBUM_ID + " " +
+            "ON " + SyncBaseEntry.TABLE_NAME + " (" + SyncBaseEntry.COLUMN_PEER + ", " + SyncBaseEntry.COLUMN_ALBUM_ID + ")",
+
+        "CREATE INDEX " + ImageCacheEntry.TABLE_NAME + "_" + ImageCacheEntry.COLUMN_EXPIRES + " " +
+            "ON " + ImageCacheEntry.TABLE_NAME + " (" + ImageCacheEntry.COLUMN_EXPIRES + ")",
+
+        "CREATE INDEX " + BarcodeEntry.TABLE_NAME + "_" + BarcodeEntry.COLUMN_EXPIRES + " " +
+            "ON " + BarcodeEntry.TABLE_NAME + " (" + BarcodeEntry.COLUMN_EXPIRES + ")"
+    };
+
+    /**
+     * Tables with the normalized search key, each with the column from which the key is computed
+     *  and the column holding the key.
+     */
+    static final String[][] SQL_KEYED_COLUMNS = {
+        { ArtistEntry.TABLE_NAME, ArtistEntry.COLUMN_NAME, ArtistEntry.COLUMN_KEY },
+        { AlbumEntry.TABLE_NAME,  AlbumEntry.COLUMN_TITLE, AlbumEntry.COLUMN_KEY  },
+        { SongEntry.TABLE_NAME,   SongEntry.COLUMN_TITLE,  SongEntry.COLUMN_KEY   },
+        { GenreEntry.TABLE_NAME,  GenreEntry.COLUMN_NAME,  GenreEntry.COLUMN_KEY  },
+        { StoreEntry.TABLE_NAME,  StoreEntry.COLUMN_NAME,  StoreEntry.COLUMN_KEY  }
     };
 
     /**
@@ -142,6 +259,11 @@ public final class DatabaseContract {
          */
         public static final String COLUMN_DURATION = "duration";
 
+        /**
+         * The name of the column for the normalized song title, used for searching.
+         */
+        public static final String COLUMN_KEY = "search_key";
+
         /**
          * SQL statement used to create this table.
          */
@@ -150,6 +272,7 @@ public final class DatabaseContract {
                         _ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
                COLUMN_TITLE + " TEXT NOT NULL, " +
             COLUMN_DURATION + " TEXT, " +
+                 COLUMN_KEY + " TEXT, " +
                  "UNIQUE (" + COLUMN_TITLE + ", " + COLUMN_DURATION + ") " + ")";
     }
 
@@ -167,13 +290,25 @@ public final class DatabaseContract {
          */
         public static final String COLUMN_NAME = "name";
 
+        /**
+         * The name of the column for the locale aware collation key of the artist name.
+         */
+        public static final String COLUMN_SORT_KEY = "sort_key";
+
+        /**
+         * The name of the column for the normalized artist name, used for searching.
+         */
+        public static final String COLUMN_KEY = "search_key";
+
         /**
          * SQL statement used to create this table.
          */
         static  final String SQL_SCHEMA =
             "CREATE TABLE " + TABLE_NAME + " ( " +
                         _ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
-                COLUMN_NAME + " TEXT UNIQUE NOT NULL " + ")";
+                COLUMN_NAME + " TEXT UNIQUE NOT NULL, " +
+            COLUMN_SORT_KEY + " BLOB, " +
+                 COLUMN_KEY + " TEXT " + ")";
     }
 
     /**
@@ -210,6 +345,28 @@ public final class DatabaseContract {
          */
         public static final String COLUMN_COVER = "cover";
 
+        /**
+         * The name of the column for the locale aware collation key of the album title.
+         */
+        public static final String COLUMN_SORT_KEY = "sort_key";
+
+        /**
+         * The name of the column for the time of the deletion, in milliseconds since the epoch.
+         * Albums which aren't deleted have it set to {@code NULL}.
+         */
+        public static final String COLUMN_DELETED = "deleted";
+
+        /**
+         * The name of the column for the normalized album title, used for searching.
+         */
+        public static final String COLUMN_KEY = "search_key";
+
+        /**
+         * The name of the column for the SHA-1 hash of the cover art, in hexadecimal.
+         * Used to find the same image without comparing the images themselves.
+         */
+        public static final String COLUMN_COVER_HASH = "cover_hash";
+
         /**
          * SQL statement used to create this table.
          */
@@ -221,6 +378,10 @@ public final class DatabaseContract {
                 COLUMN_YEAR + " INTEGER NOT NULL, " +
             COLUMN_GENRE_ID + " INTEGER, " +
                COLUMN_COVER + " BLOB, " +
+            COLUMN_SORT_KEY + " BLOB, " +
+             COLUMN_DELETED + " INTEGER, " +
+                 COLUMN_KEY + " TEXT, " +
+          COLUMN_COVER_HASH + " TEXT, " +
             "FOREIGN KEY (" + COLUMN_ARTIST_ID + ") REFERENCES " + ArtistEntry.TABLE_NAME + "(" + ArtistEntry._ID + "), " +
             "FOREIGN KEY (" + COLUMN_GENRE_ID + ") REFERENCES " + GenreEntry.TABLE_NAME + "(" + GenreEntry._ID + "), "+
                  "UNIQUE (" + COLUMN_ARTIST_ID + ", " + COLUMN_TITLE + ", " + COLUMN_YEAR + ") " + ")";
@@ -257,6 +418,38 @@ public final class DatabaseContract {
             "FOREIGN KEY (" + COLUMN_ALBUM_ID + ") REFERENCES " + AlbumEntry.TABLE_NAME + "(" + AlbumEntry._ID + ") " + ")";
     }
 
+    /**
+     * A representation of the schema for table of the search index.
+     * Every row maps the trigram of the normalized text to the album containing it.
+     */
+    public static class TrigramEntry {
+        /**
+         * The name of the table.
+         */
+        public static final String TABLE_NAME = "trigram";
+
+        /**
+         * The name of the column for the trigram.
+         */
+        public static final String COLUMN_TRIGRAM = "trigram";
+
+        /**
+         * The name of the column for the foreign key associated with the {@link AlbumEntry}{@code ._ID}.
+         */
+        public static final String COLUMN_ALBUM_ID = "album_id";
+
+        /**
+         * SQL statement used to create this table.
+         */
+        static final String SQL_SCHEMA =
+            "CREATE TABLE " + TABLE_NAME + " ( " +
+             COLUMN_TRIGRAM + " TEXT NOT NULL, " +
+            COLUMN_ALBUM_ID + " INTEGER NOT NULL, " +
+            "PRIMARY KEY (" + COLUMN_TRIGRAM + ", " + COLUMN_ALBUM_ID + "), " +
+            "FOREIGN KEY (" + COLUMN_ALBUM_ID + ") REFERENCES " + AlbumEntry.TABLE_NAME + "(" + AlbumEntry._ID + ") " +
+            ") WITHOUT ROWID";
+    }
+
     /**
      * A representation of the schema for table of genres.
      */
@@ -271,13 +464,19 @@ public final class DatabaseContract {
          */
         public static final String COLUMN_NAME = "name";
 
+        /**
+         * The name of the column for the normalized genre name, used for searching.
+         */
+        public static final String COLUMN_KEY = "search_key";
+
         /**
          * SQL statement used to create this table.
          */
         static final String SQL_SCHEMA =
             "CREATE TABLE " + TABLE_NAME + " ( " +
                         _ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
-                COLUMN_NAME + " TEXT UNIQUE NOT NULL " + ")";
+                COLUMN_NAME + " TEXT UNIQUE NOT NULL, " +
+                 COLUMN_KEY + " TEXT " + ")";
     }
 
     /**
@@ -294,13 +493,19 @@ public final class DatabaseContract {
          */
         public static final String COLUMN_NAME = "name";
 
+        /**
+         * The name of the column for the normalized store name, used for searching.
+         */
+        public static final String COLUMN_KEY = "search_key";
+
         /**
          * SQL statement used to create this table.
          */
         static final String SQL_SCHEMA =
             "CREATE TABLE " + TABLE_NAME + " ( " +
                         _ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
-                COLUMN_NAME + " TEXT UNIQUE NOT NULL " + ")";
+                COLUMN_NAME + " TEXT UNIQUE NOT NULL, " +
+                 COLUMN_KEY + " TEXT " + ")";
     }
 
     /**
@@ -385,6 +590,236 @@ public final class DatabaseContract {
                  "UNIQUE (" + COLUMN_ALBUM_ID + ", " + COLUMN_STORE_ID + ", " + COLUMN_PRICE + ", " + COLUMN_CURRENCY_ID + ", " + COLUMN_DATE + ")" + ")";
     }
 
+    /**
+     * A representation of the schema for the append-only log of the changes of the collection.
+     * The rows are added by the triggers from {@link #SQL_STATEMENTS}.
+     */
+    public static class ChangeLogEntry implements BaseColumns {
+        /**
+         * The name of the table.
+         */
+        public static final String TABLE_NAME = "change_log";
+
+        /**
+         * The name of the column for the name of the changed table.
+         */
+        public static final String COLUMN_ENTITY = "entity";
+
+        /**
+         * The name of the column for the ID of the changed row.
+         * For the tracks it's the ID of the album.
+         */
+        public static final String COLUMN_ENTITY_ID = "entity_id";
+
+        /**
+         * The name of the column for the operation, one of {@link #OP_INSERT},
+         *  {@link #OP_UPDATE}, {@link #OP_DELETE} or {@link #OP_RESET}.
+         */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /**
+         * The row was inserted.
+         */
+        public static final String OP_INSERT = "I";
+
+        /**
+         * The row was updated.
+         */
+        public static final String OP_UPDATE = "U";
+
+        /**
+         * The row was deleted.
+         */
+        public static final String OP_DELETE = "D";
+
+        /**
+         * The whole collection was replaced, so every derived data has to be rebuilt.
+         */
+        public static final String OP_RESET = "R";
+
+        /**
+         * SQL statement used to create this table.
+         * The {@code AUTOINCREMENT} guarantees that the IDs, used as the sequence numbers, are never reused.
+         */
+        static final String SQL_SCHEMA =
+            "CREATE TABLE " + TABLE_NAME + " ( " +
+                        _ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+              COLUMN_ENTITY + " TEXT NOT NULL, " +
+           COLUMN_ENTITY_ID + " INTEGER NOT NULL, " +
+           COLUMN_OPERATION + " TEXT NOT NULL " + ")";
+
+        /**
+         * Creates the SQL statement of the trigger logging the changes of the table.
+         *
+         * @param table the logged table.
+         * @param event the event, e.g. {@code INSERT} or {@code UPDATE OF title}.
+         * @param id the expression evaluating to the ID of the changed row.
+         * @return the SQL statement.
+         */
+        static String trigger(String table, String event, String id) {
+            String operation = event.startsWith("INSERT") ? OP_INSERT
+                : event.startsWith("UPDATE") ? OP_UPDATE : OP_DELETE;
+
+            return "CREATE TRIGGER " + table + "_log_" + event.split(" ")[0].toLowerCase(Locale.ROOT) + " " +
+                "AFTER " + event + " ON " + table + " " +
+                "BEGIN " +
+                    "INSERT INTO " + TABLE_NAME + " (" +
+                        COLUMN_ENTITY + ", " + COLUMN_ENTITY_ID + ", " + COLUMN_OPERATION + ") " +
+                    "VALUES ('" + table + "', " + id + ", '" + operation + "'); " +
+                "END";
+        }
+    }
+
+    /**
+     * A representation of the schema for the positions of the change log consumers.
+     */
+    public static class ChangeConsumerEntry {
+        /**
+         * The name of the table.
+         */
+        public static final String TABLE_NAME = "change_consumer";
+
+        /**
+         * The name of the column for the unique name of the consumer.
+         */
+        public static final String COLUMN_NAME = "name";
+
+        /**
+         * The name of the column for the ID of the last change log entry processed by the consumer.
+         */
+        public static final String COLUMN_POSITION = "position";
+
+        /**
+         * SQL statement used to create this table.
+         */
+        static final String SQL_SCHEMA =
+            "CREATE TABLE " + TABLE_NAME + " ( " +
+                COLUMN_NAME + " TEXT PRIMARY KEY NOT NULL, " +
+            COLUMN_POSITION + " INTEGER NOT NULL " + ")";
+    }
+
+    /**
+     * A representation of the schema for the state of the albums at the last synchronization with other device.
+     * It's the common ancestor used to find out which device changed the field.
+     */
+    public static class SyncBaseEntry {
+        /**
+         * The name of the table.
+         */
+        public static final String TABLE_NAME = "sync_base";
+
+        /**
+         * The name of the column for the ID of the other device.
+         */
+        public static final String COLUMN_PEER = "peer";
+
+        /**
+         * The name of the column for the key identifying the album on every device.
+         */
+        public static final String COLUMN_KEY = "album_key";
+
+        /**
+         * The name of the column for the local {@link AlbumEntry}{@code ._ID} of the album.
+         * It's used to find the key of the album which was already removed.
+         */
+        public static final String COLUMN_ALBUM_ID = "album_id";
+
+        /**
+         * The name of the column for the synchronized fields of the album, as the JSON object.
+         */
+        public static final String COLUMN_FIELDS = "fields";
+
+        /**
+         * SQL statement used to create this table.
+         */
+        static final String SQL_SCHEMA =
+            "CREATE TABLE " + TABLE_NAME + " ( " +
+                COLUMN_PEER + " TEXT NOT NULL, " +
+                 COLUMN_KEY + " TEXT NOT NULL, " +
+            COLUMN_ALBUM_ID + " INTEGER NOT NULL, " +
+              COLUMN_FIELDS + " TEXT NOT NULL, " +
+            "PRIMARY KEY (" + COLUMN_PEER + ", " + COLUMN_KEY + ") " +
+            ") WITHOUT ROWID";
+    }
+
+    /**
+     * A representation of the schema for the cached URLs of the images found by the external services,
+     *  like the artist icons. It's not a part of the collection.
+     */
+    public static class ImageCacheEntry {
+        /**
+         * The name of the table.
+         */
+        public static final String TABLE_NAME = "image_cache";
+
+        /**
+         * The name of the column for the key of the lookup, prefixed by its type.
+         */
+        public static final String COLUMN_KEY = "key";
+
+        /**
+         * The name of the column for the URL of the image.
+         */
+        public static final String COLUMN_URL = "url";
+
+        /**
+         * The name of the column for the time after which the URL has to be looked up again, in milliseconds.
+         */
+        public static final String COLUMN_EXPIRES = "expires";
+
+        /**
+         * SQL statement used to create this table.
+         */
+        static final String SQL_SCHEMA =
+            "CREATE TABLE " + TABLE_NAME + " ( " +
+                    COLUMN_KEY + " TEXT PRIMARY KEY NOT NULL, " +
+                    COLUMN_URL + " TEXT NOT NULL, " +
+                COLUMN_EXPIRES + " INTEGER NOT NULL " +
+            ") WITHOUT ROWID";
+    }
+
+    /**
+     * A representation of the schema for the albums found on the Discogs by their barcodes.
+     *  It's not a part of the collection.
+     */
+    public static class BarcodeEntry {
+        /**
+         * The name of the table.
+         */
+        public static final String TABLE_NAME = "barcode_cache";
+
+        /**
+         * The name of the column for the EAN-13 or UPC-A barcode.
+         */
+        public static final String COLUMN_BARCODE = "barcode";
+
+        /**
+         * The name of the column for the URL of the Discogs release.
+         */
+        public static final String COLUMN_RELEASE = "release";
+
+        /**
+         * The name of the column for the album, written by the {@link eu.tivian.musico.data.AlbumJson}.
+         */
+        public static final String COLUMN_ALBUM = "album";
+
+        /**
+         * The name of the column for the time after which the barcode has to be looked up again, in milliseconds.
+         */
+        public static final String COLUMN_EXPIRES = "expires";
+
+        /**
+         * SQL statement used to create this table.
+         */
+        static final String SQL_SCHEMA =
+            "CREATE TABLE " + TABLE_NAME + " ( " +
+                COLUMN_BARCODE + " TEXT PRIMARY KEY NOT NULL, " +
+                COLUMN_RELEASE + " TEXT NOT NULL, " +
+                  COLUMN_ALBUM + " TEXT NOT NULL, " +
+                COLUMN_EXPIRES + " INTEGER NOT NULL " +
+            ") WITHOUT ROWID";
+    }
+
     /**
      * A representation of the schema for table of settings.
      */
@@ -419,6 +854,22 @@ public final class DatabaseContract {
          */
         public static final String KEY_RATE_UPDATE = "rates_update";
 
+        /**
+         * The setting key for the locale used to generate the sort keys of artists and albums.
+         */
+        public static final String KEY_SORT_LOCALE = "sort_locale";
+
+        /**
+         * The setting key for the random ID of this device, used by the synchronization.
+         */
+        public static final String KEY_SYNC_DEVICE = "sync_device";
+
+        /**
+         * The prefix of the setting key for the last sequence number received from the other device,
+         *  followed by the ID of that device.
+         */
+        public static final String KEY_SYNC_POSITION = "sync_position.";
+
         /**
          * SQL statement used to create this table.
          */
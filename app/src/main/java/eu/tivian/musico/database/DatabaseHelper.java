@@ -4,6 +4,15 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
+import static eu.tivian.musico.database.DatabaseContract.BarcodeEntry;
+import static eu.tivian.musico.database.DatabaseContract.ChangeConsumerEntry;
+import static eu.tivian.musico.database.DatabaseContract.ChangeLogEntry;
+import static eu.tivian.musico.database.DatabaseContract.ImageCacheEntry;
+import static eu.tivian.musico.database.DatabaseContract.SyncBaseEntry;
+import static eu.tivian.musico.database.DatabaseContract.TrigramEntry;
+
 /**
  * A helper class to manage database creation and version management.
  */
@@ -11,7 +20,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     /**
      * Current schema version for the database.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 13;
+
+    /**
+     * The oldest schema version which can be upgraded without dropping the tables.
+     */
+    private static final int MIGRATION_MIN_VERSION = 3;
 
     /**
      * The database file name.
@@ -43,7 +57,31 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @param context to use for locating paths to the the database.
      */
     DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Create a helper object for the database with the given name.
+     *
+     * @param context to use for locating paths to the the database.
+     * @param name the name of the database file, or {@code null} for the in-memory database.
+     */
+    DatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Called when the database connection is being configured, before the database is created or migrated.
+     * <br>
+     * Requests the incremental auto-vacuum, so the pages freed by the deleted rows can be returned
+     *  to the file system in small chunks. It takes effect immediately only for the new database,
+     *  the existing one is converted by the next {@code VACUUM}.
+     *
+     * @param db the database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     /**
@@ -65,11 +103,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         for (String sql : DatabaseContract.SQL_STATEMENTS)
             db.execSQL(sql);
+
+        for (String sql : DatabaseContract.SQL_INDEXES)
+            db.execSQL(sql);
     }
 
     /**
      * Called when the database needs to be upgraded. The implementation should use this method to drop tables,
      * add tables, or do anything else it needs to upgrade to the new schema version.
+     * <br>
+     * Schemas older than {@link #MIGRATION_MIN_VERSION} are recreated from scratch,
+     *  newer ones are migrated step by step, so the collection is preserved.
      *
      * @param db the database.
      * @param oldVersion the old database version.
@@ -77,6 +121,70 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < MIGRATION_MIN_VERSION) {
+            recreate(db);
+            return;
+        }
+
+        switch (oldVersion) {
+            case 3:
+                db.execSQL("ALTER TABLE " + ArtistEntry.TABLE_NAME +
+                    " ADD COLUMN " + ArtistEntry.COLUMN_SORT_KEY + " BLOB");
+                db.execSQL("ALTER TABLE " + AlbumEntry.TABLE_NAME +
+                    " ADD COLUMN " + AlbumEntry.COLUMN_SORT_KEY + " BLOB");
+                db.execSQL(DatabaseContract.SQL_INDEXES[0]);
+                db.execSQL(DatabaseContract.SQL_INDEXES[1]);
+            case 4:
+                db.execSQL("ALTER TABLE " + AlbumEntry.TABLE_NAME +
+                    " ADD COLUMN " + AlbumEntry.COLUMN_DELETED + " INTEGER");
+                db.execSQL(DatabaseContract.SQL_INDEXES[2]);
+                for (String trigger : DatabaseContract.SQL_LEGACY_TRIGGERS)
+                    db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+            case 5:
+                for (int i = 3; i <= 8; i++)
+                    db.execSQL(DatabaseContract.SQL_INDEXES[i]);
+            case 6:
+                db.execSQL(TrigramEntry.SQL_SCHEMA);
+                db.execSQL(DatabaseContract.SQL_INDEXES[9]);
+                SearchIndex.rebuild(db);
+            case 7:
+                for (String[] keyed : DatabaseContract.SQL_KEYED_COLUMNS)
+                    db.execSQL("ALTER TABLE " + keyed[0] + " ADD COLUMN " + keyed[2] + " TEXT");
+                SearchIndex.fillKeys(db);
+                for (int i = 10; i <= 14; i++)
+                    db.execSQL(DatabaseContract.SQL_INDEXES[i]);
+            case 8:
+                db.execSQL(ChangeLogEntry.SQL_SCHEMA);
+                db.execSQL(ChangeConsumerEntry.SQL_SCHEMA);
+                db.execSQL(DatabaseContract.SQL_INDEXES[15]);
+                for (String sql : DatabaseContract.SQL_STATEMENTS)
+                    db.execSQL(sql);
+            case 9:
+                db.execSQL("ALTER TABLE " + AlbumEntry.TABLE_NAME +
+                    " ADD COLUMN " + AlbumEntry.COLUMN_COVER_HASH + " TEXT");
+                LibrarySync.fillCoverHashes(db);
+                db.execSQL(SyncBaseEntry.SQL_SCHEMA);
+                db.execSQL(DatabaseContract.SQL_INDEXES[16]);
+                db.execSQL(DatabaseContract.SQL_INDEXES[17]);
+            case 10:
+                // the existing file is switched to the incremental auto-vacuum by the StorageMaintenance,
+                //  the VACUUM can't run inside of the migration transaction
+                db.execSQL("ANALYZE");
+            case 11:
+                db.execSQL(ImageCacheEntry.SQL_SCHEMA);
+                db.execSQL(DatabaseContract.SQL_INDEXES[18]);
+            case 12:
+                db.execSQL(BarcodeEntry.SQL_SCHEMA);
+                db.execSQL(DatabaseContract.SQL_INDEXES[19]);
+        }
+    }
+
+    /**
+     * Drops every table and creates the database once again.
+     *
+     * @param db the database.
+     */
+    private void recreate(SQLiteDatabase db) {
         for (Class c : DatabaseContract.class.getDeclaredClasses()) {
             try {
                 db.execSQL(SQL_DROP_TABLE + c.getDeclaredField(SQL_TABLE_NAME).get(null));
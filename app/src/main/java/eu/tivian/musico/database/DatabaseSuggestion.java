@@ -7,9 +7,12 @@ import android.widget.ArrayAdapter;
 import android.widget.AutoCompleteTextView;
 
 import eu.tivian.musico.utility.SimpleTextWatcher;
+import eu.tivian.musico.utility.Utilities;
 
 /**
  * An autocomplete engine.
+ * <br>
+ * The columns with the normalized search key are matched ignoring the case and diacritics.
  */
 public class DatabaseSuggestion implements SimpleTextWatcher {
     /**
@@ -17,9 +20,20 @@ public class DatabaseSuggestion implements SimpleTextWatcher {
      */
     private static final String SQL_SUGGESTION_FORMAT =
         "SELECT DISTINCT %2$s FROM ( " +
-            " SELECT %2$s, 1 AS ord FROM %1$s WHERE %2$s LIKE @starts_with " +
+            " SELECT %2$s, 1 AS ord FROM %1$s WHERE %2$s LIKE @starts_with%3$s " +
             " UNION " +
-            " SELECT %2$s, 2 AS ord FROM %1$s WHERE %2$s LIKE @like " +
+            " SELECT %2$s, 2 AS ord FROM %1$s WHERE %2$s LIKE @like%3$s " +
+        ") ORDER BY ord";
+
+    /**
+     * SQL statement used for getting the suggestions using the normalized search key.
+     * The prefix match is a range scan of the key index.
+     */
+    private static final String SQL_KEY_SUGGESTION_FORMAT =
+        "SELECT DISTINCT %2$s FROM ( " +
+            " SELECT %2$s, 1 AS ord FROM %1$s WHERE %3$s >= @from AND %3$s < @to%4$s " +
+            " UNION " +
+            " SELECT %2$s, 2 AS ord FROM %1$s WHERE %3$s LIKE @like%4$s " +
         ") ORDER BY ord";
 
     /**
@@ -52,6 +66,16 @@ public class DatabaseSuggestion implements SimpleTextWatcher {
      */
     private String column;
 
+    /**
+     * The column with the normalized search key of the {@link #column} or {@code null} if there's none.
+     */
+    private String keyColumn;
+
+    /**
+     * The condition appended to the WHERE clause, which skips the deleted rows, or an empty string.
+     */
+    private String condition = "";
+
     /**
      * Determines the number of suggestions.
      */
@@ -91,6 +115,15 @@ public class DatabaseSuggestion implements SimpleTextWatcher {
         this.column = column;
         this.limit = limit;
 
+        for (String[] keyed : DatabaseContract.SQL_KEYED_COLUMNS) {
+            if (keyed[0].equals(table) && keyed[1].equals(column))
+                keyColumn = keyed[2];
+        }
+
+        // the deleted albums stay in the table until they're collected
+        if (DatabaseContract.AlbumEntry.TABLE_NAME.equals(table))
+            condition = " AND " + DatabaseContract.AlbumEntry.COLUMN_DELETED + " IS NULL";
+
         adapter = new ArrayAdapter<>(context, android.R.layout.simple_list_item_1);
         databaseAdapter = DatabaseAdapter.get();
 
@@ -129,7 +162,16 @@ public class DatabaseSuggestion implements SimpleTextWatcher {
      * @return the cursor with the list of the suggestions.
      */
     private Cursor query(String text) {
-        return databaseAdapter.query(String.format(SQL_SUGGESTION_FORMAT, table, column), text + "%", "%" + text + "%");
+        if (keyColumn == null)
+            return databaseAdapter.query(String.format(SQL_SUGGESTION_FORMAT, table, column, condition),
+                    text + "%", "%" + text + "%");
+
+        // the normalized text has no wildcards of the LIKE operator
+        String key = Utilities.normalize(text);
+        String to = key.isEmpty() ? key
+            : key.substring(0, key.length() - 1) + (char) (key.charAt(key.length() - 1) + 1);
+        return databaseAdapter.query(String.format(SQL_KEY_SUGGESTION_FORMAT, table, column, keyColumn, condition),
+                key, to, "%" + key + "%");
     }
 
     /**
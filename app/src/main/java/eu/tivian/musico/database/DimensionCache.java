@@ -0,0 +1,176 @@
+package eu.tivian.musico.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread-safe cache mapping the names stored in a dimension table
+ *  (like artists or genres) to their {@link BaseColumns#_ID} values.
+ * <br>
+ * The cache is warmed with the content of the table on first use. As long as the whole table
+ *  fits into the cache, a miss means that the name isn't present in the database at all.
+ */
+class DimensionCache {
+    /**
+     * Default maximum number of cached names.
+     */
+    static final int DEFAULT_CAPACITY = 2048;
+
+    /**
+     * The database.
+     */
+    private final SQLiteDatabase db;
+
+    /**
+     * The cached table.
+     */
+    private final String table;
+
+    /**
+     * The column containing the names.
+     */
+    private final String column;
+
+    /**
+     * The column containing the normalized search keys of the names or {@code null} if the table has none.
+     */
+    private final String keyColumn;
+
+    /**
+     * Maximum number of cached names.
+     */
+    private final int capacity;
+
+    /**
+     * Cached entries, ordered from the least recently used.
+     */
+    private final Map<String, Long> map;
+
+    /**
+     * Determines whether the cache was filled with the content of the table.
+     */
+    private boolean warm;
+
+    /**
+     * Determines whether every row of the table is present in the cache.
+     */
+    private boolean complete;
+
+    /**
+     * Creates the cache for the given dimension table.
+     *
+     * @param db the database.
+     * @param table the cached table.
+     * @param column the column containing the names.
+     * @param keyColumn the column containing the normalized search keys or {@code null} if the table has none.
+     * @param capacity maximum number of cached names.
+     */
+    DimensionCache(SQLiteDatabase db, String table, String column, String keyColumn, int capacity) {
+        this.db = db;
+        this.table = table;
+        this.column = column;
+        this.keyColumn = keyColumn;
+        this.capacity = capacity;
+        this.map = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() <= DimensionCache.this.capacity)
+                    return false;
+
+                complete = false;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the name of the cached table.
+     *
+     * @return the name of the table.
+     */
+    String getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the name of the column containing the names.
+     *
+     * @return the name of the column.
+     */
+    String getColumn() {
+        return column;
+    }
+
+    /**
+     * Gets the name of the column containing the normalized search keys of the names.
+     *
+     * @return the name of the column or {@code null} if the table has none.
+     */
+    String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Gets the ID of the given name.
+     *
+     * @param name the name.
+     * @return the {@link BaseColumns#_ID} value or {@code null} if the name isn't cached.
+     */
+    synchronized Long get(String name) {
+        warm();
+        return map.get(name);
+    }
+
+    /**
+     * Checks whether a miss of {@link #get(String)} means the name is absent from the table,
+     *  so it can be inserted without looking it up first.
+     *
+     * @return {@code true} if the whole table is cached.
+     */
+    synchronized boolean isComplete() {
+        warm();
+        return complete;
+    }
+
+    /**
+     * Saves the name with its ID into the cache.
+     *
+     * @param name the name.
+     * @param id the {@link BaseColumns#_ID} value.
+     */
+    synchronized void put(String name, long id) {
+        if (warm && id != -1)
+            map.put(name, id);
+    }
+
+    /**
+     * Drops every cached entry. The cache will be warmed again on the next use.
+     */
+    synchronized void invalidate() {
+        map.clear();
+        warm = false;
+        complete = false;
+    }
+
+    /**
+     * Fills the cache with the content of the table, unless it was already done.
+     */
+    private void warm() {
+        if (warm)
+            return;
+
+        String[] columns = { BaseColumns._ID, column };
+        try (Cursor cursor = db.query(table, columns, null, null,
+                null, null, null, String.valueOf(capacity + 1))) {
+            complete = cursor.getCount() <= capacity;
+            while (cursor.moveToNext() && map.size() < capacity)
+                map.put(cursor.getString(1), cursor.getLong(0));
+        }
+
+        warm = true;
+    }
+}
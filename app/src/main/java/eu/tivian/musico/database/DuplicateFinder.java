@@ -0,0 +1,352 @@
+package eu.tivian.musico.database;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import eu.tivian.musico.utility.Utilities;
+
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
+import static eu.tivian.musico.database.DatabaseContract.SongEntry;
+import static eu.tivian.musico.database.DatabaseContract.TrackEntry;
+
+/**
+ * Finds the near-duplicate artists and albums, which aren't caught by the unique constraints
+ *  because of different capitalization, diacritics, "(Remastered)" suffixes or the year off by one.
+ * <br>
+ * Every album is read once and its normalized fingerprints are put into the hash maps,
+ *  so the albums are never compared pairwise across the whole library.
+ *  Only the albums sharing the fingerprint are compared, to check the year of the release.
+ */
+public class DuplicateFinder {
+    /**
+     * Kind of the duplicated entity.
+     */
+    public enum Kind {
+        /**
+         * Artists with the same normalized name.
+         */
+        ARTIST,
+
+        /**
+         * Albums of the same artist with the same normalized title or track list.
+         */
+        ALBUM
+    }
+
+    /**
+     * The group of entities considered to be the same.
+     */
+    public static class Group {
+        /**
+         * Kind of the entities.
+         */
+        public final Kind kind;
+
+        /**
+         * Human readable name of the group, e.g. "Artist - Title".
+         */
+        public final String label;
+
+        /**
+         * IDs of the entities. The first one is kept when the group is merged.
+         */
+        public final long[] ids;
+
+        /**
+         * Creates the group.
+         *
+         * @param kind kind of the entities.
+         * @param label name of the group.
+         * @param ids IDs of the entities, the kept one first.
+         */
+        Group(Kind kind, String label, long[] ids) {
+            this.kind = kind;
+            this.label = label;
+            this.ids = ids;
+        }
+
+        /**
+         * Gets the ID of the entity kept when the group is merged.
+         *
+         * @return the ID of the entity.
+         */
+        public long getKept() {
+            return ids[0];
+        }
+
+        /**
+         * Gets the IDs of the entities merged into the kept one.
+         *
+         * @return the IDs of the entities.
+         */
+        public long[] getMerged() {
+            return Arrays.copyOfRange(ids, 1, ids.length);
+        }
+    }
+
+    /**
+     * Minimal number of the tracks for the track list to be used as the fingerprint.
+     * Shorter track lists, like singles, are too likely to be shared by different albums.
+     */
+    static final int MIN_TRACKS = 3;
+
+    /**
+     * Maximal difference between the years of the release of the same album.
+     */
+    static final int YEAR_TOLERANCE = 1;
+
+    /**
+     * Matches the parenthesized or bracketed part of the title, e.g. "(Remastered)" or "[Deluxe Edition]".
+     */
+    private static final Pattern BRACKETS = Pattern.compile("\\s*[(\\[][^)\\]]*[)\\]]");
+
+    /**
+     * Matches the edition suffix of the title, e.g. " - 2011 Remaster".
+     */
+    private static final Pattern EDITION = Pattern.compile(
+            "\\s+[-\u2013\u2014]\\s+[^-\u2013\u2014]*(remaster|edition|version|deluxe|mono|stereo|anniversary|live)[^-\u2013\u2014]*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * SQL statement listing every album which isn't deleted, with the track list separated by newlines.
+     */
+    private static final String SQL_ALBUMS =
+        "SELECT " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry._ID           + ", " +
+            ArtistEntry.TABLE_NAME + "." + ArtistEntry._ID          + ", " +
+            ArtistEntry.TABLE_NAME + "." + ArtistEntry.COLUMN_NAME  + ", " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_TITLE  + ", " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_YEAR   + ", " +
+            "(SELECT GROUP_CONCAT(" + SongEntry.TABLE_NAME + "." + SongEntry.COLUMN_TITLE + ", char(10)) " +
+             "FROM " + TrackEntry.TABLE_NAME + " " +
+             "INNER JOIN " + SongEntry.TABLE_NAME + " " +
+               "ON " + SongEntry.TABLE_NAME  + "." + SongEntry._ID + " = "
+                     + TrackEntry.TABLE_NAME + "." + TrackEntry.COLUMN_SONG_ID + " " +
+             "WHERE " + TrackEntry.TABLE_NAME + "." + TrackEntry.COLUMN_ALBUM_ID + " = "
+                      + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID + ") " +
+        "FROM " + AlbumEntry.TABLE_NAME + " " +
+        "INNER JOIN " + ArtistEntry.TABLE_NAME + " " +
+          "ON " + ArtistEntry.TABLE_NAME + "." + ArtistEntry._ID + " = "
+                + AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_ARTIST_ID + " " +
+        "WHERE " + AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_DELETED + " IS NULL " +
+        "ORDER BY " + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID;
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * Creates the finder.
+     *
+     * @param adapter the database.
+     */
+    public DuplicateFinder(DatabaseAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Finds every group of the duplicates. Should be called outside the UI thread.
+     * <br>
+     * The artist groups are listed first, because merging them can reveal more duplicated albums.
+     *
+     * @return the groups of duplicates, the oldest entity is kept in each of them.
+     */
+    public List<Group> find() {
+        List<long[]> albums = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        Map<String, List<Integer>> byTitle = new HashMap<>();
+        Map<String, Integer> byTracks = new HashMap<>();
+        Map<String, List<Long>> artistIds = new HashMap<>();
+        Map<String, String> artistNames = new HashMap<>();
+        UnionFind sets = new UnionFind();
+
+        try (Cursor c = adapter.query(SQL_ALBUMS)) {
+            while (c.moveToNext()) {
+                int index = albums.size();
+                long artistId = c.getLong(1);
+                String artist = getArtistKey(c.getString(2));
+                int year = c.getInt(4);
+
+                albums.add(new long[] { c.getLong(0), year });
+                labels.add(c.getString(2) + " - " + c.getString(3));
+                sets.add();
+
+                List<Long> ids = artistIds.get(artist);
+                if (ids == null) {
+                    artistIds.put(artist, ids = new ArrayList<>());
+                    artistNames.put(artist, c.getString(2));
+                }
+                if (!ids.contains(artistId))
+                    ids.add(artistId);
+
+                // the same title, the year can differ slightly
+                String titleKey = artist + '\n' + getTitleKey(c.getString(3));
+                List<Integer> candidates = byTitle.get(titleKey);
+                if (candidates == null)
+                    byTitle.put(titleKey, candidates = new ArrayList<>());
+                for (int other : candidates) {
+                    if (Math.abs(albums.get(other)[1] - year) <= YEAR_TOLERANCE)
+                        sets.union(other, index);
+                }
+                candidates.add(index);
+
+                // the same track list, the title can differ
+                String tracks = getTracksKey(c.getString(5));
+                if (tracks != null) {
+                    Integer other = byTracks.put(artist + '\n' + tracks, index);
+                    if (other != null)
+                        sets.union(other, index);
+                }
+            }
+        }
+
+        List<Group> groups = new ArrayList<>();
+        for (Map.Entry<String, List<Long>> entry : artistIds.entrySet()) {
+            List<Long> ids = entry.getValue();
+            if (ids.size() > 1)
+                groups.add(new Group(Kind.ARTIST, artistNames.get(entry.getKey()), toSortedArray(ids)));
+        }
+
+        Map<Integer, List<Long>> members = new HashMap<>();
+        for (int i = 0; i < albums.size(); i++) {
+            int root = sets.find(i);
+            List<Long> ids = members.get(root);
+            if (ids == null)
+                members.put(root, ids = new ArrayList<>());
+            ids.add(albums.get(i)[0]);
+        }
+        for (Map.Entry<Integer, List<Long>> entry : members.entrySet()) {
+            if (entry.getValue().size() > 1)
+                groups.add(new Group(Kind.ALBUM, labels.get(entry.getKey()), toSortedArray(entry.getValue())));
+        }
+
+        return groups;
+    }
+
+    /**
+     * Gets the fingerprint of the artist.
+     *
+     * @param name name of the artist.
+     * @return the normalized name without the leading article.
+     */
+    static String getArtistKey(String name) {
+        String key = Utilities.normalize(name);
+        return key.startsWith("the ") ? key.substring(4) : key;
+    }
+
+    /**
+     * Gets the fingerprint of the album or song title.
+     *
+     * @param title the title.
+     * @return the normalized title without the edition suffixes.
+     */
+    static String getTitleKey(String title) {
+        if (title == null)
+            return "";
+
+        String stripped = EDITION.matcher(BRACKETS.matcher(title).replaceAll("")).replaceAll("");
+        // the title consisting only of the brackets is kept as it is
+        return Utilities.normalize(stripped.isEmpty() ? title : stripped);
+    }
+
+    /**
+     * Gets the fingerprint of the track list.
+     *
+     * @param tracks the song titles separated by newlines.
+     * @return the sorted fingerprints of the song titles,
+     *         or {@code null} if the album has less than {@link #MIN_TRACKS} tracks.
+     */
+    static String getTracksKey(String tracks) {
+        if (tracks == null)
+            return null;
+
+        String[] titles = tracks.split("\n");
+        if (titles.length < MIN_TRACKS)
+            return null;
+
+        // the order of the rows in the track table isn't guaranteed
+        for (int i = 0; i < titles.length; i++)
+            titles[i] = getTitleKey(titles[i]);
+        Arrays.sort(titles);
+        return String.format(Locale.ROOT, "%d\n%s", titles.length, TextUtils.join("\n", titles));
+    }
+
+    /**
+     * Converts the list of IDs into the sorted array.
+     *
+     * @param ids the IDs.
+     * @return the sorted array.
+     */
+    private static long[] toSortedArray(List<Long> ids) {
+        long[] array = new long[ids.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = ids.get(i);
+        Arrays.sort(array);
+        return array;
+    }
+
+    /**
+     * Disjoint-set forest with the path compression, used to join the albums sharing any fingerprint.
+     */
+    private static class UnionFind {
+        /**
+         * The parent of every element, the root is its own parent.
+         */
+        private int[] parent = new int[64];
+
+        /**
+         * Number of the elements.
+         */
+        private int size;
+
+        /**
+         * Adds the new element as the single-element set.
+         */
+        void add() {
+            if (size == parent.length)
+                parent = Arrays.copyOf(parent, size * 2);
+            parent[size] = size;
+            size++;
+        }
+
+        /**
+         * Finds the representative of the set containing the element.
+         * The representative is the oldest element of the set.
+         *
+         * @param i the element.
+         * @return the representative.
+         */
+        int find(int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        /**
+         * Joins the sets containing the elements.
+         *
+         * @param a the first element.
+         * @param b the second element.
+         */
+        void union(int a, int b) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA < rootB)
+                parent[rootB] = rootA;
+            else if (rootB < rootA)
+                parent[rootA] = rootB;
+        }
+    }
+}
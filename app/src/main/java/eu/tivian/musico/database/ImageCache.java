@@ -0,0 +1,79 @@
+package eu.tivian.musico.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import eu.tivian.musico.utility.Utilities;
+
+import static eu.tivian.musico.database.DatabaseContract.ImageCacheEntry;
+
+/**
+ * Persistent cache of the URLs of the images found by the external services,
+ *  so they're known without any network traffic after the application is started again.
+ * <br>
+ * Every method is thread-safe. The URLs are saved on the background executor of the database.
+ */
+public class ImageCache {
+    /**
+     * SQL statement selecting the URL which didn't expire yet.
+     */
+    private static final String SQL_GET =
+        "SELECT " + ImageCacheEntry.COLUMN_URL + " " +
+        "FROM " + ImageCacheEntry.TABLE_NAME + " " +
+        "WHERE " + ImageCacheEntry.COLUMN_KEY + " = ? AND " + ImageCacheEntry.COLUMN_EXPIRES + " > ?";
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * Creates the cache.
+     *
+     * @param adapter the database.
+     */
+    public ImageCache(DatabaseAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Gets the cached URL.
+     *
+     * @param key the key of the lookup.
+     * @return the URL or {@code null} if it isn't cached or it already expired.
+     */
+    public String get(String key) {
+        try (Cursor c = adapter.query(SQL_GET, key, String.valueOf(Utilities.getTime()))) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
+    /**
+     * Saves the URL, replacing the previous one.
+     *
+     * @param key the key of the lookup.
+     * @param url the URL of the image.
+     * @param ttl time in milliseconds after which the URL expires.
+     */
+    public void put(String key, String url, long ttl) {
+        ContentValues values = new ContentValues();
+        values.put(ImageCacheEntry.COLUMN_KEY, key);
+        values.put(ImageCacheEntry.COLUMN_URL, url);
+        values.put(ImageCacheEntry.COLUMN_EXPIRES, Utilities.getTime() + ttl);
+
+        adapter.runInBackground(() -> adapter.getDb().insertWithOnConflict(
+                ImageCacheEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE));
+    }
+
+    /**
+     * Removes the expired URLs.
+     *
+     * @param db the database.
+     * @return the number of the removed URLs.
+     */
+    static int purge(SQLiteDatabase db) {
+        return db.delete(ImageCacheEntry.TABLE_NAME, ImageCacheEntry.COLUMN_EXPIRES + " <= ?",
+                new String[] { String.valueOf(Utilities.getTime()) });
+    }
+}
@@ -0,0 +1,308 @@
+package eu.tivian.musico.database;
+
+import android.database.Cursor;
+import android.util.Base64;
+import android.util.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.data.AlbumJson;
+import eu.tivian.musico.data.Duration;
+import eu.tivian.musico.data.Song;
+
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.SQL_LIST_ALL;
+import static eu.tivian.musico.database.DatabaseContract.SQL_LIST_TRACKS;
+
+/**
+ * Writes the whole album collection into the JSON or CSV file.
+ * <br>
+ * The albums are read one by one using the forward-only cursor and written immediately,
+ *  so the memory usage doesn't depend on the size of the collection.
+ */
+public class LibraryExporter {
+    /**
+     * Available formats of the exported library.
+     */
+    public enum Format {
+        /**
+         * JSON object with the array of albums, readable by {@link AlbumJson}.
+         */
+        JSON,
+
+        /**
+         * Comma separated values with the header row, as described in RFC 4180.
+         */
+        CSV
+    }
+
+    /**
+     * Version of the JSON export format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The name of the JSON field containing the version of the format.
+     */
+    static final String FIELD_VERSION = "version";
+
+    /**
+     * The name of the JSON field containing the array of albums.
+     */
+    static final String FIELD_ALBUMS = "albums";
+
+    /**
+     * The name of the album field containing the array of base64 encoded chunks of the cover art.
+     */
+    static final String FIELD_COVER = "cover";
+
+    /**
+     * The name of the album field containing the name of the side file with the cover art.
+     */
+    static final String FIELD_COVER_FILE = "cover_file";
+
+    /**
+     * The header row of the CSV file.
+     * <br>
+     * The tracks are stored in a single cell, one track per line, in a "duration{@code \t}title" format.
+     */
+    static final String[] CSV_COLUMNS = {
+        AlbumJson.ARTIST, AlbumJson.TITLE, AlbumJson.YEAR, AlbumJson.GENRE, AlbumJson.DATE,
+        AlbumJson.STORE, AlbumJson.PRICE, AlbumJson.CURRENCY, AlbumJson.TRACKS, FIELD_COVER
+    };
+
+    /**
+     * Size of the raw cover art chunk, before the base64 encoding.
+     * Multiple of 3, so the chunks can be encoded independently.
+     */
+    private static final int CHUNK_SIZE = 48 * 1024;
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * The format of the output.
+     */
+    private final Format format;
+
+    /**
+     * Directory for the cover art side files or {@code null} if the covers should be embedded.
+     */
+    private final File coverDir;
+
+    /**
+     * Creates the exporter.
+     *
+     * @param adapter the database.
+     * @param format the format of the output.
+     * @param coverDir directory into which the cover art is written as "{@code <id>.jpg}" files,
+     *        or {@code null} if the covers should be embedded into the output as base64 text.
+     */
+    public LibraryExporter(DatabaseAdapter adapter, Format format, File coverDir) {
+        this.adapter = adapter;
+        this.format = format;
+        this.coverDir = coverDir;
+    }
+
+    /**
+     * Writes the whole collection into the stream. The stream isn't closed.
+     *
+     * @param out the output stream.
+     * @return number of exported albums.
+     * @throws IOException if any I/O error occurred.
+     */
+    public int export(OutputStream out) throws IOException {
+        if (coverDir != null && !coverDir.isDirectory() && !coverDir.mkdirs())
+            throw new IOException("Cannot create the directory " + coverDir);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int count = format == Format.JSON ? exportJson(writer) : exportCsv(writer);
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Writes the collection as JSON.
+     *
+     * @param out the output.
+     * @return number of exported albums.
+     * @throws IOException if any I/O error occurred.
+     */
+    private int exportJson(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        int count = 0;
+
+        writer.beginObject();
+        writer.name(FIELD_VERSION).value(VERSION);
+        writer.name(FIELD_ALBUMS).beginArray();
+        try (Cursor cursor = queryAlbums()) {
+            while (cursor.moveToNext()) {
+                Album album = readAlbum(cursor);
+
+                writer.beginObject();
+                AlbumJson.writeFields(writer, album);
+                if (album.cover != null) {
+                    if (coverDir != null) {
+                        writer.name(FIELD_COVER_FILE).value(writeCover(album));
+                    } else {
+                        writer.name(FIELD_COVER).beginArray();
+                        for (int i = 0; i < album.cover.length; i += CHUNK_SIZE) {
+                            int length = Math.min(CHUNK_SIZE, album.cover.length - i);
+                            writer.value(Base64.encodeToString(album.cover, i, length, Base64.NO_WRAP));
+                        }
+                        writer.endArray();
+                    }
+                }
+                writer.endObject();
+
+                count++;
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+
+        return count;
+    }
+
+    /**
+     * Writes the collection as CSV.
+     *
+     * @param out the output.
+     * @return number of exported albums.
+     * @throws IOException if any I/O error occurred.
+     */
+    private int exportCsv(Writer out) throws IOException {
+        int count = 0;
+
+        writeRow(out, CSV_COLUMNS);
+        try (Cursor cursor = queryAlbums()) {
+            String[] row = new String[CSV_COLUMNS.length];
+            StringBuilder tracks = new StringBuilder();
+
+            while (cursor.moveToNext()) {
+                Album album = readAlbum(cursor);
+
+                tracks.setLength(0);
+                for (Song song : album.tracks) {
+                    if (tracks.length() > 0)
+                        tracks.append('\n');
+                    tracks.append(AlbumJson.toString(song.duration)).append('\t').append(song.title);
+                }
+
+                row[0] = album.artist;
+                row[1] = album.title;
+                row[2] = String.valueOf(album.year);
+                row[3] = album.genre;
+                row[4] = album.purchase.date == null ? null : String.valueOf(album.purchase.date.getTime());
+                row[5] = album.purchase.store;
+                row[6] = String.valueOf(album.purchase.price);
+                row[7] = album.purchase.currency;
+                row[8] = tracks.toString();
+                row[9] = album.cover == null ? null : coverDir != null ? writeCover(album)
+                    : Base64.encodeToString(album.cover, Base64.NO_WRAP);
+                writeRow(out, row);
+
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Opens the forward-only cursor over the whole collection, in the order of insertion.
+     *
+     * @return the cursor.
+     */
+    private Cursor queryAlbums() {
+        return adapter.query(SQL_LIST_ALL + " ORDER BY " + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID);
+    }
+
+    /**
+     * Reads the album at the current position of the cursor, together with its track list.
+     *
+     * @param cursor cursor created by {@link #queryAlbums()}.
+     * @return the album.
+     */
+    private Album readAlbum(Cursor cursor) {
+        Album album = new Album();
+
+        album.id = cursor.getLong(0);
+        album.artist = cursor.getString(1);
+        album.title = cursor.getString(2);
+        album.year = cursor.getInt(3);
+        album.genre = cursor.getString(4);
+        album.cover = cursor.getBlob(5);
+        album.purchase.date = cursor.isNull(6) ? null : new Date(cursor.getLong(6));
+        album.purchase.store = cursor.getString(7);
+        album.purchase.price = cursor.getDouble(8);
+        album.purchase.currency = cursor.getString(9);
+
+        try (Cursor tracks = adapter.query(SQL_LIST_TRACKS, String.valueOf(album.id))) {
+            while (tracks.moveToNext())
+                album.tracks.add(new Song(tracks.getString(0), Duration.from(tracks.getString(1))));
+        }
+
+        return album;
+    }
+
+    /**
+     * Writes the cover art of the album into the side file.
+     *
+     * @param album the album.
+     * @return the name of the file, relative to the {@link #coverDir}.
+     * @throws IOException if any I/O error occurred.
+     */
+    private String writeCover(Album album) throws IOException {
+        String name = album.id + ".jpg";
+        try (OutputStream out = new FileOutputStream(new File(coverDir, name))) {
+            out.write(album.cover);
+        }
+        return name;
+    }
+
+    /**
+     * Writes the single CSV row, quoting the cells when needed.
+     *
+     * @param out the output.
+     * @param cells the cells of the row, {@code null} is written as an empty cell.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static void writeRow(Writer out, String[] cells) throws IOException {
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0)
+                out.write(',');
+
+            String cell = cells[i];
+            if (cell == null)
+                continue;
+
+            boolean quote = false;
+            for (int j = 0; j < cell.length() && !quote; j++) {
+                char c = cell.charAt(j);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+
+            if (quote) {
+                out.write('"');
+                out.write(cell.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(cell);
+            }
+        }
+        out.write("\r\n");
+    }
+}
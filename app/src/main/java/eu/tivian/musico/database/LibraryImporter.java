@@ -0,0 +1,429 @@
+package eu.tivian.musico.database;
+
+import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.data.AlbumJson;
+import eu.tivian.musico.data.Duration;
+import eu.tivian.musico.data.Song;
+
+import static eu.tivian.musico.database.LibraryExporter.CSV_COLUMNS;
+import static eu.tivian.musico.database.LibraryExporter.FIELD_ALBUMS;
+import static eu.tivian.musico.database.LibraryExporter.FIELD_COVER;
+import static eu.tivian.musico.database.LibraryExporter.FIELD_COVER_FILE;
+
+/**
+ * Reads the album collection written by the {@link LibraryExporter} and adds it into the database.
+ * <br>
+ * The input is parsed incrementally and the albums are added in fixed size batches,
+ *  each in a single transaction, so the memory usage doesn't depend on the size of the collection.
+ */
+public class LibraryImporter {
+    /**
+     * Number of albums added into the database in a single transaction.
+     */
+    static final int BATCH_SIZE = 100;
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * The format of the input.
+     */
+    private final LibraryExporter.Format format;
+
+    /**
+     * Directory containing the cover art side files or {@code null} if the covers are embedded.
+     */
+    private final File coverDir;
+
+    /**
+     * Albums waiting to be added into the database.
+     */
+    private final List<Album> batch = new ArrayList<>(BATCH_SIZE);
+
+    /**
+     * Number of imported albums.
+     */
+    private int count;
+
+    /**
+     * Creates the importer.
+     *
+     * @param adapter the database.
+     * @param format the format of the input.
+     * @param coverDir directory containing the cover art side files,
+     *        or {@code null} if the covers are embedded into the input as base64 text.
+     */
+    public LibraryImporter(DatabaseAdapter adapter, LibraryExporter.Format format, File coverDir) {
+        this.adapter = adapter;
+        this.format = format;
+        this.coverDir = coverDir;
+    }
+
+    /**
+     * Reads the whole collection from the stream. The stream isn't closed.
+     * <br>
+     * The albums already added before any error occurred are kept in the database.
+     *
+     * @param in the input stream.
+     * @return number of imported albums.
+     * @throws IOException if any I/O error occurred or the input is malformed.
+     */
+    public int importFrom(InputStream in) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        count = 0;
+        batch.clear();
+        try {
+            if (format == LibraryExporter.Format.JSON)
+                importJson(reader);
+            else
+                importCsv(reader);
+            flush();
+        } finally {
+            batch.clear();
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the collection from the JSON input.
+     *
+     * @param in the input.
+     * @throws IOException if any I/O error occurred.
+     */
+    private void importJson(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals(FIELD_ALBUMS)) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext())
+                add(readAlbum(reader));
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the single album from the JSON input.
+     *
+     * @param reader JSON reader positioned at the beginning of the album object.
+     * @return the album.
+     * @throws IOException if any I/O error occurred.
+     */
+    private Album readAlbum(JsonReader reader) throws IOException {
+        Album album = new Album();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (AlbumJson.readField(reader, name, album))
+                continue;
+
+            if (name.equals(FIELD_COVER) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                ByteArrayOutputStream cover = new ByteArrayOutputStream();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    byte[] chunk = Base64.decode(reader.nextString(), Base64.DEFAULT);
+                    cover.write(chunk, 0, chunk.length);
+                }
+                reader.endArray();
+                album.cover = cover.toByteArray();
+            } else if (name.equals(FIELD_COVER_FILE) && reader.peek() == JsonToken.STRING) {
+                album.cover = readCover(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return album;
+    }
+
+    /**
+     * Reads the collection from the CSV input.
+     *
+     * @param in the input.
+     * @throws IOException if any I/O error occurred or the header row is missing.
+     */
+    private void importCsv(Reader in) throws IOException {
+        CsvParser parser = new CsvParser(in);
+        List<String> header = parser.next();
+        if (header == null)
+            return;
+
+        // the columns can be in any order, unknown ones are ignored
+        int[] index = new int[CSV_COLUMNS.length];
+        for (int i = 0; i < CSV_COLUMNS.length; i++) {
+            index[i] = header.indexOf(CSV_COLUMNS[i]);
+            if (index[i] == -1 && i < 4)
+                throw new IOException("Missing column " + CSV_COLUMNS[i]);
+        }
+
+        List<String> row;
+        while ((row = parser.next()) != null) {
+            if (row.size() == 1 && row.get(0).isEmpty())
+                continue;
+
+            Album album = new Album();
+            album.artist = cell(row, index[0]);
+            album.title = cell(row, index[1]);
+            album.year = parseInt(cell(row, index[2]));
+            album.genre = cell(row, index[3]);
+
+            String date = cell(row, index[4]);
+            album.purchase.date = date == null ? null : new Date(parseLong(date));
+            album.purchase.store = cell(row, index[5]);
+            String price = cell(row, index[6]);
+            album.purchase.price = price == null ? 0 : parseDouble(price);
+            album.purchase.currency = cell(row, index[7]);
+
+            String tracks = cell(row, index[8]);
+            if (tracks != null) {
+                for (String line : tracks.split("\r?\n")) {
+                    int tab = line.indexOf('\t');
+                    album.tracks.add(tab == -1 ? new Song(line, Duration.ZERO)
+                        : new Song(line.substring(tab + 1), Duration.from(line.substring(0, tab))));
+                }
+            }
+
+            String cover = cell(row, index[9]);
+            if (cover != null)
+                album.cover = coverDir != null ? readCover(cover) : Base64.decode(cover, Base64.DEFAULT);
+
+            add(album);
+        }
+    }
+
+    /**
+     * Gets the value of the CSV cell.
+     *
+     * @param row the row.
+     * @param index index of the cell or -1 if the column is absent.
+     * @return the value of the cell or {@code null} if the cell is empty or absent.
+     */
+    private static String cell(List<String> row, int index) {
+        if (index < 0 || index >= row.size())
+            return null;
+
+        String value = row.get(index);
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Parses the integer value of the cell.
+     *
+     * @param value the value of the cell.
+     * @return the parsed value or 0 if the cell is empty.
+     * @throws IOException if the value isn't a number.
+     */
+    private static int parseInt(String value) throws IOException {
+        return (int) parseLong(value);
+    }
+
+    /**
+     * Parses the long integer value of the cell.
+     *
+     * @param value the value of the cell.
+     * @return the parsed value or 0 if the cell is empty.
+     * @throws IOException if the value isn't a number.
+     */
+    private static long parseLong(String value) throws IOException {
+        try {
+            return value == null ? 0 : Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid number " + value, ex);
+        }
+    }
+
+    /**
+     * Parses the decimal value of the cell.
+     *
+     * @param value the value of the cell.
+     * @return the parsed value.
+     * @throws IOException if the value isn't a number.
+     */
+    private static double parseDouble(String value) throws IOException {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid number " + value, ex);
+        }
+    }
+
+    /**
+     * Reads the cover art from the side file.
+     *
+     * @param name the name of the file, relative to the {@link #coverDir}.
+     * @return the content of the file or {@code null} if the file doesn't exist.
+     * @throws IOException if any I/O error occurred.
+     */
+    private byte[] readCover(String name) throws IOException {
+        if (coverDir == null)
+            return null;
+
+        File file = new File(coverDir, new File(name).getName());
+        if (!file.isFile())
+            return null;
+
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Queues the album, adding the whole batch into the database when it's full.
+     *
+     * @param album the album.
+     */
+    private void add(Album album) {
+        // the same constraints as in the album editor
+        if (album.artist == null || album.title == null
+                || album.genre == null || album.purchase.currency == null)
+            return;
+
+        batch.add(album);
+        if (batch.size() >= BATCH_SIZE)
+            flush();
+    }
+
+    /**
+     * Adds the queued albums into the database.
+     */
+    private void flush() {
+        if (batch.isEmpty())
+            return;
+
+        adapter.addAll(batch);
+        count += batch.size();
+        batch.clear();
+    }
+
+    /**
+     * Streaming parser of the CSV format, as described in RFC 4180.
+     */
+    private static class CsvParser {
+        /**
+         * The input.
+         */
+        private final Reader in;
+
+        /**
+         * Buffer for the currently parsed cell.
+         */
+        private final StringBuilder cell = new StringBuilder();
+
+        /**
+         * Character read ahead or -2 if there's none.
+         */
+        private int next = -2;
+
+        /**
+         * Creates the parser.
+         *
+         * @param in the input.
+         */
+        CsvParser(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next row.
+         *
+         * @return the cells of the row or {@code null} at the end of the input.
+         * @throws IOException if any I/O error occurred.
+         */
+        List<String> next() throws IOException {
+            int c = read();
+            if (c == -1)
+                return null;
+
+            List<String> row = new ArrayList<>();
+            boolean quoted = false;
+            cell.setLength(0);
+
+            while (true) {
+                if (quoted) {
+                    if (c == -1)
+                        throw new IOException("Unterminated quoted cell");
+
+                    if (c == '"') {
+                        int peek = read();
+                        if (peek == '"') {
+                            cell.append('"');
+                        } else {
+                            quoted = false;
+                            next = peek;
+                        }
+                    } else {
+                        cell.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    row.add(cell.toString());
+                    cell.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r') {
+                        int peek = read();
+                        if (peek != '\n')
+                            next = peek;
+                    }
+
+                    row.add(cell.toString());
+                    return row;
+                } else {
+                    cell.append((char) c);
+                }
+
+                c = read();
+            }
+        }
+
+        /**
+         * Reads the next character.
+         *
+         * @return the character or -1 at the end of the input.
+         * @throws IOException if any I/O error occurred.
+         */
+        private int read() throws IOException {
+            if (next != -2) {
+                int c = next;
+                next = -2;
+                return c;
+            }
+
+            return in.read();
+        }
+    }
+}
@@ -0,0 +1,727 @@
+package eu.tivian.musico.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
+import static eu.tivian.musico.database.DatabaseContract.CurrencyEntry;
+import static eu.tivian.musico.database.DatabaseContract.GenreEntry;
+import static eu.tivian.musico.database.DatabaseContract.PurchaseEntry;
+import static eu.tivian.musico.database.DatabaseContract.SongEntry;
+import static eu.tivian.musico.database.DatabaseContract.StoreEntry;
+import static eu.tivian.musico.database.DatabaseContract.SyncBaseEntry;
+import static eu.tivian.musico.database.DatabaseContract.TrackEntry;
+import static eu.tivian.musico.database.DatabaseContract.TrigramEntry;
+
+/**
+ * Compact binary snapshot of the whole album collection, used for the fast backup and restore.
+ * <br>
+ * The snapshot starts with the {@link #MAGIC} number and the {@link #VERSION} of the format,
+ *  followed by the sections of the length-prefixed records, one section per table.
+ * Every section starts with the one byte tag and ends with the record of length -1,
+ *  so the sections unknown to the reader can be skipped.
+ * <br>
+ * The rows keep their original IDs, which are used to reference the dimension tables.
+ * The cover art is stored only once for every distinct image and referenced by its index.
+ */
+public final class LibrarySnapshot {
+    /**
+     * The magic number at the beginning of the snapshot, "MSNP" in ASCII.
+     */
+    static final int MAGIC = 0x4D534E50;
+
+    /**
+     * Version of the snapshot format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Tag ending the list of sections.
+     */
+    private static final byte SECTION_END = 0;
+
+    /**
+     * Tag of the section with the artists.
+     */
+    private static final byte SECTION_ARTIST = 1;
+
+    /**
+     * Tag of the section with the genres.
+     */
+    private static final byte SECTION_GENRE = 2;
+
+    /**
+     * Tag of the section with the stores.
+     */
+    private static final byte SECTION_STORE = 3;
+
+    /**
+     * Tag of the section with the currencies.
+     */
+    private static final byte SECTION_CURRENCY = 4;
+
+    /**
+     * Tag of the section with the songs.
+     */
+    private static final byte SECTION_SONG = 5;
+
+    /**
+     * Tag of the section with the distinct cover art images.
+     */
+    private static final byte SECTION_COVER = 6;
+
+    /**
+     * Tag of the section with the albums.
+     */
+    private static final byte SECTION_ALBUM = 7;
+
+    /**
+     * Tag of the section with the tracks.
+     */
+    private static final byte SECTION_TRACK = 8;
+
+    /**
+     * Tag of the section with the purchases.
+     */
+    private static final byte SECTION_PURCHASE = 9;
+
+    /**
+     * Length of the record ending the section.
+     */
+    private static final int END_OF_SECTION = -1;
+
+    /**
+     * The name of the temporary table holding the cover art while the snapshot is restored.
+     */
+    private static final String TEMP_COVER = "snapshot_cover";
+
+    /**
+     * Condition matching the albums which aren't deleted. The deleted albums aren't saved in the snapshot.
+     */
+    private static final String SQL_LIVE = AlbumEntry.COLUMN_DELETED + " IS NULL";
+
+    /**
+     * Subquery listing the IDs of the albums which aren't deleted.
+     */
+    private static final String SQL_LIVE_IDS =
+        "(SELECT " + AlbumEntry._ID + " FROM " + AlbumEntry.TABLE_NAME + " WHERE " + SQL_LIVE + ")";
+
+    /**
+     * Tables cleared before the restore, in the order satisfying the foreign keys.
+     */
+    private static final String[] TABLES = {
+        SyncBaseEntry.TABLE_NAME, TrigramEntry.TABLE_NAME, TrackEntry.TABLE_NAME, PurchaseEntry.TABLE_NAME,
+        AlbumEntry.TABLE_NAME, SongEntry.TABLE_NAME, ArtistEntry.TABLE_NAME, GenreEntry.TABLE_NAME, StoreEntry.TABLE_NAME, CurrencyEntry.TABLE_NAME
+    };
+
+    /**
+     * Private constructor to prevent instantiating the utility class.
+     */
+    private LibrarySnapshot() {}
+
+    /**
+     * Writes the snapshot of the whole collection into the stream. The stream isn't closed.
+     *
+     * @param adapter the database.
+     * @param stream the output stream.
+     * @return number of saved albums.
+     * @throws IOException if any I/O error occurred.
+     */
+    public static int write(DatabaseAdapter adapter, OutputStream stream) throws IOException {
+        SQLiteDatabase db = adapter.getDb();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        Record record = new Record();
+        int count = 0;
+
+        // the transaction guarantees that every section sees the same state of the database
+        db.beginTransactionNonExclusive();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            writeDimension(db, out, record, SECTION_ARTIST, ArtistEntry.TABLE_NAME, ArtistEntry.COLUMN_NAME);
+            writeDimension(db, out, record, SECTION_GENRE, GenreEntry.TABLE_NAME, GenreEntry.COLUMN_NAME);
+            writeDimension(db, out, record, SECTION_STORE, StoreEntry.TABLE_NAME, StoreEntry.COLUMN_NAME);
+
+            out.writeByte(SECTION_CURRENCY);
+            try (Cursor c = db.query(CurrencyEntry.TABLE_NAME, new String[] {
+                    CurrencyEntry._ID, CurrencyEntry.COLUMN_NAME, CurrencyEntry.COLUMN_RATE
+                }, null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    record.reset();
+                    record.data.writeLong(c.getLong(0));
+                    record.writeString(c.getString(1));
+                    record.data.writeBoolean(!c.isNull(2));
+                    record.data.writeDouble(c.getDouble(2));
+                    record.writeTo(out);
+                }
+            }
+            out.writeInt(END_OF_SECTION);
+
+            out.writeByte(SECTION_SONG);
+            try (Cursor c = db.query(SongEntry.TABLE_NAME, new String[] {
+                    SongEntry._ID, SongEntry.COLUMN_TITLE, SongEntry.COLUMN_DURATION
+                }, null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    record.reset();
+                    record.data.writeLong(c.getLong(0));
+                    record.writeString(c.getString(1));
+                    record.writeString(c.getString(2));
+                    record.writeTo(out);
+                }
+            }
+            out.writeInt(END_OF_SECTION);
+
+            Map<Long, Integer> covers = writeCovers(db, out);
+
+            out.writeByte(SECTION_ALBUM);
+            try (Cursor c = db.query(AlbumEntry.TABLE_NAME, new String[] {
+                    AlbumEntry._ID, AlbumEntry.COLUMN_ARTIST_ID, AlbumEntry.COLUMN_TITLE,
+                    AlbumEntry.COLUMN_YEAR, AlbumEntry.COLUMN_GENRE_ID
+                }, SQL_LIVE, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    Integer cover = covers.get(c.getLong(0));
+
+                    record.reset();
+                    record.data.writeLong(c.getLong(0));
+                    record.data.writeLong(c.getLong(1));
+                    record.writeString(c.getString(2));
+                    record.data.writeInt(c.getInt(3));
+                    record.data.writeLong(c.isNull(4) ? -1 : c.getLong(4));
+                    record.data.writeInt(cover == null ? -1 : cover);
+                    record.writeTo(out);
+                    count++;
+                }
+            }
+            out.writeInt(END_OF_SECTION);
+
+            out.writeByte(SECTION_TRACK);
+            try (Cursor c = db.query(TrackEntry.TABLE_NAME, new String[] {
+                    TrackEntry.COLUMN_SONG_ID, TrackEntry.COLUMN_ALBUM_ID
+                }, TrackEntry.COLUMN_ALBUM_ID + " IN " + SQL_LIVE_IDS, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    record.reset();
+                    record.data.writeLong(c.getLong(0));
+                    record.data.writeLong(c.getLong(1));
+                    record.writeTo(out);
+                }
+            }
+            out.writeInt(END_OF_SECTION);
+
+            out.writeByte(SECTION_PURCHASE);
+            try (Cursor c = db.query(PurchaseEntry.TABLE_NAME, new String[] {
+                    PurchaseEntry._ID, PurchaseEntry.COLUMN_ALBUM_ID, PurchaseEntry.COLUMN_STORE_ID,
+                    PurchaseEntry.COLUMN_PRICE, PurchaseEntry.COLUMN_CURRENCY_ID, PurchaseEntry.COLUMN_DATE
+                }, PurchaseEntry.COLUMN_ALBUM_ID + " IN " + SQL_LIVE_IDS, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    record.reset();
+                    record.data.writeLong(c.getLong(0));
+                    record.data.writeLong(c.getLong(1));
+                    record.data.writeLong(c.isNull(2) ? -1 : c.getLong(2));
+                    record.data.writeDouble(c.getDouble(3));
+                    record.data.writeLong(c.getLong(4));
+                    record.data.writeBoolean(!c.isNull(5));
+                    record.data.writeLong(c.getLong(5));
+                    record.writeTo(out);
+                }
+            }
+            out.writeInt(END_OF_SECTION);
+
+            out.writeByte(SECTION_END);
+            out.flush();
+        } finally {
+            db.endTransaction();
+        }
+
+        return count;
+    }
+
+    /**
+     * Replaces the whole collection with the content of the snapshot. The stream isn't closed.
+     * <br>
+     * The restore is done in a single transaction, so on any error the collection is left untouched.
+     * The indexes and triggers are dropped while the tables are loaded and created once again at the end.
+     *
+     * @param adapter the database.
+     * @param stream the input stream.
+     * @return number of restored albums.
+     * @throws IOException if any I/O error occurred or the snapshot is malformed.
+     */
+    public static int restore(DatabaseAdapter adapter, InputStream stream) throws IOException {
+        SQLiteDatabase db = adapter.getDb();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a library snapshot");
+        int version = in.readInt();
+        if (version > VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+
+        int count = 0;
+        boolean success = false;
+
+        db.beginTransaction();
+        try {
+            // read inside of the transaction, so the keys are never generated for the replaced language
+            SortKeys sortKeys = adapter.getSortKeys();
+            List<String> schema = dropSchema(db);
+            for (String table : TABLES)
+                db.delete(table, null, null);
+            db.execSQL("CREATE TEMP TABLE " + TEMP_COVER + " ( " +
+                BaseColumns._ID + " INTEGER PRIMARY KEY, " + AlbumEntry.COLUMN_COVER + " BLOB )");
+
+            Reader reader = new Reader(in);
+            byte section;
+            while ((section = in.readByte()) != SECTION_END) {
+                switch (section) {
+                    case SECTION_ARTIST:
+                        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + ArtistEntry.TABLE_NAME +
+                                " (" + ArtistEntry._ID + ", " + ArtistEntry.COLUMN_NAME + ", " +
+                                ArtistEntry.COLUMN_SORT_KEY + ") VALUES (?, ?, ?)")) {
+                            ByteBuffer r;
+                            while ((r = reader.next()) != null) {
+                                s.bindLong(1, r.getLong());
+                                String name = readString(r);
+                                bindString(s, 2, name);
+                                bindBlob(s, 3, sortKeys.get(name));
+                                s.executeInsert();
+                            }
+                        }
+                        break;
+                    case SECTION_GENRE:
+                        restoreDimension(db, reader, GenreEntry.TABLE_NAME, GenreEntry.COLUMN_NAME);
+                        break;
+                    case SECTION_STORE:
+                        restoreDimension(db, reader, StoreEntry.TABLE_NAME, StoreEntry.COLUMN_NAME);
+                        break;
+                    case SECTION_CURRENCY:
+                        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + CurrencyEntry.TABLE_NAME +
+                                " (" + CurrencyEntry._ID + ", " + CurrencyEntry.COLUMN_NAME + ", " +
+                                CurrencyEntry.COLUMN_RATE + ") VALUES (?, ?, ?)")) {
+                            ByteBuffer r;
+                            while ((r = reader.next()) != null) {
+                                s.bindLong(1, r.getLong());
+                                bindString(s, 2, readString(r));
+                                boolean hasRate = r.get() != 0;
+                                double rate = r.getDouble();
+                                if (hasRate)
+                                    s.bindDouble(3, rate);
+                                else
+                                    s.bindNull(3);
+                                s.executeInsert();
+                            }
+                        }
+                        break;
+                    case SECTION_SONG:
+                        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + SongEntry.TABLE_NAME +
+                                " (" + SongEntry._ID + ", " + SongEntry.COLUMN_TITLE + ", " +
+                                SongEntry.COLUMN_DURATION + ") VALUES (?, ?, ?)")) {
+                            ByteBuffer r;
+                            while ((r = reader.next()) != null) {
+                                s.bindLong(1, r.getLong());
+                                bindString(s, 2, readString(r));
+                                bindString(s, 3, readString(r));
+                                s.executeInsert();
+                            }
+                        }
+                        break;
+                    case SECTION_COVER:
+                        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + TEMP_COVER +
+                                " (" + BaseColumns._ID + ", " + AlbumEntry.COLUMN_COVER + ") VALUES (?, ?)")) {
+                            int index = 0;
+                            ByteBuffer r;
+                            while ((r = reader.next()) != null) {
+                                byte[] cover = new byte[r.remaining()];
+                                r.get(cover);
+                                s.bindLong(1, index++);
+                                s.bindBlob(2, cover);
+                                s.executeInsert();
+                            }
+                        }
+                        break;
+                    case SECTION_ALBUM:
+                        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + AlbumEntry.TABLE_NAME +
+                                " (" + AlbumEntry._ID + ", " + AlbumEntry.COLUMN_ARTIST_ID + ", " +
+                                AlbumEntry.COLUMN_TITLE + ", " + AlbumEntry.COLUMN_YEAR + ", " +
+                                AlbumEntry.COLUMN_GENRE_ID + ", " + AlbumEntry.COLUMN_SORT_KEY + ", " +
+                                AlbumEntry.COLUMN_COVER + ") VALUES (?, ?, ?, ?, ?, ?, " +
+                                "(SELECT " + AlbumEntry.COLUMN_COVER + " FROM " + TEMP_COVER +
+                                " WHERE " + BaseColumns._ID + " = ?))")) {
+                            ByteBuffer r;
+                            while ((r = reader.next()) != null) {
+                                s.bindLong(1, r.getLong());
+                                s.bindLong(2, r.getLong());
+                                String title = readString(r);
+                                bindString(s, 3, title);
+                                s.bindLong(4, r.getInt());
+                                bindId(s, 5, r.getLong());
+                                bindBlob(s, 6, sortKeys.get(title));
+                                s.bindLong(7, r.getInt());
+                                s.executeInsert();
+                                count++;
+                            }
+                        }
+                        break;
+                    case SECTION_TRACK:
+                        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + TrackEntry.TABLE_NAME +
+                                " (" + TrackEntry.COLUMN_SONG_ID + ", " + TrackEntry.COLUMN_ALBUM_ID +
+                                ") VALUES (?, ?)")) {
+                            ByteBuffer r;
+                            while ((r = reader.next()) != null) {
+                                s.bindLong(1, r.getLong());
+                                s.bindLong(2, r.getLong());
+                                s.executeInsert();
+                            }
+                        }
+                        break;
+                    case SECTION_PURCHASE:
+                        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + PurchaseEntry.TABLE_NAME +
+                                " (" + PurchaseEntry._ID + ", " + PurchaseEntry.COLUMN_ALBUM_ID + ", " +
+                                PurchaseEntry.COLUMN_STORE_ID + ", " + PurchaseEntry.COLUMN_PRICE + ", " +
+                                PurchaseEntry.COLUMN_CURRENCY_ID + ", " + PurchaseEntry.COLUMN_DATE +
+                                ") VALUES (?, ?, ?, ?, ?, ?)")) {
+                            ByteBuffer r;
+                            while ((r = reader.next()) != null) {
+                                s.bindLong(1, r.getLong());
+                                s.bindLong(2, r.getLong());
+                                bindId(s, 3, r.getLong());
+                                s.bindDouble(4, r.getDouble());
+                                s.bindLong(5, r.getLong());
+                                boolean hasDate = r.get() != 0;
+                                long date = r.getLong();
+                                if (hasDate)
+                                    s.bindLong(6, date);
+                                else
+                                    s.bindNull(6);
+                                s.executeInsert();
+                            }
+                        }
+                        break;
+                    default:
+                        // section added by the newer version of the format
+                        while (reader.next() != null);
+                }
+            }
+
+            db.execSQL("DROP TABLE " + TEMP_COVER);
+            // the search keys, cover hashes and index aren't a part of the snapshot,
+            //  they're built before the indexes are recreated
+            SearchIndex.fillKeys(db);
+            LibrarySync.fillCoverHashes(db);
+            SearchIndex.rebuild(db);
+            // the triggers are dropped during the restore, so the consumers are told to start over
+            ChangeLog.reset(db);
+            for (String sql : schema)
+                db.execSQL(sql);
+
+            db.setTransactionSuccessful();
+            success = true;
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated snapshot record", ex);
+        } finally {
+            db.endTransaction();
+        }
+
+        if (success)
+            adapter.onReplaced();
+        return count;
+    }
+
+    /**
+     * Writes the section of the dimension table, consisting of the ID and the name.
+     *
+     * @param db the database.
+     * @param out the output.
+     * @param record reusable buffer of the record.
+     * @param section tag of the section.
+     * @param table the name of the table.
+     * @param column the column with the name.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static void writeDimension(SQLiteDatabase db, DataOutputStream out, Record record,
+                                       byte section, String table, String column) throws IOException {
+        out.writeByte(section);
+        try (Cursor c = db.query(table, new String[] { BaseColumns._ID, column },
+                null, null, null, null, null)) {
+            while (c.moveToNext()) {
+                record.reset();
+                record.data.writeLong(c.getLong(0));
+                record.writeString(c.getString(1));
+                record.writeTo(out);
+            }
+        }
+        out.writeInt(END_OF_SECTION);
+    }
+
+    /**
+     * Writes the section with the distinct cover art images.
+     *
+     * @param db the database.
+     * @param out the output.
+     * @return index of the image for every album which has a cover.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static Map<Long, Integer> writeCovers(SQLiteDatabase db, DataOutputStream out) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        Map<Long, Integer> albums = new HashMap<>();
+        Map<ByteBuffer, Integer> hashes = new HashMap<>();
+
+        out.writeByte(SECTION_COVER);
+        try (Cursor c = db.query(AlbumEntry.TABLE_NAME, new String[] { AlbumEntry._ID, AlbumEntry.COLUMN_COVER },
+                AlbumEntry.COLUMN_COVER + " IS NOT NULL AND " + SQL_LIVE, null, null, null, null)) {
+            while (c.moveToNext()) {
+                byte[] cover = c.getBlob(1);
+                ByteBuffer hash = ByteBuffer.wrap(digest.digest(cover));
+
+                Integer index = hashes.get(hash);
+                if (index == null) {
+                    index = hashes.size();
+                    hashes.put(hash, index);
+                    out.writeInt(cover.length);
+                    out.write(cover);
+                }
+
+                albums.put(c.getLong(0), index);
+            }
+        }
+        out.writeInt(END_OF_SECTION);
+
+        return albums;
+    }
+
+    /**
+     * Loads the section of the dimension table, consisting of the ID and the name.
+     *
+     * @param db the database.
+     * @param reader reader of the section records.
+     * @param table the name of the table.
+     * @param column the column with the name.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static void restoreDimension(SQLiteDatabase db, Reader reader,
+                                         String table, String column) throws IOException {
+        try (SQLiteStatement s = db.compileStatement("INSERT INTO " + table +
+                " (" + BaseColumns._ID + ", " + column + ") VALUES (?, ?)")) {
+            ByteBuffer r;
+            while ((r = reader.next()) != null) {
+                s.bindLong(1, r.getLong());
+                bindString(s, 2, readString(r));
+                s.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * Drops every trigger and index of the collection tables.
+     *
+     * @param db the database.
+     * @return SQL statements recreating the dropped triggers and indexes, indexes first.
+     */
+    private static List<String> dropSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        List<String> drop = new ArrayList<>();
+
+        // automatic indexes created for the constraints don't have any SQL and can't be dropped
+        try (Cursor c = db.rawQuery("SELECT type, name, sql FROM sqlite_master " +
+                "WHERE type IN ('index', 'trigger') AND sql IS NOT NULL ORDER BY type", null)) {
+            while (c.moveToNext()) {
+                schema.add(c.getString(2));
+                drop.add("DROP " + c.getString(0).toUpperCase() + " " + c.getString(1));
+            }
+        }
+
+        for (String sql : drop)
+            db.execSQL(sql);
+
+        return schema;
+    }
+
+    /**
+     * Reads the string written by {@link Record#writeString(String)}.
+     *
+     * @param r the record.
+     * @return the string, may be {@code null}.
+     * @throws IOException if the string doesn't fit into the record.
+     */
+    private static String readString(ByteBuffer r) throws IOException {
+        int length = r.getInt();
+        if (length < 0)
+            return null;
+        // the buffer is reused, so the bytes past the record are left from the previous one
+        if (length > r.remaining())
+            throw new IOException("Truncated snapshot record");
+
+        String value = new String(r.array(), r.arrayOffset() + r.position(), length, StandardCharsets.UTF_8);
+        r.position(r.position() + length);
+        return value;
+    }
+
+    /**
+     * Binds the string, which may be {@code null}.
+     *
+     * @param s the statement.
+     * @param index the index of the parameter.
+     * @param value the value.
+     */
+    private static void bindString(SQLiteStatement s, int index, String value) {
+        if (value == null)
+            s.bindNull(index);
+        else
+            s.bindString(index, value);
+    }
+
+    /**
+     * Binds the blob, which may be {@code null}.
+     *
+     * @param s the statement.
+     * @param index the index of the parameter.
+     * @param value the value.
+     */
+    private static void bindBlob(SQLiteStatement s, int index, byte[] value) {
+        if (value == null)
+            s.bindNull(index);
+        else
+            s.bindBlob(index, value);
+    }
+
+    /**
+     * Binds the optional foreign key.
+     *
+     * @param s the statement.
+     * @param index the index of the parameter.
+     * @param id the ID or -1 if absent.
+     */
+    private static void bindId(SQLiteStatement s, int index, long id) {
+        if (id == -1)
+            s.bindNull(index);
+        else
+            s.bindLong(index, id);
+    }
+
+    /**
+     * Reusable buffer for the single record written into the snapshot.
+     */
+    private static class Record {
+        /**
+         * The content of the record.
+         */
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        /**
+         * Stream writing into the {@link #buffer}.
+         */
+        final DataOutputStream data = new DataOutputStream(buffer);
+
+        /**
+         * Clears the record.
+         */
+        void reset() {
+            buffer.reset();
+        }
+
+        /**
+         * Writes the string, which may be {@code null}, as the UTF-8 bytes prefixed by their length.
+         *
+         * @param value the string.
+         * @throws IOException if any I/O error occurred.
+         */
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                data.writeInt(-1);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+
+        /**
+         * Writes the record prefixed by its length.
+         *
+         * @param out the output.
+         * @throws IOException if any I/O error occurred.
+         */
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+        }
+    }
+
+    /**
+     * Reader of the length-prefixed records, reusing the same buffer for every record.
+     */
+    private static class Reader {
+        /**
+         * The input.
+         */
+        private final DataInputStream in;
+
+        /**
+         * The buffer for the record.
+         */
+        private byte[] buffer = new byte[256];
+
+        /**
+         * Creates the reader.
+         *
+         * @param in the input.
+         */
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next record of the current section.
+         *
+         * @return the record or {@code null} at the end of the section.
+         * @throws IOException if any I/O error occurred or the snapshot is truncated.
+         */
+        ByteBuffer next() throws IOException {
+            int length = in.readInt();
+            if (length == END_OF_SECTION)
+                return null;
+            if (length < 0)
+                throw new IOException("Invalid record length " + length);
+
+            if (buffer.length < length)
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+
+            try {
+                in.readFully(buffer, 0, length);
+            } catch (EOFException ex) {
+                throw new IOException("Truncated snapshot", ex);
+            }
+
+            return ByteBuffer.wrap(buffer, 0, length);
+        }
+    }
+}
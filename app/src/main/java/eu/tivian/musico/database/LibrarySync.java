@@ -0,0 +1,787 @@
+package eu.tivian.musico.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.data.AlbumJson;
+import eu.tivian.musico.data.Duration;
+import eu.tivian.musico.data.Song;
+import eu.tivian.musico.utility.Utilities;
+
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
+import static eu.tivian.musico.database.DatabaseContract.ChangeLogEntry;
+import static eu.tivian.musico.database.DatabaseContract.CurrencyEntry;
+import static eu.tivian.musico.database.DatabaseContract.GenreEntry;
+import static eu.tivian.musico.database.DatabaseContract.PurchaseEntry;
+import static eu.tivian.musico.database.DatabaseContract.SQL_LIST_TRACKS;
+import static eu.tivian.musico.database.DatabaseContract.SettingsEntry;
+import static eu.tivian.musico.database.DatabaseContract.SongEntry;
+import static eu.tivian.musico.database.DatabaseContract.StoreEntry;
+import static eu.tivian.musico.database.DatabaseContract.SyncBaseEntry;
+import static eu.tivian.musico.database.DatabaseContract.TrackEntry;
+
+/**
+ * The side of the synchronization with the single other device, working on the local collection.
+ * <br>
+ * The changed albums are found by the {@link ChangeLog}, so only the albums changed since
+ *  the last synchronization are read and sent. For every album the state agreed on by both devices
+ *  at the last synchronization is kept in the {@link SyncBaseEntry} table. Comparing both versions
+ *  of the field with it shows which device changed it, so the changes of different fields are merged.
+ *  If both devices changed the same field, the conflict is resolved in favour of one of them.
+ * <br>
+ * The cover art is sent as its hash and the image is requested only if no local album has it.
+ */
+public class LibrarySync {
+    /**
+     * The prefix of the name of the {@link ChangeLog} consumer, followed by the ID of the other device.
+     */
+    private static final String CONSUMER_PREFIX = "sync:";
+
+    /**
+     * SQL statement selecting the changes in the range of the sequence numbers.
+     */
+    private static final String SQL_CHANGES =
+        "SELECT " + ChangeLogEntry.COLUMN_ENTITY + ", " + ChangeLogEntry.COLUMN_ENTITY_ID + " " +
+        "FROM " + ChangeLogEntry.TABLE_NAME + " " +
+        "WHERE " + ChangeLogEntry._ID + " > ? AND " + ChangeLogEntry._ID + " <= ?";
+
+    /**
+     * SQL statement selecting the album with the given ID, together with its dimensions.
+     */
+    private static final String SQL_ALBUM =
+        "SELECT " +
+            ArtistEntry.TABLE_NAME + "." + ArtistEntry.COLUMN_NAME      + ", " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_TITLE      + ", " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_YEAR       + ", " +
+            GenreEntry.TABLE_NAME  + "." + GenreEntry.COLUMN_NAME       + ", " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_COVER_HASH + ", " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_DELETED    + " " +
+        "FROM " + AlbumEntry.TABLE_NAME + " " +
+        "INNER JOIN " + ArtistEntry.TABLE_NAME + " " +
+          "ON " + ArtistEntry.TABLE_NAME + "." + ArtistEntry._ID + " = "
+                + AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_ARTIST_ID + " " +
+        "LEFT JOIN " + GenreEntry.TABLE_NAME + " " +
+          "ON " + GenreEntry.TABLE_NAME  + "." + GenreEntry._ID + " = "
+                + AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_GENRE_ID + " " +
+        "WHERE " + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID + " = ?";
+
+    /**
+     * SQL statement selecting the ID of the album by its artist, title and year.
+     */
+    private static final String SQL_ALBUM_ID =
+        "SELECT " + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID + " " +
+        "FROM " + AlbumEntry.TABLE_NAME + " " +
+        "INNER JOIN " + ArtistEntry.TABLE_NAME + " " +
+          "ON " + ArtistEntry.TABLE_NAME + "." + ArtistEntry._ID + " = "
+                + AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_ARTIST_ID + " " +
+        "WHERE " + ArtistEntry.TABLE_NAME + "." + ArtistEntry.COLUMN_NAME + " = ? " +
+          "AND " + AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_TITLE + " = ? " +
+          "AND " + AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_YEAR + " = ?";
+
+    /**
+     * SQL statement selecting the purchases of the album.
+     */
+    private static final String SQL_PURCHASES =
+        "SELECT " +
+            PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_DATE  + ", " +
+            StoreEntry.TABLE_NAME    + "." + StoreEntry.COLUMN_NAME     + ", " +
+            PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_PRICE + ", " +
+            CurrencyEntry.TABLE_NAME + "." + CurrencyEntry.COLUMN_NAME  + " " +
+        "FROM " + PurchaseEntry.TABLE_NAME + " " +
+        "INNER JOIN " + CurrencyEntry.TABLE_NAME + " " +
+          "ON " + CurrencyEntry.TABLE_NAME + "." + CurrencyEntry._ID + " = "
+                + PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_CURRENCY_ID + " " +
+        "LEFT JOIN " + StoreEntry.TABLE_NAME + " " +
+          "ON " + StoreEntry.TABLE_NAME    + "." + StoreEntry._ID + " = "
+                + PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_STORE_ID + " " +
+        "WHERE " + PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_ALBUM_ID + " = ?";
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * The underlying SQLite database.
+     */
+    private final SQLiteDatabase db;
+
+    /**
+     * The ID of the other device.
+     */
+    private final String peer;
+
+    /**
+     * The log of the local changes.
+     */
+    private final ChangeLog log;
+
+    /**
+     * Number of the fields changed on both devices since the last synchronization.
+     */
+    private int conflicts;
+
+    /**
+     * Creates the side of the synchronization with the other device.
+     *
+     * @param adapter the database.
+     * @param peer the ID of the other device, see {@link #getDeviceId(DatabaseAdapter)}.
+     */
+    public LibrarySync(DatabaseAdapter adapter, @NonNull String peer) {
+        this.adapter = adapter;
+        this.db = adapter.getDb();
+        this.peer = peer;
+        this.log = new ChangeLog(adapter);
+    }
+
+    /**
+     * Gets the random ID of this device, generated the first time it's needed.
+     *
+     * @param adapter the database.
+     * @return the ID of this device.
+     */
+    public static synchronized String getDeviceId(DatabaseAdapter adapter) {
+        String id = adapter.getSetting(SettingsEntry.KEY_SYNC_DEVICE);
+        if (TextUtils.isEmpty(id)) {
+            id = UUID.randomUUID().toString();
+            adapter.setSetting(SettingsEntry.KEY_SYNC_DEVICE, id);
+        }
+        return id;
+    }
+
+    /**
+     * Gets the ID of the other device.
+     *
+     * @return the ID of the other device.
+     */
+    public String getPeer() {
+        return peer;
+    }
+
+    /**
+     * Gets the sequence number of the latest local change.
+     *
+     * @return the sequence number.
+     */
+    public long getHead() {
+        return log.getHead();
+    }
+
+    /**
+     * Gets the sequence number of the latest local change already sent to the other device.
+     *
+     * @return the sequence number, or -1 if nothing was sent yet.
+     */
+    public long getPosition() {
+        return log.getPosition(CONSUMER_PREFIX + peer);
+    }
+
+    /**
+     * Sets the sequence number of the latest local change sent to the other device.
+     *  The newer changes are kept in the log until they're sent.
+     *
+     * @param sequence the sequence number.
+     */
+    public void acknowledge(long sequence) {
+        log.acknowledge(CONSUMER_PREFIX + peer, sequence);
+    }
+
+    /**
+     * Gets the sequence number of the latest change received from the other device.
+     *
+     * @return the sequence number of the other device, or -1 if nothing was received yet.
+     */
+    public long getRemotePosition() {
+        String position = adapter.getSetting(SettingsEntry.KEY_SYNC_POSITION + peer);
+        return TextUtils.isEmpty(position) ? -1 : Long.parseLong(position);
+    }
+
+    /**
+     * Sets the sequence number of the latest change received from the other device.
+     *
+     * @param sequence the sequence number of the other device.
+     */
+    public void setRemotePosition(long sequence) {
+        adapter.setSetting(SettingsEntry.KEY_SYNC_POSITION + peer, String.valueOf(sequence));
+    }
+
+    /**
+     * Gets the number of the fields changed on both devices, counted by every {@link #apply} call.
+     *
+     * @return the number of the conflicts.
+     */
+    public int getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Reads the albums changed since the given position of the log. If the position is -1
+     *  or the whole collection was replaced since then, every album is read.
+     * <br>
+     * The removed albums are included only if the other device knows them.
+     *  The albums which are the same as the state known to the other device are skipped,
+     *  unless they were changed since the position and {@code filter} is {@code false}.
+     *
+     * @param since the sequence number of the latest change already sent.
+     * @param head the sequence number of the latest change to be sent, see {@link #getHead()}.
+     * @param extra the albums which should be compared as well, even if they weren't changed,
+     *        with the state of the other device. They're skipped if the local album is the same.
+     * @param filter whether the changed albums are compared with the state known to the other device.
+     * @return the records to be sent to the other device.
+     * @throws IOException if the saved state of the album is malformed.
+     */
+    public List<SyncRecord> getChanges(long since, long head, Collection<SyncRecord> extra,
+                                       boolean filter) throws IOException {
+        Set<Long> ids = new LinkedHashSet<>();
+        boolean full = since < 0 || findChanges(since, head, ids);
+
+        if (full) {
+            ids.clear();
+            try (Cursor c = db.query(AlbumEntry.TABLE_NAME, new String[] { AlbumEntry._ID },
+                    null, null, null, null, AlbumEntry._ID)) {
+                while (c.moveToNext())
+                    ids.add(c.getLong(0));
+            }
+
+            // the albums already purged, but known to the other device
+            try (Cursor c = db.rawQuery("SELECT " + SyncBaseEntry.COLUMN_ALBUM_ID + " " +
+                    "FROM " + SyncBaseEntry.TABLE_NAME + " " +
+                    "WHERE " + SyncBaseEntry.COLUMN_PEER + " = ? AND " + SyncBaseEntry.COLUMN_ALBUM_ID + " NOT IN " +
+                        "(SELECT " + AlbumEntry._ID + " FROM " + AlbumEntry.TABLE_NAME + ")", new String[] { peer })) {
+                while (c.moveToNext())
+                    ids.add(c.getLong(0));
+            }
+        }
+
+        Map<String, SyncRecord> records = new LinkedHashMap<>();
+        for (long id : ids) {
+            SyncRecord record = read(id);
+
+            // the album was removed or renamed, so the other device should remove the old one
+            for (SyncRecord known : getBase(id)) {
+                if (record == null || !known.getKey().equals(record.getKey()))
+                    records.put(known.getKey(), known.copy(true));
+            }
+            if (record != null)
+                records.put(record.getKey(), record);
+        }
+
+        Map<String, SyncRecord> known = new HashMap<>();
+        for (SyncRecord record : extra) {
+            String key = record.getKey();
+            known.put(key, record);
+            if (records.containsKey(key))
+                continue;
+
+            Long id = findId(record);
+            SyncRecord local = id == null ? null : read(id);
+            records.put(key, local != null ? local : record.copy(true));
+        }
+
+        List<SyncRecord> changes = new ArrayList<>();
+        for (SyncRecord record : records.values()) {
+            SyncRecord other = known.get(record.getKey());
+            SyncRecord base = getBase(record.getKey());
+
+            if (other != null) {
+                if (record.sameAs(other) || (record.deleted && other.deleted))
+                    continue;
+            } else if (record.deleted ? base == null : (filter || full) && record.sameAs(base)) {
+                continue;
+            }
+            changes.add(record);
+        }
+        return changes;
+    }
+
+    /**
+     * Gets the hashes of the cover arts used by the records, which aren't present in the local collection.
+     *
+     * @param records the records.
+     * @return the hashes of the missing images.
+     */
+    public Set<String> getMissingCovers(Collection<SyncRecord> records) {
+        Set<String> missing = new TreeSet<>();
+        for (SyncRecord record : records) {
+            String hash = record.fields.get(SyncRecord.FIELD_COVER);
+            if (hash != null && !missing.contains(hash) && !hasCover(hash))
+                missing.add(hash);
+        }
+        return missing;
+    }
+
+    /**
+     * Reads the cover arts with the given hashes.
+     *
+     * @param hashes the hashes of the images.
+     * @return the images by their hashes, the images which aren't found are omitted.
+     */
+    public Map<String, byte[]> getCovers(Collection<String> hashes) {
+        return getCovers(hashes, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the cover arts with the given hashes, in their order, until their total size reaches the limit.
+     *  The first found image is read even if it's bigger than the limit.
+     *
+     * @param hashes the hashes of the images.
+     * @param limit the size of the images in bytes, after which no other image is read.
+     * @return the images by their hashes, the images which aren't found or don't fit are omitted.
+     */
+    public Map<String, byte[]> getCovers(Collection<String> hashes, long limit) {
+        Map<String, byte[]> covers = new HashMap<>();
+        long size = 0;
+        for (String hash : hashes) {
+            byte[] cover = readCover(hash);
+            if (cover == null)
+                continue;
+            if (!covers.isEmpty() && size + cover.length > limit)
+                break;
+
+            covers.put(hash, cover);
+            size += cover.length;
+        }
+        return covers;
+    }
+
+    /**
+     * Merges the records received from the other device into the local collection, in a single transaction.
+     * <br>
+     * The field changed only on one device takes the value from that device.
+     *  If both devices changed the same field, the value is chosen by the {@code preferLocal} flag.
+     *  The album edited on one device and deleted on the other is kept.
+     *
+     * @param records the records received from the other device.
+     * @param covers the cover arts received from the other device, by their hashes.
+     * @param preferLocal whether the local value wins the conflict.
+     * @return the state of every album after the merge, in the same order as the {@code records}.
+     * @throws IOException if any record is malformed.
+     */
+    public List<SyncRecord> apply(List<SyncRecord> records, Map<String, byte[]> covers,
+                                  boolean preferLocal) throws IOException {
+        List<SyncRecord> results = new ArrayList<>();
+        Set<Long> inserted = new HashSet<>();
+        Set<Long> updated = new HashSet<>();
+        Set<Long> deleted = new HashSet<>();
+        boolean success = false;
+
+        db.beginTransaction();
+        try {
+            for (SyncRecord remote : records) {
+                Long id = findId(remote);
+                SyncRecord local = id == null ? null : read(id);
+                if (local != null && local.deleted)
+                    local = null;
+                SyncRecord base = getBase(remote.getKey());
+
+                SyncRecord result;
+                if (remote.deleted) {
+                    if (local == null) {
+                        result = remote;
+                    } else if (local.sameAs(base)) {
+                        adapter.tombstone(id);
+                        deleted.add(id);
+                        result = remote;
+                    } else {
+                        // the album changed locally is kept
+                        result = local;
+                    }
+                } else if (local == null) {
+                    if (remote.sameAs(base)) {
+                        // the album removed locally wasn't changed on the other device
+                        result = remote.copy(true);
+                    } else {
+                        result = remote.copy(false);
+                        inserted.add(write(result, -1, covers));
+                    }
+                } else {
+                    result = merge(local, remote, base, preferLocal);
+                    if (!result.sameAs(local)) {
+                        write(result, id, covers);
+                        updated.add(id);
+                    }
+                }
+                results.add(result);
+            }
+
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success)
+                adapter.invalidateCaches();
+        }
+
+        inserted.removeAll(deleted);
+        adapter.onSynced(toArray(inserted), toArray(updated), toArray(deleted));
+        return results;
+    }
+
+    /**
+     * Saves the state of the albums known to both devices after the synchronization.
+     *
+     * @param records the records with the state of the albums.
+     */
+    public void setBase(Collection<SyncRecord> records) {
+        db.beginTransaction();
+        try {
+            for (SyncRecord record : records) {
+                String[] args = { peer, record.getKey() };
+                Long id = findId(record);
+                if (record.deleted || id == null) {
+                    db.delete(SyncBaseEntry.TABLE_NAME, SyncBaseEntry.COLUMN_PEER + " = ? AND " +
+                            SyncBaseEntry.COLUMN_KEY + " = ?", args);
+                    continue;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(SyncBaseEntry.COLUMN_PEER, peer);
+                values.put(SyncBaseEntry.COLUMN_KEY, record.getKey());
+                values.put(SyncBaseEntry.COLUMN_ALBUM_ID, id);
+                values.put(SyncBaseEntry.COLUMN_FIELDS, record.toString());
+                db.insertWithOnConflict(SyncBaseEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Computes the hash of every cover art. Used when the column is added and after the library is replaced.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     */
+    static void fillCoverHashes(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        try (Cursor c = db.query(AlbumEntry.TABLE_NAME, new String[] { AlbumEntry._ID, AlbumEntry.COLUMN_COVER },
+                AlbumEntry.COLUMN_COVER + " IS NOT NULL", null, null, null, null)) {
+            while (c.moveToNext()) {
+                values.put(AlbumEntry.COLUMN_COVER_HASH, Utilities.hash(c.getBlob(1)));
+                db.update(AlbumEntry.TABLE_NAME, values, AlbumEntry._ID + " = " + c.getLong(0), null);
+            }
+        }
+    }
+
+    /**
+     * Finds the albums changed in the range of the log.
+     *
+     * @param since the sequence number of the latest change already sent, exclusive.
+     * @param head the sequence number of the latest change to be sent, inclusive.
+     * @param ids the set into which the IDs of the changed albums are added.
+     * @return {@code true} if the whole collection was replaced in the meantime.
+     */
+    private boolean findChanges(long since, long head, Set<Long> ids) {
+        List<Long> purchases = new ArrayList<>();
+        List<Long> songs = new ArrayList<>();
+
+        try (Cursor c = db.rawQuery(SQL_CHANGES, new String[] { String.valueOf(since), String.valueOf(head) })) {
+            while (c.moveToNext()) {
+                String entity = c.getString(0);
+                long id = c.getLong(1);
+
+                if (ChangeLog.ALL.equals(entity))
+                    return true;
+                else if (PurchaseEntry.TABLE_NAME.equals(entity))
+                    purchases.add(id);
+                else if (SongEntry.TABLE_NAME.equals(entity))
+                    songs.add(id);
+                else // the entity ID of the tracks is the ID of the album
+                    ids.add(id);
+            }
+        }
+
+        // the removed purchases and tracks are accompanied by the change of the album itself
+        if (!purchases.isEmpty())
+            addIds(ids, "SELECT " + PurchaseEntry.COLUMN_ALBUM_ID + " FROM " + PurchaseEntry.TABLE_NAME + " " +
+                "WHERE " + PurchaseEntry._ID + " IN (" + TextUtils.join(",", purchases) + ")");
+        if (!songs.isEmpty())
+            addIds(ids, "SELECT " + TrackEntry.COLUMN_ALBUM_ID + " FROM " + TrackEntry.TABLE_NAME + " " +
+                "WHERE " + TrackEntry.COLUMN_SONG_ID + " IN (" + TextUtils.join(",", songs) + ")");
+
+        return false;
+    }
+
+    /**
+     * Adds the IDs selected by the query to the set.
+     *
+     * @param ids the set of IDs.
+     * @param sql the query selecting the IDs in the first column.
+     */
+    private void addIds(Set<Long> ids, String sql) {
+        try (Cursor c = db.rawQuery(sql, null)) {
+            while (c.moveToNext())
+                ids.add(c.getLong(0));
+        }
+    }
+
+    /**
+     * Reads the current state of the album.
+     *
+     * @param id the ID of the album.
+     * @return the record of the album or {@code null} if it doesn't exist.
+     * @throws IOException if any JSON error occurred.
+     */
+    private SyncRecord read(long id) throws IOException {
+        String[] args = { String.valueOf(id) };
+        SyncRecord record = new SyncRecord();
+
+        try (Cursor c = db.rawQuery(SQL_ALBUM, args)) {
+            if (!c.moveToFirst())
+                return null;
+
+            record.artist = c.getString(0);
+            record.title = c.getString(1);
+            record.year = c.getInt(2);
+            if (!c.isNull(5))
+                return record.copy(true);
+
+            record.fields.put(SyncRecord.FIELD_GENRE, c.getString(3));
+            record.fields.put(SyncRecord.FIELD_COVER, c.getString(4));
+        }
+
+        StringWriter tracks = new StringWriter();
+        try (Cursor c = db.rawQuery(SQL_LIST_TRACKS, args); JsonWriter writer = new JsonWriter(tracks)) {
+            writer.beginArray();
+            while (c.moveToNext()) {
+                writer.beginObject();
+                writer.name(AlbumJson.TITLE).value(c.getString(0));
+                writer.name(AlbumJson.DURATION).value(AlbumJson.toString(c.isNull(1) ? null : Duration.from(c.getString(1))));
+                writer.endObject();
+            }
+            writer.endArray();
+        }
+        record.fields.put(SyncRecord.FIELD_TRACKS, tracks.toString());
+
+        // the purchases are sorted, so the same set of purchases is always encoded the same way
+        List<String> purchases = new ArrayList<>();
+        try (Cursor c = db.rawQuery(SQL_PURCHASES, args)) {
+            while (c.moveToNext()) {
+                StringWriter purchase = new StringWriter();
+                try (JsonWriter writer = new JsonWriter(purchase)) {
+                    writer.beginObject();
+                    if (!c.isNull(0))
+                        writer.name(AlbumJson.DATE).value(c.getLong(0));
+                    writer.name(AlbumJson.STORE).value(c.getString(1));
+                    writer.name(AlbumJson.PRICE).value(c.getDouble(2));
+                    writer.name(AlbumJson.CURRENCY).value(c.getString(3));
+                    writer.endObject();
+                }
+                purchases.add(purchase.toString());
+            }
+        }
+        Collections.sort(purchases);
+        record.fields.put(SyncRecord.FIELD_PURCHASES, "[" + TextUtils.join(",", purchases) + "]");
+
+        return record;
+    }
+
+    /**
+     * Writes the album into the local collection.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param record the record of the album. Its cover hash is cleared if the image isn't available.
+     * @param id the ID of the replaced album, or -1 if the album is added.
+     * @param covers the cover arts received from the other device.
+     * @return the ID of the album.
+     * @throws IOException if the record is malformed.
+     */
+    private long write(SyncRecord record, long id, Map<String, byte[]> covers) throws IOException {
+        String hash = record.fields.get(SyncRecord.FIELD_COVER);
+        byte[] cover = hash == null ? null : covers.get(hash);
+        if (hash != null && cover == null && (cover = readCover(hash)) == null)
+            record.fields.put(SyncRecord.FIELD_COVER, null);
+
+        List<Song> tracks = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new StringReader(
+                getField(record, SyncRecord.FIELD_TRACKS, "[]")))) {
+            Album album = new Album();
+            AlbumJson.readField(reader, AlbumJson.TRACKS, album);
+            for (Song song : album.tracks) {
+                if (song.duration == null)
+                    song.duration = Duration.ZERO;
+                tracks.add(song);
+            }
+        }
+
+        List<Album> purchases = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new StringReader(
+                getField(record, SyncRecord.FIELD_PURCHASES, "[]")))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Album album = new Album();
+                album.id = purchases.isEmpty() ? id : -1;
+                album.artist = record.artist;
+                album.title = record.title;
+                album.year = record.year;
+                album.genre = record.fields.get(SyncRecord.FIELD_GENRE);
+                album.cover = cover;
+                album.tracks = tracks;
+                AlbumJson.readField(reader, AlbumJson.PURCHASE, album);
+                purchases.add(album);
+            }
+            reader.endArray();
+        }
+
+        if (purchases.isEmpty())
+            throw new IOException("Album without purchases: " + record.getKey());
+        return adapter.write(purchases);
+    }
+
+    /**
+     * Merges the versions of the album, field by field.
+     *
+     * @param local the local version.
+     * @param remote the version of the other device.
+     * @param base the version known to both devices, or {@code null} if the album wasn't synchronized yet.
+     * @param preferLocal whether the local value wins the conflict.
+     * @return the merged version.
+     */
+    private SyncRecord merge(SyncRecord local, SyncRecord remote, SyncRecord base, boolean preferLocal) {
+        SyncRecord merged = local.copy(false);
+        Set<String> names = new HashSet<>(local.fields.keySet());
+        names.addAll(remote.fields.keySet());
+
+        for (String name : names) {
+            String mine = local.fields.get(name);
+            String theirs = remote.fields.get(name);
+            if (TextUtils.equals(mine, theirs))
+                continue;
+
+            boolean changedThere = base == null || base.deleted || !TextUtils.equals(theirs, base.fields.get(name));
+            boolean changedHere = base == null || base.deleted || !TextUtils.equals(mine, base.fields.get(name));
+            if (changedThere && changedHere)
+                conflicts++;
+
+            if (changedThere && (!changedHere || !preferLocal))
+                merged.fields.put(name, theirs);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Gets the state of the album known to both devices.
+     *
+     * @param key the key of the album.
+     * @return the record or {@code null} if the album wasn't synchronized yet.
+     * @throws IOException if the saved state is malformed.
+     */
+    private SyncRecord getBase(String key) throws IOException {
+        try (Cursor c = db.query(SyncBaseEntry.TABLE_NAME, new String[] { SyncBaseEntry.COLUMN_FIELDS },
+                SyncBaseEntry.COLUMN_PEER + " = ? AND " + SyncBaseEntry.COLUMN_KEY + " = ?",
+                new String[] { peer, key }, null, null, null)) {
+            return c.moveToFirst() ? SyncRecord.parse(c.getString(0)) : null;
+        }
+    }
+
+    /**
+     * Gets the states of the album known to both devices, by the local ID of the album.
+     *
+     * @param id the ID of the album.
+     * @return the records, there can be more than one if the album was renamed.
+     * @throws IOException if the saved state is malformed.
+     */
+    private List<SyncRecord> getBase(long id) throws IOException {
+        List<SyncRecord> records = new ArrayList<>();
+        try (Cursor c = db.query(SyncBaseEntry.TABLE_NAME, new String[] { SyncBaseEntry.COLUMN_FIELDS },
+                SyncBaseEntry.COLUMN_PEER + " = ? AND " + SyncBaseEntry.COLUMN_ALBUM_ID + " = ?",
+                new String[] { peer, String.valueOf(id) }, null, null, null)) {
+            while (c.moveToNext())
+                records.add(SyncRecord.parse(c.getString(0)));
+        }
+        return records;
+    }
+
+    /**
+     * Finds the local ID of the album, including the deleted albums.
+     *
+     * @param record the record of the album.
+     * @return the ID or {@code null} if there's no such album.
+     */
+    private Long findId(SyncRecord record) {
+        try (Cursor c = db.rawQuery(SQL_ALBUM_ID, new String[] {
+                record.artist, record.title, String.valueOf(record.year) })) {
+            return c.moveToFirst() ? c.getLong(0) : null;
+        }
+    }
+
+    /**
+     * Checks whether any album has the cover art, without reading the image.
+     *
+     * @param hash the hash of the image.
+     * @return {@code true} if the image is present in the local collection.
+     */
+    private boolean hasCover(String hash) {
+        return DatabaseUtils.queryNumEntries(db, AlbumEntry.TABLE_NAME,
+                AlbumEntry.COLUMN_COVER_HASH + " = ?", new String[] { hash }) > 0;
+    }
+
+    /**
+     * Reads the cover art by its hash.
+     *
+     * @param hash the hash of the image.
+     * @return the image or {@code null} if no album has it.
+     */
+    private byte[] readCover(String hash) {
+        try (Cursor c = db.query(AlbumEntry.TABLE_NAME, new String[] { AlbumEntry.COLUMN_COVER },
+                AlbumEntry.COLUMN_COVER_HASH + " = ?", new String[] { hash }, null, null, null, "1")) {
+            return c.moveToFirst() ? c.getBlob(0) : null;
+        }
+    }
+
+    /**
+     * Gets the value of the field.
+     *
+     * @param record the record.
+     * @param name the name of the field.
+     * @param fallback the value used if the field isn't set.
+     * @return the value of the field.
+     */
+    private static String getField(SyncRecord record, String name, String fallback) {
+        String value = record.fields.get(name);
+        return value == null ? fallback : value;
+    }
+
+    /**
+     * Converts the set of IDs into the array.
+     *
+     * @param ids the IDs.
+     * @return the array.
+     */
+    private static long[] toArray(Set<Long> ids) {
+        long[] array = new long[ids.size()];
+        int i = 0;
+        for (long id : ids)
+            array[i++] = id;
+        return array;
+    }
+}
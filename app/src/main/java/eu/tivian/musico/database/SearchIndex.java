@@ -0,0 +1,308 @@
+package eu.tivian.musico.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.data.Song;
+import eu.tivian.musico.utility.Utilities;
+
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
+import static eu.tivian.musico.database.DatabaseContract.GenreEntry;
+import static eu.tivian.musico.database.DatabaseContract.SongEntry;
+import static eu.tivian.musico.database.DatabaseContract.TrackEntry;
+import static eu.tivian.musico.database.DatabaseContract.TrigramEntry;
+
+/**
+ * Typo-tolerant search over the artist, title, genre and song titles of the albums.
+ * <br>
+ * Every word of the {@link Utilities#normalize(String) normalized} text is padded with spaces
+ *  and split into trigrams, e.g. "metallica" gives "  m", " me", "met", ..., "ca ".
+ *  The album matches the query if they share enough trigrams, so a misspelled word
+ *  still shares most of them with the correct one.
+ * <br>
+ * The trigrams are kept in the {@link TrigramEntry} table, maintained together with the albums.
+ *  The lookup only reads the rows of the trigrams of the query, using the primary key.
+ */
+final class SearchIndex {
+    /**
+     * The fraction of the trigrams of the query which the album has to contain to match it.
+     */
+    static final float SIMILARITY = 0.5f;
+
+    /**
+     * SQL statement selecting the texts of the albums which are indexed.
+     * <br>
+     * Formatted with the comma separated list of the IDs of the albums.
+     */
+    private static final String SQL_ALBUM_TEXT_FORMAT =
+        "SELECT " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry._ID + ", " +
+            ArtistEntry.TABLE_NAME + "." + ArtistEntry.COLUMN_NAME + ", " +
+            AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_TITLE + ", " +
+            GenreEntry.TABLE_NAME  + "." + GenreEntry.COLUMN_NAME  + " " +
+        "FROM " + AlbumEntry.TABLE_NAME + " " +
+        "INNER JOIN " + ArtistEntry.TABLE_NAME + " " +
+          "ON " + ArtistEntry.TABLE_NAME + "." + ArtistEntry._ID + " = "
+                + AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_ARTIST_ID + " " +
+        "LEFT JOIN " + GenreEntry.TABLE_NAME + " " +
+          "ON " + GenreEntry.TABLE_NAME  + "." + GenreEntry._ID + " = "
+                + AlbumEntry.TABLE_NAME  + "." + AlbumEntry.COLUMN_GENRE_ID + " " +
+        "WHERE " + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID + " IN (%s)";
+
+    /**
+     * SQL statement selecting the song titles of the albums.
+     * <br>
+     * Formatted with the comma separated list of the IDs of the albums.
+     */
+    private static final String SQL_SONG_TEXT_FORMAT =
+        "SELECT " +
+            TrackEntry.TABLE_NAME + "." + TrackEntry.COLUMN_ALBUM_ID + ", " +
+            SongEntry.TABLE_NAME  + "." + SongEntry.COLUMN_TITLE + " " +
+        "FROM " + TrackEntry.TABLE_NAME + " " +
+        "INNER JOIN " + SongEntry.TABLE_NAME + " " +
+          "ON " + SongEntry.TABLE_NAME  + "." + SongEntry._ID + " = "
+                + TrackEntry.TABLE_NAME + "." + TrackEntry.COLUMN_SONG_ID + " " +
+        "WHERE " + TrackEntry.TABLE_NAME + "." + TrackEntry.COLUMN_ALBUM_ID + " IN (%s)";
+
+    /**
+     * SQL statement adding the trigram of the album.
+     */
+    private static final String SQL_INSERT =
+        "INSERT OR IGNORE INTO " + TrigramEntry.TABLE_NAME + " (" +
+            TrigramEntry.COLUMN_TRIGRAM + ", " + TrigramEntry.COLUMN_ALBUM_ID + ") VALUES (?, ?)";
+
+    /**
+     * Private constructor to prevent instantiating the utility class.
+     */
+    private SearchIndex() {}
+
+    /**
+     * Splits the text into the trigrams.
+     *
+     * @param text the text, normalized inside of this function.
+     * @param trigrams the set into which the trigrams are added.
+     */
+    static void trigrams(String text, Set<String> trigrams) {
+        String normalized = Utilities.normalize(text);
+        if (normalized.isEmpty())
+            return;
+
+        for (String word : normalized.split(" ")) {
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++)
+                trigrams.add(padded.substring(i, i + 3));
+        }
+    }
+
+    /**
+     * Splits the text into the trigrams.
+     *
+     * @param text the text, normalized inside of this function.
+     * @return the trigrams, in the order of their appearance.
+     */
+    static Set<String> trigrams(String text) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        trigrams(text, trigrams);
+        return trigrams;
+    }
+
+    /**
+     * Adds the album into the index, using the data of the supplied object.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     * @param id the {@link AlbumEntry#_ID} of the album.
+     * @param album the album.
+     */
+    static void index(SQLiteDatabase db, long id, Album album) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        trigrams(album.artist, trigrams);
+        trigrams(album.title, trigrams);
+        trigrams(album.genre, trigrams);
+        for (Song song : album.tracks)
+            trigrams(song.title, trigrams);
+
+        try (SQLiteStatement statement = db.compileStatement(SQL_INSERT)) {
+            write(statement, id, trigrams);
+        }
+    }
+
+    /**
+     * Indexes the album once again, using the data saved in the database.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     * @param id the {@link AlbumEntry#_ID} of the album.
+     */
+    static void reindex(SQLiteDatabase db, long id) {
+        reindex(db, new long[] { id });
+    }
+
+    /**
+     * Indexes the albums once again, using the data saved in the database.
+     * <br>
+     * The texts of all the albums are read by two queries and their old trigrams are removed
+     *  by a single statement, instead of doing it for every album separately.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     * @param ids the {@link AlbumEntry#_ID IDs} of the albums.
+     */
+    static void reindex(SQLiteDatabase db, long[] ids) {
+        if (ids.length == 0)
+            return;
+
+        String in = DatabaseAdapter.join(ids);
+        Map<Long, Set<String>> albums = new LinkedHashMap<>();
+
+        try (Cursor c = db.rawQuery(String.format(SQL_ALBUM_TEXT_FORMAT, in), null)) {
+            while (c.moveToNext()) {
+                Set<String> trigrams = new LinkedHashSet<>();
+                for (int i = 1; i < c.getColumnCount(); i++)
+                    trigrams(c.getString(i), trigrams);
+                albums.put(c.getLong(0), trigrams);
+            }
+        }
+        try (Cursor c = db.rawQuery(String.format(SQL_SONG_TEXT_FORMAT, in), null)) {
+            while (c.moveToNext()) {
+                Set<String> trigrams = albums.get(c.getLong(0));
+                if (trigrams != null)
+                    trigrams(c.getString(1), trigrams);
+            }
+        }
+
+        db.delete(TrigramEntry.TABLE_NAME, TrigramEntry.COLUMN_ALBUM_ID + " IN (" + in + ")", null);
+        try (SQLiteStatement statement = db.compileStatement(SQL_INSERT)) {
+            for (Map.Entry<Long, Set<String>> album : albums.entrySet())
+                write(statement, album.getKey(), album.getValue());
+        }
+    }
+
+    /**
+     * Builds the whole index from scratch. Used when the table is created and after the library is replaced.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     */
+    static void rebuild(SQLiteDatabase db) {
+        db.delete(TrigramEntry.TABLE_NAME, null, null);
+        try (Cursor c = db.query(AlbumEntry.TABLE_NAME, new String[] { AlbumEntry._ID },
+                null, null, null, null, null)) {
+            while (c.moveToNext())
+                reindex(db, c.getLong(0));
+        }
+    }
+
+    /**
+     * Computes the normalized search keys of every row of the keyed tables.
+     * Used when the key columns are added and after the library is replaced.
+     * <br>
+     * Must be called inside of the transaction.
+     *
+     * @param db the database.
+     * @see DatabaseContract#SQL_KEYED_COLUMNS
+     */
+    static void fillKeys(SQLiteDatabase db) {
+        for (String[] keyed : DatabaseContract.SQL_KEYED_COLUMNS) {
+            String table = keyed[0];
+            String column = keyed[1];
+            String key = keyed[2];
+
+            // every row is read, the cursor window would skip the rows if only the updated ones were selected
+            try (Cursor c = db.query(table, new String[] { BaseColumns._ID, column },
+                    null, null, null, null, null);
+                 SQLiteStatement update = db.compileStatement("UPDATE " + table + " " +
+                    "SET " + key + " = ? WHERE " + BaseColumns._ID + " = ?")) {
+                while (c.moveToNext()) {
+                    update.bindString(1, Utilities.normalize(c.getString(1)));
+                    update.bindLong(2, c.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the condition matching the albums similar to the query.
+     *
+     * @param trigrams the trigrams of the query.
+     * @return the condition on the {@link AlbumEntry} table.
+     */
+    static String getSelection(Set<String> trigrams) {
+        return AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID + " IN (" +
+            "SELECT " + TrigramEntry.COLUMN_ALBUM_ID + " FROM " + TrigramEntry.TABLE_NAME + " " +
+            "WHERE " + TrigramEntry.COLUMN_TRIGRAM + " IN " + toList(trigrams) + " " +
+            "GROUP BY " + TrigramEntry.COLUMN_ALBUM_ID + " " +
+            "HAVING COUNT(*) >= " + getMinimumScore(trigrams) + ")";
+    }
+
+    /**
+     * Creates the expression scoring the album, which is the number of the trigrams shared with the query.
+     *
+     * @param trigrams the trigrams of the query.
+     * @return the expression evaluated for the row of the {@link AlbumEntry} table.
+     */
+    static String getScore(Set<String> trigrams) {
+        return "(SELECT COUNT(*) FROM " + TrigramEntry.TABLE_NAME + " " +
+            "WHERE " + TrigramEntry.COLUMN_TRIGRAM + " IN " + toList(trigrams) + " " +
+            "AND " + TrigramEntry.COLUMN_ALBUM_ID + " = " + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID + ")";
+    }
+
+    /**
+     * Gets the number of the trigrams the album has to share with the query to match it.
+     *
+     * @param trigrams the trigrams of the query.
+     * @return the minimal score.
+     */
+    static int getMinimumScore(Set<String> trigrams) {
+        return Math.max(1, (int) Math.ceil(trigrams.size() * SIMILARITY));
+    }
+
+    /**
+     * Saves the trigrams of the album.
+     *
+     * @param statement the compiled {@link #SQL_INSERT} statement.
+     * @param id the {@link AlbumEntry#_ID} of the album.
+     * @param trigrams the trigrams.
+     */
+    private static void write(SQLiteStatement statement, long id, Set<String> trigrams) {
+        for (String trigram : trigrams) {
+            statement.bindString(1, trigram);
+            statement.bindLong(2, id);
+            statement.executeInsert();
+        }
+    }
+
+    /**
+     * Formats the trigrams as the SQL list of the literals.
+     * <br>
+     * The trigrams are inlined instead of being bound, so the same condition can be used
+     *  both in the WHERE and ORDER BY clause of the album list.
+     *
+     * @param trigrams the trigrams.
+     * @return the list, e.g. {@code ('  m', ' me')}.
+     */
+    private static String toList(Set<String> trigrams) {
+        StringBuilder sb = new StringBuilder("(");
+        for (String trigram : trigrams) {
+            if (sb.length() > 1)
+                sb.append(", ");
+            DatabaseUtils.appendEscapedSQLString(sb, trigram);
+        }
+        return sb.append(")").toString();
+    }
+}
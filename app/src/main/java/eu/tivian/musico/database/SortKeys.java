@@ -0,0 +1,72 @@
+package eu.tivian.musico.database;
+
+import java.text.Collator;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the precomputed collation keys used for ordering the album list by the artist name
+ *  and by the title of the album.
+ * <br>
+ * The keys are compared by SQLite as raw blobs, so the locale aware ordering is preserved
+ *  while the sorting still can be done using the index.
+ */
+class SortKeys {
+    /**
+     * Regular expression matching the leading article, which is ignored while sorting.
+     */
+    private static final Pattern ARTICLE = Pattern.compile("^the\\s+", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The locale for which the keys are generated.
+     */
+    private final Locale locale;
+
+    /**
+     * Locale sensitive string comparator used to generate the keys.
+     */
+    private final Collator collator;
+
+    /**
+     * Creates the key generator for the given locale.
+     *
+     * @param locale the locale for which the keys will be generated.
+     */
+    SortKeys(Locale locale) {
+        this.locale = locale;
+        this.collator = Collator.getInstance(locale);
+    }
+
+    /**
+     * Gets the locale for which the keys are generated.
+     *
+     * @return the locale of the key generator.
+     */
+    Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * Strips the leading "The" article from the given text.
+     *
+     * @param text the text to be stripped.
+     * @return the text without leading article or {@code null} if {@code text} was {@code null}.
+     */
+    static String strip(String text) {
+        if (text == null)
+            return null;
+
+        String stripped = ARTICLE.matcher(text.trim()).replaceFirst("");
+        return stripped.isEmpty() ? text.trim() : stripped;
+    }
+
+    /**
+     * Gets the collation key for the given text, with the leading article omitted.
+     *
+     * @param text the text.
+     * @return raw collation key or {@code null} if {@code text} was {@code null}.
+     */
+    synchronized byte[] get(String text) {
+        return text == null ? null : collator.getCollationKey(strip(text)).toByteArray();
+    }
+}
@@ -0,0 +1,187 @@
+package eu.tivian.musico.database;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.tivian.musico.utility.Metrics;
+
+/**
+ * The background job keeping the database file in good shape, run while the device is idle and charging.
+ * <br>
+ * Editing the album rewrites its cover art, so the file is quickly fragmented by the freed pages.
+ *  The job removes the expired {@link ImageCache} and {@link BarcodeCache} entries,
+ *  returns the freed pages to the file system in small chunks of the incremental vacuum,
+ *  refreshes the statistics used by the query planner and runs the quick integrity check.
+ *  The results are reported through the {@link Metrics}, which are written into the system log
+ *  at the end of every run.
+ */
+public class StorageMaintenance extends JobService {
+    /**
+     * The tag of the system log.
+     */
+    private static final String TAG = "StorageMaintenance";
+
+    /**
+     * The ID of the job, unique within the application.
+     */
+    private static final int JOB_ID = 1;
+
+    /**
+     * The interval of the job.
+     */
+    private static final long INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Number of the pages freed by the single step of the incremental vacuum.
+     *  The database is locked only for the duration of the step.
+     */
+    private static final int VACUUM_CHUNK = 256;
+
+    /**
+     * The value of the {@code PRAGMA auto_vacuum} for the incremental mode.
+     */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * The name of the metric measuring the whole run of the job.
+     */
+    public static final String METRIC_RUN = "storage.maintenance";
+
+    /**
+     * The name of the metric with the total number of the bytes returned to the file system.
+     */
+    public static final String METRIC_RECLAIMED = "storage.reclaimed_bytes";
+
+    /**
+     * The name of the metric with the size of the database file after the last run.
+     */
+    public static final String METRIC_SIZE = "storage.size_bytes";
+
+    /**
+     * The name of the metric with the number of the failed integrity checks.
+     */
+    public static final String METRIC_CORRUPTED = "storage.integrity_failures";
+
+    /**
+     * Whether the system asked to stop the running job.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Schedules the job, unless it's already scheduled.
+     *
+     * @param context the context of the application.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null)
+            return;
+
+        // scheduling the job once again would restart its interval
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID)
+                return;
+        }
+
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, StorageMaintenance.class))
+            .setRequiresDeviceIdle(true)
+            .setRequiresCharging(true)
+            .setPeriodic(INTERVAL)
+            .build());
+    }
+
+    /**
+     * Starts the maintenance on the background executor of the database.
+     *
+     * @param params parameters of the job.
+     * @return {@code true} if the job continues in the background.
+     */
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        stopped = false;
+        DatabaseAdapter adapter = DatabaseAdapter.init(getApplicationContext());
+        return adapter.runInBackground(() -> {
+            try {
+                run(adapter.getDb());
+            } catch (SQLiteException ex) {
+                ex.printStackTrace();
+            } finally {
+                Metrics.log(TAG);
+                jobFinished(params, false);
+            }
+        });
+    }
+
+    /**
+     * Stops the vacuum after the current chunk.
+     *
+     * @param params parameters of the job.
+     * @return {@code true}, so the job is retried later.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped = true;
+        return true;
+    }
+
+    /**
+     * Runs the maintenance.
+     *
+     * @param db the database.
+     */
+    private void run(SQLiteDatabase db) {
+        long start = Metrics.start();
+        long pageSize = pragma(db, "page_size");
+        long before = pragma(db, "page_count");
+        ImageCache.purge(db);
+        BarcodeCache.purge(db);
+
+        if (pragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // the connection already requested the incremental mode, see DatabaseHelper#onConfigure
+            db.execSQL("VACUUM");
+        } else {
+            while (!stopped && pragma(db, "freelist_count") > 0) {
+                // the pragma returns a row for every freed page and frees it only when the row is stepped over
+                try (Cursor c = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_CHUNK + ")", null)) {
+                    while (c.moveToNext());
+                }
+            }
+        }
+
+        long after = pragma(db, "page_count");
+        Metrics.add(METRIC_RECLAIMED, Math.max(0, before - after) * pageSize);
+        Metrics.set(METRIC_SIZE, after * pageSize);
+        if (stopped)
+            return;
+
+        db.execSQL("ANALYZE");
+
+        try (Cursor c = db.rawQuery("PRAGMA quick_check", null)) {
+            if (!c.moveToFirst() || !"ok".equals(c.getString(0)))
+                Metrics.add(METRIC_CORRUPTED, 1);
+        }
+
+        Metrics.time(METRIC_RUN, start);
+    }
+
+    /**
+     * Reads the numeric value of the pragma.
+     *
+     * @param db the database.
+     * @param name the name of the pragma.
+     * @return the value.
+     */
+    private static long pragma(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + name, null);
+    }
+}
@@ -0,0 +1,217 @@
+package eu.tivian.musico.database;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+import eu.tivian.musico.data.AlbumJson;
+
+/**
+ * The state of the single album exchanged with the other device by the {@link LibrarySync}.
+ * <br>
+ * The album is identified on every device by its artist, title and year, which are unique in the collection.
+ *  Every other property is the separate field, so the changes made on both devices
+ *  to different fields of the same album are merged instead of overwriting each other.
+ */
+public class SyncRecord {
+    /**
+     * The field with the musical genre.
+     */
+    public static final String FIELD_GENRE = "genre";
+
+    /**
+     * The field with the {@link eu.tivian.musico.utility.Utilities#hash(byte[]) hash} of the cover art.
+     *  The image itself is transferred separately, only if the other device doesn't have it yet.
+     */
+    public static final String FIELD_COVER = "cover";
+
+    /**
+     * The field with the track list, as the JSON array of the titles and durations.
+     */
+    public static final String FIELD_TRACKS = "tracks";
+
+    /**
+     * The field with the purchases, as the sorted JSON array of the dates, stores, prices and currencies.
+     */
+    public static final String FIELD_PURCHASES = "purchases";
+
+    /**
+     * The key of the deletion flag in the {@link #write(JsonWriter) written} record.
+     */
+    private static final String JSON_DELETED = "deleted";
+
+    /**
+     * The key of the fields in the {@link #write(JsonWriter) written} record.
+     */
+    private static final String JSON_FIELDS = "fields";
+
+    /**
+     * Name of the artist.
+     */
+    public String artist;
+
+    /**
+     * Title of the album.
+     */
+    public String title;
+
+    /**
+     * Year of the original release of the album.
+     */
+    public int year;
+
+    /**
+     * Whether the album was deleted. The deleted album has no fields.
+     */
+    public boolean deleted;
+
+    /**
+     * Values of the fields, e.g. {@link #FIELD_GENRE}, {@code null} value if the field isn't set.
+     */
+    public final Map<String, String> fields = new TreeMap<>();
+
+    /**
+     * Gets the key identifying the album on every device.
+     *
+     * @return the key of the album.
+     */
+    @NonNull
+    public String getKey() {
+        return artist + '\u001F' + title + '\u001F' + year;
+    }
+
+    /**
+     * Checks whether both records describe the same state of the album.
+     *
+     * @param other the other record.
+     * @return {@code true} if the records have the same fields and both are deleted or not.
+     */
+    public boolean sameAs(SyncRecord other) {
+        return other != null && deleted == other.deleted && fields.equals(other.fields);
+    }
+
+    /**
+     * Creates the copy of this record.
+     *
+     * @param deleted whether the copy is deleted, the deleted copy has no fields.
+     * @return the copy of this record.
+     */
+    public SyncRecord copy(boolean deleted) {
+        SyncRecord record = new SyncRecord();
+        record.artist = artist;
+        record.title = title;
+        record.year = year;
+        record.deleted = deleted;
+        if (!deleted)
+            record.fields.putAll(fields);
+        return record;
+    }
+
+    /**
+     * Writes the record as the JSON object.
+     *
+     * @param writer JSON writer.
+     * @throws IOException if any I/O error occurred.
+     */
+    public void write(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name(AlbumJson.ARTIST).value(artist);
+        writer.name(AlbumJson.TITLE).value(title);
+        writer.name(AlbumJson.YEAR).value(year);
+        if (deleted)
+            writer.name(JSON_DELETED).value(true);
+
+        writer.name(JSON_FIELDS).beginObject();
+        for (Map.Entry<String, String> entry : fields.entrySet())
+            writer.name(entry.getKey()).value(entry.getValue());
+        writer.endObject();
+
+        writer.endObject();
+    }
+
+    /**
+     * Reads the record written by the {@link #write(JsonWriter)}, skipping the unknown fields.
+     *
+     * @param reader JSON reader positioned at the beginning of the object.
+     * @return the record.
+     * @throws IOException if any I/O error occurred.
+     */
+    public static SyncRecord read(JsonReader reader) throws IOException {
+        SyncRecord record = new SyncRecord();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case AlbumJson.ARTIST:
+                    record.artist = reader.nextString();
+                    break;
+                case AlbumJson.TITLE:
+                    record.title = reader.nextString();
+                    break;
+                case AlbumJson.YEAR:
+                    record.year = reader.nextInt();
+                    break;
+                case JSON_DELETED:
+                    record.deleted = reader.nextBoolean();
+                    break;
+                case JSON_FIELDS:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                            record.fields.put(name, null);
+                        } else {
+                            record.fields.put(name, reader.nextString());
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return record;
+    }
+
+    /**
+     * Converts the record into the JSON text, e.g. to be saved in the database.
+     *
+     * @return the JSON text.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            write(writer);
+        } catch (IOException ex) {
+            // the string writer doesn't throw
+            throw new IllegalStateException(ex);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Parses the JSON text created by the {@link #toString()}.
+     *
+     * @param json the JSON text.
+     * @return the record.
+     * @throws IOException if the text isn't the valid record.
+     */
+    public static SyncRecord parse(String json) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return read(reader);
+        }
+    }
+}
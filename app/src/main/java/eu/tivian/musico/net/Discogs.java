@@ -1,5 +1,8 @@
 package eu.tivian.musico.net;
 
+import android.database.SQLException;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.text.TextUtils;
 import android.util.JsonReader;
 import android.util.JsonToken;
@@ -15,6 +18,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -22,6 +26,8 @@ import eu.tivian.musico.BuildConfig;
 import eu.tivian.musico.data.Album;
 import eu.tivian.musico.data.Duration;
 import eu.tivian.musico.data.Song;
+import eu.tivian.musico.database.BarcodeCache;
+import eu.tivian.musico.database.DatabaseAdapter;
 import eu.tivian.musico.utility.Utilities;
 
 /**
@@ -35,6 +41,21 @@ public final class Discogs extends Service {
      */
     private static final String ROOT_URL = "https://api.discogs.com/";
 
+    /**
+     * The part of the URL of the release, found by the search.
+     */
+    private static final String RELEASE_PATH = "/releases/";
+
+    /**
+     * Time in milliseconds for which the cached release is used, the releases are rarely edited.
+     */
+    private static final long RELEASE_TTL = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Time in milliseconds for which the cached search result is used.
+     */
+    private static final long SEARCH_TTL = TimeUnit.DAYS.toMillis(1);
+
     /**
      * Consumer key used to authenticate the application.
      */
@@ -60,6 +81,26 @@ public final class Discogs extends Service {
      */
     private static final String BARCODE_REGEX = "\\d{12,13}";
 
+    /**
+     * The number of the authenticated requests allowed per minute, adjusted by the server's headers.
+     */
+    private static final int RATE_LIMIT = 60;
+
+    /**
+     * The parameter of the search asking only for the first result, enough to find the album.
+     */
+    private static final String FIRST_RESULT = "per_page=1";
+
+    /**
+     * Time in milliseconds for which the album found by the barcode is kept in the {@link BarcodeCache}.
+     */
+    private static final long BARCODE_TTL = TimeUnit.DAYS.toMillis(180);
+
+    /**
+     * The persistent cache of the albums found by the barcodes, or {@code null} until the database is initialized.
+     */
+    private volatile BarcodeCache barcodes;
+
     /**
      * Available types of entries supported by query function.
      */
@@ -215,9 +256,15 @@ public final class Discogs extends Service {
 
         /**
          * URL used to retrieve more detailed information about the entry.
+         *  It points at the master release, if the entry belongs to any.
          */
         public String url;
 
+        /**
+         * URL of the entry itself, e.g. of the exact release even if it belongs to the master release.
+         */
+        public String resource;
+
         /**
          * Private constructor to prevent instantiating from outside.
          */
@@ -237,7 +284,9 @@ public final class Discogs extends Service {
     /**
      * Private constructor to prevent instantiating from outside.
      */
-    private Discogs() {}
+    private Discogs() {
+        super(2, RATE_LIMIT);
+    }
 
     /**
      * Returns the singleton.
@@ -253,9 +302,10 @@ public final class Discogs extends Service {
      *
      * @param query search query.
      * @param action functor determining what should happen with received data.
+     * @return the handle of the request.
      */
-    public void search(Query query, Consumer<List<SearchResult>> action) {
-        search(query, action, null);
+    public Request search(Query query, Consumer<List<SearchResult>> action) {
+        return search(query, action, null);
     }
 
     /**
@@ -264,9 +314,10 @@ public final class Discogs extends Service {
      * @param query search query.
      * @param action functor determining what should happen with received data.
      * @param onError functor called only if any I/O errors occurred while retrieving information from the server.
+     * @return the handle of the request.
      */
-    public void search(Query query, Consumer<List<SearchResult>> action, Consumer<Exception> onError) {
-        execute("database/search?" + query, this::parseSearch, action, onError);
+    public Request search(Query query, Consumer<List<SearchResult>> action, Consumer<Exception> onError) {
+        return execute("database/search?" + query, reader -> parseSearch(reader, Integer.MAX_VALUE), action, onError);
     }
 
     /**
@@ -274,26 +325,160 @@ public final class Discogs extends Service {
      *
      * @param str album title or EAN-13 / UPC-A barcode.
      * @param action functor determining what should happen with received album information.
+     * @return the handle of the request.
      */
-    public void getAlbum(String str, Consumer<Album> action) {
-        getAlbum(str, action, null);
+    public Request getAlbum(String str, Consumer<Album> action) {
+        return getAlbum(str, action, null);
     }
 
     /**
      * Gets information about the requested album.
+     * The album found by the barcode is cached, so the same barcode scanned again doesn't need the network.
      *
      * @param str album title or EAN-13 / UPC-A barcode.
      * @param action functor determining what should happen with received album information.
      * @param onError functor called only if any I/O errors occurred while retrieving information from the server.
+     * @return the handle of the request.
      */
-    public void getAlbum(String str, Consumer<Album> action, Consumer<Exception> onError) {
-        Query query = new Query();
+    public Request getAlbum(String str, Consumer<Album> action, Consumer<Exception> onError) {
         if (str.matches(BARCODE_REGEX))
-            query.barcode = str;
-        else
-            query.title = str;
+            return getBarcode(str, action, onError);
+
+        Query query = new Query();
+        query.title = str;
+        return getAlbum(query, action, onError);
+    }
+
+    /**
+     * Gets the album by its barcode, looking first into the {@link BarcodeCache}.
+     * <br>
+     * The cache is read on the background executor of the database, not by the workers of this service,
+     *  so the barcode scanned again doesn't wait behind the rate limited lookups of the other ones.
+     *  Only the barcode which isn't cached is queued for the lookup on the server.
+     *
+     * @param barcode EAN-13 or UPC-A barcode.
+     * @param action functor determining what should happen with received album information.
+     * @param onError functor called only if any I/O errors occurred while retrieving information from the server.
+     * @return the handle of the request, covering both the cache lookup and the lookup on the server.
+     */
+    private Request getBarcode(String barcode, Consumer<Album> action, Consumer<Exception> onError) {
+        Request request = new Request();
+        BarcodeCache cache = getBarcodes();
+        if (cache == null)
+            return execute(request, Priority.INTERACTIVE, () -> findBarcode(barcode), action, onError);
+
+        // the cache lookup counts as the pending call, so the request can be bound and cancelled meanwhile
+        request.hold();
+        boolean queued = DatabaseAdapter.get().runInBackground(() -> {
+            Album album = null;
+            try {
+                album = request.isCancelled() ? null : cache.get(barcode);
+            } catch (SQLException ex) {
+                ex.printStackTrace();
+            }
+
+            if (album != null || request.isCancelled()) {
+                post(request, album, null, action, onError);
+            } else {
+                // the next call is registered before the lookup is marked as finished
+                execute(request, Priority.INTERACTIVE, () -> findBarcode(barcode), action, onError);
+                finish(request);
+            }
+        });
 
-        getAlbum(query, action, onError);
+        if (!queued) {
+            execute(request, Priority.INTERACTIVE, () -> findBarcode(barcode), action, onError);
+            request.finish();
+        }
+        return request;
+    }
+
+    /**
+     * Finds the album by its barcode on the server, the search and the download of the found release
+     *  are made by the same worker. The found album is saved in the {@link BarcodeCache}.
+     *  Called outside the UI thread.
+     *
+     * @param barcode EAN-13 or UPC-A barcode.
+     * @return the album or {@code null} if nothing was found.
+     * @throws IOException if any I/O error occurred.
+     */
+    private Album findBarcode(String barcode) throws IOException {
+        BarcodeCache cache = getBarcodes();
+        Album album;
+
+        Query query = new Query();
+        query.barcode = barcode;
+        List<SearchResult> list;
+        try (JsonReader reader = Utilities.getReader(connect("database/search?" + query + FIRST_RESULT))) {
+            list = parseSearch(reader, 1);
+        }
+        if (list.isEmpty())
+            return null;
+
+        // the barcode identifies the exact release, not its master release
+        String release = list.get(0).resource;
+        if (release == null)
+            return null;
+        try (JsonReader reader = Utilities.getReader(connect(release))) {
+            album = parseAlbum(reader);
+        }
+        if (album != null && cache != null)
+            cache.put(barcode, release, album, BARCODE_TTL);
+        return album;
+    }
+
+    /**
+     * Downloads the cover art of the album, e.g. of the one found by the barcode, which has only
+     *  the {@link Album#coverUrl}. The download waits for the same rate limit as the lookups.
+     *
+     * @param url the URL of the cover art.
+     * @param action functor called with the JPEG encoded cover art.
+     * @param onError functor called only if the cover art couldn't be downloaded or decoded.
+     * @return the handle of the request.
+     */
+    public Request getCover(String url, Consumer<byte[]> action, Consumer<Exception> onError) {
+        return execute(new Request(), Priority.BACKGROUND, () -> downloadCover(url), action, onError);
+    }
+
+    /**
+     * Downloads the cover art and encodes it as JPEG, the format in which the covers are saved.
+     *  Called outside the UI thread.
+     *
+     * @param url the URL of the cover art.
+     * @return the JPEG encoded cover art.
+     * @throws IOException if any I/O error occurred or the image couldn't be decoded.
+     */
+    private byte[] downloadCover(String url) throws IOException {
+        URL address = new URL(url);
+        Bitmap bitmap;
+        try (InputStream in = open(() -> {
+            HttpURLConnection conn = (HttpURLConnection) address.openConnection();
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("User-Agent", USER_AGENT);
+            return conn;
+        }, RELEASE_TTL)) {
+            if (in == null)
+                throw new IOException("The cover art isn't available: " + url);
+            bitmap = BitmapFactory.decodeStream(in);
+        }
+
+        if (bitmap == null)
+            throw new IOException("The cover art couldn't be decoded: " + url);
+        return Utilities.getBytes(bitmap);
+    }
+
+    /**
+     * Gets the persistent cache of the albums found by the barcodes.
+     *
+     * @return the cache or {@code null} if the database isn't initialized yet.
+     */
+    private BarcodeCache getBarcodes() {
+        if (barcodes == null) {
+            DatabaseAdapter adapter = DatabaseAdapter.get();
+            if (adapter != null)
+                barcodes = new BarcodeCache(adapter);
+        }
+        return barcodes;
     }
 
     /**
@@ -301,9 +486,10 @@ public final class Discogs extends Service {
      *
      * @param query search query.
      * @param action functor determining what should happen with received album information.
+     * @return the handle of the request.
      */
-    public void getAlbum(Query query, Consumer<Album> action) {
-        getAlbum(query, action, null);
+    public Request getAlbum(Query query, Consumer<Album> action) {
+        return getAlbum(query, action, null);
     }
 
     /**
@@ -312,11 +498,15 @@ public final class Discogs extends Service {
      * @param query search query.
      * @param action functor determining what should happen with received album information.
      * @param onError functor called only if any I/O errors occurred while retrieving information from the server.
+     * @return the handle of the request, covering both the search and the download of the found album.
      */
-    public void getAlbum(Query query, Consumer<Album> action, Consumer<Exception> onError) {
-        search(query, list -> {
+    public Request getAlbum(Query query, Consumer<Album> action, Consumer<Exception> onError) {
+        Request request = new Request();
+        // the non-empty query string always ends with the separator
+        return execute(request, Priority.INTERACTIVE, "database/search?" + query + FIRST_RESULT,
+                reader -> parseSearch(reader, 1), list -> {
             if (list.size() > 0)
-                execute(list.get(0).url, this::parseAlbum, action, onError);
+                execute(request, Priority.INTERACTIVE, list.get(0).url, this::parseAlbum, action, onError);
             else if (onError != null)
                 onError.accept(null);
         }, onError);
@@ -458,13 +648,15 @@ public final class Discogs extends Service {
 
     /**
      * Parses search result into the list of entries.
+     * The parsing stops as soon as the {@code limit} is reached.
      *
      * @param reader JSON reader.
+     * @param limit the maximal number of the entries.
      * @return list of search result entries.
      * @see <a href="https://www.discogs.com/developers#page:database,header:database-search">
      *      API reference</a>
      */
-    private List<SearchResult> parseSearch(JsonReader reader) {
+    private List<SearchResult> parseSearch(JsonReader reader, int limit) {
         List<SearchResult> result = new ArrayList<>();
         String name;
 
@@ -496,10 +688,10 @@ public final class Discogs extends Service {
                                         reader.nextNull();
                                     break;
                                 case "resource_url":
-                                    if (record.url == null) {
-                                        record.url = reader.nextString();
-                                        break;
-                                    }
+                                    record.resource = reader.nextString();
+                                    if (record.url == null)
+                                        record.url = record.resource;
+                                    break;
                                 default:
                                     reader.skipValue();
                                     break;
@@ -508,6 +700,9 @@ public final class Discogs extends Service {
 
                         result.add(record);
                         reader.endObject();
+                        // the caller closes the stream, so the remaining entries are never parsed
+                        if (result.size() >= limit)
+                            return result;
                     }
                     reader.endArray();
                 } else {
@@ -536,13 +731,13 @@ public final class Discogs extends Service {
 
         try {
             URL url = new URL(req);
-            HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Authorization", AUTH_STRING);
-            conn.setRequestProperty("User-Agent", USER_AGENT);
-            conn.connect();
-            return (conn.getResponseCode() != HttpURLConnection.HTTP_OK) ?
-                    null : conn.getInputStream();
+            return open(() -> {
+                HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+                conn.setRequestMethod("GET");
+                conn.setRequestProperty("Authorization", AUTH_STRING);
+                conn.setRequestProperty("User-Agent", USER_AGENT);
+                return conn;
+            }, req.contains(RELEASE_PATH) ? RELEASE_TTL : SEARCH_TTL);
         } catch (IOException ex) {
             return null;
         }
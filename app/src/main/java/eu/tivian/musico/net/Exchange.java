@@ -13,6 +13,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -27,6 +28,21 @@ public class Exchange extends Service {
      */
     private static final String ROOT_URL = "https://api.exchangeratesapi.io/";
 
+    /**
+     * The path of the current exchange rates.
+     */
+    private static final String LATEST = "latest";
+
+    /**
+     * Time in milliseconds for which the cached current rates are used.
+     */
+    private static final long LATEST_TTL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Time in milliseconds for which the cached past rates are used.
+     */
+    private static final long HISTORY_TTL = TimeUnit.DAYS.toMillis(30);
+
     /**
      * Date formatter used to create URL links for past exchange rates.
      */
@@ -81,7 +97,9 @@ public class Exchange extends Service {
     /**
      * Private constructor to prevent instantiating from outside of this class.
      */
-    private Exchange() {}
+    private Exchange() {
+        super(1);
+    }
 
     /**
      * Returns the singleton.
@@ -96,9 +114,10 @@ public class Exchange extends Service {
      * Gets the exchange rates for today, using the default base currency (denoted by {@link #BASE_CURRENCY}.
      *
      * @param action functor determining what should happen with received data.
+     * @return the handle of the request.
      */
-    public void getRates(Consumer<Rates> action) {
-        getRates(BASE_CURRENCY, action);
+    public Request getRates(Consumer<Rates> action) {
+        return getRates(BASE_CURRENCY, action);
     }
 
     /**
@@ -106,9 +125,10 @@ public class Exchange extends Service {
      *
      * @param base the base currency, for which the exchange rate will be equal to 1.
      * @param action functor determining what should happen with received data.
+     * @return the handle of the request.
      */
-    public void getRates(String base, Consumer<Rates> action) {
-        getRates(base, null, action);
+    public Request getRates(String base, Consumer<Rates> action) {
+        return getRates(base, null, action);
     }
 
     /**
@@ -117,9 +137,11 @@ public class Exchange extends Service {
      * @param base the base currency, for which the exchange rate will be equal to 1.
      * @param date the date of desired exchange rates list.
      * @param action functor determining what should happen with received data.
+     * @return the handle of the request.
      */
-    public void getRates(String base, Date date, Consumer<Rates> action) {
-        execute((date == null ? "latest" : getDate(date)) + "?base=" + base, this::parseRates, action);
+    public Request getRates(String base, Date date, Consumer<Rates> action) {
+        return execute(new Request(), Priority.BACKGROUND,
+                (date == null ? LATEST : getDate(date)) + "?base=" + base, this::parseRates, action, null);
     }
 
     /**
@@ -186,14 +208,15 @@ public class Exchange extends Service {
      * None authorization is required.
      *
      * @param req the URL to connect to.
-     * @return input stream.
+     * @return input stream or {@code null} if the server responded with an error.
      */
     @Override
     protected InputStream connect(String req) {
         try {
             URL url = new URL(ROOT_URL + req);
-            HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-            return conn.getInputStream();
+            // the past rates never change
+            return open(() -> (HttpsURLConnection) url.openConnection(),
+                    req.startsWith(LATEST) ? LATEST_TTL : HISTORY_TTL);
         } catch (IOException ex) {
             return null;
         }
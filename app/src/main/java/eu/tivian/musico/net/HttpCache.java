@@ -0,0 +1,545 @@
+package eu.tivian.musico.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.tivian.musico.utility.Metrics;
+import eu.tivian.musico.utility.Utilities;
+
+/**
+ * Size-bounded disk cache of the responses of the external services, used by {@link Service#open}.
+ * <br>
+ * The response younger than the time-to-live chosen by the service is returned without any network traffic.
+ *  The older one is revalidated by the {@code If-None-Match} and {@code If-Modified-Since} headers,
+ *  so the unchanged response costs only the round trip. The least recently used responses are removed
+ *  when the cache grows beyond its size.
+ * <br>
+ * Works with any {@link HttpURLConnection}, so it can be tested against the local plain HTTP server.
+ *  The body of the response is read through the {@link Transport}, so it's decompressed and accounted.
+ *  The downloaded body is passed to the caller as it arrives and copied into the cache on the way,
+ *  so the caller which stops reading early closes the connection without downloading the rest.
+ *  Such an incomplete response isn't cached.
+ */
+public class HttpCache {
+    /**
+     * The default size of the cache, in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The version of the format of the cache files, the files with the other version are dropped.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The maximal number of the bytes read after the caller closed the body, to find its end.
+     */
+    private static final int TAIL_SIZE = 256;
+
+    /**
+     * The name of the metric counting the responses returned without the network traffic.
+     */
+    public static final String METRIC_HIT = "http.cache.hit";
+
+    /**
+     * The name of the metric counting the responses revalidated by the server.
+     */
+    public static final String METRIC_REVALIDATED = "http.cache.revalidated";
+
+    /**
+     * The name of the metric counting the responses downloaded from the server.
+     */
+    public static final String METRIC_MISS = "http.cache.miss";
+
+    /**
+     * Functor called right before the connection is made.
+     */
+    public interface ConnectListener {
+        /**
+         * Prepares the connection.
+         *
+         * @throws IOException if the connection shouldn't be made.
+         */
+        void onConnect() throws IOException;
+    }
+
+    /**
+     * The installed cache, or {@code null}.
+     */
+    private static volatile HttpCache instance;
+
+    /**
+     * The cached response.
+     */
+    private static class Entry {
+        /**
+         * The URL of the request.
+         */
+        String url;
+
+        /**
+         * Time when the response was received or revalidated, in milliseconds.
+         */
+        long time;
+
+        /**
+         * The {@code ETag} header of the response, or the empty string.
+         */
+        String etag;
+
+        /**
+         * The {@code Last-Modified} header of the response, or the empty string.
+         */
+        String lastModified;
+
+        /**
+         * The body of the response.
+         */
+        byte[] body;
+    }
+
+    /**
+     * The body of the downloaded response, which copies the read bytes and caches them
+     *  once the body is read to its end and closed.
+     */
+    private class Tee extends FilterInputStream {
+        /**
+         * The name of the cache file.
+         */
+        private final String name;
+
+        /**
+         * The response, without the body.
+         */
+        private final Entry entry;
+
+        /**
+         * The bytes read so far, or {@code null} if the body is too big to be cached.
+         */
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        /**
+         * Whether the end of the body was reached.
+         */
+        private boolean complete;
+
+        /**
+         * Whether the body was already closed.
+         */
+        private boolean closed;
+
+        /**
+         * Creates the stream.
+         *
+         * @param in the body of the response.
+         * @param name the name of the cache file.
+         * @param entry the response, without the body.
+         */
+        Tee(InputStream in, String name, Entry entry) {
+            super(in);
+            this.name = name;
+            this.entry = entry;
+        }
+
+        /**
+         * Reads the single byte.
+         *
+         * @return the byte or -1 at the end of the stream.
+         * @throws IOException if any I/O error occurred.
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1)
+                complete = true;
+            else if (copy != null)
+                append(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        /**
+         * Reads the bytes into the buffer.
+         *
+         * @param b the buffer.
+         * @param off the offset in the buffer.
+         * @param len the maximal number of the bytes to read.
+         * @return the number of the bytes read or -1 at the end of the stream.
+         * @throws IOException if any I/O error occurred.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                complete = true;
+            } else if (copy != null) {
+                append(b, off, n);
+            }
+            return n;
+        }
+
+        /**
+         * Copies the read bytes.
+         *
+         * @param b the buffer.
+         * @param off the offset in the buffer.
+         * @param len the number of the bytes.
+         */
+        private void append(byte[] b, int off, int len) {
+            copy.write(b, off, len);
+            // the single response shouldn't flush the whole cache, see write(String, Entry)
+            if (copy.size() > maxSize / 8)
+                copy = null;
+        }
+
+        /**
+         * Skipping would leave the gap in the copy, so the skipped bytes are read.
+         *
+         * @param n the number of the bytes to skip.
+         * @return the number of the bytes skipped.
+         * @throws IOException if any I/O error occurred.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (count == -1)
+                    break;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        /**
+         * Marking isn't supported, because the reset would repeat the bytes in the copy.
+         *
+         * @return {@code false}.
+         */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Closes the body and caches the response, if it was read to its end.
+         * <br>
+         * The parser usually stops right after the closing bracket, before the end of the stream is reported,
+         *  so the few bytes left are read first. The body with more bytes left was abandoned by the caller.
+         *
+         * @throws IOException if any I/O error occurred.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+
+            closed = true;
+            try {
+                byte[] rest = new byte[TAIL_SIZE];
+                int left = TAIL_SIZE;
+                int count;
+                while (!complete && copy != null && left > 0 && (count = read(rest, 0, left)) != -1)
+                    left -= count;
+            } catch (IOException ex) {
+                // the caller already has what it needed, the response just isn't cached
+                complete = false;
+            } finally {
+                super.close();
+            }
+
+            ByteArrayOutputStream body = copy;
+            copy = null;
+            if (complete && body != null) {
+                entry.body = body.toByteArray();
+                write(name, entry);
+            }
+        }
+    }
+
+    /**
+     * The directory of the cache files.
+     */
+    private final File directory;
+
+    /**
+     * The maximal total size of the cache files, in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The sizes of the cache files by their names, in the order of the last access.
+     */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The total size of the cache files, in bytes.
+     */
+    private long size;
+
+    /**
+     * Creates the cache, indexing the files left by the previous run.
+     *
+     * @param directory the directory of the cache files.
+     * @param maxSize the maximal total size of the cache files, in bytes.
+     */
+    private HttpCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        File[] list = directory.listFiles();
+        if (list != null) {
+            // the modification time of the file is updated on every access
+            Arrays.sort(list, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File file : list) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                    continue;
+                }
+                files.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Installs the cache used by every service.
+     *
+     * @param directory the directory of the cache files, created if needed.
+     * @param maxSize the maximal total size of the cache files, in bytes.
+     * @return the installed cache.
+     */
+    public static synchronized HttpCache install(File directory, long maxSize) {
+        if (instance == null || !instance.directory.equals(directory)) {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                return instance;
+            instance = new HttpCache(directory, maxSize);
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the installed cache.
+     *
+     * @return the cache or {@code null} if it wasn't installed.
+     */
+    public static HttpCache get() {
+        return instance;
+    }
+
+    /**
+     * Gets the body of the {@code GET} response, using the cache.
+     * <br>
+     * The connection has to be configured, but not yet connected. It's not connected at all
+     *  if the cached response is still fresh.
+     *
+     * @param conn the connection.
+     * @param ttl time in milliseconds for which the response is used without the revalidation.
+     *        If it's 0, the response is still stored if it can be revalidated.
+     * @return the body of the response or {@code null} if the server responded with the error.
+     * @throws IOException if any I/O error occurred.
+     */
+    public InputStream fetch(HttpURLConnection conn, long ttl) throws IOException {
+        return fetch(conn, ttl, null);
+    }
+
+    /**
+     * Gets the body of the {@code GET} response, using the cache.
+     * <br>
+     * The connection has to be configured, but not yet connected. It's not connected at all
+     *  if the cached response is still fresh.
+     *
+     * @param conn the connection.
+     * @param ttl time in milliseconds for which the response is used without the revalidation.
+     *        If it's 0, the response is still stored if it can be revalidated.
+     * @param onConnect functor called right before the connection is made, e.g. to wait for the rate limit,
+     *        or {@code null}.
+     * @return the body of the response or {@code null} if the server responded with the error.
+     *         The downloaded body is cached when it's closed, if it was read to its end.
+     * @throws IOException if any I/O error occurred.
+     */
+    public InputStream fetch(HttpURLConnection conn, long ttl, ConnectListener onConnect) throws IOException {
+        String url = conn.getURL().toString();
+        String name = Utilities.hash(url.getBytes(StandardCharsets.UTF_8));
+        Entry entry = read(name, url);
+        long now = Utilities.getTime();
+
+        if (entry != null) {
+            if (now - entry.time < ttl) {
+                Metrics.add(METRIC_HIT, 1);
+                return new ByteArrayInputStream(entry.body);
+            }
+            if (!entry.etag.isEmpty())
+                conn.setRequestProperty("If-None-Match", entry.etag);
+            if (!entry.lastModified.isEmpty())
+                conn.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+
+        if (onConnect != null)
+            onConnect.onConnect();
+        long start = Metrics.start();
+        conn.connect();
+        int code = conn.getResponseCode();
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+            Metrics.add(METRIC_REVALIDATED, 1);
+            entry.time = now;
+            // the validators sent with the 304 replace the stored ones
+            String etag = conn.getHeaderField("ETag");
+            if (etag != null)
+                entry.etag = etag;
+            String lastModified = conn.getHeaderField("Last-Modified");
+            if (lastModified != null)
+                entry.lastModified = lastModified;
+            Transport.discard(conn);
+            write(name, entry);
+            return new ByteArrayInputStream(entry.body);
+        } else if (code != HttpURLConnection.HTTP_OK) {
+            return null;
+        }
+
+        Metrics.add(METRIC_MISS, 1);
+        entry = new Entry();
+        entry.url = url;
+        entry.time = now;
+        entry.etag = header(conn, "ETag");
+        entry.lastModified = header(conn, "Last-Modified");
+
+        InputStream in = Transport.open(conn, start);
+        if (ttl > 0 || !entry.etag.isEmpty() || !entry.lastModified.isEmpty())
+            return new Tee(in, name, entry);
+        return in;
+    }
+
+    /**
+     * Removes every cached response.
+     */
+    public synchronized void clear() {
+        for (String name : files.keySet())
+            new File(directory, name).delete();
+        files.clear();
+        size = 0;
+    }
+
+    /**
+     * Reads the cached response.
+     *
+     * @param name the name of the cache file.
+     * @param url the URL of the request, to rule out the collision of the hashes.
+     * @return the response or {@code null} if it isn't cached.
+     */
+    private synchronized Entry read(String name, String url) {
+        // the lookup by get() is what moves the file to the end of the access order
+        if (files.get(name) == null)
+            return null;
+
+        File file = new File(directory, name);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FORMAT_VERSION)
+                throw new IOException("Unknown format of " + name);
+
+            Entry entry = new Entry();
+            entry.url = in.readUTF();
+            entry.time = in.readLong();
+            entry.etag = in.readUTF();
+            entry.lastModified = in.readUTF();
+            entry.body = new byte[in.readInt()];
+            in.readFully(entry.body);
+
+            if (!url.equals(entry.url))
+                return null;
+            file.setLastModified(Utilities.getTime());
+            return entry;
+        } catch (IOException ex) {
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the response, removing the least recently used ones if the cache is full.
+     *
+     * @param name the name of the cache file.
+     * @param entry the response.
+     */
+    private synchronized void write(String name, Entry entry) {
+        // the single response shouldn't flush the whole cache
+        if (entry.body.length > maxSize / 8)
+            return;
+
+        File temp = new File(directory, name + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(entry.url);
+            out.writeLong(entry.time);
+            out.writeUTF(entry.etag);
+            out.writeUTF(entry.lastModified);
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        } catch (IOException ex) {
+            temp.delete();
+            return;
+        }
+
+        remove(name);
+        File file = new File(directory, name);
+        if (temp.renameTo(file)) {
+            files.put(name, file.length());
+            size += file.length();
+            trim();
+        } else {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Removes the cache file.
+     *
+     * @param name the name of the cache file.
+     */
+    private synchronized void remove(String name) {
+        Long length = files.remove(name);
+        if (length != null)
+            size -= length;
+        new File(directory, name).delete();
+    }
+
+    /**
+     * Removes the least recently used cache files until the cache fits its size.
+     */
+    private synchronized void trim() {
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Gets the value of the response header.
+     *
+     * @param conn the connection.
+     * @param name the name of the header.
+     * @return the value or the empty string if the header is missing.
+     */
+    private static String header(HttpURLConnection conn, String name) {
+        String value = conn.getHeaderField(name);
+        return value == null ? "" : value;
+    }
+}
@@ -16,6 +16,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -42,6 +43,31 @@ public final class LastFm extends Service {
      */
     private static final String FORMAT = "&format=json";
 
+    /**
+     * The number of the requests allowed per minute, averaged over the five minutes by the server.
+     */
+    private static final int RATE_LIMIT = 300;
+
+    /**
+     * The request of the user's profile.
+     */
+    private static final String METHOD_USER = "method=user.getinfo";
+
+    /**
+     * The request of the most played artists.
+     */
+    private static final String METHOD_TOP_ARTISTS = "method=user.gettopartists";
+
+    /**
+     * Time in milliseconds for which the cached profile is used.
+     */
+    private static final long USER_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Time in milliseconds for which the cached list of the most played artists is used.
+     */
+    private static final long TOP_ARTISTS_TTL = TimeUnit.HOURS.toMillis(1);
+
     /**
      * Last.fm user encapsulation.
      */
@@ -215,7 +241,9 @@ public final class LastFm extends Service {
     /**
      * Private constructor to prevent instantiating from outside.
      */
-    private LastFm() {}
+    private LastFm() {
+        super(2, RATE_LIMIT);
+    }
 
     /**
      * Returns the singleton.
@@ -231,11 +259,12 @@ public final class LastFm extends Service {
      *
      * @param username name of the Last.fm account.
      * @param action functor which determines what should happen with received user info.
+     * @return the handle of the request.
      * @see <a href="https://www.last.fm/api/show/user.getInfo">
      *      API reference</a>
      */
-    public void getUser(String username, Consumer<User> action) {
-        execute("method=user.getinfo&user=" + username, reader -> {
+    public Request getUser(String username, Consumer<User> action) {
+        return execute(METHOD_USER + "&user=" + username, reader -> {
             User user = new User();
             user.name = username;
             String name;
@@ -288,11 +317,12 @@ public final class LastFm extends Service {
      *
      * @param username name of the Last.fm user.
      * @param action functor which determines what should happen with received list of most played artists.
+     * @return the handle of the request.
      * @see <a href="https://www.last.fm/api/show/user.getTopArtists">
      *      API reference</a>
      */
-    public void getTopArtists(String username, Consumer<Pair<QueryInfo, List<Artist>>> action) {
-        getTopArtists(username, 50, action);
+    public Request getTopArtists(String username, Consumer<Pair<QueryInfo, List<Artist>>> action) {
+        return getTopArtists(username, 50, action);
     }
 
     /**
@@ -301,11 +331,12 @@ public final class LastFm extends Service {
      * @param username name of the Last.fm user.
      * @param limit number of artists to receive.
      * @param action functor which determines what should happen with received list of most played artists.
+     * @return the handle of the request.
      * @see <a href="https://www.last.fm/api/show/user.getTopArtists">
      *      API reference</a>
      */
-    public void getTopArtists(String username, int limit, Consumer<Pair<QueryInfo, List<Artist>>> action) {
-        execute("method=user.gettopartists&user=" + username + "&limit=" + limit, reader -> {
+    public Request getTopArtists(String username, int limit, Consumer<Pair<QueryInfo, List<Artist>>> action) {
+        return execute(METHOD_TOP_ARTISTS + "&user=" + username + "&limit=" + limit, reader -> {
             List<Artist> list = new ArrayList<>();
             QueryInfo info = null;
             String name;
@@ -377,11 +408,12 @@ public final class LastFm extends Service {
      *
      * @param username name of the Last.fm user.
      * @param action functor which determines what should happen with received list of recent played tracks.
+     * @return the handle of the request.
      * @see <a href="https://www.last.fm/api/show/user.getRecentTracks">
      *      API reference</a>
      */
-    public void getRecentTracks(String username, Consumer<Pair<QueryInfo, List<Track>>> action) {
-        execute("method=user.getrecenttracks&user=" + username, reader -> {
+    public Request getRecentTracks(String username, Consumer<Pair<QueryInfo, List<Track>>> action) {
+        return execute("method=user.getrecenttracks&user=" + username, reader -> {
             List<Track> tracks = new ArrayList<>();
             QueryInfo info = null;
             String name;
@@ -582,6 +614,22 @@ public final class LastFm extends Service {
         return track;
     }
 
+    /**
+     * Gets the time for which the cached response is used. The recent tracks are always revalidated,
+     *  they're refreshed periodically to show the currently played track.
+     *
+     * @param req the request.
+     * @return time in milliseconds.
+     */
+    private static long getTtl(String req) {
+        if (req.startsWith(METHOD_USER))
+            return USER_TTL;
+        else if (req.startsWith(METHOD_TOP_ARTISTS))
+            return TOP_ARTISTS_TTL;
+        else
+            return 0;
+    }
+
     /**
      * Connects to the Last.fm server, using authorization with appropriate API key.
      *
@@ -593,10 +641,7 @@ public final class LastFm extends Service {
     protected InputStream connect(String req) {
         try {
             URL url = new URL(ROOT_URL + "?" + req + "&api_key=" + API_KEY + FORMAT);
-            HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-            conn.connect();
-            return (conn.getResponseCode() != HttpURLConnection.HTTP_OK) ?
-                    null : conn.getInputStream();
+            return open(() -> (HttpsURLConnection) url.openConnection(), getTtl(req));
         } catch (IOException ex) {
             return null;
         }
@@ -0,0 +1,146 @@
+package eu.tivian.musico.net;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import eu.tivian.musico.utility.Metrics;
+import eu.tivian.musico.utility.Utilities;
+
+/**
+ * Token bucket limiting the rate of the requests sent to the single {@link Service}.
+ * <br>
+ * The bucket holds the requests allowed per minute and it's refilled continuously, so the workers
+ *  send the requests at the highest allowed rate instead of hitting the limit and waiting for the whole minute.
+ *  The limit announced by the {@code X-Discogs-Ratelimit} headers replaces the configured one,
+ *  and the server asking to slow down by the {@code Retry-After} header pauses every worker.
+ */
+class RateLimiter {
+    /**
+     * The header with the number of the requests allowed per minute.
+     */
+    private static final String HEADER_LIMIT = "X-Discogs-Ratelimit";
+
+    /**
+     * The header with the number of the requests remaining in the current minute.
+     */
+    private static final String HEADER_REMAINING = "X-Discogs-Ratelimit-Remaining";
+
+    /**
+     * The window of the limit, in milliseconds.
+     */
+    private static final long WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The name of the metric measuring the time spent waiting for the limit.
+     */
+    static final String METRIC_WAIT = "http.rate_limit.wait";
+
+    /**
+     * The number of the requests allowed per minute, or 0 if the rate isn't limited.
+     */
+    private int capacity;
+
+    /**
+     * The number of the requests which can be sent right now.
+     */
+    private double tokens;
+
+    /**
+     * Time in milliseconds since the Unix epoch when the bucket was last refilled.
+     */
+    private long refilled;
+
+    /**
+     * Time in milliseconds since the Unix epoch before which no request is sent.
+     */
+    private long pausedUntil;
+
+    /**
+     * Creates the limiter.
+     *
+     * @param perMinute the number of the requests allowed per minute, or 0 if the rate isn't limited
+     *        until the server announces the limit.
+     */
+    RateLimiter(int perMinute) {
+        capacity = Math.max(0, perMinute);
+        tokens = capacity;
+        refilled = Utilities.getTime();
+    }
+
+    /**
+     * Waits until the request can be sent and takes it from the bucket. Called by the worker.
+     *
+     * @throws InterruptedIOException if the worker was interrupted while waiting.
+     */
+    synchronized void acquire() throws InterruptedIOException {
+        long start = Metrics.start();
+        boolean waited = false;
+
+        try {
+            while (true) {
+                long now = Utilities.getTime();
+                refill(now);
+
+                long delay;
+                if (now < pausedUntil) {
+                    delay = pausedUntil - now;
+                } else if (capacity == 0 || tokens >= 1) {
+                    if (capacity != 0)
+                        tokens -= 1;
+                    break;
+                } else {
+                    delay = (long) Math.ceil((1 - tokens) * WINDOW / capacity);
+                }
+
+                waited = true;
+                // releases the lock, so the other workers can update the limit in the meantime
+                wait(delay);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+        }
+
+        if (waited)
+            Metrics.time(METRIC_WAIT, start);
+    }
+
+    /**
+     * Adjusts the bucket to the limit announced by the server.
+     *
+     * @param conn the connection, after the response was received.
+     */
+    synchronized void update(HttpURLConnection conn) {
+        int limit = conn.getHeaderFieldInt(HEADER_LIMIT, -1);
+        if (limit > 0 && limit != capacity) {
+            tokens = Math.min(tokens, limit);
+            capacity = limit;
+        }
+
+        // the server counts also the requests which didn't go through this bucket
+        int remaining = conn.getHeaderFieldInt(HEADER_REMAINING, -1);
+        if (remaining >= 0 && capacity != 0)
+            tokens = Math.min(tokens, remaining);
+    }
+
+    /**
+     * Stops sending the requests for a while, e.g. when the server asked to slow down.
+     *
+     * @param delay time in milliseconds for which no request is sent.
+     */
+    synchronized void pause(long delay) {
+        pausedUntil = Math.max(pausedUntil, Utilities.getTime() + delay);
+    }
+
+    /**
+     * Refills the bucket in proportion to the time elapsed since the last refill.
+     *
+     * @param now the current time in milliseconds since the Unix epoch.
+     */
+    private void refill(long now) {
+        if (capacity != 0 && now > refilled)
+            tokens = Math.min(capacity, tokens + (double) (now - refilled) * capacity / WINDOW);
+        refilled = now;
+    }
+}
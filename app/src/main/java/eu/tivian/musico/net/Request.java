@@ -0,0 +1,159 @@
+package eu.tivian.musico.net;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The handle of the request sent to the external {@link Service}, used to cancel it.
+ * <br>
+ * The cancelled request never calls its callbacks. If it still waits in the queue, it's removed from it,
+ *  otherwise the response is dropped as soon as it arrives. The request made of several calls of the service,
+ *  like the search followed by the download of the found album, is cancelled as the whole.
+ */
+public class Request {
+    /**
+     * Handler of the UI thread, on which the lifecycle observers are managed.
+     */
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    /**
+     * Number of the calls of the service started, but not yet finished.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Whether the request was cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * The queued call of the service, removed from the queue on cancellation, or {@code null}.
+     */
+    private volatile RequestScheduler.Task queued;
+
+    /**
+     * The lifecycle to which the request is bound, or {@code null}.
+     */
+    private Lifecycle lifecycle;
+
+    /**
+     * Observer cancelling the request when the {@link #lifecycle} is destroyed.
+     */
+    private final LifecycleEventObserver observer = (source, event) -> {
+        if (event == Lifecycle.Event.ON_DESTROY)
+            cancel();
+    };
+
+    /**
+     * Creates the request already finished, returned when the result was known without any call of the service.
+     *
+     * @return the finished request.
+     */
+    static Request done() {
+        return new Request();
+    }
+
+    /**
+     * Cancels the request. Can be called from any thread, calling it again has no effect.
+     */
+    public void cancel() {
+        if (cancelled)
+            return;
+
+        cancelled = true;
+        RequestScheduler.Task task = queued;
+        if (task != null)
+            task.dequeue();
+        MAIN.post(this::unbind);
+    }
+
+    /**
+     * Checks whether the request was cancelled.
+     *
+     * @return {@code true} if the request was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Checks whether the request is finished, either by calling its callback or by the cancellation.
+     *
+     * @return {@code true} if the request is finished.
+     */
+    public boolean isDone() {
+        return cancelled || pending.get() == 0;
+    }
+
+    /**
+     * Cancels the request automatically when the lifecycle, e.g. of the activity or of the fragment's view,
+     *  is destroyed. Must be called on the UI thread.
+     *
+     * @param owner the owner of the lifecycle.
+     * @return this request.
+     */
+    public Request bindTo(LifecycleOwner owner) {
+        if (isDone())
+            return this;
+
+        unbind();
+        lifecycle = owner.getLifecycle();
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED)
+            cancel();
+        else
+            lifecycle.addObserver(observer);
+        return this;
+    }
+
+    /**
+     * Registers the next call of the service, made as the part of this request.
+     *
+     * @param task the queued call.
+     */
+    void start(RequestScheduler.Task task) {
+        pending.incrementAndGet();
+        queued = task;
+    }
+
+    /**
+     * Marks the request as waiting for the result of the call shared with the other requests.
+     *  The request is finished by the {@link #finish()} after its callback is called.
+     */
+    void hold() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Marks the call as no longer queued, after it was taken by the worker.
+     *
+     * @param task the call.
+     */
+    void started(RequestScheduler.Task task) {
+        if (queued == task)
+            queued = null;
+    }
+
+    /**
+     * Marks the call of the service as finished, after its callback was called. Must be called on the UI thread.
+     */
+    void finish() {
+        if (pending.decrementAndGet() == 0)
+            unbind();
+    }
+
+    /**
+     * Stops observing the lifecycle. Must be called on the UI thread.
+     */
+    private void unbind() {
+        if (lifecycle != null) {
+            lifecycle.removeObserver(observer);
+            lifecycle = null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package eu.tivian.musico.net;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of the workers calling the single {@link Service}.
+ * <br>
+ * The queued calls are ordered by their {@link Service.Priority}, so the request the user waits for
+ *  overtakes the background ones, and then by the order in which they were made.
+ *  The idle workers are stopped, so the pool costs nothing when the service isn't used.
+ */
+class RequestScheduler {
+    /**
+     * Time in seconds after which the idle worker is stopped.
+     */
+    private static final long KEEP_ALIVE = 30;
+
+    /**
+     * The single call of the service, waiting in the queue.
+     */
+    class Task implements Runnable, Comparable<Task> {
+        /**
+         * The request to which the call belongs.
+         */
+        private final Request request;
+
+        /**
+         * The priority of the call.
+         */
+        private final Service.Priority priority;
+
+        /**
+         * The order in which the calls were made.
+         */
+        private final long sequence;
+
+        /**
+         * The work done by the worker.
+         */
+        private final Runnable work;
+
+        /**
+         * Creates the call.
+         *
+         * @param request the request to which the call belongs.
+         * @param priority the priority of the call.
+         * @param work the work done by the worker.
+         */
+        private Task(Request request, Service.Priority priority, Runnable work) {
+            this.request = request;
+            this.priority = priority;
+            this.sequence = counter.getAndIncrement();
+            this.work = work;
+        }
+
+        /**
+         * Removes the cancelled call from the queue.
+         */
+        void dequeue() {
+            executor.remove(this);
+        }
+
+        /**
+         * Does the work, unless the request was cancelled in the meantime.
+         */
+        @Override
+        public void run() {
+            request.started(this);
+            if (!request.isCancelled())
+                work.run();
+        }
+
+        /**
+         * Compares the calls by their priorities and then by the order in which they were made.
+         *
+         * @param other the other call.
+         * @return the negative number if this call should run first.
+         */
+        @Override
+        public int compareTo(@NonNull Task other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The pool of the workers.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The counter of the calls, used to keep their order within the priority.
+     */
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Creates the pool.
+     *
+     * @param name the name of the service, used to name the threads.
+     * @param workers the maximal number of the concurrent calls.
+     */
+    RequestScheduler(String name, int workers) {
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory factory = runnable -> new Thread(runnable, name + "-" + threads.incrementAndGet());
+
+        // with the unbounded queue the pool never grows beyond the core size
+        executor = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the call of the service.
+     *
+     * @param request the request to which the call belongs.
+     * @param priority the priority of the call.
+     * @param work the work done by the worker.
+     */
+    void submit(Request request, Service.Priority priority, Runnable work) {
+        Task task = new Task(request, priority, work);
+        request.start(task);
+        executor.execute(task);
+    }
+}
@@ -1,13 +1,21 @@
 package eu.tivian.musico.net;
 
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.JsonReader;
 
 import androidx.arch.core.util.Function;
 import androidx.core.util.Consumer;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+import eu.tivian.musico.utility.Metrics;
 import eu.tivian.musico.utility.Utilities;
 
 /**
@@ -23,99 +31,230 @@ public abstract class Service {
     protected abstract InputStream connect(String req);
 
     /**
-     * Internal class used for asynchronous connection with the external services.
-     *
-     * @param <T> type of object to be returned from the external API.
+     * Creates the configured, but not yet connected {@code GET} request.
+     *  Called again for every retry, as the connection can't be reused.
      */
-    private static class ServiceTask<T> extends AsyncTask<Void, Void, T> {
+    protected interface Connector {
         /**
-         * The URL to connect to.
+         * Creates the connection.
+         *
+         * @return the connection.
+         * @throws IOException if the connection couldn't be created.
          */
-        private String url;
+        HttpURLConnection create() throws IOException;
+    }
 
-        /**
-         * Functor used to connect to the service with proper authorization.
-         * Executes outside the UI thread.
-         */
-        private Function<String, InputStream> connect;
+    /**
+     * The maximal number of the retries of the single request.
+     */
+    private static final int MAX_RETRIES = 3;
 
-        /**
-         * Functor which processes the input JSON into the desired object denoted by {@code T} type.
-         * Executes outside the UI thread.
-         */
-        private Function<JsonReader, T> process;
+    /**
+     * The delay in milliseconds before the first retry, doubled for every next one.
+     */
+    private static final long BASE_DELAY = TimeUnit.SECONDS.toMillis(1);
 
-        /**
-         * Functor called after the resource was parsed by the {@link #process} functor.
-         * Executes on the UI thread.
-         */
-        private Consumer<T> action;
+    /**
+     * The maximal delay in milliseconds before the retry. The request isn't retried
+     *  if the server asks to wait longer.
+     */
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(30);
 
-        /**
-         * Functor called only if any I/O errors occurred while retrieving information from the server.
-         * Executes on the UI thread.
-         */
-        private Consumer<Exception> onError;
+    /**
+     * The HTTP status code of the response to the client sending too many requests.
+     */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
 
-        /**
-         * Used to store any thrown I/O exception.
-         */
-        private Exception exception;
+    /**
+     * The name of the metric counting the retried requests.
+     */
+    public static final String METRIC_RETRIED = "http.retried";
 
+    /**
+     * The name of the metric counting the responses asking to slow down.
+     */
+    public static final String METRIC_THROTTLED = "http.throttled";
+
+    /**
+     * The priority of the request.
+     */
+    public enum Priority {
         /**
-         * Sets every necessary field for the instance of this class.
-         *
-         * @param url the URL to connect to.
-         * @param connect functor used to connect to the service with proper authorization.
-         * @param process functor which processes the input JSON into the desired object denoted by {@code T} type.
-         * @param action functor called after the resource was parsed by the {@link #process} functor.
-         * @param onError functor called only if any I/O errors occurred while retrieving information from the server.
+         * The request the user is waiting for, e.g. the album lookup.
          */
-        private ServiceTask(String url, Function<String, InputStream> connect,
-                Function<JsonReader, T> process, Consumer<T> action, Consumer<Exception> onError) {
-            super();
-            this.url = url;
-            this.connect = connect;
-            this.process = process;
-            this.action = action;
-            this.onError = onError;
-        }
+        INTERACTIVE,
 
         /**
-         * Parses the information received from the server into the object of type {@code T}.
-         *
-         * @param voids dummy argument
-         * @return the object parsed from JSON.
+         * The request enriching the already shown data, e.g. the artist images.
          */
-        @Override
-        protected T doInBackground(Void... voids) {
-            try (JsonReader reader = Utilities.getReader(connect.apply(url))) {
-                return process.apply(reader);
-            } catch (Exception ex) {
-                exception = ex;
+        BACKGROUND
+    }
+
+    /**
+     * Handler of the UI thread, on which the callbacks are called.
+     */
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    /**
+     * The pool of the workers calling this service.
+     */
+    private final RequestScheduler scheduler;
+
+    /**
+     * The limiter of the rate of the requests sent to this service.
+     */
+    private final RateLimiter limiter;
+
+    /**
+     * Creates the service with the rate limited only by the server's responses.
+     *
+     * @param workers the maximal number of the concurrent requests to this service.
+     */
+    protected Service(int workers) {
+        this(workers, 0);
+    }
+
+    /**
+     * Creates the service.
+     *
+     * @param workers the maximal number of the concurrent requests to this service.
+     * @param perMinute the number of the requests allowed per minute, or 0 if the rate isn't limited.
+     */
+    protected Service(int workers, int perMinute) {
+        scheduler = new RequestScheduler(getClass().getSimpleName(), workers);
+        limiter = new RateLimiter(perMinute);
+    }
+
+    /**
+     * Gets the body of the response to the {@code GET} request, through the {@link HttpCache} if it's installed.
+     * <br>
+     * The request waits for the rate limit of the service, unless the cached response is used.
+     *  The request rejected because of the rate limit or the server error is retried after the delay
+     *  given by the {@code Retry-After} header, or after the exponentially growing delay with the random jitter.
+     *
+     * @param connector functor which creates the connection.
+     * @param ttl time in milliseconds for which the cached response is used without asking the server.
+     * @return input stream or {@code null} if the server responded with code
+     *         other than {@link HttpURLConnection#HTTP_OK}.
+     * @throws IOException if any I/O error occurred.
+     */
+    protected InputStream open(Connector connector, long ttl) throws IOException {
+        return open(connector, ttl, null);
+    }
+
+    /**
+     * Gets the body of the response to the {@code GET} request, through the {@link HttpCache} if it's installed.
+     * <br>
+     * The request waits for the rate limit of the service, unless the cached response is used.
+     *  The request rejected because of the rate limit or the server error is retried after the delay
+     *  given by the {@code Retry-After} header, or after the exponentially growing delay with the random jitter.
+     *  The connection is configured by the {@link Transport}, and it's disconnected when the returned
+     *  stream is closed.
+     *
+     * @param connector functor which creates the connection.
+     * @param ttl time in milliseconds for which the cached response is used without asking the server.
+     * @param reauthorize functor called once if the server rejected the authorization of the request,
+     *        returns whether the request should be repeated with the new authorization, or {@code null}.
+     * @return input stream or {@code null} if the server responded with code
+     *         other than {@link HttpURLConnection#HTTP_OK}.
+     * @throws IOException if any I/O error occurred.
+     */
+    protected InputStream open(Connector connector, long ttl, Function<HttpURLConnection, Boolean> reauthorize)
+            throws IOException {
+        HttpCache cache = HttpCache.get();
+        for (int attempt = 0; ; attempt++) {
+            HttpURLConnection conn = connector.create();
+            Transport.configure(conn);
+            boolean[] sent = { false };
+            HttpCache.ConnectListener onConnect = () -> {
+                limiter.acquire();
+                sent[0] = true;
+            };
+
+            InputStream in;
+            if (cache != null) {
+                in = cache.fetch(conn, ttl, onConnect);
+            } else {
+                onConnect.onConnect();
+                long start = Metrics.start();
+                conn.connect();
+                in = (conn.getResponseCode() != HttpURLConnection.HTTP_OK) ? null : Transport.open(conn, start);
+            }
+
+            // the fresh cached response didn't reach the server at all
+            if (!sent[0])
+                return in;
+            limiter.update(conn);
+            if (in != null)
+                return in;
+
+            int code = conn.getResponseCode();
+            long delay = getRetryDelay(conn, attempt);
+            Transport.discard(conn);
+            if (code == HttpURLConnection.HTTP_UNAUTHORIZED && reauthorize != null) {
+                boolean retry = reauthorize.apply(conn);
+                reauthorize = null;
+                if (retry)
+                    continue;
                 return null;
             }
-        }
 
-        /**
-         * Processes the {@code obj} received from the server.
-         *
-         * @param obj information parsed from the server.
-         */
-        @Override
-        protected void onPostExecute(T obj) {
-            super.onPostExecute(obj);
-            if (obj != null)
-                action.accept(obj);
-            else {
-                exception.printStackTrace();
-                if (onError != null)
-                    onError.accept(exception);
+            if (code != HTTP_TOO_MANY_REQUESTS && code < HttpURLConnection.HTTP_INTERNAL_ERROR)
+                return null;
+
+            if (code == HTTP_TOO_MANY_REQUESTS) {
+                Metrics.add(METRIC_THROTTLED, 1);
+                // the other workers would be rejected as well, the retry waits for the pause in the limiter
+                limiter.pause(Math.min(delay, MAX_DELAY));
             }
+            if (attempt >= MAX_RETRIES || delay > MAX_DELAY)
+                return null;
 
+            Metrics.add(METRIC_RETRIED, 1);
+            if (code != HTTP_TOO_MANY_REQUESTS)
+                sleep(delay);
         }
     }
 
+    /**
+     * Suspends the worker before the retry.
+     *
+     * @param delay time in milliseconds.
+     * @throws InterruptedIOException if the worker was interrupted.
+     */
+    private static void sleep(long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the retry");
+        }
+    }
+
+    /**
+     * Computes the delay before the retry of the rejected request.
+     *
+     * @param conn the connection of the rejected request.
+     * @param attempt the number of the retries already made.
+     * @return the delay in milliseconds.
+     */
+    private static long getRetryDelay(HttpURLConnection conn, int attempt) {
+        String retryAfter = conn.getHeaderField("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException ex) {
+                long date = conn.getHeaderFieldDate("Retry-After", -1);
+                if (date > 0)
+                    return Math.max(0, date - Utilities.getTime());
+            }
+        }
+
+        // the jitter keeps the workers rejected together from retrying together
+        long backoff = Math.min(MAX_DELAY, BASE_DELAY << attempt);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
     /**
      * Parses the JSON available at the {@code url}.
      *
@@ -123,9 +262,10 @@ public abstract class Service {
      * @param process functor which processes the input JSON into the desired object denoted by {@code T} type.
      * @param action functor called after the resource was parsed by the {@code process} functor.
      * @param <T> type of object to be returned from the external API.
+     * @return the handle of the request.
      */
-    protected <T> void execute(String url, Function<JsonReader, T> process, Consumer<T> action) {
-        execute(url, process, action, null);
+    protected <T> Request execute(String url, Function<JsonReader, T> process, Consumer<T> action) {
+        return execute(url, process, action, null);
     }
 
     /**
@@ -136,8 +276,105 @@ public abstract class Service {
      * @param action functor called after the resource was parsed by the {@code process} functor.
      * @param onError functor called only if any I/O errors occurred while retrieving information from the server.
      * @param <T> type of object to be returned from the external API.
+     * @return the handle of the request.
      */
-    protected <T> void execute(String url, Function<JsonReader, T> process, Consumer<T> action, Consumer<Exception> onError) {
-        new ServiceTask<T>(url, this::connect, process, action, onError).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    protected <T> Request execute(String url, Function<JsonReader, T> process, Consumer<T> action,
+                                  Consumer<Exception> onError) {
+        return execute(new Request(), Priority.INTERACTIVE, url, process, action, onError);
+    }
+
+    /**
+     * Parses the JSON available at the {@code url} outside the UI thread,
+     *  the callbacks are called on the UI thread unless the request was cancelled.
+     *
+     * @param request the handle of the request, it can be the one of the already running request
+     *        if this call is its next step.
+     * @param priority the priority of the request.
+     * @param url the URL to connect to.
+     * @param process functor which processes the input JSON into the desired object denoted by {@code T} type.
+     * @param action functor called after the resource was parsed by the {@code process} functor.
+     * @param onError functor called only if any I/O errors occurred while retrieving information from the server.
+     * @param <T> type of object to be returned from the external API.
+     * @return the {@code request}.
+     */
+    protected <T> Request execute(Request request, Priority priority, String url, Function<JsonReader, T> process,
+                                  Consumer<T> action, Consumer<Exception> onError) {
+        return execute(request, priority, () -> {
+            try (JsonReader reader = Utilities.getReader(connect(url))) {
+                return process.apply(reader);
+            }
+        }, action, onError);
+    }
+
+    /**
+     * Does the {@code work} outside the UI thread, the callbacks are called on the UI thread
+     *  unless the request was cancelled.
+     *
+     * @param request the handle of the request, it can be the one of the already running request
+     *        if this call is its next step.
+     * @param priority the priority of the request.
+     * @param work functor which produces the desired object denoted by {@code T} type, usually by calling
+     *        the {@link #connect(String)}.
+     * @param action functor called with the object produced by the {@code work} functor.
+     * @param onError functor called only if the {@code work} functor failed or produced nothing.
+     * @param <T> type of object to be returned from the external API.
+     * @return the {@code request}.
+     */
+    protected <T> Request execute(Request request, Priority priority, Callable<T> work,
+                                  Consumer<T> action, Consumer<Exception> onError) {
+        scheduler.submit(request, priority, () -> {
+            T obj = null;
+            Exception exception = null;
+            try {
+                obj = work.call();
+            } catch (Exception ex) {
+                exception = ex;
+            }
+
+            post(request, obj, exception, action, onError);
+        });
+        return request;
+    }
+
+    /**
+     * Marks the call of the service as finished on the UI thread, without calling any callback.
+     *  Can be called from any thread.
+     *
+     * @param request the handle of the request.
+     */
+    protected static void finish(Request request) {
+        MAIN.post(request::finish);
+    }
+
+    /**
+     * Calls the callbacks of the finished call of the service on the UI thread, unless the request was cancelled.
+     *  Can be called from any thread.
+     *
+     * @param request the handle of the request, the call is marked as finished after the callback.
+     * @param result the object produced by the call or {@code null} if it failed or produced nothing.
+     * @param error the exception thrown by the call or {@code null}.
+     * @param action functor called with the {@code result}, if there's any.
+     * @param onError functor called only if there's no {@code result}.
+     * @param <T> type of object returned from the external API.
+     */
+    protected static <T> void post(Request request, T result, Exception error,
+                                   Consumer<T> action, Consumer<Exception> onError) {
+        MAIN.post(() -> {
+            try {
+                if (request.isCancelled())
+                    return;
+
+                if (result != null) {
+                    action.accept(result);
+                } else {
+                    if (error != null)
+                        error.printStackTrace();
+                    if (onError != null)
+                        onError.accept(error);
+                }
+            } finally {
+                request.finish();
+            }
+        });
     }
 }
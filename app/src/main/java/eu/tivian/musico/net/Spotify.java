@@ -1,6 +1,7 @@
 package eu.tivian.musico.net;
 
 import android.util.JsonReader;
+import android.util.LruCache;
 import android.util.Size;
 
 import androidx.core.util.Consumer;
@@ -10,12 +11,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.HttpsURLConnection;
 
+import eu.tivian.musico.database.DatabaseAdapter;
+import eu.tivian.musico.database.ImageCache;
+import eu.tivian.musico.utility.Metrics;
 import eu.tivian.musico.utility.SizeComparator;
 import eu.tivian.musico.utility.Utilities;
 
@@ -30,6 +38,17 @@ public class Spotify extends Service {
      */
     private static final String ROOT_URL = "https://api.spotify.com/v1/";
 
+    /**
+     * Time in milliseconds for which the cached search result is used.
+     */
+    private static final long SEARCH_TTL = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The number of the search results requested. Only the first one with any image is used,
+     *  the others are the fallback for the results without images.
+     */
+    private static final int SEARCH_LIMIT = 3;
+
     /**
      * URL used to acquire the authorization token.
      */
@@ -67,20 +86,52 @@ public class Spotify extends Service {
     }
 
     /**
-     * Cached authorization token.
+     * The manager of the authorization token.
+     */
+    private final TokenManager tokens;
+
+    /**
+     * Time in milliseconds for which the failed or empty search isn't repeated.
+     */
+    private static final long MISS_TTL = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * Time in milliseconds for which the found image URL is kept in the {@link ImageCache}.
+     */
+    private static final long URL_TTL = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * The maximal number of the image URLs kept in the memory.
      */
-    private String token;
+    private static final int CACHE_SIZE = 256;
 
     /**
-     * Expiration date of the cached token.
-     * It is save in Unix epoch format.
+     * The name of the metric counting the lookups which joined the identical lookup already in progress.
      */
-    private long expire;
+    public static final String METRIC_COALESCED = "spotify.coalesced";
 
     /**
-     * A dictionary with cached urls to minimize number of request to the actual server.
+     * The most recently used image URLs, to minimize number of request to the actual server.
+     * The keys are created by {@link #getKey(String, QueryType)}.
      */
-    private Map<String, String> cache;
+    private final LruCache<String, String> cache;
+
+    /**
+     * The persistent cache of the image URLs, or {@code null} until the database is initialized.
+     */
+    private volatile ImageCache store;
+
+    /**
+     * The expiration times of the most recent lookups which failed or found nothing, by their keys.
+     *  Bounded like the {@link #cache}, so the unique failed lookups don't accumulate.
+     */
+    private final LruCache<String, Long> misses;
+
+    /**
+     * The callbacks waiting for the lookups in progress, by their keys.
+     *  Every identical lookup made in the meantime joins the one already sent.
+     */
+    private final Map<String, List<Pair<Request, Consumer<String>>>> flights;
 
     /**
      * Helper class to ensure thread-safe singleton creation.
@@ -96,9 +147,13 @@ public class Spotify extends Service {
      * Private constructor, which initializes fields with default values.
      */
     private Spotify() {
-        token = null;
-        expire = -1;
-        cache = new HashMap<>();
+        super(4);
+        tokens = new TokenManager(getClass().getSimpleName(), this::getToken);
+        // the first lookup shouldn't wait for the token
+        tokens.refreshAsync();
+        cache = new LruCache<>(CACHE_SIZE);
+        misses = new LruCache<>(CACHE_SIZE);
+        flights = new HashMap<>();
     }
 
     /**
@@ -115,14 +170,12 @@ public class Spotify extends Service {
      * Uses the cache if the identical request was made in the pas.
      *
      * @param query search query.
-     * @param action functor which determines what should happen with received cover art URL.
+     * @param action functor which determines what should happen with received cover art URL,
+     *        {@code null} if nothing was found or the lookup failed.
+     * @return the handle of the request, already finished if the cache was used.
      */
-    public void getCover(String query, Consumer<String> action) {
-        String url = cache.get(query);
-        if (url == null)
-            getImage(query, QueryType.album, map -> action.accept(cacheQuery(query, map)));
-        else
-            action.accept(url);
+    public Request getCover(String query, Consumer<String> action) {
+        return lookup(query, QueryType.album, action);
     }
 
     /**
@@ -130,14 +183,161 @@ public class Spotify extends Service {
      * Uses the cache if the identical request was made in the pas.
      *
      * @param query search query.
-     * @param action functor which determines what should happen with received artist icon URL.
+     * @param action functor which determines what should happen with received artist icon URL,
+     *        {@code null} if nothing was found or the lookup failed.
+     * @return the handle of the request, already finished if the cache was used.
      */
-    public void getArtistImage(String query, Consumer<String> action) {
-        String url = cache.get(query);
-        if (url == null)
-            getImage(query, QueryType.artist, map -> action.accept(cacheQuery(query, map)));
-        else
+    public Request getArtistImage(String query, Consumer<String> action) {
+        return lookup(query, QueryType.artist, action);
+    }
+
+    /**
+     * Gets the URL of the most relevant image, which matches given query.
+     * <br>
+     * The URL is looked up in the memory first and then, outside the UI thread, in the {@link ImageCache},
+     *  so the server is asked only for the image not seen yet.
+     *  The lookup made while the identical one is in progress doesn't send its own request,
+     *  it receives the result of the one already sent. The failed or empty lookup isn't repeated
+     *  for {@link #MISS_TTL} milliseconds. Cancelling the single lookup doesn't affect the others.
+     *
+     * @param query search query.
+     * @param type type of the search request.
+     * @param action functor which determines what should happen with received image URL.
+     * @return the handle of the request, already finished if the cache was used.
+     */
+    private Request lookup(String query, QueryType type, Consumer<String> action) {
+        String key = getKey(query, type);
+        Request request = new Request();
+        String url;
+        boolean cached;
+        boolean send = false;
+
+        synchronized (flights) {
+            url = cache.get(key);
+            Long expiration = misses.get(key);
+            if (expiration != null && expiration <= Utilities.getTime()) {
+                misses.remove(key);
+                expiration = null;
+            }
+            cached = url != null || expiration != null;
+            if (!cached) {
+                request.hold();
+                List<Pair<Request, Consumer<String>>> waiting = flights.get(key);
+                send = waiting == null;
+                if (send) {
+                    waiting = new ArrayList<>();
+                    flights.put(key, waiting);
+                } else {
+                    Metrics.add(METRIC_COALESCED, 1);
+                }
+                waiting.add(Pair.create(request, action));
+            }
+        }
+
+        if (cached) {
             action.accept(url);
+            return Request.done();
+        }
+
+        if (send) {
+            // the images only decorate the already shown lists, so they never delay the other requests
+            execute(new Request(), Priority.BACKGROUND, () -> search(key, query, type),
+                    found -> complete(key, found), ex -> complete(key, null));
+        }
+        return request;
+    }
+
+    /**
+     * Finds the URL of the most relevant image in the {@link ImageCache} or on the server.
+     *  Called outside the UI thread.
+     *
+     * @param key the key of the lookup.
+     * @param query search query.
+     * @param type type of the search request.
+     * @return the URL or {@code null} if nothing was found.
+     * @throws IOException if any I/O error occurred.
+     */
+    private String search(String key, String query, QueryType type) throws IOException {
+        ImageCache store = getStore();
+        String url = store != null ? store.get(key) : null;
+        if (url != null)
+            return url;
+
+        try (JsonReader reader = Utilities.getReader(connect(getSearch(query, type)))) {
+            Map<Size, String> map = parseSearch(reader);
+            url = map.isEmpty() ? null : map.values().iterator().next();
+        }
+        if (url != null && store != null)
+            store.put(key, url, URL_TTL);
+        return url;
+    }
+
+    /**
+     * Gets the persistent cache of the image URLs.
+     *
+     * @return the cache or {@code null} if the database isn't initialized yet.
+     */
+    private ImageCache getStore() {
+        if (store == null) {
+            DatabaseAdapter adapter = DatabaseAdapter.get();
+            if (adapter != null)
+                store = new ImageCache(adapter);
+        }
+        return store;
+    }
+
+    /**
+     * Caches the result of the lookup and passes it to every callback waiting for it.
+     * Called on the UI thread.
+     *
+     * @param key the key of the lookup.
+     * @param url most relevant search result, or {@code null} if nothing was found or the lookup failed.
+     */
+    private void complete(String key, String url) {
+        List<Pair<Request, Consumer<String>>> waiting;
+        synchronized (flights) {
+            waiting = flights.remove(key);
+            if (url != null) {
+                cache.put(key, url);
+                misses.remove(key);
+            } else {
+                misses.put(key, Utilities.getTime() + MISS_TTL);
+            }
+        }
+
+        if (waiting == null)
+            return;
+
+        for (Pair<Request, Consumer<String>> waiter : waiting) {
+            try {
+                if (!waiter.first.isCancelled())
+                    waiter.second.accept(url);
+            } finally {
+                waiter.first.finish();
+            }
+        }
+    }
+
+    /**
+     * Creates the key identifying the lookup.
+     *
+     * @param query search query.
+     * @param type type of the search request.
+     * @return the key.
+     */
+    private static String getKey(String query, QueryType type) {
+        return type + ":" + query;
+    }
+
+    /**
+     * Creates the search request.
+     *
+     * @param query search query.
+     * @param type type of the search request.
+     * @return the request, relative to the {@link #ROOT_URL}.
+     */
+    private static String getSearch(String query, QueryType type) {
+        return "search?q=" + query + "&type=" + type.toString() + "&limit=" + SEARCH_LIMIT;
     }
 
     /**
@@ -146,13 +346,16 @@ public class Spotify extends Service {
      * @param query search query.
      * @param type type of the search request.
      * @param action functor which determines what should happen with received image URL.
+     * @return the handle of the request.
      */
-    public void getImage(String query, QueryType type, Consumer<Map<Size, String>> action) {
-        execute("search?q=" + query + "&type=" + type.toString(), this::parseSearch, action);
+    public Request getImage(String query, QueryType type, Consumer<Map<Size, String>> action) {
+        // the images only decorate the already shown lists, so they never delay the other requests
+        return execute(new Request(), Priority.BACKGROUND, getSearch(query, type), this::parseSearch, action, null);
     }
 
     /**
      * Parses search result.
+     * The parsing stops at the first result with any image.
      *
      * @param reader JSON reader.
      * @return a dictionary of images and their sizes.
@@ -172,24 +375,23 @@ public class Spotify extends Service {
                         if (reader.nextName().equals("items")) {
                             reader.beginArray();
                             while (reader.hasNext()) {
-                                if (map.size() == 0) {
-                                    reader.beginObject();
-                                    while (reader.hasNext()) {
-                                        if (reader.nextName().equals("images")) {
-                                            reader.beginArray();
-                                            while (reader.hasNext()) {
-                                                Pair<Size, String> pair = parseImage(reader);
-                                                map.put(pair.first, pair.second);
-                                            }
-                                            reader.endArray();
-                                        } else {
-                                            reader.skipValue();
+                                reader.beginObject();
+                                while (reader.hasNext()) {
+                                    if (reader.nextName().equals("images")) {
+                                        reader.beginArray();
+                                        while (reader.hasNext()) {
+                                            Pair<Size, String> pair = parseImage(reader);
+                                            map.put(pair.first, pair.second);
                                         }
+                                        reader.endArray();
+                                    } else {
+                                        reader.skipValue();
                                     }
-                                    reader.endObject();
-                                } else {
-                                    reader.skipValue();
                                 }
+                                reader.endObject();
+                                // the caller closes the stream, so the remaining results are never parsed
+                                if (map.size() > 0)
+                                    return map;
                             }
                             reader.endArray();
                         } else {
@@ -244,35 +446,25 @@ public class Spotify extends Service {
     }
 
     /**
-     * Caches the query with its result to minimize the number of outgoing requests.
-     *
-     * @param query search query.
-     * @param result search result.
-     * @return most relevant search result.
-     */
-    private String cacheQuery(String query, Map<Size, String> result) {
-        String url = (result != null && result.size() > 0) ?
-                result.values().iterator().next() : null;
-        cache.put(query, url);
-        return url;
-    }
-
-    /**
-     * Gets the authorization token.
+     * Gets the authorization token. Called by the {@link TokenManager}.
      *
+     * @return the new token.
+     * @throws IOException if the token couldn't be acquired.
      * @see <a href="https://developer.spotify.com/documentation/general/guides/authorization-guide/">
      *      API reference</a>
      */
-    private void getToken() {
-        try {
-            URL url = new URL(AUTH_URL + "?grant_type=client_credentials");
-            HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Authorization", AUTH_TYPE + " " + API_KEY);
-            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            conn.connect();
-
-            JsonReader reader = Utilities.getReader(conn);
+    private TokenManager.Token getToken() throws IOException {
+        URL url = new URL(AUTH_URL + "?grant_type=client_credentials");
+        HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Authorization", AUTH_TYPE + " " + API_KEY);
+        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        Transport.configure(conn);
+
+        String token = null;
+        long expire = -1;
+        long start = Metrics.start();
+        try (JsonReader reader = Utilities.getReader(Transport.open(conn, start))) {
             reader.beginObject();
             while (reader.hasNext()) {
                 switch (reader.nextName()) {
@@ -284,25 +476,28 @@ public class Spotify extends Service {
                             throw new IOException("Invalid token");
                         break;
                     case "expires_in":
-                        expire = Utilities.getTime() + reader.nextLong();
+                        // the lifetime is given in seconds
+                        expire = Utilities.getTime() + TimeUnit.SECONDS.toMillis(reader.nextLong());
                         break;
                     default:
                         reader.skipValue();
                 }
             }
             reader.endObject();
-
+        } finally {
             conn.disconnect();
-        } catch (IOException ex) {
-            token = null;
-            expire = -1;
         }
+
+        if (token == null || expire < 0)
+            throw new IOException("Incomplete token");
+        return new TokenManager.Token(token, expire);
     }
 
     /**
      * Connects to the server using the authorization token.
-     * If token was never acquired or expired then this function also gets the token.
-     * It does so in thread-safe manner.
+     * The token is managed by the {@link TokenManager}, so the request waits for it only if there is
+     *  no valid token at all. The request rejected with the {@link HttpURLConnection#HTTP_UNAUTHORIZED}
+     *  is repeated once with the new token.
      *
      * @param req the URL to connect to.
      * @return input stream or {@code null} if response code
@@ -311,20 +506,31 @@ public class Spotify extends Service {
     @Override
     protected InputStream connect(String req) {
         try {
-            synchronized (this) {
-                if (token == null || expire < Utilities.getTime())
-                    getToken();
-            }
-
-            URL url = new URL(ROOT_URL + req.replace(' ', '+'));
-            HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-            conn.setRequestProperty("Authorization", TOKEN_TYPE + " " + token);
-            conn.connect();
-
-            return (conn.getResponseCode() != HttpURLConnection.HTTP_OK) ?
-                    null : conn.getInputStream();
+            AtomicReference<String> token = new AtomicReference<>(tokens.get());
+            if (token.get() == null)
+                return null;
+
+            return open(() -> request(req, token.get()), SEARCH_TTL, conn -> {
+                token.set(tokens.refresh(token.get()));
+                return token.get() != null;
+            });
         } catch (IOException ex) {
             return null;
         }
     }
+
+    /**
+     * Creates the connection to the server, authorized by the token.
+     *
+     * @param req the URL to connect to.
+     * @param token the authorization token.
+     * @return the connection, not yet connected.
+     * @throws IOException if the URL is malformed or the connection couldn't be created.
+     */
+    private static HttpsURLConnection request(String req, String token) throws IOException {
+        URL url = new URL(ROOT_URL + req.replace(' ', '+'));
+        HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+        conn.setRequestProperty("Authorization", TOKEN_TYPE + " " + token);
+        return conn;
+    }
 }
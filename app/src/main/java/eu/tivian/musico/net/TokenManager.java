@@ -0,0 +1,188 @@
+package eu.tivian.musico.net;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eu.tivian.musico.utility.Metrics;
+import eu.tivian.musico.utility.Utilities;
+
+/**
+ * Keeps the authorization token of the {@link Service} valid without blocking its workers.
+ * <br>
+ * The token is refreshed in the background shortly before it expires, while the requests keep using
+ *  the old one, which is still valid. The workers wait only when there is no valid token at all,
+ *  and then they share the single fetch. The failed fetch isn't repeated for a while,
+ *  so the unreachable server isn't flooded with the authorization requests.
+ */
+class TokenManager {
+    /**
+     * Time in milliseconds before the expiration at which the token is refreshed in the background.
+     */
+    private static final long REFRESH_AHEAD = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Time in milliseconds for which the failed fetch isn't repeated.
+     */
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The name of the metric counting the tokens fetched in the background.
+     */
+    static final String METRIC_REFRESHED = "token.refreshed";
+
+    /**
+     * The name of the metric counting the tokens fetched while the workers waited.
+     */
+    static final String METRIC_BLOCKED = "token.blocked";
+
+    /**
+     * The name of the metric counting the failed fetches.
+     */
+    static final String METRIC_FAILED = "token.failed";
+
+    /**
+     * The authorization token.
+     */
+    static class Token {
+        /**
+         * The value of the token.
+         */
+        final String value;
+
+        /**
+         * Expiration date of the token, in milliseconds since the Unix epoch.
+         */
+        final long expire;
+
+        /**
+         * Creates the token.
+         *
+         * @param value the value of the token.
+         * @param expire expiration date of the token, in milliseconds since the Unix epoch.
+         */
+        Token(String value, long expire) {
+            this.value = value;
+            this.expire = expire;
+        }
+    }
+
+    /**
+     * The name of the service, used to name the refreshing thread.
+     */
+    private final String name;
+
+    /**
+     * Functor which fetches the new token from the server.
+     */
+    private final Callable<Token> fetcher;
+
+    /**
+     * The current token, or {@code null} if it was never fetched or it was rejected.
+     */
+    private volatile Token token;
+
+    /**
+     * Time in milliseconds since the Unix epoch before which the failed fetch isn't repeated.
+     */
+    private volatile long retryAt;
+
+    /**
+     * Whether the refresh is running in the background.
+     */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * Creates the manager.
+     *
+     * @param name the name of the service, used to name the refreshing thread.
+     * @param fetcher functor which fetches the new token from the server.
+     */
+    TokenManager(String name, Callable<Token> fetcher) {
+        this.name = name;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Gets the valid token, starting the refresh in the background if it expires soon.
+     *  Blocks only if there is no valid token at all.
+     *
+     * @return the value of the token or {@code null} if it couldn't be fetched.
+     */
+    String get() {
+        Token current = token;
+        long now = Utilities.getTime();
+        if (current != null && current.expire > now) {
+            if (current.expire - REFRESH_AHEAD <= now)
+                refreshAsync();
+            return current.value;
+        }
+        return fetch(current);
+    }
+
+    /**
+     * Replaces the token rejected by the server. Blocks until the new token is fetched,
+     *  unless the other worker already replaced it.
+     *
+     * @param rejected the value of the rejected token.
+     * @return the value of the new token or {@code null} if it couldn't be fetched.
+     */
+    String refresh(String rejected) {
+        synchronized (this) {
+            Token current = token;
+            if (current != null && !current.value.equals(rejected))
+                return current.value;
+
+            // the rejected token is never used again, even if the fetch fails
+            token = null;
+            retryAt = 0;
+        }
+        return fetch(null);
+    }
+
+    /**
+     * Starts fetching the token in the background, so the next requests don't wait for it.
+     */
+    void refreshAsync() {
+        if (Utilities.getTime() < retryAt || !refreshing.compareAndSet(false, true))
+            return;
+
+        Token current = token;
+        new Thread(() -> {
+            try {
+                fetch(current);
+            } finally {
+                refreshing.set(false);
+            }
+        }, name + "-token").start();
+    }
+
+    /**
+     * Fetches the new token, unless the other thread replaced the {@code stale} one in the meantime.
+     *
+     * @param stale the token which should be replaced.
+     * @return the value of the valid token or {@code null} if it couldn't be fetched.
+     */
+    private synchronized String fetch(Token stale) {
+        Token current = token;
+        long now = Utilities.getTime();
+        if (current != stale && current != null && current.expire > now)
+            return current.value;
+        if (now < retryAt)
+            return current != null && current.expire > now ? current.value : null;
+
+        boolean blocked = current == null || current.expire <= now;
+        try {
+            Token fresh = fetcher.call();
+            token = fresh;
+            retryAt = 0;
+            Metrics.add(blocked ? METRIC_BLOCKED : METRIC_REFRESHED, 1);
+            return fresh.value;
+        } catch (Exception ex) {
+            Metrics.add(METRIC_FAILED, 1);
+            retryAt = now + RETRY_DELAY;
+            // the token refreshed ahead of time is still valid
+            return current != null && current.expire > now ? current.value : null;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package eu.tivian.musico.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import eu.tivian.musico.utility.Metrics;
+
+/**
+ * The HTTP transport shared by every {@link Service}.
+ * <br>
+ * Every connection is given the timeouts and asks for the compressed response. The body of the response
+ *  is decompressed and counted as it's read, and closing it disconnects the connection,
+ *  so the fully read connection returns to the keep-alive pool of the platform right away.
+ */
+final class Transport {
+    /**
+     * Time in milliseconds after which the connection attempt fails.
+     */
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(15);
+
+    /**
+     * Time in milliseconds after which the stalled response fails.
+     */
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(20);
+
+    /**
+     * The prefix of the metrics with the number of the bytes received from the host, followed by the host name.
+     */
+    static final String METRIC_BYTES = "http.bytes.";
+
+    /**
+     * The prefix of the metrics measuring the requests to the host, from the connection
+     *  to the end of the response, followed by the host name.
+     */
+    static final String METRIC_LATENCY = "http.latency.";
+
+    /**
+     * The body of the response, which accounts the request when it's closed.
+     */
+    private static class Body extends FilterInputStream {
+        /**
+         * The connection.
+         */
+        private final HttpURLConnection conn;
+
+        /**
+         * The stream of the bytes received from the network, before the decompression.
+         */
+        private final Counter counter;
+
+        /**
+         * The start of the request, as returned by the {@link Metrics#start()}.
+         */
+        private final long start;
+
+        /**
+         * Whether the body was already closed.
+         */
+        private boolean closed;
+
+        /**
+         * Creates the body.
+         *
+         * @param in the decompressed stream.
+         * @param counter the stream of the bytes received from the network.
+         * @param conn the connection.
+         * @param start the start of the request.
+         */
+        Body(InputStream in, Counter counter, HttpURLConnection conn, long start) {
+            super(in);
+            this.counter = counter;
+            this.conn = conn;
+            this.start = start;
+        }
+
+        /**
+         * Closes the body, accounts the request and disconnects the connection.
+         *
+         * @throws IOException if any I/O error occurred.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                String host = conn.getURL().getHost();
+                Metrics.add(METRIC_BYTES + host, counter.count);
+                Metrics.time(METRIC_LATENCY + host, start);
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * The stream counting the bytes read from it.
+     */
+    private static class Counter extends FilterInputStream {
+        /**
+         * The number of the bytes read.
+         */
+        long count;
+
+        /**
+         * Creates the stream.
+         *
+         * @param in the counted stream.
+         */
+        Counter(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * Reads the single byte.
+         *
+         * @return the byte or -1 at the end of the stream.
+         * @throws IOException if any I/O error occurred.
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                count++;
+            return b;
+        }
+
+        /**
+         * Reads the bytes into the buffer.
+         *
+         * @param b the buffer.
+         * @param off the offset in the buffer.
+         * @param len the maximal number of the bytes to read.
+         * @return the number of the bytes read or -1 at the end of the stream.
+         * @throws IOException if any I/O error occurred.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+
+    /**
+     * Prevents instantiating the helper class.
+     */
+    private Transport() {}
+
+    /**
+     * Configures the not yet connected connection.
+     *
+     * @param conn the connection.
+     */
+    static void configure(HttpURLConnection conn) {
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        // asking explicitly turns off the transparent decompression, so the received bytes can be counted
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+    }
+
+    /**
+     * Gets the decompressed body of the successful response.
+     *  Closing the body disconnects the connection.
+     *
+     * @param conn the connection.
+     * @param start the start of the request, as returned by the {@link Metrics#start()}.
+     * @return the body.
+     * @throws IOException if any I/O error occurred.
+     */
+    static InputStream open(HttpURLConnection conn, long start) throws IOException {
+        Counter counter;
+        try {
+            counter = new Counter(conn.getInputStream());
+        } catch (IOException ex) {
+            conn.disconnect();
+            throw ex;
+        }
+
+        InputStream in = counter;
+        try {
+            if ("gzip".equalsIgnoreCase(conn.getContentEncoding()))
+                in = new GZIPInputStream(counter);
+        } catch (IOException ex) {
+            counter.close();
+            conn.disconnect();
+            throw ex;
+        }
+        return new Body(in, counter, conn, start);
+    }
+
+    /**
+     * Releases the connection, which won't be read, e.g. after the error response.
+     *
+     * @param conn the connection.
+     */
+    static void discard(HttpURLConnection conn) {
+        InputStream error = conn.getErrorStream();
+        if (error != null) {
+            try {
+                error.close();
+            } catch (IOException ignored) {}
+        }
+        conn.disconnect();
+    }
+}
@@ -0,0 +1,32 @@
+package eu.tivian.musico.sync;
+
+/**
+ * The transport passing the requests directly to the server in the same process,
+ *  standing in for the network connection, e.g. in the tests.
+ */
+public class LoopbackTransport implements SyncTransport {
+    /**
+     * The server handling the requests.
+     */
+    private final SyncServer server;
+
+    /**
+     * Creates the transport.
+     *
+     * @param server the server handling the requests.
+     */
+    public LoopbackTransport(SyncServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Passes the request to the server.
+     *
+     * @param request the encoded request.
+     * @return the encoded response.
+     */
+    @Override
+    public byte[] exchange(byte[] request) {
+        return server.handle(request);
+    }
+}
@@ -0,0 +1,117 @@
+package eu.tivian.musico.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The transport sending the requests to the {@link SyncServer#serve(Socket) server} through the TCP socket.
+ * <br>
+ * Every message is prefixed by its length as the big-endian 32-bit integer.
+ *  The connection is kept open for the whole synchronization and has to be {@link #close() closed} afterwards.
+ */
+public class SocketTransport implements SyncTransport, Closeable {
+    /**
+     * The maximal size of the single message, in bytes.
+     */
+    private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    /**
+     * Timeout of the connection and of every read, in milliseconds.
+     */
+    private static final int TIMEOUT = 30_000;
+
+    /**
+     * The connected socket.
+     */
+    private final Socket socket;
+
+    /**
+     * Stream of the responses.
+     */
+    private final DataInputStream in;
+
+    /**
+     * Stream of the requests.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * Connects to the server.
+     *
+     * @param host the address of the other device.
+     * @param port the port of the server.
+     * @throws IOException if the connection failed.
+     */
+    public SocketTransport(String host, int port) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends the request and waits for the response.
+     *
+     * @param request the encoded request.
+     * @return the encoded response.
+     * @throws IOException if any I/O error occurred.
+     */
+    @Override
+    public byte[] exchange(byte[] request) throws IOException {
+        writeFrame(out, request);
+        return readFrame(in);
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException if any I/O error occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Reads the single message.
+     *
+     * @param in the input stream.
+     * @return the message.
+     * @throws java.io.EOFException if the stream ended before the message.
+     * @throws IOException if any I/O error occurred or the message is too big.
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME)
+            throw new IOException("Invalid message length " + length);
+
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * Writes the single message.
+     *
+     * @param out the output stream.
+     * @param data the message.
+     * @throws IOException if any I/O error occurred.
+     */
+    static void writeFrame(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+    }
+}
@@ -0,0 +1,262 @@
+package eu.tivian.musico.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.tivian.musico.database.DatabaseAdapter;
+import eu.tivian.musico.database.LibrarySync;
+import eu.tivian.musico.database.SyncRecord;
+
+/**
+ * The side of the synchronization starting the exchange with the {@link SyncServer}.
+ * <br>
+ * The client sends only the albums changed since the last synchronization with the same server
+ *  and receives only the albums changed on the server since then. The positions in the logs of both devices
+ *  are saved only after the changes of the server were applied, so the interrupted synchronization
+ *  is simply repeated the next time.
+ * <br>
+ * The albums are pushed in pages, each with the cover arts missing on the server, and the cover arts
+ *  of the received albums are requested in batches, so no message grows with the size of the collection's images.
+ */
+public class SyncClient {
+    /**
+     * The summary of the single synchronization.
+     */
+    public static class Result {
+        /**
+         * Number of the albums sent to the server.
+         */
+        public int sent;
+
+        /**
+         * Number of the albums received from the server.
+         */
+        public int received;
+
+        /**
+         * Number of the fields changed on both devices, resolved in favour of the server.
+         */
+        public int conflicts;
+
+        /**
+         * Number of the bytes sent to the server.
+         */
+        public long bytesSent;
+
+        /**
+         * Number of the bytes received from the server.
+         */
+        public long bytesReceived;
+    }
+
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * The ID of this device.
+     */
+    private final String device;
+
+    /**
+     * Creates the client.
+     *
+     * @param adapter the database.
+     */
+    public SyncClient(DatabaseAdapter adapter) {
+        this.adapter = adapter;
+        this.device = LibrarySync.getDeviceId(adapter);
+    }
+
+    /**
+     * Synchronizes the collection with the server. Should be called outside the UI thread.
+     *
+     * @param transport the connection to the server.
+     * @return the summary of the synchronization.
+     * @throws IOException if any I/O error occurred or the server reported the error.
+     */
+    public Result sync(SyncTransport transport) throws IOException {
+        Result result = new Result();
+
+        SyncMessage hello = exchange(transport, new SyncMessage(SyncMessage.TYPE_HELLO, device), result);
+        if (hello.device == null || hello.device.equals(device))
+            throw new IOException("Invalid device " + hello.device);
+
+        LibrarySync sync = new LibrarySync(adapter, hello.device);
+        long head = sync.getHead();
+        List<SyncRecord> outgoing = sync.getChanges(sync.getPosition(), head,
+                Collections.<SyncRecord>emptyList(), true);
+
+        // the server has merged the sent albums, its versions of the changed ones are in the responses
+        Map<String, SyncRecord> incoming = new LinkedHashMap<>();
+        for (int i = 0; i < outgoing.size(); ) {
+            List<SyncRecord> page = new ArrayList<>(
+                    outgoing.subList(i, Math.min(outgoing.size(), i + SyncMessage.MAX_RECORDS)));
+            for (SyncRecord record : push(transport, sync, page, result))
+                incoming.put(record.getKey(), record);
+            i += page.size();
+        }
+
+        SyncMessage pull = new SyncMessage(SyncMessage.TYPE_PULL, device);
+        pull.since = sync.getRemotePosition();
+        pull.start = hello.start;
+        SyncMessage response = exchange(transport, pull, result);
+        expect(response, SyncMessage.TYPE_CHANGES);
+        for (SyncRecord record : response.records)
+            incoming.put(record.getKey(), record);
+
+        // merged against the previous state, so the fields changed on both devices are counted as the conflicts
+        List<SyncRecord> records = new ArrayList<>(incoming.values());
+        List<SyncRecord> merged = apply(transport, sync, records, result);
+        sync.setBase(outgoing);
+        sync.setBase(merged);
+        sync.acknowledge(head);
+        sync.setRemotePosition(response.head);
+
+        result.sent = outgoing.size();
+        result.received = records.size();
+        result.conflicts = sync.getConflicts();
+        return result;
+    }
+
+    /**
+     * Pushes the single page of the local changes, together with the cover arts missing on the server.
+     *  If the images don't fit into the single message, the page is cut before the first album
+     *  whose image was left out, and the rest is pushed by the next request.
+     *
+     * @param transport the connection to the server.
+     * @param sync the side of the synchronization.
+     * @param page the changed albums, which is cut to the actually pushed ones.
+     * @param result the summary, into which the transferred bytes are counted.
+     * @return the merged versions of the pushed albums which differ from the sent ones.
+     * @throws IOException if any I/O error occurred or the server reported the error.
+     */
+    private List<SyncRecord> push(SyncTransport transport, LibrarySync sync, List<SyncRecord> page,
+                                  Result result) throws IOException {
+        SyncMessage push = new SyncMessage(SyncMessage.TYPE_PUSH, device);
+        push.records = page;
+
+        SyncMessage response = exchange(transport, push, result);
+        if (SyncMessage.TYPE_MISSING.equals(response.type)) {
+            Set<String> missing = new HashSet<>(response.hashes);
+            Set<String> ordered = new LinkedHashSet<>();
+            for (SyncRecord record : page) {
+                String hash = record.fields.get(SyncRecord.FIELD_COVER);
+                if (hash != null && missing.contains(hash))
+                    ordered.add(hash);
+            }
+            push.covers = sync.getCovers(ordered, SyncMessage.MAX_COVER_BYTES);
+
+            int end = 0;
+            while (end < page.size()) {
+                String hash = page.get(end).fields.get(SyncRecord.FIELD_COVER);
+                if (hash != null && missing.contains(hash) && !push.covers.containsKey(hash))
+                    break;
+                end++;
+            }
+            // the album without the local image is still pushed, so the server reports it below
+            page.subList(Math.max(end, 1), page.size()).clear();
+
+            response = exchange(transport, push, result);
+        }
+        expect(response, SyncMessage.TYPE_CHANGES);
+        return response.records;
+    }
+
+    /**
+     * Merges the albums received from the server. The missing cover arts are requested in batches
+     *  and every batch is applied together with the albums using it, so only the single batch is kept in the memory.
+     *
+     * @param transport the connection to the server.
+     * @param sync the side of the synchronization.
+     * @param records the albums received from the server.
+     * @param result the summary, into which the transferred bytes are counted.
+     * @return the state of the albums after the merge.
+     * @throws IOException if any I/O error occurred or the server reported the error.
+     */
+    private List<SyncRecord> apply(SyncTransport transport, LibrarySync sync, List<SyncRecord> records,
+                                   Result result) throws IOException {
+        Map<String, byte[]> none = Collections.emptyMap();
+        Set<String> missing = sync.getMissingCovers(records);
+        List<SyncRecord> merged = new ArrayList<>(sync.apply(using(records, missing, false), none, false));
+
+        while (!missing.isEmpty()) {
+            SyncMessage request = new SyncMessage(SyncMessage.TYPE_COVERS, device);
+            request.hashes.addAll(missing);
+            SyncMessage images = exchange(transport, request, result);
+            expect(images, SyncMessage.TYPE_COVERS);
+            if (images.covers.isEmpty()) // the server doesn't have the rest either
+                break;
+
+            missing.removeAll(images.covers.keySet());
+            merged.addAll(sync.apply(using(records, images.covers.keySet(), true), images.covers, false));
+        }
+
+        // the albums whose images weren't received are saved without them
+        if (!missing.isEmpty())
+            merged.addAll(sync.apply(using(records, missing, true), none, false));
+        return merged;
+    }
+
+    /**
+     * Selects the albums by their cover arts.
+     *
+     * @param records the albums.
+     * @param hashes the hashes of the cover arts.
+     * @param contained whether the albums with the image in the {@code hashes} are selected,
+     *        otherwise the other albums are selected, including the ones without the image.
+     * @return the selected albums, in the same order.
+     */
+    private static List<SyncRecord> using(List<SyncRecord> records, Set<String> hashes, boolean contained) {
+        List<SyncRecord> selected = new ArrayList<>();
+        for (SyncRecord record : records) {
+            String hash = record.fields.get(SyncRecord.FIELD_COVER);
+            if ((hash != null && hashes.contains(hash)) == contained)
+                selected.add(record);
+        }
+        return selected;
+    }
+
+    /**
+     * Sends the message and decodes the response.
+     *
+     * @param transport the connection to the server.
+     * @param request the request.
+     * @param result the summary, into which the transferred bytes are counted.
+     * @return the response.
+     * @throws IOException if any I/O error occurred or the server reported the error.
+     */
+    private static SyncMessage exchange(SyncTransport transport, SyncMessage request, Result result)
+            throws IOException {
+        byte[] data = request.encode();
+        result.bytesSent += data.length;
+
+        data = transport.exchange(data);
+        result.bytesReceived += data.length;
+
+        SyncMessage response = SyncMessage.decode(data);
+        if (SyncMessage.TYPE_ERROR.equals(response.type))
+            throw new IOException("Synchronization failed: " + response.error);
+        return response;
+    }
+
+    /**
+     * Checks the type of the response.
+     *
+     * @param response the response.
+     * @param type the expected type.
+     * @throws IOException if the response has the other type.
+     */
+    private static void expect(SyncMessage response, String type) throws IOException {
+        if (!type.equals(response.type))
+            throw new IOException("Unexpected response " + response.type);
+    }
+}
@@ -0,0 +1,293 @@
+package eu.tivian.musico.sync;
+
+import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.tivian.musico.database.SyncRecord;
+
+/**
+ * The request or response exchanged by the synchronizing devices, encoded as the UTF-8 JSON object.
+ * <br>
+ * Every field besides the {@link #type} is optional, the unknown fields are skipped.
+ */
+public class SyncMessage {
+    /**
+     * The first request, exchanging the IDs of the devices.
+     */
+    public static final String TYPE_HELLO = "hello";
+
+    /**
+     * The request with the single page of the changes of the client, answered by the {@link #TYPE_CHANGES}
+     *  with the merged versions which differ from the sent ones, or by the {@link #TYPE_MISSING}.
+     */
+    public static final String TYPE_PUSH = "push";
+
+    /**
+     * The request for the changes of the server, sent after every change of the client was pushed.
+     */
+    public static final String TYPE_PULL = "pull";
+
+    /**
+     * The response with the changes of the server.
+     */
+    public static final String TYPE_CHANGES = "changes";
+
+    /**
+     * The response listing the cover arts which the server needs to apply the changes of the client.
+     *  The client repeats the {@link #TYPE_PUSH} request with the images, cutting the page if they don't fit.
+     */
+    public static final String TYPE_MISSING = "missing";
+
+    /**
+     * The request for the cover arts with the given hashes, answered with as many images
+     *  as fit into the {@link #MAX_COVER_BYTES}. The client repeats it for the rest.
+     */
+    public static final String TYPE_COVERS = "covers";
+
+    /**
+     * The response to the request which couldn't be handled.
+     */
+    public static final String TYPE_ERROR = "error";
+
+    /**
+     * The maximal number of the records pushed by the single request.
+     */
+    public static final int MAX_RECORDS = 100;
+
+    /**
+     * The size of the cover arts in bytes, after which no other image is added to the message.
+     *  The message always carries at least one image, so the bigger one is still transferred.
+     */
+    public static final int MAX_COVER_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * The name of the field for the type.
+     */
+    private static final String JSON_TYPE = "type";
+
+    /**
+     * The name of the field for the device ID.
+     */
+    private static final String JSON_DEVICE = "device";
+
+    /**
+     * The name of the field for the position in the log of the server.
+     */
+    private static final String JSON_SINCE = "since";
+
+    /**
+     * The name of the field for the latest change of the server.
+     */
+    private static final String JSON_HEAD = "head";
+
+    /**
+     * The name of the field for the latest change of the server before the synchronization.
+     */
+    private static final String JSON_START = "start";
+
+    /**
+     * The name of the field for the records.
+     */
+    private static final String JSON_RECORDS = "records";
+
+    /**
+     * The name of the field for the hashes of the cover arts.
+     */
+    private static final String JSON_HASHES = "hashes";
+
+    /**
+     * The name of the field for the cover arts.
+     */
+    private static final String JSON_COVERS = "covers";
+
+    /**
+     * The name of the field for the error message.
+     */
+    private static final String JSON_ERROR = "error";
+
+    /**
+     * The type of the message, e.g. {@link #TYPE_PUSH}.
+     */
+    public String type;
+
+    /**
+     * The ID of the device sending the message.
+     */
+    public String device;
+
+    /**
+     * The sequence number of the latest change of the server already received by the client, or -1.
+     */
+    public long since = -1;
+
+    /**
+     * The sequence number of the latest change of the server included in the response.
+     */
+    public long head = -1;
+
+    /**
+     * The sequence number of the latest change of the server before the client pushed its changes, or -1.
+     *  Sent by the server in the {@link #TYPE_HELLO} response and returned by the {@link #TYPE_PULL} request.
+     */
+    public long start = -1;
+
+    /**
+     * The changed albums.
+     */
+    public List<SyncRecord> records = new ArrayList<>();
+
+    /**
+     * The hashes of the requested or missing cover arts.
+     */
+    public List<String> hashes = new ArrayList<>();
+
+    /**
+     * The cover arts by their hashes.
+     */
+    public Map<String, byte[]> covers = new HashMap<>();
+
+    /**
+     * The description of the error of the {@link #TYPE_ERROR} message.
+     */
+    public String error;
+
+    /**
+     * Creates the empty message.
+     */
+    public SyncMessage() {}
+
+    /**
+     * Creates the message.
+     *
+     * @param type the type of the message.
+     * @param device the ID of the device sending the message.
+     */
+    public SyncMessage(String type, String device) {
+        this.type = type;
+        this.device = device;
+    }
+
+    /**
+     * Encodes the message.
+     *
+     * @return the UTF-8 JSON text.
+     * @throws IOException if any I/O error occurred.
+     */
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name(JSON_TYPE).value(type);
+            if (device != null)
+                writer.name(JSON_DEVICE).value(device);
+            if (since != -1)
+                writer.name(JSON_SINCE).value(since);
+            if (head != -1)
+                writer.name(JSON_HEAD).value(head);
+            if (start != -1)
+                writer.name(JSON_START).value(start);
+            if (error != null)
+                writer.name(JSON_ERROR).value(error);
+
+            if (!records.isEmpty()) {
+                writer.name(JSON_RECORDS).beginArray();
+                for (SyncRecord record : records)
+                    record.write(writer);
+                writer.endArray();
+            }
+
+            if (!hashes.isEmpty()) {
+                writer.name(JSON_HASHES).beginArray();
+                for (String hash : hashes)
+                    writer.value(hash);
+                writer.endArray();
+            }
+
+            if (!covers.isEmpty()) {
+                writer.name(JSON_COVERS).beginObject();
+                for (Map.Entry<String, byte[]> entry : covers.entrySet())
+                    writer.name(entry.getKey()).value(Base64.encodeToString(entry.getValue(), Base64.NO_WRAP));
+                writer.endObject();
+            }
+            writer.endObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the message created by the {@link #encode()}.
+     *
+     * @param data the UTF-8 JSON text.
+     * @return the message.
+     * @throws IOException if the message is malformed.
+     */
+    public static SyncMessage decode(byte[] data) throws IOException {
+        SyncMessage message = new SyncMessage();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case JSON_TYPE:
+                        message.type = reader.nextString();
+                        break;
+                    case JSON_DEVICE:
+                        message.device = reader.nextString();
+                        break;
+                    case JSON_SINCE:
+                        message.since = reader.nextLong();
+                        break;
+                    case JSON_HEAD:
+                        message.head = reader.nextLong();
+                        break;
+                    case JSON_START:
+                        message.start = reader.nextLong();
+                        break;
+                    case JSON_ERROR:
+                        message.error = reader.nextString();
+                        break;
+                    case JSON_RECORDS:
+                        reader.beginArray();
+                        while (reader.hasNext())
+                            message.records.add(SyncRecord.read(reader));
+                        reader.endArray();
+                        break;
+                    case JSON_HASHES:
+                        reader.beginArray();
+                        while (reader.hasNext())
+                            message.hashes.add(reader.nextString());
+                        reader.endArray();
+                        break;
+                    case JSON_COVERS:
+                        reader.beginObject();
+                        while (reader.hasNext())
+                            message.covers.put(reader.nextName(), Base64.decode(reader.nextString(), Base64.NO_WRAP));
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            throw new IOException("Malformed synchronization message", ex);
+        }
+
+        if (message.type == null)
+            throw new IOException("Synchronization message without type");
+        return message;
+    }
+}
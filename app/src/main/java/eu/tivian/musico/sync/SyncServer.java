@@ -0,0 +1,217 @@
+package eu.tivian.musico.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.tivian.musico.database.DatabaseAdapter;
+import eu.tivian.musico.database.LibrarySync;
+import eu.tivian.musico.database.SyncRecord;
+
+/**
+ * The side of the synchronization answering the requests of the {@link SyncClient}.
+ * <br>
+ * The server doesn't keep any state between the requests, besides the database.
+ *  The changes of the client are merged page by page, as they're pushed. The conflicts are resolved
+ *  in favour of the server and the merged state is sent back to the client, so both devices end up
+ *  with the same collection.
+ */
+public class SyncServer {
+    /**
+     * The database.
+     */
+    private final DatabaseAdapter adapter;
+
+    /**
+     * The ID of this device.
+     */
+    private final String device;
+
+    /**
+     * Creates the server.
+     *
+     * @param adapter the database.
+     */
+    public SyncServer(DatabaseAdapter adapter) {
+        this.adapter = adapter;
+        this.device = LibrarySync.getDeviceId(adapter);
+    }
+
+    /**
+     * Handles the single request. Should be called outside the UI thread.
+     *
+     * @param request the encoded request.
+     * @return the encoded response, the errors are reported by the {@link SyncMessage#TYPE_ERROR} response.
+     */
+    public byte[] handle(byte[] request) {
+        try {
+            return handle(SyncMessage.decode(request)).encode();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+
+            SyncMessage response = new SyncMessage(SyncMessage.TYPE_ERROR, device);
+            response.error = String.valueOf(ex.getMessage());
+            try {
+                return response.encode();
+            } catch (IOException ignored) {
+                // the message is written into the memory
+                return new byte[0];
+            }
+        }
+    }
+
+    /**
+     * Answers the requests sent through the socket until the client closes it.
+     *  Every message is prefixed by its length.
+     *
+     * @param socket the connected socket, closed at the end.
+     * @throws IOException if any I/O error occurred.
+     */
+    public void serve(Socket socket) throws IOException {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+
+            while (true) {
+                byte[] request;
+                try {
+                    request = SocketTransport.readFrame(in);
+                } catch (EOFException ex) {
+                    return;
+                }
+
+                SocketTransport.writeFrame(out, handle(request));
+            }
+        }
+    }
+
+    /**
+     * Handles the decoded request.
+     *
+     * @param request the request.
+     * @return the response.
+     * @throws IOException if the request is malformed.
+     */
+    private SyncMessage handle(SyncMessage request) throws IOException {
+        switch (request.type) {
+            case SyncMessage.TYPE_HELLO: {
+                SyncMessage response = new SyncMessage(SyncMessage.TYPE_HELLO, device);
+                response.start = open(request).getHead();
+                return response;
+            }
+            case SyncMessage.TYPE_PUSH:
+                return push(request);
+            case SyncMessage.TYPE_PULL:
+                return pull(request);
+            case SyncMessage.TYPE_COVERS: {
+                SyncMessage response = new SyncMessage(SyncMessage.TYPE_COVERS, device);
+                response.covers = open(request).getCovers(request.hashes, SyncMessage.MAX_COVER_BYTES);
+                return response;
+            }
+            default:
+                throw new IOException("Unknown request " + request.type);
+        }
+    }
+
+    /**
+     * Creates the side of the synchronization with the device sending the request.
+     *
+     * @param request the request.
+     * @return the side of the synchronization.
+     * @throws IOException if the request has no valid device ID.
+     */
+    private LibrarySync open(SyncMessage request) throws IOException {
+        if (request.device == null || request.device.equals(device))
+            throw new IOException("Invalid device " + request.device);
+        return new LibrarySync(adapter, request.device);
+    }
+
+    /**
+     * Merges the single page of the changes of the client.
+     *
+     * @param request the {@link SyncMessage#TYPE_PUSH} request.
+     * @return the {@link SyncMessage#TYPE_CHANGES} response with the merged versions of the pushed albums
+     *         which differ from the sent ones, or the {@link SyncMessage#TYPE_MISSING} one
+     *         if the client has to send the cover arts first.
+     * @throws IOException if the request is malformed.
+     */
+    private SyncMessage push(SyncMessage request) throws IOException {
+        LibrarySync sync = open(request);
+
+        Set<String> missing = sync.getMissingCovers(request.records);
+        missing.removeAll(request.covers.keySet());
+        if (!missing.isEmpty()) {
+            SyncMessage response = new SyncMessage(SyncMessage.TYPE_MISSING, device);
+            response.hashes.addAll(missing);
+            return response;
+        }
+
+        List<SyncRecord> merged = sync.apply(request.records, request.covers, true);
+        sync.setBase(request.records);
+
+        List<SyncRecord> changes = new ArrayList<>();
+        for (int i = 0; i < merged.size(); i++) {
+            SyncRecord result = merged.get(i);
+            SyncRecord sent = request.records.get(i);
+            if (!result.sameAs(sent) && !(result.deleted && sent.deleted))
+                changes.add(result);
+        }
+        sync.setBase(changes);
+
+        SyncMessage response = new SyncMessage(SyncMessage.TYPE_CHANGES, device);
+        response.records = changes;
+        return response;
+    }
+
+    /**
+     * Answers with the changes of the server.
+     *
+     * @param request the {@link SyncMessage#TYPE_PULL} request.
+     * @return the {@link SyncMessage#TYPE_CHANGES} response.
+     * @throws IOException if the request is malformed.
+     */
+    private SyncMessage pull(SyncMessage request) throws IOException {
+        LibrarySync sync = open(request);
+        long since = request.since;
+
+        // the changes older than the position of the client could be already compacted
+        if (since >= 0 && since < sync.getPosition())
+            since = -1;
+        if (since >= 0)
+            sync.acknowledge(since);
+
+        long head = sync.getHead();
+        long start = request.start < 0 ? head : Math.max(since, Math.min(request.start, head));
+
+        // every change since the position of the client is sent, even if the client should already have it,
+        //  because the client could have failed to save the previous response, while the changes made
+        //  after the start of this synchronization, i.e. the pages merged above, are sent only
+        //  if they differ from the state which the client received
+        Map<String, SyncRecord> changes = new LinkedHashMap<>();
+        List<SyncRecord> empty = Collections.emptyList();
+        for (SyncRecord record : sync.getChanges(since, start, empty, false))
+            changes.put(record.getKey(), record);
+        if (since >= 0 && start < head) {
+            for (SyncRecord record : sync.getChanges(start, head, empty, true))
+                changes.put(record.getKey(), record);
+        }
+
+        List<SyncRecord> records = new ArrayList<>(changes.values());
+        sync.setBase(records);
+        if (since < 0)
+            sync.acknowledge(head);
+
+        SyncMessage response = new SyncMessage(SyncMessage.TYPE_CHANGES, device);
+        response.head = head;
+        response.records = records;
+        return response;
+    }
+}
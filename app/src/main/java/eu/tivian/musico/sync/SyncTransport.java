@@ -0,0 +1,17 @@
+package eu.tivian.musico.sync;
+
+import java.io.IOException;
+
+/**
+ * The request/response channel between the {@link SyncClient} and the {@link SyncServer}.
+ */
+public interface SyncTransport {
+    /**
+     * Sends the request to the other device and waits for its response.
+     *
+     * @param request the encoded request.
+     * @return the encoded response.
+     * @throws IOException if any I/O error occurred.
+     */
+    byte[] exchange(byte[] request) throws IOException;
+}
@@ -0,0 +1,4 @@
+/**
+ * Synchronization of the album collection between devices.
+ */
+package eu.tivian.musico.sync;
\ No newline at end of file
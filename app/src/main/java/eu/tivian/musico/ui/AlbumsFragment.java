@@ -7,44 +7,68 @@ import android.content.Intent;
 import android.content.res.Configuration;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
 import android.view.ContextMenu;
 import android.view.LayoutInflater;
+import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
+import android.widget.AutoCompleteTextView;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.Adapter;
 
 import com.bumptech.glide.Glide;
+import com.google.android.material.snackbar.Snackbar;
 import com.simplecityapps.recyclerview_fastscroll.interfaces.OnFastScrollStateChangeListener;
 import com.simplecityapps.recyclerview_fastscroll.views.FastScrollRecyclerView;
 
+import java.util.ArrayList;
 import java.util.Currency;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import eu.tivian.musico.AlbumView;
 import eu.tivian.musico.R;
 import eu.tivian.musico.SharedViewModel;
 import eu.tivian.musico.data.Album;
 import eu.tivian.musico.database.AlbumCursor;
+import eu.tivian.musico.database.AlbumQuery;
+import eu.tivian.musico.database.DatabaseChange;
 import eu.tivian.musico.database.DatabaseAdapter;
+import eu.tivian.musico.database.DatabaseSuggestion;
 import eu.tivian.musico.utility.ItemClickListener;
 import eu.tivian.musico.utility.SuccessListener;
 import eu.tivian.musico.utility.Utilities;
 
+import static eu.tivian.musico.database.DatabaseContract.CurrencyEntry;
+import static eu.tivian.musico.database.DatabaseContract.GenreEntry;
+import static eu.tivian.musico.database.DatabaseContract.StoreEntry;
+
 /**
  * Displays the albums list.
  */
@@ -79,6 +103,272 @@ public class AlbumsFragment extends Fragment {
      */
     private SharedViewModel viewModel;
 
+    /**
+     * IDs of the rows in the {@link #cursor}, in the same order, or {@code null} if they weren't read yet.
+     *  Accessed only by the {@link #executor}.
+     */
+    private long[] ids;
+
+    /**
+     * The cursor for which the {@link #ids} were loaded. Accessed only by the {@link #executor}.
+     */
+    private AlbumCursor idsCursor;
+
+    /**
+     * The cursor which will be shown using the {@link #diff} instead of reloading the whole list.
+     *  It's loaded by the {@link #executor}, which already knows its {@link #ids}.
+     */
+    private AlbumCursor diffCursor;
+
+    /**
+     * The difference between the current {@link #cursor} and the {@link #diffCursor},
+     *  or {@code null} if the whole list has to be reloaded.
+     */
+    private DiffUtil.DiffResult diff;
+
+    /**
+     * Executor used to query the database and to calculate the list differences outside the UI thread.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Handler used to pass the results of the {@link #executor} to the UI thread.
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Color drawn over the selected albums.
+     */
+    private static final int SELECTION_COLOR = 0x800288D1;
+
+    /**
+     * IDs of the albums chosen in the multi-selection mode.
+     */
+    private final Set<Long> selection = new HashSet<>();
+
+    /**
+     * The multi-selection mode or {@code null} if it's inactive.
+     */
+    private ActionMode actionMode;
+
+    /**
+     * Operation modifying the albums chosen in the multi-selection mode.
+     */
+    private interface BulkEdit {
+        /**
+         * Sets the new value for every chosen album.
+         *
+         * @param value the new value.
+         * @param ids IDs of the albums.
+         * @return number of modified rows.
+         */
+        int apply(String value, long... ids);
+    }
+
+    /**
+     * Handles the multi-selection mode and the bulk operations on the chosen albums.
+     */
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        /**
+         * Creates the menu of the bulk operations.
+         *
+         * @param mode the multi-selection mode.
+         * @param menu menu used to populate action buttons.
+         * @return {@code true} if the action mode should be created.
+         */
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.action_mode_album, menu);
+            return true;
+        }
+
+        /**
+         * Called to refresh the menu whenever the mode is invalidated.
+         *
+         * @param mode the multi-selection mode.
+         * @param menu menu used to populate action buttons.
+         * @return always {@code false}, because the menu is never changed.
+         */
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        /**
+         * Runs the bulk operation chosen by the user.
+         *
+         * @param mode the multi-selection mode.
+         * @param item the item that was clicked.
+         * @return {@code true} if the click was handled.
+         */
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case R.id.menu_bulk_delete:
+                    deleteSelection();
+                    return true;
+                case R.id.menu_bulk_genre:
+                    editSelection(R.string.album_genre, GenreEntry.TABLE_NAME, GenreEntry.COLUMN_NAME,
+                            databaseAdapter::setGenre);
+                    return true;
+                case R.id.menu_bulk_store:
+                    editSelection(R.string.album_store, StoreEntry.TABLE_NAME, StoreEntry.COLUMN_NAME,
+                            databaseAdapter::setStore);
+                    return true;
+                case R.id.menu_bulk_currency:
+                    editSelection(R.string.album_currency, CurrencyEntry.TABLE_NAME, CurrencyEntry.COLUMN_NAME,
+                            databaseAdapter::setCurrency);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Clears the selection after the mode was closed.
+         *
+         * @param mode the multi-selection mode.
+         */
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            actionMode = null;
+            selection.clear();
+            adapter.notifyDataSetChanged();
+        }
+    };
+
+    /**
+     * Reloads the album list after the collection was modified,
+     *  so only the affected albums are refreshed.
+     */
+    private final DatabaseChange.Listener changeListener = change -> {
+        try {
+            executor.execute(() -> reload(change));
+        } catch (RejectedExecutionException ex) {
+            // the view was already destroyed, while the change was being announced
+        }
+    };
+
+    /**
+     * Reloads the album list and calculates its difference from the current one. Called by the {@link #executor}.
+     *
+     * @param change the modification of the collection.
+     */
+    private void reload(DatabaseChange change) {
+        AlbumCursor base = idsCursor;
+        long[] oldIds = ids;
+        AlbumCursor next = databaseAdapter.getCursor(true);
+
+        // read from the new cursor itself, so the IDs can't disagree with it because of a concurrent write
+        long[] newIds = new long[next.getCount()];
+        long[] albumIds = new long[newIds.length];
+        for (int i = 0; next.moveToNext(); i++) {
+            newIds[i] = next.getRowId();
+            albumIds[i] = next.getAlbumId();
+        }
+        next.moveToPosition(-1);
+
+        DiffUtil.DiffResult result = oldIds == null ? null
+                : DiffUtil.calculateDiff(new AlbumDiff(oldIds, newIds, albumIds, change), true);
+        idsCursor = next;
+        ids = newIds;
+
+        handler.post(() -> {
+            if (cursor != base) { // the list was reloaded in the meantime
+                next.close();
+                return;
+            }
+
+            diffCursor = next;
+            diff = result;
+            viewModel.setCursor(next);
+        });
+    }
+
+    /**
+     * Calculates the difference between two album lists using the row IDs.
+     */
+    private static class AlbumDiff extends DiffUtil.Callback {
+        /**
+         * IDs of the rows on the old list.
+         */
+        private final long[] oldIds;
+
+        /**
+         * IDs of the rows on the new list.
+         */
+        private final long[] newIds;
+
+        /**
+         * IDs of the albums on the new list.
+         */
+        private final long[] albumIds;
+
+        /**
+         * The modification which caused the change of the list.
+         */
+        private final DatabaseChange change;
+
+        /**
+         * Creates the callback for the given lists.
+         *
+         * @param oldIds IDs of the rows on the old list.
+         * @param newIds IDs of the rows on the new list.
+         * @param albumIds IDs of the albums on the new list.
+         * @param change the modification which caused the change of the list.
+         */
+        AlbumDiff(long[] oldIds, long[] newIds, long[] albumIds, DatabaseChange change) {
+            this.oldIds = oldIds;
+            this.newIds = newIds;
+            this.albumIds = albumIds;
+            this.change = change;
+        }
+
+        /**
+         * Returns the size of the old list.
+         *
+         * @return the size of the old list.
+         */
+        @Override
+        public int getOldListSize() {
+            return oldIds.length;
+        }
+
+        /**
+         * Returns the size of the new list.
+         *
+         * @return the size of the new list.
+         */
+        @Override
+        public int getNewListSize() {
+            return newIds.length;
+        }
+
+        /**
+         * Decides whether two positions represent the same album.
+         *
+         * @param oldItemPosition the position of the album in the old list.
+         * @param newItemPosition the position of the album in the new list.
+         * @return {@code true} if both positions represent the same album.
+         */
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldIds[oldItemPosition] == newIds[newItemPosition];
+        }
+
+        /**
+         * Decides whether the album wasn't modified, so it doesn't have to be rebound.
+         *
+         * @param oldItemPosition the position of the album in the old list.
+         * @param newItemPosition the position of the album in the new list.
+         * @return {@code true} if the album wasn't affected by the modification.
+         */
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return !change.contains(albumIds[newItemPosition]);
+        }
+    }
+
     /**
      * The {@link RecyclerView} adapter.
      */
@@ -169,6 +459,7 @@ public class AlbumsFragment extends Fragment {
 
                 itemView.setTag(this);
                 itemView.setContentDescription(album.artist + " - " + album.title);
+                updateSelection();
 
                 Glide.with(context)
                     .load(album.cover)
@@ -182,6 +473,14 @@ public class AlbumsFragment extends Fragment {
                     .into(cover);
             }
 
+            /**
+             * Highlights the album if it's chosen in the multi-selection mode.
+             */
+            void updateSelection() {
+                itemView.setForeground(selection.contains(album.id)
+                        ? new ColorDrawable(SELECTION_COLOR) : null);
+            }
+
             /**
              * Sets the UI background color and the font color of the text fields.
              *
@@ -251,6 +550,18 @@ public class AlbumsFragment extends Fragment {
             }
         }
 
+        /**
+         * Returns the stable ID of the row at given position.
+         *  The album bought more than once is listed in several rows, so the ID of the purchase is used.
+         *
+         * @param position the position of the item within the adapter's data set.
+         * @return the ID of the row.
+         */
+        @Override
+        public long getItemId(int position) {
+            return cursor.moveToPosition(position) ? cursor.getRowId() : RecyclerView.NO_ID;
+        }
+
         /**
          * Returns the total number of albums in the {@link #cursor}.
          *
@@ -328,13 +639,30 @@ public class AlbumsFragment extends Fragment {
         context = getActivity();
 
         databaseAdapter = DatabaseAdapter.get();
+        executor = Executors.newSingleThreadExecutor();
+        databaseAdapter.addChangeListener(changeListener);
+
         viewModel = new ViewModelProvider(requireActivity()).get(SharedViewModel.class);
         viewModel.getCursor().observe(getViewLifecycleOwner(), cursor -> {
-            if (cursor != null) {
+            if (cursor == null) {
+                viewModel.setCursor(databaseAdapter.getCursor());
+            } else if (cursor == diffCursor) {
                 this.cursor = cursor;
-                adapter.notifyDataSetChanged();
+                if (diff != null)
+                    diff.dispatchUpdatesTo(adapter);
+                else
+                    adapter.notifyDataSetChanged();
+                diffCursor = null;
+                diff = null;
             } else {
-                viewModel.setCursor(databaseAdapter.getCursor());
+                this.cursor = cursor;
+                adapter.notifyDataSetChanged();
+                // the cursor is already used by the UI thread, so the next change reloads the whole list
+                //  and reads the IDs of the new one
+                executor.execute(() -> {
+                    idsCursor = cursor;
+                    ids = null;
+                });
             }
         });
         viewModel.getLanguage().observe(getViewLifecycleOwner(), lang ->
@@ -348,6 +676,7 @@ public class AlbumsFragment extends Fragment {
         recyclerView.setLayoutManager(layoutManager);
 
         adapter = new AlbumListAdapter();
+        adapter.setHasStableIds(true);
         recyclerView.setAdapter(adapter);
 
         SharedViewModel viewModel = new ViewModelProvider(requireActivity()).get(SharedViewModel.class);
@@ -360,15 +689,89 @@ public class AlbumsFragment extends Fragment {
         });
 
         ((AlbumListAdapter) adapter).setItemClickListener((v, item) -> {
+            if (actionMode != null) {
+                toggleSelection(item);
+                return;
+            }
+
             cursor.loadTracks(item.album);
             startActivityForResult(new Intent(context, AlbumView.class)
                     .putExtra(AlbumView.ALBUM_KEY, item.album)
                     .putExtra(AlbumView.MODE_KEY, AlbumView.MODE_VIEW), AlbumView.REQUEST_CODE);
         });
 
+        View filterBar = view.findViewById(R.id.ll_filter);
+        TextView filterText = view.findViewById(R.id.tv_filter);
+        filterText.setOnClickListener(v ->
+            new FilterDialogFragment().show(getParentFragmentManager(), null)
+        );
+        view.findViewById(R.id.ib_filter_clear).setOnClickListener(v -> viewModel.setFilter(null));
+        viewModel.getFilter().observe(getViewLifecycleOwner(), query -> {
+            filterBar.setVisibility(query == null ? View.GONE : View.VISIBLE);
+            if (query != null)
+                filterText.setText(describe(query));
+        });
+
         return view;
     }
 
+    /**
+     * Creates the human readable description of the filter shown above the album list.
+     *
+     * @param query the filter.
+     * @return the description of every condition of the filter.
+     */
+    private String describe(AlbumQuery query) {
+        List<String> items = new ArrayList<>();
+        describe(items, R.string.label_search, query.text == null ? null : "\"" + query.text + "\"", null);
+        describe(items, R.string.album_artist, query.artist, null);
+        describe(items, R.string.album_genre, query.genre, null);
+        describe(items, R.string.album_store, query.store, null);
+        describe(items, R.string.album_currency, query.currency, null);
+        describe(items, R.string.album_year,
+                query.yearFrom == null ? null : query.yearFrom.toString(),
+                query.yearTo == null ? "" : query.yearTo.toString());
+        describe(items, R.string.album_price,
+                query.priceFrom == null ? null : String.format(Locale.getDefault(), "%.2f", query.priceFrom),
+                query.priceTo == null ? "" : String.format(Locale.getDefault(), "%.2f", query.priceTo));
+        describe(items, R.string.album_date,
+                Utilities.toString(query.dateFrom),
+                query.dateTo == null ? "" : Utilities.toString(query.dateTo));
+        return TextUtils.join(", ", items);
+    }
+
+    /**
+     * Adds the description of the single condition of the filter.
+     *
+     * @param items the list of descriptions.
+     * @param name the name of the field.
+     * @param from the value or the lower bound of the range.
+     * @param to the upper bound of the range, an empty string if it's unbounded,
+     *        or {@code null} if the condition isn't a range.
+     */
+    private void describe(List<String> items, int name, String from, String to) {
+        if (TextUtils.isEmpty(from) && TextUtils.isEmpty(to))
+            return;
+
+        String value = to == null ? from
+                : getString(R.string.filter_range, from == null ? "" : from, to);
+        items.add(getString(R.string.filter_item, getString(name), value));
+    }
+
+    /**
+     * Called when the view previously created by {@link #onCreateView} has been detached from the fragment.
+     * Stops listening for the modifications of the collection.
+     */
+    @Override
+    public void onDestroyView() {
+        if (actionMode != null)
+            actionMode.finish();
+        databaseAdapter.removeChangeListener(changeListener);
+        executor.shutdown();
+        handler.removeCallbacksAndMessages(null);
+        super.onDestroyView();
+    }
+
     /**
      * Creates context menu used to choose between edition and deletion of the album.
      *
@@ -382,6 +785,12 @@ public class AlbumsFragment extends Fragment {
         super.onCreateContextMenu(menu, v, menuInfo);
         contextTarget = (AlbumListAdapter.ViewHolder) v.getTag();
 
+        // in the multi-selection mode the long click only toggles the selection
+        if (actionMode != null) {
+            toggleSelection(contextTarget);
+            return;
+        }
+
         new MenuInflater(context).inflate(R.menu.context_menu_album, menu);
         menu.setHeaderTitle(contextTarget.itemView.getContentDescription());
     }
@@ -407,20 +816,118 @@ public class AlbumsFragment extends Fragment {
                 builder.setMessage(getString(R.string.dialog_deletion_msg,
                         contextTarget.itemView.getContentDescription()));
                 builder.setPositiveButton(R.string.dialog_deletion_ok, (dialog, which) -> {
-                    boolean result = databaseAdapter.delete(contextTarget.album);
-                    viewModel.setCursor(databaseAdapter.getCursor(true));
-                    Toast.makeText(getActivity(), result ? R.string.msg_album_delete
-                            : R.string.error_generic, Toast.LENGTH_LONG).show();
+                    long id = contextTarget.album.id;
+                    if (databaseAdapter.delete(contextTarget.album) && getView() != null) {
+                        Snackbar.make(getView(), R.string.msg_album_delete, Snackbar.LENGTH_LONG)
+                                .setAction(R.string.action_undo, v -> databaseAdapter.restore(id))
+                                .show();
+                    } else {
+                        Toast.makeText(getActivity(), R.string.error_generic, Toast.LENGTH_LONG).show();
+                    }
                 });
                 builder.setNegativeButton(R.string.dialog_cancel, null);
                 AlertDialog dialog = builder.create();
                 dialog.show();
                 return true;
+            case R.id.menu_select:
+                actionMode = ((AppCompatActivity) requireActivity()).startSupportActionMode(selectionCallback);
+                toggleSelection(contextTarget);
+                return true;
             default:
                 return super.onContextItemSelected(item);
         }
     }
 
+    /**
+     * Adds the album into the selection or removes it, if it was already chosen.
+     * The multi-selection mode is closed when the last album is removed from the selection.
+     *
+     * @param holder the view holder of the album.
+     */
+    private void toggleSelection(AlbumListAdapter.ViewHolder holder) {
+        if (actionMode == null || holder.album == null)
+            return;
+
+        if (!selection.remove(holder.album.id))
+            selection.add(holder.album.id);
+        holder.updateSelection();
+
+        if (selection.isEmpty())
+            actionMode.finish();
+        else
+            actionMode.setTitle(getString(R.string.title_selected, selection.size()));
+    }
+
+    /**
+     * Gets the IDs of the chosen albums.
+     *
+     * @return IDs of the chosen albums.
+     */
+    private long[] getSelection() {
+        long[] ids = new long[selection.size()];
+        int i = 0;
+        for (long id : selection)
+            ids[i++] = id;
+        return ids;
+    }
+
+    /**
+     * Deletes every chosen album, allowing to undo it for a while.
+     */
+    private void deleteSelection() {
+        long[] ids = getSelection();
+        int count = databaseAdapter.delete(ids);
+        actionMode.finish();
+
+        if (getView() != null) {
+            Snackbar.make(getView(), getString(R.string.msg_albums_delete, count), Snackbar.LENGTH_LONG)
+                    .setAction(R.string.action_undo, v -> databaseAdapter.restore(ids))
+                    .show();
+        }
+    }
+
+    /**
+     * Asks for the new value of the field and sets it for every chosen album.
+     *
+     * @param title the name of the field.
+     * @param table the table used for the suggestions.
+     * @param column the column used for the suggestions.
+     * @param edit the operation saving the new value.
+     */
+    private void editSelection(int title, String table, String column, BulkEdit edit) {
+        AutoCompleteTextView input = new AutoCompleteTextView(context);
+        input.setSingleLine();
+        new DatabaseSuggestion(context, input, table, column);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(title);
+        builder.setView(input);
+        builder.setPositiveButton(R.string.dialog_save, (dialog, which) -> {
+            String value = input.getText().toString().trim();
+
+            if (column.equals(CurrencyEntry.COLUMN_NAME)) {
+                value = value.toUpperCase(Locale.ROOT);
+                try {
+                    Currency.getInstance(value);
+                } catch (IllegalArgumentException ex) {
+                    Toast.makeText(getActivity(), R.string.error_currency, Toast.LENGTH_LONG).show();
+                    return;
+                }
+            } else if (value.isEmpty() && !table.equals(StoreEntry.TABLE_NAME)) {
+                Toast.makeText(getActivity(), R.string.error_empty, Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            int count = selection.size();
+            edit.apply(value, getSelection());
+            if (actionMode != null)
+                actionMode.finish();
+            Toast.makeText(getActivity(), getString(R.string.msg_albums_edit, count), Toast.LENGTH_LONG).show();
+        });
+        builder.setNegativeButton(R.string.dialog_cancel, null);
+        builder.create().show();
+    }
+
     /**
      * If the editing of the album was successful then this function
      *  handles saving changes into the database.
@@ -437,7 +944,6 @@ public class AlbumsFragment extends Fragment {
             Album album = data.getParcelableExtra(AlbumView.ALBUM_KEY);
             if (album != null && data.getIntExtra(AlbumView.MODE_KEY, -1) == AlbumView.MODE_EDIT) {
                 boolean result = databaseAdapter.update(album);
-                viewModel.setCursor(databaseAdapter.getCursor(true));
                 Toast.makeText(getActivity(), result ? R.string.msg_album_edit
                         : R.string.error_generic, Toast.LENGTH_LONG).show();
             }
@@ -0,0 +1,225 @@
+package eu.tivian.musico.ui;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.database.SQLException;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.DialogFragment;
+import androidx.fragment.app.Fragment;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import eu.tivian.musico.R;
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.database.DatabaseAdapter;
+import eu.tivian.musico.net.Discogs;
+
+/**
+ * Dialog listing the albums found by the batch scanning, which allows to add the selected ones at once.
+ * <br>
+ * Every complete album is selected at first, the incomplete ones can't be selected, as they would be added
+ *  without the genre. The covers of the selected albums are downloaded first, then the albums are added
+ *  in a single transaction, purchased today in the currency of the user's locale, as the purchase can't be scanned.
+ */
+public class BatchReviewDialogFragment extends DialogFragment {
+    /**
+     * The key of the argument with the list of the found albums.
+     */
+    private static final String ALBUMS_KEY = "albums";
+
+    /**
+     * The currency used if the user's locale has none.
+     */
+    private static final String DEFAULT_CURRENCY = "USD";
+
+    /**
+     * Whether the album at the given position is selected.
+     */
+    private boolean[] checked;
+
+    /**
+     * Creates the dialog.
+     *
+     * @param albums the albums found by the batch scanning.
+     * @return the dialog.
+     */
+    public static BatchReviewDialogFragment newInstance(ArrayList<Album> albums) {
+        Bundle args = new Bundle();
+        args.putParcelableArrayList(ALBUMS_KEY, albums);
+
+        BatchReviewDialogFragment fragment = new BatchReviewDialogFragment();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    /**
+     * Creates the dialog with the list of the found albums.
+     *
+     * @param savedInstanceState if the dialog is being re-initialized after previously being
+     *        shut down then this Bundle contains the data it most recently supplied in
+     *        {@link #onSaveInstanceState(Bundle)}. This value may be {@code null}.
+     * @return a new {@link Dialog} instance to be displayed by the {@link Fragment}.
+     */
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        List<Album> albums = requireArguments().getParcelableArrayList(ALBUMS_KEY);
+        if (albums == null)
+            albums = new ArrayList<>();
+
+        checked = savedInstanceState != null ? savedInstanceState.getBooleanArray(ALBUMS_KEY) : null;
+        if (checked == null || checked.length != albums.size()) {
+            checked = new boolean[albums.size()];
+            for (int i = 0; i < checked.length; i++)
+                checked[i] = isComplete(albums.get(i));
+        }
+
+        String[] labels = new String[albums.size()];
+        for (int i = 0; i < labels.length; i++) {
+            Album album = albums.get(i);
+            labels[i] = getString(isComplete(album) ? R.string.batch_album : R.string.batch_album_incomplete,
+                album.artist, album.title);
+        }
+
+        final List<Album> found = albums;
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity())
+            .setNegativeButton(R.string.dialog_cancel, null);
+
+        if (found.isEmpty())
+            return builder.setTitle(R.string.title_batch_none).create();
+
+        return builder
+            .setTitle(getString(R.string.title_batch_review, found.size()))
+            .setMultiChoiceItems(labels, checked, (d, which, isChecked) -> {
+                if (isChecked && !isComplete(found.get(which))) {
+                    ((AlertDialog) d).getListView().setItemChecked(which, false);
+                    checked[which] = false;
+                    Toast.makeText(getActivity(), R.string.msg_batch_incomplete, Toast.LENGTH_SHORT).show();
+                } else {
+                    checked[which] = isChecked;
+                }
+            })
+            .setPositiveButton(R.string.dialog_add_selected, (d, which) -> add(found))
+            .create();
+    }
+
+    /**
+     * Saves the selection.
+     *
+     * @param outState {@link Bundle} in which to place the saved state.
+     */
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBooleanArray(ALBUMS_KEY, checked);
+    }
+
+    /**
+     * Checks whether the album has every field required by the album editor, except for the purchase.
+     *
+     * @param album the album.
+     * @return {@code true} if the album can be added as it is.
+     */
+    private static boolean isComplete(Album album) {
+        return !TextUtils.isEmpty(album.artist) && !TextUtils.isEmpty(album.title)
+            && !TextUtils.isEmpty(album.genre);
+    }
+
+    /**
+     * Gets the currency of the user's locale.
+     *
+     * @return ISO 4217 code of the currency.
+     */
+    private static String getDefaultCurrency() {
+        try {
+            return Currency.getInstance(Locale.getDefault()).getCurrencyCode();
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            // the locale without the country or the country without the currency
+            return DEFAULT_CURRENCY;
+        }
+    }
+
+    /**
+     * Downloads the missing covers of the selected albums, then adds the albums in a single transaction.
+     *
+     * @param albums the found albums.
+     */
+    private void add(List<Album> albums) {
+        List<Album> selected = new ArrayList<>();
+        List<Album> withoutCover = new ArrayList<>();
+        Date today = new Date();
+        String currency = getDefaultCurrency();
+        for (int i = 0; i < albums.size(); i++) {
+            Album album = albums.get(i);
+            if (!checked[i] || !isComplete(album))
+                continue;
+
+            if (album.purchase.date == null)
+                album.purchase.date = today;
+            if (TextUtils.isEmpty(album.purchase.currency))
+                album.purchase.currency = currency;
+            selected.add(album);
+            if (album.cover == null && !TextUtils.isEmpty(album.coverUrl))
+                withoutCover.add(album);
+        }
+        if (selected.isEmpty())
+            return;
+
+        // the dialog is dismissed at this point, so the work can't be bound to it
+        final Context context = requireActivity().getApplicationContext();
+        if (withoutCover.isEmpty()) {
+            insert(context, selected);
+            return;
+        }
+
+        // the callbacks are called on the UI thread, so the counter doesn't need the synchronization
+        final int[] pending = { withoutCover.size() };
+        for (Album album : withoutCover) {
+            Discogs.get().getCover(album.coverUrl, cover -> {
+                album.cover = cover;
+                if (--pending[0] == 0)
+                    insert(context, selected);
+            }, ex -> {
+                // the album is added without the cover rather than not at all
+                if (--pending[0] == 0)
+                    insert(context, selected);
+            });
+        }
+    }
+
+    /**
+     * Adds the albums in a single transaction, on the executor of the background database work.
+     *  The result is reported by the toast.
+     *
+     * @param context the application context.
+     * @param albums the albums to add.
+     */
+    private static void insert(Context context, List<Album> albums) {
+        final Handler main = new Handler(Looper.getMainLooper());
+        DatabaseAdapter adapter = DatabaseAdapter.get();
+        boolean queued = adapter.runInBackground(() -> {
+            try {
+                adapter.addAll(albums);
+                main.post(() -> Toast.makeText(context,
+                    context.getString(R.string.msg_albums_add, albums.size()), Toast.LENGTH_LONG).show());
+            } catch (SQLException ex) {
+                ex.printStackTrace();
+                main.post(() -> Toast.makeText(context, R.string.error_albums_add, Toast.LENGTH_LONG).show());
+            }
+        });
+
+        if (!queued)
+            Toast.makeText(context, R.string.error_albums_add, Toast.LENGTH_LONG).show();
+    }
+}
@@ -1,22 +1,54 @@
 package eu.tivian.musico.ui;
 
 import android.app.Activity;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.view.KeyEvent;
+import android.view.View;
+import android.widget.Button;
 
 import androidx.annotation.NonNull;
 
+import com.journeyapps.barcodescanner.BarcodeResult;
 import com.journeyapps.barcodescanner.CaptureManager;
 import com.journeyapps.barcodescanner.DecoratedBarcodeView;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import eu.tivian.musico.R;
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.net.Discogs;
+import eu.tivian.musico.net.Request;
 
 /**
  * Custom scanner activity extending from {@link Activity} to display a custom layout form scanner view.
+ * <br>
+ * In the batch mode the scanner keeps scanning, the scanned barcodes are looked up in the background
+ *  while the next ones are scanned. The found albums are returned together, under the {@link #ALBUMS_KEY}.
+ *  The lookups go through the rate limited {@link Discogs} workers, so the search of one barcode
+ *  overlaps the download of the release found for the other.
  */
 public class CustomScannerActivity extends Activity implements
         DecoratedBarcodeView.TorchListener {
+    /**
+     * The key of the extra enabling the batch mode.
+     */
+    public static final String BATCH_KEY = "batch";
+
+    /**
+     * The key of the extra with the list of the albums found in the batch mode.
+     */
+    public static final String ALBUMS_KEY = "albums";
+
+    /**
+     * The request code of the scanner started in the batch mode.
+     */
+    public static final int REQUEST_CODE = 0x5ca4;
+
     /**
      * Manages barcode scanning for a CaptureActivity.
      */
@@ -27,6 +59,36 @@ public class CustomScannerActivity extends Activity implements
      */
     private DecoratedBarcodeView barcodeScannerView;
 
+    /**
+     * The barcodes already scanned in the batch mode, each is looked up only once.
+     */
+    private final Set<String> scanned = new HashSet<>();
+
+    /**
+     * The albums found in the batch mode.
+     */
+    private final ArrayList<Album> found = new ArrayList<>();
+
+    /**
+     * The lookups of the scanned barcodes, cancelled when the activity is destroyed.
+     */
+    private final List<Request> requests = new ArrayList<>();
+
+    /**
+     * Number of the lookups in progress.
+     */
+    private int pending;
+
+    /**
+     * Number of the barcodes without any album.
+     */
+    private int failed;
+
+    /**
+     * Whether the user finished scanning and the activity only waits for the {@link #pending} lookups.
+     */
+    private boolean finishing;
+
     /**
      * Creates and initializes the UI for the activity.
      *
@@ -48,7 +110,85 @@ public class CustomScannerActivity extends Activity implements
         capture = new CaptureManager(this, barcodeScannerView);
         capture.initializeFromIntent(getIntent(), savedInstanceState);
         capture.setShowMissingCameraPermissionDialog(false);
-        capture.decode();
+
+        if (getIntent().getBooleanExtra(BATCH_KEY, false)) {
+            Button done = findViewById(R.id.scanner_done);
+            done.setVisibility(View.VISIBLE);
+            done.setOnClickListener(v -> finishBatch());
+            barcodeScannerView.decodeContinuous(this::onBarcode);
+        } else {
+            capture.decode();
+        }
+    }
+
+    /**
+     * Looks up the barcode scanned in the batch mode, unless it was already scanned.
+     *
+     * @param result the scanned barcode.
+     */
+    private void onBarcode(BarcodeResult result) {
+        String barcode = result.getText();
+        if (finishing || barcode == null || !scanned.add(barcode))
+            return;
+
+        pending++;
+        requests.add(Discogs.get().getAlbum(barcode, album -> {
+            found.add(album);
+            onLookup();
+        }, ex -> {
+            failed++;
+            onLookup();
+        }));
+        updateStatus();
+    }
+
+    /**
+     * Called after the lookup of the barcode finished.
+     */
+    private void onLookup() {
+        pending--;
+        updateStatus();
+        if (finishing && pending == 0)
+            deliver();
+    }
+
+    /**
+     * Shows the progress of the batch.
+     */
+    private void updateStatus() {
+        barcodeScannerView.setStatusText(getString(R.string.scan_batch_status, found.size(), pending, failed));
+    }
+
+    /**
+     * Stops scanning and returns the found albums as soon as every lookup finished.
+     */
+    private void finishBatch() {
+        if (finishing)
+            return;
+
+        finishing = true;
+        barcodeScannerView.pause();
+        if (pending == 0)
+            deliver();
+    }
+
+    /**
+     * Returns the found albums to the caller.
+     */
+    private void deliver() {
+        setResult(RESULT_OK, new Intent().putParcelableArrayListExtra(ALBUMS_KEY, found));
+        finish();
+    }
+
+    /**
+     * Finishes the batch instead of dropping it, so the already scanned albums aren't lost.
+     */
+    @Override
+    public void onBackPressed() {
+        if (getIntent().getBooleanExtra(BATCH_KEY, false))
+            finishBatch();
+        else
+            super.onBackPressed();
     }
 
     /**
@@ -78,6 +218,8 @@ public class CustomScannerActivity extends Activity implements
     protected void onDestroy() {
         super.onDestroy();
         capture.onDestroy();
+        for (Request request : requests)
+            request.cancel();
     }
 
     /**
@@ -0,0 +1,153 @@
+package eu.tivian.musico.ui;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.database.SQLException;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ArrayAdapter;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.DialogFragment;
+import androidx.fragment.app.Fragment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import eu.tivian.musico.R;
+import eu.tivian.musico.database.DatabaseAdapter;
+import eu.tivian.musico.database.DuplicateFinder;
+
+/**
+ * Dialog listing the near-duplicate artists and albums, which allows to merge them.
+ * <br>
+ * The duplicates are searched in the background when the dialog is shown.
+ */
+public class DuplicatesDialogFragment extends DialogFragment {
+    /**
+     * Executor used to search for the duplicates and merge them.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Handler used to show the results on the UI thread.
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The found groups of duplicates.
+     */
+    private final List<DuplicateFinder.Group> groups = new ArrayList<>();
+
+    /**
+     * The labels of the {@link #groups} shown in the dialog.
+     */
+    private ArrayAdapter<String> adapter;
+
+    /**
+     * Creates the dialog and starts searching for the duplicates.
+     *
+     * @param savedInstanceState always {@code null}.
+     * @return a new {@link Dialog} instance to be displayed by the {@link Fragment}.
+     */
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        adapter = new ArrayAdapter<>(requireActivity(), android.R.layout.simple_list_item_1);
+
+        AlertDialog dialog = new AlertDialog.Builder(getActivity())
+            .setTitle(R.string.title_duplicates_search)
+            .setAdapter(adapter, (d, which) -> confirm(groups.get(which)))
+            .setNegativeButton(R.string.dialog_cancel, null)
+            .setPositiveButton(R.string.dialog_merge_all, (d, which) -> merge(new ArrayList<>(groups)))
+            .create();
+
+        dialog.setOnShowListener(d -> {
+            dialog.getButton(DialogInterface.BUTTON_POSITIVE).setEnabled(false);
+            executor.execute(() -> {
+                List<DuplicateFinder.Group> found = new DuplicateFinder(DatabaseAdapter.get()).find();
+                handler.post(() -> show(dialog, found));
+            });
+        });
+
+        return dialog;
+    }
+
+    /**
+     * Stops the search if the dialog was closed before it finished.
+     */
+    @Override
+    public void onDestroy() {
+        handler.removeCallbacksAndMessages(null);
+        executor.shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * Shows the found groups of duplicates.
+     *
+     * @param dialog the dialog.
+     * @param found the groups of duplicates.
+     */
+    private void show(AlertDialog dialog, List<DuplicateFinder.Group> found) {
+        groups.clear();
+        groups.addAll(found);
+
+        adapter.clear();
+        for (DuplicateFinder.Group group : groups) {
+            adapter.add(getString(group.kind == DuplicateFinder.Kind.ARTIST
+                ? R.string.duplicate_artist : R.string.duplicate_album, group.label, group.ids.length));
+        }
+
+        dialog.setTitle(groups.isEmpty() ? getString(R.string.title_duplicates_none)
+            : getString(R.string.title_duplicates, groups.size()));
+        dialog.getButton(DialogInterface.BUTTON_POSITIVE).setEnabled(!groups.isEmpty());
+    }
+
+    /**
+     * Asks whether the single group should be merged.
+     *
+     * @param group the group of duplicates.
+     */
+    private void confirm(DuplicateFinder.Group group) {
+        new AlertDialog.Builder(getActivity())
+            .setMessage(getString(R.string.dialog_merge_msg, group.ids.length, group.label))
+            .setNegativeButton(R.string.dialog_cancel, null)
+            .setPositiveButton(R.string.dialog_merge, (d, which) -> merge(Collections.singletonList(group)))
+            .show();
+    }
+
+    /**
+     * Merges the groups of duplicates in a single transaction, on the executor of the background database work.
+     *  The result is reported by the toast.
+     *
+     * @param merged the groups to be merged.
+     */
+    private void merge(List<DuplicateFinder.Group> merged) {
+        final Context context = requireActivity().getApplicationContext();
+        final Handler main = new Handler(Looper.getMainLooper());
+        DatabaseAdapter adapter = DatabaseAdapter.get();
+
+        // the dialog is dismissed at this point, so its executor can't be used
+        boolean queued = adapter.runInBackground(() -> {
+            try {
+                int count = adapter.merge(merged);
+                main.post(() -> Toast.makeText(context,
+                    context.getString(R.string.msg_merged, count), Toast.LENGTH_LONG).show());
+            } catch (SQLException ex) {
+                ex.printStackTrace();
+                main.post(() -> Toast.makeText(context, R.string.error_merge, Toast.LENGTH_LONG).show());
+            }
+        });
+
+        if (!queued)
+            Toast.makeText(context, R.string.error_merge, Toast.LENGTH_LONG).show();
+    }
+}
@@ -0,0 +1,210 @@
+package eu.tivian.musico.ui;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AutoCompleteTextView;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.DialogFragment;
+import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import eu.tivian.musico.R;
+import eu.tivian.musico.SharedViewModel;
+import eu.tivian.musico.database.AlbumQuery;
+import eu.tivian.musico.database.DatabaseSuggestion;
+import eu.tivian.musico.utility.Utilities;
+
+import static eu.tivian.musico.database.DatabaseContract.ArtistEntry;
+import static eu.tivian.musico.database.DatabaseContract.CurrencyEntry;
+import static eu.tivian.musico.database.DatabaseContract.GenreEntry;
+import static eu.tivian.musico.database.DatabaseContract.StoreEntry;
+
+/**
+ * Dialog used to filter the album list.
+ */
+public class FilterDialogFragment extends DialogFragment {
+    /**
+     * The searched text.
+     */
+    private EditText text;
+
+    /**
+     * Name of the artist.
+     */
+    private AutoCompleteTextView artist;
+
+    /**
+     * Musical genre.
+     */
+    private AutoCompleteTextView genre;
+
+    /**
+     * Name of the store.
+     */
+    private AutoCompleteTextView store;
+
+    /**
+     * Currency of the purchase.
+     */
+    private AutoCompleteTextView currency;
+
+    /**
+     * The lowest year of the release.
+     */
+    private EditText yearFrom;
+
+    /**
+     * The highest year of the release.
+     */
+    private EditText yearTo;
+
+    /**
+     * The lowest price.
+     */
+    private EditText priceFrom;
+
+    /**
+     * The highest price.
+     */
+    private EditText priceTo;
+
+    /**
+     * The earliest date of the purchase.
+     */
+    private EditText dateFrom;
+
+    /**
+     * The latest date of the purchase.
+     */
+    private EditText dateTo;
+
+    /**
+     * Creates the filter dialog, filled with the currently used filter.
+     *
+     * @param savedInstanceState always {@code null}.
+     * @return a new {@link Dialog} instance to be displayed by the {@link Fragment}.
+     */
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        LayoutInflater inflater = requireActivity().getLayoutInflater();
+        View view = inflater.inflate(R.layout.dialog_filter, null);
+
+        text = view.findViewById(R.id.et_filter_text);
+        artist = view.findViewById(R.id.actv_filter_artist);
+        genre = view.findViewById(R.id.actv_filter_genre);
+        store = view.findViewById(R.id.actv_filter_store);
+        currency = view.findViewById(R.id.actv_filter_currency);
+        yearFrom = view.findViewById(R.id.et_filter_year_from);
+        yearTo = view.findViewById(R.id.et_filter_year_to);
+        priceFrom = view.findViewById(R.id.et_filter_price_from);
+        priceTo = view.findViewById(R.id.et_filter_price_to);
+        dateFrom = view.findViewById(R.id.et_filter_date_from);
+        dateTo = view.findViewById(R.id.et_filter_date_to);
+
+        final SharedViewModel viewModel = new ViewModelProvider(requireActivity()).get(SharedViewModel.class);
+        AlbumQuery query = viewModel.getFilter().getValue();
+        if (query != null) {
+            text.setText(query.text);
+            artist.setText(query.artist);
+            genre.setText(query.genre);
+            store.setText(query.store);
+            currency.setText(query.currency);
+            yearFrom.setText(toString(query.yearFrom));
+            yearTo.setText(toString(query.yearTo));
+            priceFrom.setText(toString(query.priceFrom));
+            priceTo.setText(toString(query.priceTo));
+            dateFrom.setText(Utilities.toString(query.dateFrom));
+            dateTo.setText(Utilities.toString(query.dateTo));
+        }
+
+        new DatabaseSuggestion(getActivity(), artist, ArtistEntry.TABLE_NAME, ArtistEntry.COLUMN_NAME);
+        new DatabaseSuggestion(getActivity(), genre, GenreEntry.TABLE_NAME, GenreEntry.COLUMN_NAME);
+        new DatabaseSuggestion(getActivity(), store, StoreEntry.TABLE_NAME, StoreEntry.COLUMN_NAME);
+        new DatabaseSuggestion(getActivity(), currency, CurrencyEntry.TABLE_NAME, CurrencyEntry.COLUMN_NAME);
+
+        builder.setView(view).setTitle(R.string.title_filter)
+           .setNegativeButton(R.string.dialog_cancel, null)
+           .setNeutralButton(R.string.text_clear, (dialog, which) -> viewModel.setFilter(null))
+           .setPositiveButton(R.string.dialog_apply, (dialog, which) -> {
+               AlbumQuery filter = readQuery();
+               if (filter != null)
+                   viewModel.setFilter(filter);
+        });
+
+        return builder.create();
+    }
+
+    /**
+     * Reads the filter from the input fields.
+     *
+     * @return the filter or {@code null} if any of the fields is invalid.
+     */
+    private AlbumQuery readQuery() {
+        AlbumQuery query = new AlbumQuery();
+        query.text = getText(text);
+        query.artist = getText(artist);
+        query.genre = getText(genre);
+        query.store = getText(store);
+        query.currency = getText(currency);
+        if (query.currency != null)
+            query.currency = query.currency.toUpperCase(Locale.ROOT);
+
+        try {
+            query.yearFrom = getText(yearFrom) == null ? null : Integer.valueOf(getText(yearFrom));
+            query.yearTo = getText(yearTo) == null ? null : Integer.valueOf(getText(yearTo));
+            query.priceFrom = getText(priceFrom) == null ? null : Double.valueOf(getText(priceFrom).replace(',', '.'));
+            query.priceTo = getText(priceTo) == null ? null : Double.valueOf(getText(priceTo).replace(',', '.'));
+        } catch (NumberFormatException ex) {
+            Toast.makeText(getActivity(), R.string.error_number, Toast.LENGTH_LONG).show();
+            return null;
+        }
+
+        String from = getText(dateFrom);
+        String to = getText(dateTo);
+        query.dateFrom = from == null ? null : Utilities.parseDate(from);
+        query.dateTo = to == null ? null : Utilities.parseDate(to);
+        if ((from != null && query.dateFrom == null) || (to != null && query.dateTo == null)) {
+            Toast.makeText(getActivity(), R.string.error_date, Toast.LENGTH_LONG).show();
+            return null;
+        }
+
+        // the whole last day is included
+        if (query.dateTo != null)
+            query.dateTo = new Date(query.dateTo.getTime() + TimeUnit.DAYS.toMillis(1) - 1);
+
+        return query;
+    }
+
+    /**
+     * Gets the trimmed text of the input field.
+     *
+     * @param editText the input field.
+     * @return the text or {@code null} if the field is empty.
+     */
+    private static String getText(EditText editText) {
+        String text = editText.getText().toString().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Converts the number into the text of the input field.
+     *
+     * @param number the number.
+     * @return the text or an empty string if the number is {@code null}.
+     */
+    private static String toString(Number number) {
+        return number == null ? "" : number.toString();
+    }
+}
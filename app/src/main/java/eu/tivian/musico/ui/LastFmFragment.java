@@ -189,7 +189,7 @@ public class LastFmFragment extends Fragment {
         viewModel = new ViewModelProvider(requireActivity()).get(SharedViewModel.class);
         viewModel.getUsername().observe(getViewLifecycleOwner(), login -> {
             if (login != null) {
-                LastFm.get().getUser(login, this::setUserInfo);
+                LastFm.get().getUser(login, this::setUserInfo).bindTo(getViewLifecycleOwner());
                 update(login);
             }
         });
@@ -248,8 +248,10 @@ public class LastFmFragment extends Fragment {
     private void update(String username) {
         final LastFm lastFm = LastFm.get();
         lastFm.getTopArtists(username, TOP_ARTIST_COUNT, artists ->
-                viewModel.setStat(String.valueOf(FRAGMENTS[0]), artists.second));
+                viewModel.setStat(String.valueOf(FRAGMENTS[0]), artists.second))
+            .bindTo(getViewLifecycleOwner());
         lastFm.getRecentTracks(username, tracks ->
-                viewModel.setStat(String.valueOf(FRAGMENTS[1]), tracks.second));
+                viewModel.setStat(String.valueOf(FRAGMENTS[1]), tracks.second))
+            .bindTo(getViewLifecycleOwner());
     }
 }
@@ -239,7 +239,8 @@ public class LastFmStatsFragment extends Fragment {
         textView.setSelected(true);
 
         SharedViewModel viewModel = new ViewModelProvider(requireActivity()).get(SharedViewModel.class);
-        viewModel.getStats().observe(requireActivity(), map -> {
+        // bound to the view, so the image requests below are never bound to the destroyed one
+        viewModel.getStats().observe(getViewLifecycleOwner(), map -> {
             String key = String.valueOf(labelId);
             if (map.containsKey(key)) {
                 list = (List) map.get(key);
@@ -257,7 +258,7 @@ public class LastFmStatsFragment extends Fragment {
 
                                 if (count.addAndGet(1) == size)
                                     adapter.notifyDataSetChanged();
-                            });
+                            }).bindTo(getViewLifecycleOwner());
                         }
                     }
                 } else {
@@ -123,7 +123,8 @@ public class StatisticsFragment extends Fragment {
         List<Pair<Integer, SimpleStatement>> list = new ArrayList<>();
 
         list.add(Pair.create(R.string.stat_album_count, new SimpleStatement(
-            "SELECT COUNT(*) FROM " + AlbumEntry.TABLE_NAME)));
+            "SELECT COUNT(*) FROM " + AlbumEntry.TABLE_NAME + " " +
+            "WHERE " + AlbumEntry.COLUMN_DELETED + " IS NULL")));
         list.add(Pair.create(R.string.stat_artist_count, new SimpleStatement(
             "SELECT COUNT(*) FROM " + ArtistEntry.TABLE_NAME)));
         list.add(Pair.create(R.string.stat_song_count, new SimpleStatement(
@@ -0,0 +1,132 @@
+package eu.tivian.musico.utility;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process registry of the named counters, describing the work done by the application in the background.
+ * <br>
+ * The values live only as long as the process, they're meant for the diagnostics, not for the statistics
+ *  shown to the user, and they're read from the system log written by the {@link #log(String)}.
+ *  Every method is thread-safe.
+ */
+public final class Metrics {
+    /**
+     * The suffix of the counter with the number of the timed runs.
+     */
+    public static final String SUFFIX_COUNT = ".count";
+
+    /**
+     * The suffix of the counter with the total time of the timed runs, in milliseconds.
+     */
+    public static final String SUFFIX_TIME = ".ms";
+
+    /**
+     * The counters by their names.
+     */
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Static class, no instances allowed.
+     */
+    private Metrics() {}
+
+    /**
+     * Gets the counter, creating it if needed.
+     *
+     * @param name the name of the counter.
+     * @return the counter.
+     */
+    private static AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null)
+                counter = created;
+        }
+        return counter;
+    }
+
+    /**
+     * Adds the value to the counter.
+     *
+     * @param name the name of the counter.
+     * @param delta the added value.
+     */
+    public static void add(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    /**
+     * Sets the counter to the current value of the measured quantity, like the size of the file.
+     *
+     * @param name the name of the counter.
+     * @param value the current value.
+     */
+    public static void set(String name, long value) {
+        counter(name).set(value);
+    }
+
+    /**
+     * Gets the time used as the start of the run measured by the {@link #time(String, long)}.
+     *
+     * @return the current time in milliseconds, unaffected by the changes of the wall clock.
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Records the finished run, increasing the {@link #SUFFIX_COUNT} counter
+     *  and adding its duration to the {@link #SUFFIX_TIME} counter.
+     *
+     * @param name the name of the measured work.
+     * @param start the time returned by the {@link #start()} at the beginning of the run.
+     * @return the duration of the run in milliseconds.
+     */
+    public static long time(String name, long start) {
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        add(name + SUFFIX_COUNT, 1);
+        add(name + SUFFIX_TIME, elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Gets the value of the counter.
+     *
+     * @param name the name of the counter.
+     * @return the value, {@code 0} if nothing was recorded yet.
+     */
+    public static long get(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Gets the values of every counter.
+     *
+     * @return the values sorted by the names of the counters.
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        return snapshot;
+    }
+
+    /**
+     * Writes the values of every counter into the system log, one counter per line.
+     *
+     * @param tag the tag of the log messages.
+     */
+    public static void log(String tag) {
+        for (Map.Entry<String, Long> entry : snapshot().entrySet())
+            Log.i(tag, entry.getKey() + " = " + entry.getValue());
+    }
+}
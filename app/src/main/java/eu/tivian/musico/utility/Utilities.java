@@ -13,7 +13,6 @@ import android.util.JsonReader;
 import android.view.View;
 import android.widget.ImageView;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -21,11 +20,16 @@ import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 /**
  * Variety of helping utility functions.
@@ -43,6 +47,14 @@ public class Utilities {
      * The default quality for the JPEG saved cover arts.
      */
     private static final int DEFAULT_QUALITY = 80;
+    /**
+     * Matches the combining marks left after the canonical decomposition of the text.
+     */
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    /**
+     * Matches every sequence of characters which are neither letters nor digits.
+     */
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
 
     /**
      * Gets the dimensions of the phone screen.
@@ -92,6 +104,16 @@ public class Utilities {
                     getRelativeTop((View) view.getParent()));
     }
 
+    /**
+     * Parses the string into the {@link Date} object using default date format.
+     *
+     * @param date the text formatted as "dd/MM/yy".
+     * @return parsed date or {@code null} if the format was invalid.
+     */
+    public static Date parseDate(String date) {
+        return parseDate(date, DATE_PATTERN);
+    }
+
     /**
      * Parses the string into the {@link Date} object.
      *
@@ -131,6 +153,51 @@ public class Utilities {
                 : new SimpleDateFormat(pattern, Locale.getDefault()).format(date);
     }
 
+    /**
+     * Normalizes the text for the purpose of searching and comparing.
+     * <br>
+     * The text is decomposed, stripped of diacritics and lowercased,
+     *  so "Możdżer" and "mozdzer" are equal. Punctuation is replaced by single spaces.
+     *
+     * @param text the text to normalize.
+     * @return the normalized text or an empty string if {@code text} was {@code null}.
+     */
+    public static String normalize(String text) {
+        if (text == null)
+            return "";
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String stripped = COMBINING_MARKS.matcher(decomposed).replaceAll("")
+            // letters with a stroke have no canonical decomposition
+            .replace('ł', 'l').replace('Ł', 'L')
+            .replace('đ', 'd').replace('Đ', 'D')
+            .replace('ø', 'o').replace('Ø', 'O');
+
+        return SEPARATORS.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * Computes the SHA-1 hash of the data, e.g. of the cover art.
+     *
+     * @param data the data.
+     * @return the hash in hexadecimal or {@code null} if {@code data} was {@code null}.
+     */
+    public static String hash(byte[] data) {
+        if (data == null)
+            return null;
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // every platform is required to support SHA-1
+            throw new IllegalStateException(ex);
+        }
+    }
+
     /**
      * Gets current time in milliseconds.
      *
@@ -267,7 +334,8 @@ public class Utilities {
      * @return the JSON reader.
      */
     public static JsonReader getReader(InputStream stream) {
-        return new JsonReader(new BufferedReader(new InputStreamReader(stream)));
+        // the reader buffers the characters and the decoder buffers the bytes, so another buffer isn't needed
+        return new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
     }
 
     /**
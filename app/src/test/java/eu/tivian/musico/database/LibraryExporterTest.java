@@ -0,0 +1,224 @@
+package eu.tivian.musico.database;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.data.Duration;
+import eu.tivian.musico.data.Song;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Exports the collection by the {@link LibraryExporter} and imports it by the {@link LibraryImporter}
+ *  into the other database, in every supported format.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LibraryExporterTest {
+    /**
+     * The title which has to be quoted in the CSV and escaped in the JSON.
+     */
+    private static final String QUOTED_TITLE = "Live, \"Unplugged\"\nVol. 1";
+
+    /**
+     * Directory for the cover art side files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The database which is exported.
+     */
+    private DatabaseAdapter source;
+
+    /**
+     * The database into which the collection is imported.
+     */
+    private DatabaseAdapter target;
+
+    /**
+     * The album with the cover larger than a single base64 chunk.
+     */
+    private Album quoted;
+
+    /**
+     * Opens both databases and fills the exported one.
+     */
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        source = DatabaseAdapter.open(context, "source.db");
+        target = DatabaseAdapter.open(context, "target.db");
+
+        quoted = album(QUOTED_TITLE);
+        quoted.artist = "Crosby, Stills & Nash";
+        quoted.purchase.store = "Records, \"Main\" St.";
+        quoted.tracks.add(new Song("Suite, Part 1", Duration.from("7:25")));
+        quoted.tracks.add(new Song("\"Quoted\"", Duration.from("3:05")));
+        quoted.cover = new byte[100_000];
+        for (int i = 0; i < quoted.cover.length; i++)
+            quoted.cover[i] = (byte) (i * 31);
+        source.add(quoted);
+
+        Album plain = album("Plain");
+        plain.purchase.date = null;
+        source.add(plain);
+    }
+
+    /**
+     * Closes both databases.
+     */
+    @After
+    public void tearDown() {
+        source.close();
+        target.close();
+    }
+
+    /**
+     * The JSON with the embedded covers keeps every field.
+     */
+    @Test
+    public void roundTripsJson() throws IOException {
+        roundTrip(LibraryExporter.Format.JSON, null);
+    }
+
+    /**
+     * The JSON with the covers in the side files keeps every field.
+     */
+    @Test
+    public void roundTripsJsonWithCoverFiles() throws IOException {
+        roundTrip(LibraryExporter.Format.JSON, folder.newFolder("covers"));
+    }
+
+    /**
+     * The CSV with the embedded covers keeps every field, including the cells with commas, quotes and newlines.
+     */
+    @Test
+    public void roundTripsCsv() throws IOException {
+        roundTrip(LibraryExporter.Format.CSV, null);
+    }
+
+    /**
+     * The CSV with the covers in the side files keeps every field.
+     */
+    @Test
+    public void roundTripsCsvWithCoverFiles() throws IOException {
+        roundTrip(LibraryExporter.Format.CSV, folder.newFolder("covers"));
+    }
+
+    /**
+     * The CSV without the required column is rejected.
+     */
+    @Test(expected = IOException.class)
+    public void rejectsCsvWithoutRequiredColumn() throws IOException {
+        byte[] csv = "artist,title,year\r\nArtist,Title,2000\r\n".getBytes(StandardCharsets.UTF_8);
+        new LibraryImporter(target, LibraryExporter.Format.CSV, null).importFrom(new ByteArrayInputStream(csv));
+    }
+
+    /**
+     * The quoted cell may end the file without the line break, and the doubled quote stands for a single one.
+     */
+    @Test
+    public void parsesLastRowWithoutLineBreak() throws IOException {
+        byte[] csv = ("artist,title,year,genre,currency\r\n" +
+            "\"The \"\"Band\"\"\",\"A, B\",1999,Rock,EUR").getBytes(StandardCharsets.UTF_8);
+        assertEquals(1, new LibraryImporter(target, LibraryExporter.Format.CSV, null)
+            .importFrom(new ByteArrayInputStream(csv)));
+
+        Album album = find(target, "A, B");
+        assertEquals("The \"Band\"", album.artist);
+        assertEquals(1999, album.year);
+    }
+
+    /**
+     * Exports the source database and imports it into the target one, then compares the albums.
+     *
+     * @param format the format.
+     * @param coverDir directory for the cover art side files or {@code null} if the covers are embedded.
+     * @throws IOException if any I/O error occurred.
+     */
+    private void roundTrip(LibraryExporter.Format format, File coverDir) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, new LibraryExporter(source, format, coverDir).export(out));
+        assertEquals(2, new LibraryImporter(target, format, coverDir)
+            .importFrom(new ByteArrayInputStream(out.toByteArray())));
+
+        Album album = find(target, QUOTED_TITLE);
+        assertEquals(quoted.artist, album.artist);
+        assertEquals(quoted.year, album.year);
+        assertEquals(quoted.genre, album.genre);
+        assertEquals(quoted.purchase.date, album.purchase.date);
+        assertEquals(quoted.purchase.store, album.purchase.store);
+        assertEquals(quoted.purchase.price, album.purchase.price, 0);
+        assertEquals(quoted.purchase.currency, album.purchase.currency);
+        assertArrayEquals(quoted.cover, album.cover);
+        assertEquals(2, album.tracks.size());
+        for (int i = 0; i < album.tracks.size(); i++) {
+            assertEquals(quoted.tracks.get(i).title, album.tracks.get(i).title);
+            assertEquals(quoted.tracks.get(i).duration.toSeconds(), album.tracks.get(i).duration.toSeconds());
+        }
+
+        album = find(target, "Plain");
+        assertNull(album.cover);
+        assertNull(album.purchase.store);
+        assertEquals(0, album.tracks.size());
+    }
+
+    /**
+     * Creates the album bought at the fixed date.
+     *
+     * @param title the title of the album.
+     * @return the album.
+     */
+    private static Album album(String title) {
+        Album album = new Album();
+        album.artist = "Artist";
+        album.title = title;
+        album.year = 2000;
+        album.genre = "Rock";
+        album.purchase.date = new Date(86_400_000L);
+        album.purchase.price = 12.5;
+        album.purchase.currency = "PLN";
+        return album;
+    }
+
+    /**
+     * Finds the listed album by its title, together with its track list.
+     *
+     * @param adapter the database.
+     * @param title the title of the album.
+     * @return the album or {@code null} if it isn't listed.
+     */
+    private static Album find(DatabaseAdapter adapter, String title) {
+        try (AlbumCursor c = adapter.getCursor()) {
+            while (c.moveToNext()) {
+                Album album = c.getAlbum();
+                if (title.equals(album.title)) {
+                    c.loadTracks(album);
+                    return album;
+                }
+            }
+        }
+        return null;
+    }
+}
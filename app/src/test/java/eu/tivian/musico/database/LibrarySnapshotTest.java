@@ -0,0 +1,192 @@
+package eu.tivian.musico.database;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.data.Duration;
+import eu.tivian.musico.data.Song;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes the {@link LibrarySnapshot} of one database and restores it into the other one.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LibrarySnapshotTest {
+    /**
+     * The tag of the section with the artists, as written by the {@link LibrarySnapshot}.
+     */
+    private static final byte SECTION_ARTIST = 1;
+
+    /**
+     * The database which is saved.
+     */
+    private DatabaseAdapter source;
+
+    /**
+     * The database into which the snapshot is restored.
+     */
+    private DatabaseAdapter target;
+
+    /**
+     * Opens both databases.
+     */
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        source = DatabaseAdapter.open(context, "source.db");
+        target = DatabaseAdapter.open(context, "target.db");
+    }
+
+    /**
+     * Closes both databases.
+     */
+    @After
+    public void tearDown() {
+        source.close();
+        target.close();
+    }
+
+    /**
+     * The restored collection replaces the previous one and has every field of the saved albums.
+     */
+    @Test
+    public void restoresWrittenCollection() throws IOException {
+        Album first = album("First", "Rock");
+        first.cover = new byte[] { 1, 2, 3 };
+        first.tracks.add(new Song("Intro", Duration.from("1:05")));
+        first.tracks.add(new Song("Outro", Duration.from("4:30")));
+        source.add(first);
+
+        Album second = album("Second", "Jazz");
+        second.cover = first.cover;
+        second.purchase.store = "Shop";
+        source.add(second);
+
+        Album deleted = album("Deleted", "Rock");
+        source.add(deleted);
+        source.delete(deleted);
+
+        target.add(album("Replaced", "Blues"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, LibrarySnapshot.write(source, out));
+        assertEquals(2, LibrarySnapshot.restore(target, new ByteArrayInputStream(out.toByteArray())));
+
+        Album restored = find(target, "First");
+        assertEquals("Artist", restored.artist);
+        assertEquals(2000, restored.year);
+        assertEquals("Rock", restored.genre);
+        assertArrayEquals(first.cover, restored.cover);
+        assertEquals(10, restored.purchase.price, 0);
+        assertEquals("EUR", restored.purchase.currency);
+        assertEquals(2, restored.tracks.size());
+        assertEquals("Intro", restored.tracks.get(0).title);
+        assertEquals(Duration.from("4:30").toSeconds(), restored.tracks.get(1).duration.toSeconds());
+
+        restored = find(target, "Second");
+        assertEquals("Jazz", restored.genre);
+        assertEquals("Shop", restored.purchase.store);
+        assertArrayEquals(first.cover, restored.cover);
+
+        assertNull(find(target, "Deleted"));
+        assertNull(find(target, "Replaced"));
+    }
+
+    /**
+     * The string longer than its record fails the restore, which leaves the collection untouched.
+     */
+    @Test
+    public void rejectsStringPastTheRecord() throws IOException {
+        target.add(album("Kept", "Rock"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(LibrarySnapshot.MAGIC);
+        out.writeInt(LibrarySnapshot.VERSION);
+        out.writeByte(SECTION_ARTIST);
+        // the record with the ID and the length of the name, but without the name
+        out.writeInt(Long.BYTES + Integer.BYTES);
+        out.writeLong(1);
+        out.writeInt(1000);
+        out.flush();
+
+        try {
+            LibrarySnapshot.restore(target, new ByteArrayInputStream(bytes.toByteArray()));
+            fail("The corrupt snapshot was restored");
+        } catch (IOException expected) {
+            // the snapshot is malformed
+        }
+
+        assertEquals("Rock", find(target, "Kept").genre);
+    }
+
+    /**
+     * The stream which isn't a snapshot is rejected before anything is changed.
+     */
+    @Test(expected = IOException.class)
+    public void rejectsOtherData() throws IOException {
+        byte[] data = new byte[16];
+        Arrays.fill(data, (byte) 0x20);
+        LibrarySnapshot.restore(target, new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Creates the album bought today.
+     *
+     * @param title the title of the album.
+     * @param genre the genre of the album.
+     * @return the album.
+     */
+    private static Album album(String title, String genre) {
+        Album album = new Album();
+        album.artist = "Artist";
+        album.title = title;
+        album.year = 2000;
+        album.genre = genre;
+        album.purchase.date = new Date(0);
+        album.purchase.price = 10;
+        album.purchase.currency = "EUR";
+        return album;
+    }
+
+    /**
+     * Finds the listed album by its title, together with its track list.
+     *
+     * @param adapter the database.
+     * @param title the title of the album.
+     * @return the album or {@code null} if it isn't listed.
+     */
+    private static Album find(DatabaseAdapter adapter, String title) {
+        try (AlbumCursor c = adapter.getCursor()) {
+            while (c.moveToNext()) {
+                Album album = c.getAlbum();
+                if (title.equals(album.title)) {
+                    c.loadTracks(album);
+                    return album;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,265 @@
+package eu.tivian.musico.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import eu.tivian.musico.data.Album;
+import eu.tivian.musico.sync.LoopbackTransport;
+import eu.tivian.musico.sync.SyncClient;
+import eu.tivian.musico.sync.SyncMessage;
+import eu.tivian.musico.sync.SyncServer;
+
+import static eu.tivian.musico.database.DatabaseContract.AlbumEntry;
+import static eu.tivian.musico.database.DatabaseContract.GenreEntry;
+import static eu.tivian.musico.database.DatabaseContract.PurchaseEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Synchronizes two databases through the {@link LoopbackTransport},
+ *  running the whole exchange of the {@link SyncClient}, {@link SyncServer} and {@link LibrarySync}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LibrarySyncTest {
+    /**
+     * The database of the device starting the synchronization.
+     */
+    private DatabaseAdapter client;
+
+    /**
+     * The database of the device answering the requests.
+     */
+    private DatabaseAdapter server;
+
+    /**
+     * Opens both databases.
+     */
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        client = DatabaseAdapter.open(context, "client.db");
+        server = DatabaseAdapter.open(context, "server.db");
+    }
+
+    /**
+     * Closes both databases.
+     */
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * The first synchronization copies both collections, pushing the albums of the client in several pages.
+     */
+    @Test
+    public void firstSyncCopiesBothCollections() throws IOException {
+        List<Album> albums = new ArrayList<>();
+        for (int i = 0; i < SyncMessage.MAX_RECORDS * 3 / 2; i++)
+            albums.add(album("Client " + i, "Rock"));
+        albums.get(0).cover = new byte[] { 1, 2, 3 };
+        client.addAll(albums);
+        server.add(album("Server", "Jazz"));
+
+        SyncClient.Result result = sync();
+
+        assertEquals(albums.size(), result.sent);
+        assertEquals(albums.size() + 1, count(client));
+        assertEquals(albums.size() + 1, count(server));
+        assertEquals("Jazz", genre(client, "Server"));
+        assertNotNull(coverHash(server, "Client 0"));
+    }
+
+    /**
+     * The fields changed on different devices are both kept.
+     */
+    @Test
+    public void mergesFieldsChangedOnDifferentDevices() throws IOException {
+        client.add(album("Shared", "Rock"));
+        sync();
+
+        Album local = album("Shared", "Blues");
+        local.id = id(client, "Shared");
+        client.update(local);
+
+        Album remote = album("Shared", "Rock");
+        remote.id = id(server, "Shared");
+        remote.purchase.price = 42;
+        server.update(remote);
+
+        SyncClient.Result result = sync();
+
+        assertEquals(0, result.conflicts);
+        for (DatabaseAdapter adapter : new DatabaseAdapter[] { client, server }) {
+            assertEquals("Blues", genre(adapter, "Shared"));
+            assertEquals(42, price(adapter, "Shared"), 0);
+        }
+    }
+
+    /**
+     * The field changed on both devices takes the value of the server.
+     */
+    @Test
+    public void resolvesConflictInFavourOfServer() throws IOException {
+        client.add(album("Shared", "Rock"));
+        sync();
+
+        Album local = album("Shared", "Blues");
+        local.id = id(client, "Shared");
+        client.update(local);
+
+        Album remote = album("Shared", "Jazz");
+        remote.id = id(server, "Shared");
+        server.update(remote);
+
+        SyncClient.Result result = sync();
+
+        assertEquals(1, result.conflicts);
+        assertEquals("Jazz", genre(client, "Shared"));
+        assertEquals("Jazz", genre(server, "Shared"));
+    }
+
+    /**
+     * The album deleted on one device and not changed on the other is deleted on both.
+     */
+    @Test
+    public void propagatesDeletion() throws IOException {
+        client.add(album("Kept", "Rock"));
+        client.add(album("Deleted", "Rock"));
+        sync();
+
+        client.delete(id(client, "Deleted"));
+        sync();
+
+        assertEquals(1, count(client));
+        assertEquals(1, count(server));
+    }
+
+    /**
+     * Synchronizes the client with the server.
+     *
+     * @return the summary of the synchronization.
+     * @throws IOException if the synchronization failed.
+     */
+    private SyncClient.Result sync() throws IOException {
+        return new SyncClient(client).sync(new LoopbackTransport(new SyncServer(server)));
+    }
+
+    /**
+     * Creates the album bought today.
+     *
+     * @param title the title of the album.
+     * @param genre the genre of the album.
+     * @return the album.
+     */
+    private static Album album(String title, String genre) {
+        Album album = new Album();
+        album.artist = "Artist";
+        album.title = title;
+        album.year = 2000;
+        album.genre = genre;
+        album.purchase.date = new Date(0);
+        album.purchase.price = 10;
+        album.purchase.currency = "EUR";
+        return album;
+    }
+
+    /**
+     * Gets the ID of the album.
+     *
+     * @param adapter the database.
+     * @param title the title of the album.
+     * @return the ID of the album.
+     */
+    private static long id(DatabaseAdapter adapter, String title) {
+        return Long.parseLong(select(adapter, AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID, title));
+    }
+
+    /**
+     * Gets the genre of the album.
+     *
+     * @param adapter the database.
+     * @param title the title of the album.
+     * @return the name of the genre.
+     */
+    private static String genre(DatabaseAdapter adapter, String title) {
+        return select(adapter, GenreEntry.TABLE_NAME + "." + GenreEntry.COLUMN_NAME, title);
+    }
+
+    /**
+     * Gets the price of the album.
+     *
+     * @param adapter the database.
+     * @param title the title of the album.
+     * @return the price of the album.
+     */
+    private static double price(DatabaseAdapter adapter, String title) {
+        return Double.parseDouble(select(adapter, PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_PRICE, title));
+    }
+
+    /**
+     * Gets the hash of the cover art of the album.
+     *
+     * @param adapter the database.
+     * @param title the title of the album.
+     * @return the hash or {@code null} if the album has no image.
+     */
+    private static String coverHash(DatabaseAdapter adapter, String title) {
+        return select(adapter, AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_COVER_HASH, title);
+    }
+
+    /**
+     * Selects the single column of the album which isn't deleted.
+     *
+     * @param adapter the database.
+     * @param column the qualified column.
+     * @param title the title of the album.
+     * @return the value of the column.
+     */
+    private static String select(DatabaseAdapter adapter, String column, String title) {
+        try (Cursor c = adapter.query("SELECT " + column + " " +
+                "FROM " + AlbumEntry.TABLE_NAME + " " +
+                "JOIN " + GenreEntry.TABLE_NAME + " " +
+                  "ON " + GenreEntry.TABLE_NAME + "." + GenreEntry._ID + " = "
+                        + AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_GENRE_ID + " " +
+                "JOIN " + PurchaseEntry.TABLE_NAME + " " +
+                  "ON " + PurchaseEntry.TABLE_NAME + "." + PurchaseEntry.COLUMN_ALBUM_ID + " = "
+                        + AlbumEntry.TABLE_NAME + "." + AlbumEntry._ID + " " +
+                "WHERE " + AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_TITLE + " = ? " +
+                  "AND " + AlbumEntry.TABLE_NAME + "." + AlbumEntry.COLUMN_DELETED + " IS NULL", title)) {
+            assertEquals(1, c.getCount());
+            c.moveToFirst();
+            return c.getString(0);
+        }
+    }
+
+    /**
+     * Counts the albums which aren't deleted.
+     *
+     * @param adapter the database.
+     * @return the number of the albums.
+     */
+    private static int count(DatabaseAdapter adapter) {
+        try (Cursor c = adapter.query("SELECT COUNT(*) FROM " + AlbumEntry.TABLE_NAME + " " +
+                "WHERE " + AlbumEntry.COLUMN_DELETED + " IS NULL")) {
+            c.moveToFirst();
+            return c.getInt(0);
+        }
+    }
+}
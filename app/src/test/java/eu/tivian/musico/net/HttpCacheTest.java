@@ -0,0 +1,290 @@
+package eu.tivian.musico.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Fetches the responses of the local stub server through the {@link HttpCache}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class HttpCacheTest {
+    /**
+     * Time-to-live long enough for the response to stay fresh during the test.
+     */
+    private static final long FRESH = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The directory of the cache files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The stub server.
+     */
+    private HttpServer server;
+
+    /**
+     * The number of the requests received by the server.
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * The size of the body of every {@code 200} response.
+     */
+    private volatile int bodySize = 1000;
+
+    /**
+     * The {@code ETag} header sent by the server, or {@code null}.
+     */
+    private volatile String etag;
+
+    /**
+     * The {@code Last-Modified} header sent by the server, or {@code null}.
+     */
+    private volatile String lastModified;
+
+    /**
+     * Whether the conditional request is answered by {@code 304}.
+     */
+    private volatile boolean notModified;
+
+    /**
+     * The {@code If-None-Match} header of the last request.
+     */
+    private volatile String ifNoneMatch;
+
+    /**
+     * The {@code If-Modified-Since} header of the last request.
+     */
+    private volatile String ifModifiedSince;
+
+    /**
+     * Starts the server on the free local port.
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * The fresh response is returned without connecting to the server.
+     */
+    @Test
+    public void freshResponseMakesNoRequest() throws IOException {
+        HttpCache cache = install(HttpCache.DEFAULT_MAX_SIZE);
+
+        byte[] first = readAll(cache.fetch(connect("/album"), FRESH));
+        byte[] second = readAll(cache.fetch(connect("/album"), FRESH));
+
+        assertEquals(1, requests.get());
+        assertArrayEquals(body("/album"), first);
+        assertArrayEquals(first, second);
+    }
+
+    /**
+     * The stale response is revalidated by both validators, which are replaced by the ones of the {@code 304}.
+     */
+    @Test
+    public void revalidatesStaleResponse() throws IOException {
+        HttpCache cache = install(HttpCache.DEFAULT_MAX_SIZE);
+        etag = "\"v1\"";
+        lastModified = "Mon, 01 Jun 2020 10:00:00 GMT";
+        readAll(cache.fetch(connect("/album"), 0));
+
+        notModified = true;
+        etag = "\"v2\"";
+        lastModified = "Tue, 02 Jun 2020 10:00:00 GMT";
+        byte[] revalidated = readAll(cache.fetch(connect("/album"), 0));
+
+        assertEquals("\"v1\"", ifNoneMatch);
+        assertEquals("Mon, 01 Jun 2020 10:00:00 GMT", ifModifiedSince);
+        assertArrayEquals(body("/album"), revalidated);
+
+        readAll(cache.fetch(connect("/album"), 0));
+
+        assertEquals(3, requests.get());
+        assertEquals("\"v2\"", ifNoneMatch);
+        assertEquals("Tue, 02 Jun 2020 10:00:00 GMT", ifModifiedSince);
+    }
+
+    /**
+     * The least recently used response is removed when the cache grows beyond its size,
+     *  and reading the cached response counts as its use.
+     */
+    @Test
+    public void trimsLeastRecentlyUsedResponse() throws IOException {
+        // every file holds the body and less than a hundred bytes of the header, so eight files fit
+        HttpCache cache = install(8000);
+        bodySize = 900;
+        for (int i = 0; i < 8; i++)
+            readAll(cache.fetch(connect("/" + i), FRESH));
+        readAll(cache.fetch(connect("/0"), FRESH));
+        readAll(cache.fetch(connect("/8"), FRESH));
+        assertEquals(9, requests.get());
+
+        readAll(cache.fetch(connect("/0"), FRESH));
+        assertEquals(9, requests.get());
+
+        readAll(cache.fetch(connect("/1"), FRESH));
+        assertEquals(10, requests.get());
+    }
+
+    /**
+     * The body abandoned by the caller long before its end isn't cached.
+     */
+    @Test
+    public void doesNotCacheAbandonedBody() throws IOException {
+        HttpCache cache = install(HttpCache.DEFAULT_MAX_SIZE);
+        bodySize = 5000;
+
+        try (InputStream in = cache.fetch(connect("/album"), FRESH)) {
+            assertNotNull(in);
+            assertEquals(body("/album")[0], (byte) in.read());
+        }
+        readAll(cache.fetch(connect("/album"), FRESH));
+
+        assertEquals(2, requests.get());
+    }
+
+    /**
+     * The body closed right before its end, like by the parser stopping at the closing bracket, is cached.
+     */
+    @Test
+    public void cachesBodyClosedBeforeItsEnd() throws IOException {
+        HttpCache cache = install(HttpCache.DEFAULT_MAX_SIZE);
+
+        try (InputStream in = cache.fetch(connect("/album"), FRESH)) {
+            byte[] buffer = new byte[bodySize - 10];
+            int read = 0;
+            while (read < buffer.length)
+                read += in.read(buffer, read, buffer.length - read);
+        }
+        byte[] cached = readAll(cache.fetch(connect("/album"), FRESH));
+
+        assertEquals(1, requests.get());
+        assertArrayEquals(body("/album"), cached);
+    }
+
+    /**
+     * Installs the empty cache.
+     *
+     * @param maxSize the maximal total size of the cache files, in bytes.
+     * @return the cache.
+     * @throws IOException if the directory couldn't be created.
+     */
+    private HttpCache install(long maxSize) throws IOException {
+        return HttpCache.install(folder.newFolder(), maxSize);
+    }
+
+    /**
+     * Creates the configured, but not yet connected connection to the server.
+     *
+     * @param path the path of the resource.
+     * @return the connection.
+     * @throws IOException if the connection couldn't be created.
+     */
+    private HttpURLConnection connect(String path) throws IOException {
+        URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        Transport.configure(conn);
+        return conn;
+    }
+
+    /**
+     * Answers the request of the client.
+     *
+     * @param exchange the request and the response.
+     * @throws IOException if any I/O error occurred.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+        if (etag != null)
+            exchange.getResponseHeaders().set("ETag", etag);
+        if (lastModified != null)
+            exchange.getResponseHeaders().set("Last-Modified", lastModified);
+
+        if (notModified && (ifNoneMatch != null || ifModifiedSince != null)) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body = body(exchange.getRequestURI().getPath());
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Creates the body of the resource.
+     *
+     * @param path the path of the resource.
+     * @return the body of the current {@link #bodySize}.
+     */
+    private byte[] body(String path) {
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) path.hashCode());
+        for (int i = 0; i < body.length; i += 7)
+            body[i] = (byte) i;
+        return body;
+    }
+
+    /**
+     * Reads the body to its end and closes it.
+     *
+     * @param in the body.
+     * @return the content of the body.
+     * @throws IOException if any I/O error occurred.
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        assertNotNull(in);
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = body.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+    }
+}